@@ -0,0 +1,81 @@
+package com.fsck.k9.mail;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Parses and packs address lists like the ones found in the {@code To} and {@code Cc} headers of mailing list
+ * messages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AddressBenchmark {
+    private static final String[] ADDRESS_TEMPLATES = {
+            "alice%d@example.com",
+            "\"Bob Example %d\" <bob%d@example.com>",
+            "=?UTF-8?Q?Bob_M=C3=BCller_%d?= <bob.mueller%d@example.de>",
+            "=?UTF-8?B?5L2Q6JekIOiKseWtkA==?= <hanako.sato%d@example.jp>",
+            "Carol Dupont <carol%d@example.fr>",
+            "\"O'Neil, Eve (%d)\" <eve%d@example.org>"
+    };
+
+
+    @Param({ "1", "50" })
+    public int addressCount;
+
+    private String addressList;
+    private String packedAddressList;
+    private Address[] addresses;
+
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < addressCount; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            String template = ADDRESS_TEMPLATES[i % ADDRESS_TEMPLATES.length];
+            sb.append(template.replace("%d", Integer.toString(i)));
+        }
+        addressList = sb.toString();
+        addresses = Address.parse(addressList);
+        packedAddressList = Address.pack(addresses);
+    }
+
+    @Benchmark
+    public Address[] parse() {
+        return Address.parse(addressList);
+    }
+
+    @Benchmark
+    public Address[] parseUnencoded() {
+        return Address.parseUnencoded(addressList);
+    }
+
+    @Benchmark
+    public String pack() {
+        return Address.pack(addresses);
+    }
+
+    @Benchmark
+    public Address[] unpack() {
+        return Address.unpack(packedAddressList);
+    }
+
+    @Benchmark
+    public String toEncodedString() {
+        return Address.toEncodedString(addresses);
+    }
+}
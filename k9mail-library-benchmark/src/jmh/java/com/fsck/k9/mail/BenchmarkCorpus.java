@@ -0,0 +1,61 @@
+package com.fsck.k9.mail;
+
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+
+/**
+ * Access to the recorded inputs in {@code src/jmh/resources/corpus}.
+ *
+ * <p>
+ * The files are stored with CRLF line endings (see {@code .gitattributes}) so they can be fed to the parsers as they
+ * are.
+ * </p>
+ */
+public class BenchmarkCorpus {
+    private static final String CORPUS_DIRECTORY = "/corpus/";
+
+
+    public static byte[] read(String name) throws IOException {
+        InputStream in = BenchmarkCorpus.class.getResourceAsStream(CORPUS_DIRECTORY + name);
+        if (in == null) {
+            throw new IOException("Missing corpus file: " + name);
+        }
+
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static List<String> readLines(String name) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(read(name)), "UTF-8"));
+
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    public static byte[] repeat(byte[] data, int count) {
+        byte[] result = new byte[data.length * count];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(data, 0, result, i * data.length, data.length);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,45 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Base64Benchmark {
+    @Param({ "1024", "65536", "1048576" })
+    public int size;
+
+
+    private byte[] data;
+    private byte[] encodedData;
+
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        encodedData = Base64.encodeBase64Chunked(data);
+    }
+
+    @Benchmark
+    public byte[] encodeChunked() {
+        return Base64.encodeBase64Chunked(data);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Base64.decodeBase64(encodedData);
+    }
+}
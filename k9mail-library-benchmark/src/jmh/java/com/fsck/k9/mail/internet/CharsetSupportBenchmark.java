@@ -0,0 +1,70 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.MessagingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Converts message text to a {@code String} the way text bodies are decoded for display.
+ *
+ * <p>
+ * {@code x-docomo-shift_jis-2007} isn't supported by the JVM, so it exercises the fallback to plain Shift JIS.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CharsetSupportBenchmark {
+    private static final int TEXT_REPETITIONS = 200;
+    private static final String LATIN_TEXT = "Anbei der Bericht für März. Die wichtigsten Änderungen " +
+            "betreffen die Übergabe der Geräte und die Größe des Büros.\r\n";
+    private static final String JAPANESE_TEXT = "会議の議事録をお送りします。来週の予定についてご確認ください。\r\n";
+
+
+    @Param({ "us-ascii", "iso-8859-1", "utf-8", "x-docomo-shift_jis-2007" })
+    public String charset;
+
+    private byte[] encodedText;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        String text;
+        String javaCharset;
+        if (charset.contains("shift_jis")) {
+            text = JAPANESE_TEXT;
+            javaCharset = "Shift_JIS";
+        } else {
+            text = LATIN_TEXT;
+            javaCharset = charset;
+        }
+
+        StringBuilder sb = new StringBuilder(text.length() * TEXT_REPETITIONS);
+        for (int i = 0; i < TEXT_REPETITIONS; i++) {
+            sb.append(text);
+        }
+        encodedText = sb.toString().getBytes(javaCharset);
+    }
+
+    @Benchmark
+    public String readToString() throws IOException {
+        return CharsetSupport.readToString(new ByteArrayInputStream(encodedText), charset);
+    }
+
+    @Benchmark
+    public String fixupCharset() throws MessagingException {
+        return CharsetSupport.fixupCharset(charset, null);
+    }
+}
@@ -0,0 +1,76 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.BenchmarkCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Decodes header values containing RFC 2047 encoded words.
+ *
+ * <p>
+ * One operation decodes all values from {@code encoded-headers.txt}.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HeaderDecodingBenchmark {
+    private static final String[] CONTENT_TYPES = {
+            "text/plain; charset=utf-8; format=flowed",
+            "multipart/alternative; boundary=\"----=_Part_1488878098\"",
+            "application/pdf;\r\n name=\"=?UTF-8?Q?Bericht_M=C3=A4rz.pdf?=\"",
+            "text/html; charset=\"ISO-8859-1\"",
+            "multipart/signed; micalg=pgp-sha256;\r\n protocol=\"application/pgp-signature\"; boundary=\"sig\""
+    };
+
+
+    private List<String> encodedValues;
+    private List<String> foldedValues;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        encodedValues = BenchmarkCorpus.readLines("encoded-headers.txt");
+
+        foldedValues = new ArrayList<>(encodedValues.size());
+        for (String value : encodedValues) {
+            foldedValues.add(value.replace(" =?", "\r\n =?"));
+        }
+    }
+
+    @Benchmark
+    public void decodeEncodedWords(Blackhole blackhole) {
+        for (String value : encodedValues) {
+            blackhole.consume(DecoderUtil.decodeEncodedWords(value, null));
+        }
+    }
+
+    @Benchmark
+    public void unfoldAndDecode(Blackhole blackhole) {
+        for (String value : foldedValues) {
+            blackhole.consume(MimeUtility.unfoldAndDecode(value));
+        }
+    }
+
+    @Benchmark
+    public void getHeaderParameter(Blackhole blackhole) {
+        for (String contentType : CONTENT_TYPES) {
+            blackhole.consume(MimeUtility.getHeaderParameter(contentType, null));
+            blackhole.consume(MimeUtility.getHeaderParameter(contentType, "charset"));
+            blackhole.consume(MimeUtility.getHeaderParameter(contentType, "boundary"));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.BenchmarkCorpus;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.filter.Base64;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * Parses complete messages with {@link MimeMessage#parseMimeMessage(java.io.InputStream, boolean)}.
+ *
+ * <p>
+ * Bodies are written to {@link BinaryTempFileBody} instances, just like when a message is downloaded, so the
+ * numbers include the file I/O. The temporary files are deleted after every iteration.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MimeMessageParseBenchmark {
+    private static final int ATTACHMENT_SIZE = 1024 * 1024;
+
+
+    private File tempDirectory;
+    private byte[] multipartMessage;
+    private byte[] largeAttachmentMessage;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        tempDirectory = File.createTempFile("k9-benchmark", null);
+        if (!tempDirectory.delete() || !tempDirectory.mkdir()) {
+            throw new IOException("Couldn't create temporary directory " + tempDirectory);
+        }
+        BinaryTempFileBody.setTempDirectory(tempDirectory);
+
+        multipartMessage = BenchmarkCorpus.read("multipart-message.eml");
+        largeAttachmentMessage = createLargeAttachmentMessage();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteTemporaryFiles() throws IOException {
+        FileUtils.cleanDirectory(tempDirectory);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    @Benchmark
+    public MimeMessage parseMultipartMessage() throws IOException, MessagingException {
+        return MimeMessage.parseMimeMessage(new ByteArrayInputStream(multipartMessage), true);
+    }
+
+    @Benchmark
+    public MimeMessage parseLargeAttachmentMessage() throws IOException, MessagingException {
+        return MimeMessage.parseMimeMessage(new ByteArrayInputStream(largeAttachmentMessage), true);
+    }
+
+    private static byte[] createLargeAttachmentMessage() throws IOException {
+        byte[] attachment = new byte[ATTACHMENT_SIZE];
+        new Random(42).nextBytes(attachment);
+
+        String message = "From: alice@example.com\r\n" +
+                "To: bob@example.com\r\n" +
+                "Subject: Large attachment\r\n" +
+                "Date: Tue, 07 Mar 2017 10:14:58 +0100\r\n" +
+                "Message-ID: <large-attachment@example.com>\r\n" +
+                "MIME-Version: 1.0\r\n" +
+                "Content-Type: multipart/mixed; boundary=\"boundary\"\r\n" +
+                "\r\n" +
+                "--boundary\r\n" +
+                "Content-Type: text/plain; charset=utf-8\r\n" +
+                "\r\n" +
+                "See attachment.\r\n" +
+                "--boundary\r\n" +
+                "Content-Type: application/octet-stream; name=\"attachment.bin\"\r\n" +
+                "Content-Transfer-Encoding: base64\r\n" +
+                "Content-Disposition: attachment; filename=\"attachment.bin\"\r\n" +
+                "\r\n" +
+                new String(Base64.encodeBase64Chunked(attachment), "US-ASCII") +
+                "--boundary--\r\n";
+
+        return message.getBytes("US-ASCII");
+    }
+}
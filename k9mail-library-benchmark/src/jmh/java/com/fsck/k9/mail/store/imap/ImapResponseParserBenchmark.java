@@ -0,0 +1,83 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.BenchmarkCorpus;
+import com.fsck.k9.mail.filter.PeekableInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Parses server responses like the ones received while synchronizing a folder.
+ *
+ * <p>
+ * {@code fetch-transcript.imap} contains the untagged responses to a {@code UID FETCH} of envelope data. It's
+ * repeated to get a transcript of about 1000 messages. One operation parses the complete transcript.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ImapResponseParserBenchmark {
+    private static final int TRANSCRIPT_COPIES = 50;
+    private static final int LITERAL_SIZE = 1024 * 1024;
+
+
+    private byte[] fetchTranscript;
+    private byte[] largeLiteralResponse;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        fetchTranscript = BenchmarkCorpus.repeat(BenchmarkCorpus.read("fetch-transcript.imap"), TRANSCRIPT_COPIES);
+        largeLiteralResponse = createLargeLiteralResponse();
+    }
+
+    @Benchmark
+    public int parseFetchTranscript() throws IOException {
+        return readAllResponses(fetchTranscript);
+    }
+
+    @Benchmark
+    public int parseLargeLiteral() throws IOException {
+        return readAllResponses(largeLiteralResponse);
+    }
+
+    private static int readAllResponses(byte[] data) throws IOException {
+        PeekableInputStream inputStream = new PeekableInputStream(new ByteArrayInputStream(data));
+        ImapResponseParser parser = new ImapResponseParser(inputStream);
+
+        int responseCount = 0;
+        while (inputStream.peek() != -1) {
+            parser.readResponse();
+            responseCount++;
+        }
+        return responseCount;
+    }
+
+    private static byte[] createLargeLiteralResponse() throws IOException {
+        byte[] literal = new byte[LITERAL_SIZE];
+        Random random = new Random(42);
+        for (int i = 0; i < literal.length; i++) {
+            // Printable ASCII, like a base64 encoded attachment
+            literal[i] = (byte) (' ' + random.nextInt(95));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(LITERAL_SIZE + 100);
+        out.write(("* 1 FETCH (UID 1 BODY[] {" + LITERAL_SIZE + "}\r\n").getBytes("US-ASCII"));
+        out.write(literal);
+        out.write(")\r\n2 OK UID FETCH completed\r\n".getBytes("US-ASCII"));
+        return out.toByteArray();
+    }
+}
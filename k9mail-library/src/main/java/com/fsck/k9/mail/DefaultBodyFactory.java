@@ -9,6 +9,11 @@ import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.internet.BinaryTempFileMessageBody;
 import com.fsck.k9.mail.internet.MimeUtility;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.james.mime4j.codec.Base64InputStream;
+import org.apache.james.mime4j.codec.QuotedPrintableInputStream;
 import org.apache.james.mime4j.util.MimeUtil;
 
 
@@ -29,7 +34,18 @@ public class DefaultBodyFactory implements BodyFactory {
 
         OutputStream outputStream = tempBody.getOutputStream();
         try {
-            copyData(inputStream, outputStream);
+            // Write the raw data to the temporary file while counting the decoded size, so the body doesn't have
+            // to be read again when it is saved to the local store.
+            InputStream rawInputStream = new TeeInputStream(inputStream, outputStream);
+            InputStream decodingInputStream = getDecodingInputStream(rawInputStream, contentTransferEncoding);
+            CountingOutputStream countingOutputStream = new CountingOutputStream(new NullOutputStream());
+
+            copyData(decodingInputStream, countingOutputStream);
+
+            // The decoder might stop before the end of the raw data, e.g. after base64 padding
+            IOUtils.copy(rawInputStream, new NullOutputStream());
+
+            tempBody.setDecodedSize(countingOutputStream.getByteCount());
         } finally {
             outputStream.close();
         }
@@ -37,6 +53,16 @@ public class DefaultBodyFactory implements BodyFactory {
         return tempBody;
     }
 
+    private static InputStream getDecodingInputStream(InputStream rawInputStream, String contentTransferEncoding) {
+        if (MimeUtil.ENC_BASE64.equalsIgnoreCase(contentTransferEncoding)) {
+            return new Base64InputStream(rawInputStream);
+        } else if (MimeUtil.ENC_QUOTED_PRINTABLE.equalsIgnoreCase(contentTransferEncoding)) {
+            return new QuotedPrintableInputStream(rawInputStream);
+        }
+
+        return rawInputStream;
+    }
+
     protected void copyData(InputStream inputStream, OutputStream outputStream) throws IOException {
         IOUtils.copy(inputStream, outputStream);
     }
@@ -34,6 +34,37 @@ public abstract class Folder<T extends Message> {
      */
     public abstract void open(int mode) throws MessagingException;
 
+    /**
+     * Opens the folder and retrieves the changes since the state recorded after the last synchronization.
+     *
+     * @param mode READ_ONLY or READ_WRITE
+     * @param knownUidValidity The UIDVALIDITY value recorded after the last synchronization, or -1.
+     * @param knownHighestModSeq The HIGHESTMODSEQ value recorded after the last synchronization, or -1.
+     *
+     * @return The changes since {@code knownHighestModSeq} or {@code null} if they can't be determined. In the latter
+     *         case the folder has still been opened and a full synchronization is necessary.
+     */
+    public FolderChanges<T> openAndGetChangesSince(int mode, long knownUidValidity, long knownHighestModSeq)
+            throws MessagingException {
+        open(mode);
+        return null;
+    }
+
+    /**
+     * @return The UIDVALIDITY value reported when the folder was opened, or -1 if unknown.
+     */
+    public long getUidValidity() {
+        return -1L;
+    }
+
+    /**
+     * @return The HIGHESTMODSEQ value reported when the folder was opened, or -1 if the folder doesn't support
+     *         modification sequences.
+     */
+    public long getHighestModSeq() {
+        return -1L;
+    }
+
     /**
      * Forces a close of the MailProvider. Any further access will attempt to
      * reopen the MailProvider.
@@ -116,6 +147,17 @@ public abstract class Folder<T extends Message> {
     public void expunge() throws MessagingException
         {}
 
+    /**
+     * Permanently removes the given messages if they have been marked as deleted.
+     *
+     * <p>
+     * Stores that can't restrict expunging to specific messages remove all messages marked as deleted.
+     * </p>
+     */
+    public void expungeUids(List<String> uids) throws MessagingException {
+        expunge();
+    }
+
     /**
      * Populate a list of messages based upon a FetchProfile.  See {@link FetchProfile} for the things that can
      * be fetched.
@@ -156,6 +198,14 @@ public abstract class Folder<T extends Message> {
         return true;
     }
 
+    /**
+     * @return {@code true} if {@link #moveMessages(List, Folder)} removes the messages from this folder right away,
+     *         so they don't have to be expunged afterwards.
+     */
+    public boolean isMoveRemovingMessages() {
+        return false;
+    }
+
     @Override
     public String toString() {
         return getName();
@@ -0,0 +1,67 @@
+package com.fsck.k9.mail;
+
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Changes to a remote folder since a previously recorded modification sequence (RFC 7162).
+ *
+ * <p>
+ * Changed messages only carry the UID and the current flags. Depending on the server's capabilities expunged
+ * messages might not be reported. In that case {@link #isExpungeInfoComplete()} returns {@code false} and the
+ * caller has to find removed messages by other means.
+ * </p>
+ */
+public class FolderChanges<T extends Message> {
+    private final long uidValidity;
+    private final long highestModSeq;
+    private final boolean expungeInfoComplete;
+    private final UidRangeSet vanishedUids;
+    private final List<T> changedMessages;
+
+
+    public FolderChanges(long uidValidity, long highestModSeq, boolean expungeInfoComplete,
+            UidRangeSet vanishedUids, List<T> changedMessages) {
+        this.uidValidity = uidValidity;
+        this.highestModSeq = highestModSeq;
+        this.expungeInfoComplete = expungeInfoComplete;
+        this.vanishedUids = vanishedUids;
+        this.changedMessages = Collections.unmodifiableList(changedMessages);
+    }
+
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    /**
+     * @return {@code true} if {@link #getVanishedUids()} contains all messages that have been expunged since the
+     *         previously recorded modification sequence.
+     */
+    public boolean isExpungeInfoComplete() {
+        return expungeInfoComplete;
+    }
+
+    /**
+     * @return The UIDs of expunged messages. This might include UIDs that were never known to the caller.
+     */
+    public UidRangeSet getVanishedUids() {
+        return vanishedUids;
+    }
+
+    /**
+     * @return Messages that were added or whose flags were changed. The flags of these messages have been set.
+     */
+    public List<T> getChangedMessages() {
+        return changedMessages;
+    }
+
+    public boolean isEmpty() {
+        return vanishedUids.isEmpty() && changedMessages.isEmpty();
+    }
+}
@@ -62,6 +62,14 @@ public abstract class Transport {
 
     public abstract void open() throws MessagingException;
 
+    /**
+     * Sends a message, opening a connection if necessary.
+     *
+     * <p>
+     * Implementations may keep the connection open so that sending more messages is cheaper. Call {@link #close()}
+     * after the last message.
+     * </p>
+     */
     public abstract void sendMessage(Message message) throws MessagingException;
 
     public abstract void close();
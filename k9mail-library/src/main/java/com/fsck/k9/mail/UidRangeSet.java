@@ -0,0 +1,156 @@
+package com.fsck.k9.mail;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * A set of numeric message UIDs that is stored as ranges.
+ *
+ * <p>
+ * Servers are free to report large UID ranges, e.g. {@code 1:4000000000}, so the ranges are never expanded into
+ * individual UIDs. Use {@link #intersect(Collection)} to find the members of a set of known UIDs.
+ * </p>
+ */
+public class UidRangeSet {
+    public static final UidRangeSet EMPTY = new UidRangeSet(Collections.<long[]>emptyList());
+
+
+    private final long[] firstUids;
+    private final long[] lastUids;
+
+
+    /**
+     * @param ranges
+     *         Ranges as {@code {first, last}} pairs. They may overlap and don't need to be sorted.
+     */
+    public UidRangeSet(List<long[]> ranges) {
+        List<long[]> sortedRanges = new ArrayList<>(ranges.size());
+        for (long[] range : ranges) {
+            sortedRanges.add(new long[] { Math.min(range[0], range[1]), Math.max(range[0], range[1]) });
+        }
+        Collections.sort(sortedRanges, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] lhs, long[] rhs) {
+                return lhs[0] < rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1);
+            }
+        });
+
+        long[] firsts = new long[sortedRanges.size()];
+        long[] lasts = new long[sortedRanges.size()];
+        int count = 0;
+        for (long[] range : sortedRanges) {
+            if (count > 0 && range[0] <= lasts[count - 1] + 1) {
+                lasts[count - 1] = Math.max(lasts[count - 1], range[1]);
+            } else {
+                firsts[count] = range[0];
+                lasts[count] = range[1];
+                count++;
+            }
+        }
+
+        firstUids = Arrays.copyOf(firsts, count);
+        lastUids = Arrays.copyOf(lasts, count);
+    }
+
+    public static UidRangeSet fromUids(Collection<String> uids) {
+        List<long[]> ranges = new ArrayList<>(uids.size());
+        for (String uid : uids) {
+            long value = parseUid(uid);
+            if (value != -1L) {
+                ranges.add(new long[] { value, value });
+            }
+        }
+
+        return new UidRangeSet(ranges);
+    }
+
+    public boolean contains(String uid) {
+        long value = parseUid(uid);
+        return value != -1L && contains(value);
+    }
+
+    public boolean contains(long uid) {
+        int index = Arrays.binarySearch(firstUids, uid);
+        if (index >= 0) {
+            return true;
+        }
+
+        int rangeIndex = -index - 2;
+        return rangeIndex >= 0 && uid <= lastUids[rangeIndex];
+    }
+
+    public UidRangeSet union(UidRangeSet other) {
+        List<long[]> ranges = new ArrayList<>(firstUids.length + other.firstUids.length);
+        addRanges(ranges);
+        other.addRanges(ranges);
+
+        return new UidRangeSet(ranges);
+    }
+
+    private void addRanges(List<long[]> ranges) {
+        for (int i = 0; i < firstUids.length; i++) {
+            ranges.add(new long[] { firstUids[i], lastUids[i] });
+        }
+    }
+
+    /**
+     * @return The members of {@code uids} that are contained in this set, in the order of {@code uids}.
+     */
+    public List<String> intersect(Collection<String> uids) {
+        List<String> result = new ArrayList<>();
+        for (String uid : uids) {
+            if (contains(uid)) {
+                result.add(uid);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return The number of UIDs in this set.
+     */
+    public long size() {
+        long size = 0;
+        for (int i = 0; i < firstUids.length; i++) {
+            size += lastUids[i] - firstUids[i] + 1;
+        }
+
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return firstUids.length == 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < firstUids.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(firstUids[i]);
+            if (lastUids[i] != firstUids[i]) {
+                sb.append(':').append(lastUids[i]);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static long parseUid(String uid) {
+        try {
+            long value = Long.parseLong(uid);
+            return value >= 0 ? value : -1L;
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+}
@@ -60,6 +60,11 @@ public class PeekableInputStream extends FilterInputStream {
         return read(buffer, 0, buffer.length);
     }
 
+    @Override
+    public int available() throws IOException {
+        return (peeked ? 1 : 0) + in.available();
+    }
+
     @Override
     public String toString() {
         return String.format(Locale.US, "PeekableInputStream(in=%s, peeked=%b, peekedByte=%d)",
@@ -27,6 +27,7 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
     private static File mTempDirectory;
 
     private File mFile;
+    private long decodedSize = -1;
 
     String mEncoding = null;
 
@@ -124,6 +125,17 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
         return mFile;
     }
 
+    /**
+     * @return The size of the body after removing the transfer encoding, or {@code -1} if it is unknown.
+     */
+    public long getDecodedSize() {
+        return decodedSize;
+    }
+
+    public void setDecodedSize(long decodedSize) {
+        this.decodedSize = decodedSize;
+    }
+
     class BinaryTempFileBodyInputStream extends FilterInputStream {
         public BinaryTempFileBodyInputStream(InputStream in) {
             super(in);
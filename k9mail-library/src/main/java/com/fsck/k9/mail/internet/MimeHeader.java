@@ -17,29 +17,56 @@ public class MimeHeader implements Cloneable {
     public static final String HEADER_CONTENT_DISPOSITION = "Content-Disposition";
     public static final String HEADER_CONTENT_ID = "Content-ID";
 
+    private static final String[] EMPTY_VALUES = new String[0];
+
     private List<Field> mFields = new ArrayList<Field>();
+    /**
+     * The fields in {@link #mFields} grouped by their lower-case name, for lookups that don't have to scan all fields.
+     */
+    private Map<String, FieldGroup> mFieldsByName = new HashMap<String, FieldGroup>();
     private String mCharset = null;
 
     public void clear() {
         mFields.clear();
+        mFieldsByName.clear();
     }
 
     public String getFirstHeader(String name) {
-        String[] header = getHeader(name);
-        if (header.length == 0) {
+        FieldGroup fieldGroup = getFieldGroup(name);
+        if (fieldGroup == null) {
             return null;
         }
-        return header[0];
+        return fieldGroup.fields.get(0).getValue();
     }
 
     public void addHeader(String name, String value) {
         Field field = Field.newNameValueField(name, MimeUtility.foldAndEncode(value));
-        mFields.add(field);
+        addField(field);
     }
 
     void addRawHeader(String name, String raw) {
         Field field = Field.newRawField(name, raw);
+        addField(field);
+    }
+
+    private void addField(Field field) {
         mFields.add(field);
+
+        String key = getKey(field.getName());
+        FieldGroup fieldGroup = mFieldsByName.get(key);
+        if (fieldGroup == null) {
+            fieldGroup = new FieldGroup();
+            mFieldsByName.put(key, fieldGroup);
+        }
+        fieldGroup.add(field);
+    }
+
+    private FieldGroup getFieldGroup(String name) {
+        return (name == null) ? null : mFieldsByName.get(getKey(name));
+    }
+
+    private static String getKey(String name) {
+        return name.toLowerCase(Locale.US);
     }
 
     public void setHeader(String name, String value) {
@@ -59,25 +86,28 @@ public class MimeHeader implements Cloneable {
         return names;
     }
 
+    /**
+     * @return The values of all header fields with the given name in the order they appear in the header. The
+     *         returned array is shared and must not be modified.
+     */
     @NonNull
     public String[] getHeader(String name) {
-        List<String> values = new ArrayList<String>();
-        for (Field field : mFields) {
-            if (field.getName().equalsIgnoreCase(name)) {
-                values.add(field.getValue());
-            }
+        FieldGroup fieldGroup = getFieldGroup(name);
+        if (fieldGroup == null) {
+            return EMPTY_VALUES;
         }
-        return values.toArray(new String[values.size()]);
+        return fieldGroup.getValues();
     }
 
     public void removeHeader(String name) {
-        List<Field> removeFields = new ArrayList<Field>();
-        for (Field field : mFields) {
-            if (field.getName().equalsIgnoreCase(name)) {
-                removeFields.add(field);
-            }
+        if (name == null) {
+            return;
+        }
+
+        FieldGroup fieldGroup = mFieldsByName.remove(getKey(name));
+        if (fieldGroup != null) {
+            mFields.removeAll(fieldGroup.fields);
         }
-        mFields.removeAll(removeFields);
     }
 
     public String toString() {
@@ -153,9 +183,29 @@ public class MimeHeader implements Cloneable {
         return false;
     }
 
+    private static class FieldGroup {
+        final List<Field> fields = new ArrayList<Field>(1);
+        private String[] values;
+
+        void add(Field field) {
+            fields.add(field);
+            values = null;
+        }
+
+        String[] getValues() {
+            if (values == null) {
+                values = new String[fields.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = fields.get(i).getValue();
+                }
+            }
+            return values;
+        }
+    }
+
     private static class Field {
         private final String name;
-        private final String value;
+        private String value;
         private final String raw;
 
         public static Field newNameValueField(String name, String value) {
@@ -195,10 +245,12 @@ public class MimeHeader implements Cloneable {
 
             int delimiterIndex = raw.indexOf(':');
             if (delimiterIndex == raw.length() - 1) {
-                return "";
+                value = "";
+            } else {
+                value = raw.substring(delimiterIndex + 1).trim();
             }
 
-            return raw.substring(delimiterIndex + 1).trim();
+            return value;
         }
 
         public String getRaw() {
@@ -223,7 +275,11 @@ public class MimeHeader implements Cloneable {
     public MimeHeader clone() {
         try {
             MimeHeader header = (MimeHeader) super.clone();
-            header.mFields = new ArrayList<Field>(mFields);
+            header.mFields = new ArrayList<Field>(mFields.size());
+            header.mFieldsByName = new HashMap<String, FieldGroup>();
+            for (Field field : mFields) {
+                header.addField(field);
+            }
             return header;
         } catch(CloneNotSupportedException e) {
             throw new AssertionError(e);
@@ -0,0 +1,93 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
+import org.apache.commons.io.IOUtils;
+import timber.log.Timber;
+
+
+/**
+ * A message rendered to a temp file, with all line breaks converted to CRLF.
+ *
+ * <p>
+ * Rendering a message base64-encodes all of its attachments. Transports that need to know the size of a message
+ * before sending it use this class so they only have to do that once. The temp file is deleted by {@link #close()}.
+ * </p>
+ */
+public class SpooledMessage implements Closeable {
+    private File file;
+    private final long size;
+
+
+    public static SpooledMessage create(Message message) throws IOException, MessagingException {
+        File file = File.createTempFile("spool", null, BinaryTempFileBody.getTempDirectory());
+        boolean success = false;
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                EOLConvertingOutputStream eolOut = new EOLConvertingOutputStream(out);
+                message.writeTo(eolOut);
+                eolOut.flush();
+            } finally {
+                out.close();
+            }
+
+            success = true;
+            return new SpooledMessage(file, file.length());
+        } finally {
+            if (!success) {
+                deleteFile(file);
+            }
+        }
+    }
+
+    private SpooledMessage(File file, long size) {
+        this.file = file;
+        this.size = size;
+    }
+
+    /**
+     * @return The number of bytes {@link #writeTo(OutputStream)} writes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        if (file == null) {
+            throw new IllegalStateException("Already closed");
+        }
+
+        InputStream in = new FileInputStream(file);
+        try {
+            IOUtils.copy(in, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (file != null) {
+            deleteFile(file);
+            file = null;
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (!file.delete()) {
+            Timber.w("Couldn't delete spool file %s", file.getAbsolutePath());
+        }
+    }
+}
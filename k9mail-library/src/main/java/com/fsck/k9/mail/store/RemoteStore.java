@@ -58,7 +58,7 @@ public abstract class RemoteStore extends Store {
                         (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE),
                         oAuth2TokenProvider);
             } else if (uri.startsWith("pop3")) {
-                store = new Pop3Store(storeConfig, new DefaultTrustedSocketFactory(context));
+                store = new Pop3Store(storeConfig, new DefaultTrustedSocketFactory(context), context.getCacheDir());
             } else if (uri.startsWith("webdav")) {
                 store = new WebDavStore(storeConfig, new WebDavHttpClient.WebDavHttpClientFactory());
             }
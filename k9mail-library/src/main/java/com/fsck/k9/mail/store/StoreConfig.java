@@ -32,4 +32,10 @@ public interface StoreConfig {
     int getDisplayCount();
 
     int getIdleRefreshMinutes();
+
+    /**
+     * The number of IMAP {@code UID FETCH} commands that may be sent before their responses have been read. Every
+     * command covers a window of up to 100 messages. Use {@code 1} to disable pipelining.
+     */
+    int getMaxPipelinedFetchCommands();
 }
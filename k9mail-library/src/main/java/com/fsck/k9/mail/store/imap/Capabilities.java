@@ -13,4 +13,10 @@ class Capabilities {
     public static final String COMPRESS_DEFLATE = "COMPRESS=DEFLATE";
     public static final String STARTTLS = "STARTTLS";
     public static final String SPECIAL_USE = "SPECIAL-USE";
+    public static final String ENABLE = "ENABLE";
+    public static final String CONDSTORE = "CONDSTORE";
+    public static final String QRESYNC = "QRESYNC";
+    public static final String MOVE = "MOVE";
+    public static final String UIDPLUS = "UIDPLUS";
+    public static final String NOTIFY = "NOTIFY";
 }
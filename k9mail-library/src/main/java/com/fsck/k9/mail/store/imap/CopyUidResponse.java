@@ -19,8 +19,34 @@ class CopyUidResponse {
     }
 
     public static CopyUidResponse parse(ImapResponse response) {
-        if (!response.isTagged() || response.size() < 2 || !equalsIgnoreCase(response.get(0), Responses.OK) ||
-                !response.isList(1)) {
+        if (!response.isTagged()) {
+            return null;
+        }
+
+        return parseOkResponse(response);
+    }
+
+    /**
+     * Looks for a {@code COPYUID} response code in all responses to a command.
+     *
+     * <p>
+     * The response to {@code UID MOVE} (RFC 6851) carries it in an untagged {@code OK} response, because the tagged
+     * response is only sent after the source messages have been expunged.
+     * </p>
+     */
+    public static CopyUidResponse parse(List<ImapResponse> responses) {
+        for (ImapResponse response : responses) {
+            CopyUidResponse copyUidResponse = parseOkResponse(response);
+            if (copyUidResponse != null) {
+                return copyUidResponse;
+            }
+        }
+
+        return null;
+    }
+
+    private static CopyUidResponse parseOkResponse(ImapResponse response) {
+        if (response.size() < 2 || !equalsIgnoreCase(response.get(0), Responses.OK) || !response.isList(1)) {
             return null;
         }
 
@@ -0,0 +1,353 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.K9MailLib;
+import timber.log.Timber;
+
+
+/**
+ * Waits for data on connections that are in the IDLE state, using a single thread for all of them.
+ *
+ * <p>
+ * Once the server accepted {@code IDLE}, {@link ImapFolderPusher} hands its connection's channel to
+ * {@link #watch(SocketChannel, long, Listener)} instead of blocking a thread in a read. The channel is switched to
+ * non-blocking mode and registered with a {@link Selector} until it becomes readable, the timeout expires or
+ * {@link Watch#wakeUp()} is called. The channel is then switched back to blocking mode before the listener is
+ * called, so the connection can be used as before.
+ * </p>
+ * <p>
+ * Nothing is read from the channel here. TLS and compression are still handled by the connection's streams, which
+ * is why the connection must not be used while it's watched.
+ * </p>
+ */
+class IdleEventLoop {
+    enum WakeUpReason {
+        READABLE,
+        TIMEOUT,
+        REQUESTED
+    }
+
+    interface Listener {
+        /**
+         * Called on the event loop thread. Implementations must not block and should hand off any work to another
+         * thread.
+         */
+        void onWakeUp(WakeUpReason reason);
+    }
+
+
+    private static IdleEventLoop instance;
+
+    private final Object lock = new Object();
+    private final List<Watch> pendingWatches = new ArrayList<>();
+    private final List<Watch> watches = new ArrayList<>();
+    private Selector selector;
+    private Thread thread;
+
+
+    static synchronized IdleEventLoop getInstance() {
+        if (instance == null) {
+            instance = new IdleEventLoop();
+        }
+        return instance;
+    }
+
+    /**
+     * Watches {@code channel} until it becomes readable or {@code timeoutMillis} have passed.
+     *
+     * <p>
+     * The event loop thread is started if necessary. It stops again when there is nothing left to watch.
+     * </p>
+     */
+    Watch watch(SocketChannel channel, long timeoutMillis, Listener listener) throws IOException {
+        Watch watch = new Watch(channel, currentTimeMillis() + timeoutMillis, listener);
+
+        Selector currentSelector;
+        synchronized (lock) {
+            if (thread == null) {
+                selector = Selector.open();
+                thread = new Thread(new EventLoopRunnable(selector), "IdleEventLoop");
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            pendingWatches.add(watch);
+            currentSelector = selector;
+        }
+
+        currentSelector.wakeup();
+
+        return watch;
+    }
+
+    int getWatchCount() {
+        synchronized (lock) {
+            return pendingWatches.size() + watches.size();
+        }
+    }
+
+    long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+
+    private class EventLoopRunnable implements Runnable {
+        private final Selector selector;
+
+
+        EventLoopRunnable(Selector selector) {
+            this.selector = selector;
+        }
+
+        @Override
+        public void run() {
+            if (K9MailLib.isDebug()) {
+                Timber.d("IDLE event loop started");
+            }
+
+            try {
+                while (registerPendingWatches()) {
+                    selector.select(getSelectTimeout());
+
+                    List<Watch> finishedWatches = new ArrayList<>();
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+
+                        Watch watch = (Watch) key.attachment();
+                        if (watch.finish(WakeUpReason.READABLE)) {
+                            finishedWatches.add(watch);
+                        }
+                    }
+
+                    collectWokenUpAndTimedOutWatches(finishedWatches);
+                    dispatch(finishedWatches);
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                Timber.e(e, "IDLE event loop failed");
+                abortAllWatches();
+            }
+
+            if (K9MailLib.isDebug()) {
+                Timber.d("IDLE event loop stopped");
+            }
+        }
+
+        /**
+         * @return {@code false} if there's nothing left to watch. The thread stops then.
+         */
+        private boolean registerPendingWatches() throws IOException {
+            List<Watch> finishedWatches = new ArrayList<>();
+
+            synchronized (lock) {
+                for (Watch watch : pendingWatches) {
+                    if (watch.wakeUpRequested) {
+                        watch.finish(WakeUpReason.REQUESTED);
+                        finishedWatches.add(watch);
+                        continue;
+                    }
+
+                    try {
+                        watch.channel.configureBlocking(false);
+                        watch.key = watch.channel.register(selector, SelectionKey.OP_READ, watch);
+                        watches.add(watch);
+                    } catch (IOException e) {
+                        // Let the listener find out what's wrong with the connection
+                        Timber.w(e, "Couldn't watch IDLE connection");
+                        watch.finish(WakeUpReason.READABLE);
+                        finishedWatches.add(watch);
+                    }
+                }
+                pendingWatches.clear();
+            }
+
+            dispatch(finishedWatches);
+
+            synchronized (lock) {
+                if (pendingWatches.isEmpty() && watches.isEmpty()) {
+                    thread = null;
+                    IdleEventLoop.this.selector = null;
+                    selector.close();
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private long getSelectTimeout() {
+            long nextTimeout = Long.MAX_VALUE;
+            synchronized (lock) {
+                for (Watch watch : watches) {
+                    nextTimeout = Math.min(nextTimeout, watch.timeoutTime);
+                }
+            }
+
+            // select(0) waits without a timeout
+            return Math.max(1L, nextTimeout - currentTimeMillis());
+        }
+
+        private void collectWokenUpAndTimedOutWatches(List<Watch> finishedWatches) {
+            long now = currentTimeMillis();
+
+            synchronized (lock) {
+                for (Watch watch : watches) {
+                    if (watch.wakeUpRequested && watch.finish(WakeUpReason.REQUESTED)) {
+                        finishedWatches.add(watch);
+                    } else if (watch.timeoutTime <= now && watch.finish(WakeUpReason.TIMEOUT)) {
+                        finishedWatches.add(watch);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Switches the channels of finished watches back to blocking mode and notifies the listeners.
+         */
+        private void dispatch(List<Watch> finishedWatches) throws IOException {
+            if (finishedWatches.isEmpty()) {
+                return;
+            }
+
+            boolean keysCancelled = false;
+            synchronized (lock) {
+                for (Watch watch : finishedWatches) {
+                    watches.remove(watch);
+                    if (watch.key != null) {
+                        watch.key.cancel();
+                        keysCancelled = true;
+                    }
+                }
+            }
+
+            if (keysCancelled) {
+                // Cancelled keys are only removed during the next selection operation. Until then the channels
+                // can't be switched back to blocking mode.
+                selector.selectNow();
+            }
+
+            for (Watch watch : finishedWatches) {
+                try {
+                    watch.channel.configureBlocking(true);
+                } catch (IOException e) {
+                    // The listener will notice when it tries to use the connection
+                    Timber.w(e, "Couldn't switch IDLE connection back to blocking mode");
+                }
+
+                notifyListener(watch);
+            }
+        }
+
+        private void abortAllWatches() {
+            List<Watch> abortedWatches = new ArrayList<>();
+            synchronized (lock) {
+                abortedWatches.addAll(pendingWatches);
+                abortedWatches.addAll(watches);
+                pendingWatches.clear();
+                watches.clear();
+
+                thread = null;
+                IdleEventLoop.this.selector = null;
+            }
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                Timber.w(e, "Couldn't close selector");
+            }
+
+            for (Watch watch : abortedWatches) {
+                if (watch.finish(WakeUpReason.REQUESTED)) {
+                    try {
+                        watch.channel.configureBlocking(true);
+                    } catch (IOException e) {
+                        Timber.w(e, "Couldn't switch IDLE connection back to blocking mode");
+                    }
+
+                    notifyListener(watch);
+                }
+            }
+        }
+
+        private void notifyListener(Watch watch) {
+            try {
+                watch.listener.onWakeUp(watch.reason);
+            } catch (RuntimeException e) {
+                Timber.e(e, "Error while waking up IDLE connection");
+            }
+        }
+    }
+
+    class Watch {
+        private final SocketChannel channel;
+        private final long timeoutTime;
+        private final Listener listener;
+        private SelectionKey key;
+        private boolean wakeUpRequested;
+        private boolean finished;
+        private WakeUpReason reason;
+
+
+        private Watch(SocketChannel channel, long timeoutTime, Listener listener) {
+            this.channel = channel;
+            this.timeoutTime = timeoutTime;
+            this.listener = listener;
+        }
+
+        /**
+         * Stops watching the channel and notifies the listener with {@link WakeUpReason#REQUESTED}, unless it's
+         * about to be notified for another reason.
+         *
+         * @return {@code false} if the listener has already been notified. The channel is back in blocking mode
+         *         then. Otherwise the channel must not be used until the listener is notified.
+         */
+        boolean wakeUp() {
+            Selector currentSelector;
+            synchronized (lock) {
+                if (finished) {
+                    // Might still be in non-blocking mode if the listener hasn't been notified yet
+                    return !isDispatched();
+                }
+
+                wakeUpRequested = true;
+                currentSelector = selector;
+            }
+
+            if (currentSelector != null) {
+                currentSelector.wakeup();
+            }
+
+            return true;
+        }
+
+        private boolean isDispatched() {
+            return finished && channel.isBlocking();
+        }
+
+        /**
+         * @return {@code true} if the watch wasn't finished yet.
+         */
+        private boolean finish(WakeUpReason reason) {
+            synchronized (lock) {
+                if (finished) {
+                    return false;
+                }
+
+                finished = true;
+                this.reason = reason;
+                return true;
+            }
+        }
+    }
+}
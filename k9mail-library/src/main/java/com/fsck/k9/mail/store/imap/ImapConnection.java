@@ -12,6 +12,7 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
@@ -67,6 +68,7 @@ class ImapConnection {
     private final int socketConnectTimeout;
     private final int socketReadTimeout;
 
+    private SocketChannel socketChannel;
     private Socket socket;
     private PeekableInputStream inputStream;
     private OutputStream outputStream;
@@ -77,6 +79,8 @@ class ImapConnection {
     private Exception stacktraceForClose;
     private boolean open = false;
     private boolean retryXoauth2WithNewToken = true;
+    private boolean qresyncEnabled = false;
+    private SelectedFolderState selectedFolderState;
 
 
     public ImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
@@ -130,6 +134,7 @@ class ImapConnection {
             extractOrRequestCapabilities(responses);
 
             enableCompressionIfRequested();
+            enableQresyncIfSupported();
 
             retrievePathPrefixIfNecessary();
             retrievePathDelimiterIfNecessary();
@@ -173,6 +178,25 @@ class ImapConnection {
                 socket.isConnected() && !socket.isClosed();
     }
 
+    /**
+     * @return {@code true} if {@link #close()} has been called. A connection that hasn't been opened yet isn't
+     * closed.
+     */
+    boolean isClosed() {
+        return stacktraceForClose != null;
+    }
+
+    /**
+     * @return The folder that is currently selected on this connection or {@code null}.
+     */
+    SelectedFolderState getSelectedFolderState() {
+        return selectedFolderState;
+    }
+
+    void setSelectedFolderState(SelectedFolderState selectedFolderState) {
+        this.selectedFolderState = selectedFolderState;
+    }
+
     private void adjustDNSCacheTTL() {
         try {
             Security.setProperty("networkaddress.cache.ttl", "0");
@@ -216,16 +240,22 @@ class ImapConnection {
 
         SocketAddress socketAddress = new InetSocketAddress(address, port);
 
-        Socket socket;
-        if (settings.getConnectionSecurity() == ConnectionSecurity.SSL_TLS_REQUIRED) {
-            socket = socketFactory.createSocket(null, host, port, clientCertificateAlias);
-        } else {
-            socket = new Socket();
-        }
+        // Sockets are created from a channel so IdleEventLoop can wait for data while the connection is idling
+        SocketChannel channel = SocketChannel.open();
+        try {
+            Socket socket = channel.socket();
+            socket.connect(socketAddress, socketConnectTimeout);
 
-        socket.connect(socketAddress, socketConnectTimeout);
+            if (settings.getConnectionSecurity() == ConnectionSecurity.SSL_TLS_REQUIRED) {
+                socket = socketFactory.createSocket(socket, host, port, clientCertificateAlias);
+            }
 
-        return socket;
+            socketChannel = channel;
+            return socket;
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            IOUtils.closeQuietly(channel);
+            throw e;
+        }
     }
 
     private void configureSocket() throws SocketException {
@@ -444,7 +474,7 @@ class ImapConnection {
         String tag = sendCommand(command, false);
 
         ImapResponse response = readContinuationResponse(tag);
-        if (response.size() != 1 || !(response.get(0) instanceof String)) {
+        if (response.size() != 1 || !response.isString(0)) {
             throw new MessagingException("Invalid Cram-MD5 nonce received");
         }
 
@@ -586,7 +616,7 @@ class ImapConnection {
         }
 
         try {
-            InflaterInputStream input = new InflaterInputStream(socket.getInputStream(), new Inflater(true));
+            InflaterInputStream input = new CompressedInputStream(socket.getInputStream());
             ZOutputStream output = new ZOutputStream(socket.getOutputStream(), JZlib.Z_BEST_SPEED, true);
             output.setFlushMode(JZlib.Z_PARTIAL_FLUSH);
 
@@ -601,6 +631,34 @@ class ImapConnection {
         }
     }
 
+    private void enableQresyncIfSupported() throws IOException, MessagingException {
+        if (!hasCapability(Capabilities.QRESYNC) || !hasCapability(Capabilities.ENABLE)) {
+            return;
+        }
+
+        List<ImapResponse> responses;
+        try {
+            responses = executeSimpleCommand(Commands.ENABLE_QRESYNC);
+        } catch (NegativeImapResponseException e) {
+            Timber.d(e, "Unable to enable QRESYNC");
+            return;
+        }
+
+        for (ImapResponse response : responses) {
+            if (!response.isTagged() && equalsIgnoreCase(response.get(0), Responses.ENABLED)) {
+                for (int i = 1, count = response.size(); i < count; i++) {
+                    if (equalsIgnoreCase(response.get(i), Capabilities.QRESYNC)) {
+                        qresyncEnabled = true;
+                    }
+                }
+            }
+        }
+
+        if (K9MailLib.isDebug()) {
+            Timber.d("QRESYNC enabled: %b for %s", qresyncEnabled, getLogId());
+        }
+    }
+
     private void retrievePathPrefixIfNecessary() throws IOException, MessagingException {
         if (settings.getPathPrefix() != null) {
             return;
@@ -674,7 +732,7 @@ class ImapConnection {
         }
 
         boolean isListResponse = equalsIgnoreCase(response.get(0), Responses.LIST);
-        boolean hierarchyDelimiterValid = response.get(2) instanceof String;
+        boolean hierarchyDelimiterValid = response.isString(2);
 
         return isListResponse && hierarchyDelimiterValid;
     }
@@ -691,17 +749,75 @@ class ImapConnection {
         return capabilities.contains(Capabilities.IDLE);
     }
 
+    /**
+     * @return {@code true} if the server supports modification sequences (RFC 7162) on this connection.
+     */
+    protected boolean isCondstoreCapable() {
+        return qresyncEnabled || hasCapability(Capabilities.CONDSTORE);
+    }
+
+    /**
+     * @return {@code true} if the server supports moving messages with a single command (RFC 6851).
+     */
+    protected boolean isMoveCapable() {
+        return hasCapability(Capabilities.MOVE);
+    }
+
+    /**
+     * @return {@code true} if the server supports {@code UID EXPUNGE} (RFC 4315).
+     */
+    protected boolean isUidPlusCapable() {
+        return hasCapability(Capabilities.UIDPLUS);
+    }
+
+    /**
+     * @return {@code true} if the server can send notifications about changes to mailboxes other than the selected
+     *         one (RFC 5465).
+     */
+    protected boolean isNotifyCapable() {
+        return hasCapability(Capabilities.NOTIFY);
+    }
+
+    /**
+     * @return {@code true} if QRESYNC has been enabled. The server will then send VANISHED responses instead of
+     *         EXPUNGE responses.
+     */
+    protected boolean isQresyncEnabled() {
+        return qresyncEnabled;
+    }
+
     public void close() {
         open = false;
         stacktraceForClose = new Exception();
+        selectedFolderState = null;
 
         IOUtils.closeQuietly(inputStream);
         IOUtils.closeQuietly(outputStream);
         IOUtils.closeQuietly(socket);
+        IOUtils.closeQuietly(socketChannel);
 
         inputStream = null;
         outputStream = null;
         socket = null;
+        socketChannel = null;
+    }
+
+    /**
+     * @return The channel of the underlying socket, or {@code null} if the connection is closed.
+     */
+    SocketChannel getSocketChannel() {
+        return socketChannel;
+    }
+
+    /**
+     * Returns whether data that has already been received from the server is waiting in a buffer.
+     *
+     * <p>
+     * Data like that won't make the socket's channel readable, so it has to be read before waiting for the channel.
+     * </p>
+     */
+    boolean hasBufferedInput() throws IOException {
+        return inputStream != null && inputStream.available() > 0;
     }
 
     public OutputStream getOutputStream() {
@@ -843,4 +959,34 @@ class ImapConnection {
 
         return response;
     }
+
+
+    /**
+     * {@link InflaterInputStream#available()} returns 1 until the end of the stream has been reached. This version
+     * only does so while the inflater or the underlying stream holds data that hasn't been read yet.
+     */
+    private static class CompressedInputStream extends InflaterInputStream {
+        private boolean outputPending;
+
+
+        CompressedInputStream(InputStream in) {
+            super(in, new Inflater(true));
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            outputPending = length > 0 && count == length;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (inf.finished()) {
+                return 0;
+            }
+
+            return (outputPending || inf.getRemaining() > 0 || in.available() > 0) ? 1 : 0;
+        }
+    }
 }
@@ -0,0 +1,352 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.K9MailLib;
+import com.fsck.k9.mail.MessagingException;
+import timber.log.Timber;
+
+
+/**
+ * Keeps the connections of an {@link ImapStore} for reuse.
+ *
+ * <p>
+ * The number of connections that are in use or idle is limited to {@link #setMaxConnections(int) maxConnections}.
+ * When the limit is reached {@link #acquire()} waits for a connection to be released. Connections can be held for
+ * a long time, so a new connection is created anyway if none is released within {@link #WAIT_TIMEOUT_MILLIS}.
+ * </p>
+ * <p>
+ * Idle connections are closed once they haven't been used for {@link #setMaxIdleMillis(long) maxIdleMillis}. A
+ * connection that has been idle for longer than {@link #setHealthCheckIntervalMillis(long) healthCheckIntervalMillis}
+ * is checked with a {@code NOOP} before it's handed out. The most recently released connection is handed out first,
+ * so it's likely to still have the folder selected that was used last.
+ * </p>
+ */
+class ImapConnectionPool {
+    static final int DEFAULT_MAX_CONNECTIONS = 5;
+    static final long DEFAULT_MAX_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    static final long DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    static final long WAIT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+
+    private final Object lock = new Object();
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+    private final Set<ImapConnection> activeConnections =
+            Collections.newSetFromMap(new IdentityHashMap<ImapConnection, Boolean>());
+    private final ConnectionFactory connectionFactory;
+
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private long maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+    private long healthCheckIntervalMillis = DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS;
+
+    private int pendingConnectionCount;
+    private long hitCount;
+    private long missCount;
+    private long openCount;
+    private long evictionCount;
+
+
+    ImapConnectionPool(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Returns an idle connection or a new, not yet opened, connection.
+     */
+    ImapConnection acquire() throws MessagingException {
+        while (true) {
+            IdleConnection idleConnection = pollIdleConnectionOrReserveNew();
+            if (idleConnection == null) {
+                return createConnection();
+            }
+
+            ImapConnection connection = idleConnection.connection;
+            long idleMillis = currentTimeMillis() - idleConnection.releaseTime;
+            if (idleMillis < healthCheckIntervalMillis || isHealthy(connection)) {
+                synchronized (lock) {
+                    hitCount++;
+                }
+                return connection;
+            }
+        }
+    }
+
+    /**
+     * Returns a connection to the pool. Connections that have been closed are dropped.
+     */
+    void release(ImapConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        List<ImapConnection> connectionsToClose = new ArrayList<>();
+        synchronized (lock) {
+            activeConnections.remove(connection);
+
+            if (connection.isConnected()) {
+                collectExpiredConnections(connectionsToClose);
+                if (getConnectionCount() < maxConnections) {
+                    idleConnections.addLast(new IdleConnection(connection, currentTimeMillis()));
+                } else {
+                    evictionCount++;
+                    connectionsToClose.add(connection);
+                }
+            }
+
+            lock.notifyAll();
+        }
+
+        closeConnections(connectionsToClose);
+    }
+
+    /**
+     * Stops counting a connection that is in use against the limit, e.g. because it's held for push.
+     */
+    void detach(ImapConnection connection) {
+        synchronized (lock) {
+            if (activeConnections.remove(connection)) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    void setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+
+        synchronized (lock) {
+            this.maxConnections = maxConnections;
+            lock.notifyAll();
+        }
+    }
+
+    void setMaxIdleMillis(long maxIdleMillis) {
+        synchronized (lock) {
+            this.maxIdleMillis = maxIdleMillis;
+        }
+    }
+
+    void setHealthCheckIntervalMillis(long healthCheckIntervalMillis) {
+        synchronized (lock) {
+            this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+        }
+    }
+
+    /**
+     * @return The number of times an idle connection was handed out.
+     */
+    long getHitCount() {
+        synchronized (lock) {
+            return hitCount;
+        }
+    }
+
+    /**
+     * @return The number of times no idle connection was available.
+     */
+    long getMissCount() {
+        synchronized (lock) {
+            return missCount;
+        }
+    }
+
+    /**
+     * @return The number of connections created by the pool.
+     */
+    long getOpenCount() {
+        synchronized (lock) {
+            return openCount;
+        }
+    }
+
+    /**
+     * @return The number of connections closed by the pool, because they were idle for too long, failed the health
+     * check or exceeded the limit.
+     */
+    long getEvictionCount() {
+        synchronized (lock) {
+            return evictionCount;
+        }
+    }
+
+    int getIdleConnectionCount() {
+        synchronized (lock) {
+            return idleConnections.size();
+        }
+    }
+
+    int getActiveConnectionCount() {
+        synchronized (lock) {
+            removeClosedActiveConnections();
+            return activeConnections.size();
+        }
+    }
+
+    long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private IdleConnection pollIdleConnectionOrReserveNew() throws MessagingException {
+        List<ImapConnection> connectionsToClose = new ArrayList<>();
+        try {
+            synchronized (lock) {
+                collectExpiredConnections(connectionsToClose);
+
+                long deadline = currentTimeMillis() + WAIT_TIMEOUT_MILLIS;
+                while (idleConnections.isEmpty()) {
+                    removeClosedActiveConnections();
+                    if (getConnectionCount() < maxConnections) {
+                        break;
+                    }
+
+                    long remainingMillis = deadline - currentTimeMillis();
+                    if (remainingMillis <= 0) {
+                        Timber.w("All %d IMAP connections are in use, opening another one", getConnectionCount());
+                        break;
+                    }
+
+                    try {
+                        lock.wait(remainingMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new MessagingException("Interrupted while waiting for an IMAP connection", e);
+                    }
+                }
+
+                IdleConnection idleConnection = idleConnections.pollLast();
+                if (idleConnection != null) {
+                    activeConnections.add(idleConnection.connection);
+                } else {
+                    pendingConnectionCount++;
+                    missCount++;
+                    openCount++;
+                }
+
+                return idleConnection;
+            }
+        } finally {
+            closeConnections(connectionsToClose);
+        }
+    }
+
+    private ImapConnection createConnection() {
+        ImapConnection connection = null;
+        try {
+            connection = connectionFactory.createConnection();
+        } finally {
+            synchronized (lock) {
+                pendingConnectionCount--;
+                if (connection != null) {
+                    activeConnections.add(connection);
+                }
+                lock.notifyAll();
+            }
+        }
+
+        if (K9MailLib.isDebug()) {
+            Timber.d("Created IMAP connection (%d hits, %d misses, %d evictions)", getHitCount(), getMissCount(),
+                    getEvictionCount());
+        }
+
+        return connection;
+    }
+
+    /**
+     * Sends a {@code NOOP}. A connection failing the check is closed and no longer counted against the limit.
+     */
+    private boolean isHealthy(ImapConnection connection) {
+        boolean healthy = false;
+        try {
+            List<ImapResponse> responses = connection.executeSimpleCommand(Commands.NOOP);
+            invalidateSelectedFolderStateIfChanged(connection, responses);
+            healthy = true;
+        } catch (IOException | MessagingException e) {
+            Timber.d(e, "Idle IMAP connection failed health check");
+        } finally {
+            if (!healthy) {
+                connection.close();
+                synchronized (lock) {
+                    activeConnections.remove(connection);
+                    evictionCount++;
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        return healthy;
+    }
+
+    /**
+     * The untagged responses to the {@code NOOP} (e.g. {@code EXISTS}, {@code EXPUNGE}, {@code FETCH}) aren't seen
+     * by the folder that owns the selected folder state. Drop the state so the next user selects the folder again.
+     */
+    private static void invalidateSelectedFolderStateIfChanged(ImapConnection connection,
+            List<ImapResponse> responses) {
+        for (ImapResponse response : responses) {
+            if (response.getTag() == null) {
+                connection.setSelectedFolderState(null);
+                return;
+            }
+        }
+    }
+
+    private void collectExpiredConnections(List<ImapConnection> connectionsToClose) {
+        long now = currentTimeMillis();
+        Iterator<IdleConnection> iterator = idleConnections.iterator();
+        while (iterator.hasNext()) {
+            IdleConnection idleConnection = iterator.next();
+            if (!idleConnection.connection.isConnected()) {
+                iterator.remove();
+            } else if (now - idleConnection.releaseTime >= maxIdleMillis) {
+                iterator.remove();
+                evictionCount++;
+                connectionsToClose.add(idleConnection.connection);
+            }
+        }
+    }
+
+    private void removeClosedActiveConnections() {
+        Iterator<ImapConnection> iterator = activeConnections.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isClosed()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private int getConnectionCount() {
+        return activeConnections.size() + idleConnections.size() + pendingConnectionCount;
+    }
+
+    private static void closeConnections(List<ImapConnection> connections) {
+        for (ImapConnection connection : connections) {
+            connection.close();
+        }
+    }
+
+
+    interface ConnectionFactory {
+        ImapConnection createConnection();
+    }
+
+    private static class IdleConnection {
+        final ImapConnection connection;
+        final long releaseTime;
+
+        IdleConnection(ImapConnection connection, long releaseTime) {
+            this.connection = connection;
+            this.releaseTime = releaseTime;
+        }
+    }
+}
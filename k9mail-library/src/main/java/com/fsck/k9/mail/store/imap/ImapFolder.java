@@ -4,11 +4,13 @@ package com.fsck.k9.mail.store.imap;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -23,19 +25,22 @@ import com.fsck.k9.mail.BodyFactory;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.FolderChanges;
 import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
-import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
+import com.fsck.k9.mail.UidRangeSet;
 import com.fsck.k9.mail.internet.MimeBodyPart;
 import com.fsck.k9.mail.internet.MimeHeader;
 import com.fsck.k9.mail.internet.MimeMessageHelper;
 import com.fsck.k9.mail.internet.MimeMultipart;
 import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.mail.internet.SpooledMessage;
 import timber.log.Timber;
 
+import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
 import static com.fsck.k9.mail.store.imap.ImapUtility.getLastResponse;
 
 
@@ -52,6 +57,8 @@ class ImapFolder extends Folder<ImapMessage> {
 
     protected volatile int messageCount = -1;
     protected volatile long uidNext = -1L;
+    protected volatile long uidValidity = -1L;
+    protected volatile long highestModSeq = -1L;
     protected volatile ImapConnection connection;
     protected ImapStore store = null;
     protected Map<Long, String> msgSeqUidMap = new ConcurrentHashMap<Long, String>();
@@ -112,7 +119,10 @@ class ImapFolder extends Folder<ImapMessage> {
     @Override
     public void open(int mode) throws MessagingException {
         internalOpen(mode);
+        checkMessageCount();
+    }
 
+    private void checkMessageCount() throws MessagingException {
         if (messageCount == -1) {
             throw new MessagingException("Did not find message count during open");
         }
@@ -129,19 +139,95 @@ class ImapFolder extends Folder<ImapMessage> {
             }
         }
 
+        acquireNewConnection();
+
+        List<ImapResponse> responses = reuseSelectedFolder(mode);
+        if (responses != null) {
+            return responses;
+        }
+
+        return selectOrExamine(mode, null);
+    }
+
+    /**
+     * Skips {@code SELECT}/{@code EXAMINE} if the connection still has this folder selected from an earlier use.
+     *
+     * <p>
+     * A {@code NOOP} is sent instead, so we learn about messages that were added or expunged in the meantime.
+     * </p>
+     *
+     * @return The responses to the {@code NOOP} command or {@code null} if the folder has to be selected.
+     */
+    private List<ImapResponse> reuseSelectedFolder(int mode) throws MessagingException {
+        SelectedFolderState state = connection.getSelectedFolderState();
+        if (state == null || !state.isFolder(name, mode) || state.messageCount == -1) {
+            return null;
+        }
+
+        msgSeqUidMap.clear();
+        this.mode = mode;
+        messageCount = state.messageCount;
+        uidNext = state.uidNext;
+        uidValidity = state.uidValidity;
+        highestModSeq = state.highestModSeq;
+        canCreateKeywords = state.canCreateKeywords;
+
+        try {
+            List<ImapResponse> responses = executeSimpleCommand(Commands.NOOP);
+            exists = true;
+
+            if (K9MailLib.isDebug()) {
+                Timber.d("Reusing connection that has %s already selected", getLogId());
+            }
+
+            return responses;
+        } catch (IOException ioe) {
+            /* don't throw */ ioExceptionHandler(connection, ioe);
+        }
+
+        acquireNewConnection();
+        return null;
+    }
+
+    private void updateSelectedFolderState(ImapConnection connection) {
+        SelectedFolderState selectedFolderState = connection.getSelectedFolderState();
+        if (selectedFolderState != null && selectedFolderState.isFolder(name)) {
+            connection.setSelectedFolderState(createSelectedFolderState());
+        }
+    }
+
+    private SelectedFolderState createSelectedFolderState() {
+        return new SelectedFolderState(name, mode, messageCount, uidNext, uidValidity, highestModSeq,
+                canCreateKeywords);
+    }
+
+    private void acquireNewConnection() throws MessagingException {
+        if (connection != null) {
+            updateSelectedFolderState(connection);
+        }
         store.releaseConnection(connection);
 
         synchronized (this) {
             connection = store.getConnection();
         }
+    }
 
+    private List<ImapResponse> selectOrExamine(int mode, String selectParameters) throws MessagingException {
         try {
             msgSeqUidMap.clear();
+            uidValidity = -1L;
+            highestModSeq = -1L;
 
             String openCommand = mode == OPEN_MODE_RW ? "SELECT" : "EXAMINE";
             String encodedFolderName = folderNameCodec.encode(getPrefixedName());
             String escapedFolderName = ImapUtility.encodeString(encodedFolderName);
             String command = String.format("%s %s", openCommand, escapedFolderName);
+            if (selectParameters != null) {
+                command += " (" + selectParameters + ")";
+            }
+
+            // A failed SELECT/EXAMINE leaves the connection without a selected folder
+            connection.setSelectedFolderState(null);
             List<ImapResponse> responses = executeSimpleCommand(command);
 
             /*
@@ -157,6 +243,7 @@ class ImapFolder extends Folder<ImapMessage> {
             handleSelectOrExamineOkResponse(getLastResponse(responses));
 
             exists = true;
+            connection.setSelectedFolderState(createSelectedFolderState());
 
             return responses;
         } catch (IOException ioe) {
@@ -167,6 +254,132 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    /**
+     * Opens the folder using the CONDSTORE or QRESYNC extension (RFC 7162) if the server supports it.
+     *
+     * <p>
+     * With QRESYNC the {@code SELECT} command itself returns the flag changes and expunged messages since
+     * {@code knownHighestModSeq}. If only CONDSTORE is available, flag changes are retrieved using
+     * {@code UID FETCH ... (CHANGEDSINCE ...)} but expunged messages can't be determined.
+     * </p>
+     */
+    @Override
+    public FolderChanges<ImapMessage> openAndGetChangesSince(int mode, long knownUidValidity,
+            long knownHighestModSeq) throws MessagingException {
+        acquireNewConnection();
+
+        try {
+            connection.open();
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+
+        if (!connection.isCondstoreCapable()) {
+            selectOrExamine(mode, null);
+            checkMessageCount();
+            return null;
+        }
+
+        boolean hasKnownState = knownUidValidity > 0 && knownHighestModSeq > 0;
+        boolean useQresync = hasKnownState && connection.isQresyncEnabled();
+        String selectParameters = useQresync ?
+                String.format(Locale.US, "QRESYNC (%d %d)", knownUidValidity, knownHighestModSeq) : "CONDSTORE";
+
+        List<ImapResponse> responses;
+        try {
+            responses = selectOrExamine(mode, selectParameters);
+        } catch (NegativeImapResponseException e) {
+            Timber.w(e, "Server rejected %s, falling back to plain open for %s", selectParameters, getLogId());
+            selectOrExamine(mode, null);
+            checkMessageCount();
+            return null;
+        }
+
+        checkMessageCount();
+
+        if (!hasKnownState || uidValidity != knownUidValidity || highestModSeq <= 0) {
+            return null;
+        }
+
+        if (useQresync) {
+            return extractQresyncChanges(responses);
+        }
+
+        if (highestModSeq == knownHighestModSeq) {
+            List<ImapMessage> noChangedMessages = Collections.emptyList();
+            return new FolderChanges<>(uidValidity, highestModSeq, false, UidRangeSet.EMPTY,
+                    noChangedMessages);
+        }
+
+        return fetchFlagChangesSince(knownHighestModSeq);
+    }
+
+    private FolderChanges<ImapMessage> extractQresyncChanges(List<ImapResponse> responses) {
+        UidRangeSet vanishedUids = UidRangeSet.EMPTY;
+        Map<String, ImapMessage> changedMessages = new LinkedHashMap<>();
+
+        for (ImapResponse response : responses) {
+            VanishedResponse vanishedResponse = VanishedResponse.parse(response);
+            if (vanishedResponse != null) {
+                vanishedUids = vanishedUids.union(vanishedResponse.getUids());
+            } else {
+                ImapMessage message = handleFlagsFetchResponse(response);
+                if (message != null) {
+                    changedMessages.put(message.getUid(), message);
+                }
+            }
+        }
+
+        return new FolderChanges<>(uidValidity, highestModSeq, true, vanishedUids,
+                new ArrayList<>(changedMessages.values()));
+    }
+
+    private FolderChanges<ImapMessage> fetchFlagChangesSince(long knownHighestModSeq) throws MessagingException {
+        try {
+            String command = String.format(Locale.US, "UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE %d)",
+                    knownHighestModSeq);
+            List<ImapResponse> responses = executeSimpleCommand(command);
+
+            List<ImapMessage> changedMessages = new ArrayList<>();
+            for (ImapResponse response : responses) {
+                ImapMessage message = handleFlagsFetchResponse(response);
+                if (message != null) {
+                    changedMessages.add(message);
+                }
+            }
+
+            return new FolderChanges<>(uidValidity, highestModSeq, false, UidRangeSet.EMPTY,
+                    changedMessages);
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+    }
+
+    private ImapMessage handleFlagsFetchResponse(ImapResponse response) {
+        if (response.isTagged() || response.size() < 3 || !equalsIgnoreCase(response.get(1), "FETCH") ||
+                !response.isList(2)) {
+            return null;
+        }
+
+        ImapList fetchList = response.getList(2);
+        String uid = fetchList.getKeyedString("UID");
+        if (uid == null) {
+            return null;
+        }
+
+        msgSeqUidMap.put(response.getLong(0), uid);
+
+        ImapMessage message = new ImapMessage(uid, this);
+        try {
+            handleFetchResponse(message, fetchList);
+        } catch (MessagingException e) {
+            Timber.w(e, "Unable to parse flags of message %s for %s", uid, getLogId());
+            return null;
+        }
+
+        return message;
+    }
+
     private void handlePermanentFlags(ImapResponse response) {
         PermanentFlagsResponse permanentFlagsResponse = PermanentFlagsResponse.parse(response);
         if (permanentFlagsResponse == null) {
@@ -202,13 +415,17 @@ class ImapFolder extends Folder<ImapMessage> {
 
     @Override
     public void close() {
-        messageCount = -1;
-
         if (!isOpen()) {
+            messageCount = -1;
             return;
         }
 
         synchronized (this) {
+            if (connection != null) {
+                updateSelectedFolderState(connection);
+            }
+            messageCount = -1;
+
             // If we are mid-search and we get a close request, we gotta trash the connection.
             if (inSearch && connection != null) {
                 Timber.i("IMAP search was aborted, shutting down connection.");
@@ -300,6 +517,8 @@ class ImapFolder extends Folder<ImapMessage> {
             String escapedFolderName = ImapUtility.encodeString(encodedFolderName);
             connection.executeSimpleCommand(String.format("CREATE %s", escapedFolderName));
 
+            exists = true;
+
             return true;
         } catch (NegativeImapResponseException e) {
             return false;
@@ -338,37 +557,73 @@ class ImapFolder extends Folder<ImapMessage> {
             return null;
         }
 
-        ImapFolder imapFolder = (ImapFolder) folder;
         checkOpen(); //only need READ access
 
+        return copyOrMoveMessages("UID COPY", messages, (ImapFolder) folder);
+    }
+
+    /**
+     * Moves the given messages to the specified folder.
+     *
+     * <p>
+     * If the server supports {@code MOVE} (RFC 6851) this only takes a single command. Otherwise the messages are
+     * copied and then marked as deleted in this folder.
+     * </p>
+     */
+    @Override
+    public Map<String, String> moveMessages(List<? extends Message> messages, Folder folder) throws MessagingException {
+        if (!(folder instanceof ImapFolder)) {
+            throw new MessagingException("ImapFolder.moveMessages passed non-ImapFolder");
+        }
+
+        if (messages.isEmpty()) {
+            return null;
+        }
+
+        checkOpen();
+
+        if (connection.isMoveCapable()) {
+            return copyOrMoveMessages("UID MOVE", messages, (ImapFolder) folder);
+        }
+
+        Map<String, String> uidMapping = copyOrMoveMessages("UID COPY", messages, (ImapFolder) folder);
+
+        setFlags(messages, Collections.singleton(Flag.DELETED), true);
+
+        return uidMapping;
+    }
+
+    @Override
+    public boolean isMoveRemovingMessages() {
+        ImapConnection connection = this.connection;
+        return connection != null && connection.isMoveCapable();
+    }
+
+    private Map<String, String> copyOrMoveMessages(String command, List<? extends Message> messages,
+            ImapFolder destinationFolder) throws MessagingException {
         String[] uids = new String[messages.size()];
         for (int i = 0, count = messages.size(); i < count; i++) {
             uids[i] = messages.get(i).getUid();
         }
 
         try {
-            String encodedDestinationFolderName = folderNameCodec.encode(imapFolder.getPrefixedName());
+            String encodedDestinationFolderName = folderNameCodec.encode(destinationFolder.getPrefixedName());
             String escapedDestinationFolderName = ImapUtility.encodeString(encodedDestinationFolderName);
 
-            //TODO: Try to copy/move the messages first and only create the folder if the
-            //      operation fails. This will save a roundtrip if the folder already exists.
-            if (!exists(escapedDestinationFolderName)) {
-                if (K9MailLib.isDebug()) {
-                    Timber.i("ImapFolder.copyMessages: attempting to create remote folder '%s' for %s",
-                            escapedDestinationFolderName, getLogId());
-                }
-
-                imapFolder.create(FolderType.HOLDS_MESSAGES);
-            }
+            createFolderIfNecessary(destinationFolder, escapedDestinationFolderName);
 
             //TODO: Split this into multiple commands if the command exceeds a certain length.
-            List<ImapResponse> responses = executeSimpleCommand(String.format("UID COPY %s %s",
-                    combine(uids, ','), escapedDestinationFolderName));
-
-            // Get the tagged response for the UID COPY command
-            ImapResponse response = getLastResponse(responses);
+            List<ImapResponse> responses;
+            try {
+                responses = executeSimpleCommand(String.format("%s %s %s", command, combine(uids, ','),
+                        escapedDestinationFolderName));
+            } catch (NegativeImapResponseException e) {
+                // The folder might have been deleted since we last checked
+                destinationFolder.exists = false;
+                throw e;
+            }
 
-            CopyUidResponse copyUidResponse = CopyUidResponse.parse(response);
+            CopyUidResponse copyUidResponse = CopyUidResponse.parse(responses);
             if (copyUidResponse == null) {
                 return null;
             }
@@ -379,17 +634,31 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
-    @Override
-    public Map<String, String> moveMessages(List<? extends Message> messages, Folder folder) throws MessagingException {
-        if (messages.isEmpty()) {
-            return null;
+    /**
+     * Makes sure the given folder exists on the server, creating it if necessary.
+     *
+     * <p>
+     * Once a folder is known to exist this is remembered by the {@code ImapFolder} instance, which is shared via the
+     * store's folder cache. So a bulk move or delete doesn't have to check the destination folder for every batch.
+     * </p>
+     *
+     * @return {@code true} if the folder exists or was created successfully.
+     */
+    private boolean createFolderIfNecessary(ImapFolder folder, String escapedFolderName) throws MessagingException {
+        if (folder.exists) {
+            return true;
         }
 
-        Map<String, String> uidMapping = copyMessages(messages, folder);
+        if (exists(escapedFolderName)) {
+            folder.exists = true;
+            return true;
+        }
 
-        setFlags(messages, Collections.singleton(Flag.DELETED), true);
+        if (K9MailLib.isDebug()) {
+            Timber.i("ImapFolder: attempting to create remote folder '%s' for %s", escapedFolderName, getLogId());
+        }
 
-        return uidMapping;
+        return folder.create(FolderType.HOLDS_MESSAGES);
     }
 
     @Override
@@ -405,25 +674,17 @@ class ImapFolder extends Folder<ImapMessage> {
             String encodedTrashFolderName = folderNameCodec.encode(remoteTrashFolder.getPrefixedName());
             String escapedTrashFolderName = ImapUtility.encodeString(encodedTrashFolderName);
 
-            if (!exists(escapedTrashFolderName)) {
-                if (K9MailLib.isDebug()) {
-                    Timber.i("IMAPMessage.delete: attempting to create remote '%s' folder for %s",
-                            trashFolderName, getLogId());
-                }
-                remoteTrashFolder.create(FolderType.HOLDS_MESSAGES);
-            }
-
-            if (exists(escapedTrashFolderName)) {
-                if (K9MailLib.isDebug()) {
-                    Timber.d("IMAPMessage.delete: copying remote %d messages to '%s' for %s",
-                            messages.size(), trashFolderName, getLogId());
-                }
-
-                moveMessages(messages, remoteTrashFolder);
-            } else {
+            if (!createFolderIfNecessary(remoteTrashFolder, escapedTrashFolderName)) {
                 throw new MessagingException("IMAPMessage.delete: remote Trash folder " + trashFolderName +
                         " does not exist and could not be created for " + getLogId(), true);
             }
+
+            if (K9MailLib.isDebug()) {
+                Timber.d("IMAPMessage.delete: moving remote %d messages to '%s' for %s",
+                        messages.size(), trashFolderName, getLogId());
+            }
+
+            moveMessages(messages, remoteTrashFolder);
         }
     }
 
@@ -432,6 +693,16 @@ class ImapFolder extends Folder<ImapMessage> {
         return messageCount;
     }
 
+    @Override
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    @Override
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
     private int getRemoteMessageCount(String criteria) throws MessagingException {
         checkOpen();
 
@@ -699,84 +970,109 @@ class ImapFolder extends Folder<ImapMessage> {
 
         String spaceSeparatedFetchFields = combine(fetchFields.toArray(new String[fetchFields.size()]), ' ');
 
-        for (int windowStart = 0; windowStart < messages.size(); windowStart += (FETCH_WINDOW_SIZE)) {
-            int windowEnd = Math.min(windowStart + FETCH_WINDOW_SIZE, messages.size());
-            List<String> uidWindow = uids.subList(windowStart, windowEnd);
+        ImapResponseCallback callback = null;
+        if (fetchProfile.contains(FetchProfile.Item.BODY) || fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
+            callback = new FetchBodyCallback(messageMap);
+        }
 
-            try {
-                String commaSeparatedUids = combine(uidWindow.toArray(new String[uidWindow.size()]), ',');
-                String command = String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields);
-                connection.sendCommand(command, false);
+        /*
+         * Keep up to maxCommandsInFlight UID FETCH commands outstanding. Each untagged FETCH response carries the UID,
+         * so it can be matched to its message regardless of which command caused it. The server completes commands
+         * in order, so every tagged response finishes one window and makes room for the next command.
+         */
+        int maxCommandsInFlight = Math.max(1, store.getMaxPipelinedFetchCommands());
+        int commandsInFlight = 0;
+        int windowStart = 0;
+        int messageNumber = 0;
 
-                ImapResponse response;
-                int messageNumber = 0;
+        try {
+            while (windowStart < messages.size() || commandsInFlight > 0) {
+                while (windowStart < messages.size() && commandsInFlight < maxCommandsInFlight) {
+                    int windowEnd = Math.min(windowStart + FETCH_WINDOW_SIZE, messages.size());
+                    List<String> uidWindow = uids.subList(windowStart, windowEnd);
+
+                    String commaSeparatedUids = combine(uidWindow.toArray(new String[uidWindow.size()]), ',');
+                    String command = String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields);
+                    connection.sendCommand(command, false);
+                    commandsInFlight++;
 
-                ImapResponseCallback callback = null;
-                if (fetchProfile.contains(FetchProfile.Item.BODY) ||
-                        fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
-                    callback = new FetchBodyCallback(messageMap);
+                    windowStart = windowEnd;
                 }
 
-                do {
-                    response = connection.readResponse(callback);
-
-                    if (response.getTag() == null && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
-                        ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
-                        String uid = fetchList.getKeyedString("UID");
-                        long msgSeq = response.getLong(0);
-                        if (uid != null) {
-                            try {
-                                msgSeqUidMap.put(msgSeq, uid);
-                                if (K9MailLib.isDebug()) {
-                                    Timber.v("Stored uid '%s' for msgSeq %d into map", uid, msgSeq);
-                                }
-                            } catch (Exception e) {
-                                Timber.e("Unable to store uid '%s' for msgSeq %d", uid, msgSeq);
-                            }
-                        }
+                ImapResponse response = connection.readResponse(callback);
 
-                        Message message = messageMap.get(uid);
-                        if (message == null) {
-                            if (K9MailLib.isDebug()) {
-                                Timber.d("Do not have message in messageMap for UID %s for %s", uid, getLogId());
-                            }
+                if (response.getTag() != null) {
+                    commandsInFlight--;
+                } else if (ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+                    if (handleFetchResponseForMessage(response, messageMap, listener, messageNumber)) {
+                        messageNumber++;
+                    }
+                } else {
+                    handleUntaggedResponse(response);
+                }
+            }
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+    }
 
-                            handleUntaggedResponse(response);
-                            continue;
-                        }
+    /**
+     * @return {@code true} if the response belonged to one of the messages in {@code messageMap}.
+     */
+    private boolean handleFetchResponseForMessage(ImapResponse response, Map<String, Message> messageMap,
+            MessageRetrievalListener<ImapMessage> listener, int messageNumber) throws MessagingException, IOException {
+        ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+        String uid = fetchList.getKeyedString("UID");
+        long msgSeq = response.getLong(0);
+        if (uid != null) {
+            try {
+                msgSeqUidMap.put(msgSeq, uid);
+                if (K9MailLib.isDebug()) {
+                    Timber.v("Stored uid '%s' for msgSeq %d into map", uid, msgSeq);
+                }
+            } catch (Exception e) {
+                Timber.e("Unable to store uid '%s' for msgSeq %d", uid, msgSeq);
+            }
+        }
 
-                        if (listener != null) {
-                            listener.messageStarted(uid, messageNumber++, messageMap.size());
-                        }
+        Message message = messageMap.get(uid);
+        if (message == null) {
+            if (K9MailLib.isDebug()) {
+                Timber.d("Do not have message in messageMap for UID %s for %s", uid, getLogId());
+            }
 
-                        ImapMessage imapMessage = (ImapMessage) message;
-                        Object literal = handleFetchResponse(imapMessage, fetchList);
-
-                        if (literal != null) {
-                            if (literal instanceof String) {
-                                String bodyString = (String) literal;
-                                InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
-                                imapMessage.parse(bodyStream);
-                            } else if (literal instanceof Integer) {
-                                // All the work was done in FetchBodyCallback.foundLiteral()
-                            } else {
-                                // This shouldn't happen
-                                throw new MessagingException("Got FETCH response with bogus parameters");
-                            }
-                        }
+            handleUntaggedResponse(response);
+            return false;
+        }
 
-                        if (listener != null) {
-                            listener.messageFinished(imapMessage, messageNumber, messageMap.size());
-                        }
-                    } else {
-                        handleUntaggedResponse(response);
-                    }
+        if (listener != null) {
+            listener.messageStarted(uid, messageNumber, messageMap.size());
+        }
 
-                } while (response.getTag() == null);
-            } catch (IOException ioe) {
-                throw ioExceptionHandler(connection, ioe);
+        ImapMessage imapMessage = (ImapMessage) message;
+        Object literal = handleFetchResponse(imapMessage, fetchList);
+
+        if (literal != null) {
+            if (literal instanceof byte[]) {
+                InputStream bodyStream = new ByteArrayInputStream((byte[]) literal);
+                imapMessage.parse(bodyStream);
+            } else if (literal instanceof String) {
+                String bodyString = (String) literal;
+                InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
+                imapMessage.parse(bodyStream);
+            } else if (literal instanceof Integer) {
+                // All the work was done in FetchBodyCallback.foundLiteral()
+            } else {
+                // This shouldn't happen
+                throw new MessagingException("Got FETCH response with bogus parameters");
             }
         }
+
+        if (listener != null) {
+            listener.messageFinished(imapMessage, messageNumber + 1, messageMap.size());
+        }
+
+        return true;
     }
 
     @Override
@@ -831,9 +1127,10 @@ class ImapFolder extends Folder<ImapMessage> {
                         if (literal instanceof Body) {
                             // Most of the work was done in FetchAttachmentCallback.foundLiteral()
                             MimeMessageHelper.setBody(part, (Body) literal);
-                        } else if (literal instanceof String) {
-                            String bodyString = (String) literal;
-                            InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
+                        } else if (literal instanceof byte[] || literal instanceof String) {
+                            InputStream bodyStream = literal instanceof byte[] ?
+                                    new ByteArrayInputStream((byte[]) literal) :
+                                    new ByteArrayInputStream(((String) literal).getBytes());
 
                             String contentTransferEncoding =
                                     part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)[0];
@@ -914,7 +1211,8 @@ class ImapFolder extends Folder<ImapMessage> {
             if (index < size) {
                 result = fetchList.getObject(index);
 
-                // Check if there's an origin octet
+                // Check if there's an origin octet. It's an atom like "<0>". A literal at this position is the
+                // body itself, so it's deliberately not decoded and checked here.
                 if (result instanceof String) {
                     String originOctet = (String) result;
                     if (originOctet.startsWith("<") && (index + 1) < size) {
@@ -942,14 +1240,10 @@ class ImapFolder extends Folder<ImapMessage> {
                 ImapList bracketed = (ImapList) bracketedObj;
 
                 if (bracketed.size() > 1) {
-                    Object keyObj = bracketed.get(0);
-                    if (keyObj instanceof String) {
-                        String key = (String) keyObj;
-                        if ("UIDNEXT".equalsIgnoreCase(key)) {
-                            uidNext = bracketed.getLong(1);
-                            if (K9MailLib.isDebug()) {
-                                Timber.d("Got UidNext = %s for %s", uidNext, getLogId());
-                            }
+                    if (ImapResponseParser.equalsIgnoreCase(bracketed.get(0), "UIDNEXT")) {
+                        uidNext = bracketed.getLong(1);
+                        if (K9MailLib.isDebug()) {
+                            Timber.d("Got UidNext = %s for %s", uidNext, getLogId());
                         }
                     }
                 }
@@ -957,6 +1251,35 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    private void handlePossibleModSeqState(ImapResponse response) {
+        if (!equalsIgnoreCase(response.get(0), Responses.OK) || !response.isList(1)) {
+            return;
+        }
+
+        ImapList responseTextList = response.getList(1);
+        if (responseTextList.isEmpty()) {
+            return;
+        }
+
+        Object responseCode = responseTextList.get(0);
+        if (equalsIgnoreCase(responseCode, Responses.NOMODSEQ)) {
+            highestModSeq = -1L;
+        } else if (responseTextList.size() > 1 && responseTextList.isString(1)) {
+            try {
+                if (equalsIgnoreCase(responseCode, Responses.UIDVALIDITY)) {
+                    uidValidity = responseTextList.getLong(1);
+                } else if (equalsIgnoreCase(responseCode, Responses.HIGHESTMODSEQ)) {
+                    highestModSeq = responseTextList.getLong(1);
+                    if (K9MailLib.isDebug()) {
+                        Timber.d("Got HighestModSeq = %d for %s", highestModSeq, getLogId());
+                    }
+                }
+            } catch (NumberFormatException e) {
+                Timber.w("Invalid %s response code for %s", responseCode, getLogId());
+            }
+        }
+    }
+
     /**
      * Handle an untagged response that the caller doesn't care to handle themselves.
      */
@@ -970,6 +1293,15 @@ class ImapFolder extends Folder<ImapMessage> {
             }
 
             handlePossibleUidNext(response);
+            handlePossibleModSeqState(response);
+
+            VanishedResponse vanishedResponse = VanishedResponse.parse(response);
+            if (vanishedResponse != null && !vanishedResponse.isEarlier() && messageCount > 0) {
+                messageCount = (int) Math.max(0, messageCount - vanishedResponse.getUids().size());
+                if (K9MailLib.isDebug()) {
+                    Timber.d("Got untagged VANISHED with messageCount %d for %s", messageCount, getLogId());
+                }
+            }
 
             if (ImapResponseParser.equalsIgnoreCase(response.get(1), "EXPUNGE") && messageCount > 0) {
                 messageCount--;
@@ -1149,28 +1481,32 @@ class ImapFolder extends Folder<ImapMessage> {
         try {
             Map<String, String> uidMap = new HashMap<>();
             for (Message message : messages) {
-                long messageSize = message.calculateSize();
-
-                String encodeFolderName = folderNameCodec.encode(getPrefixedName());
-                String escapedFolderName = ImapUtility.encodeString(encodeFolderName);
-                String command = String.format(Locale.US, "APPEND %s (%s) {%d}", escapedFolderName,
-                        combineFlags(message.getFlags()), messageSize);
-                connection.sendCommand(command, false);
-
+                // Render the message only once, for both the literal's size and its content
+                SpooledMessage spooledMessage = SpooledMessage.create(message);
                 ImapResponse response;
-                do {
-                    response = connection.readResponse();
+                try {
+                    String encodeFolderName = folderNameCodec.encode(getPrefixedName());
+                    String escapedFolderName = ImapUtility.encodeString(encodeFolderName);
+                    String command = String.format(Locale.US, "APPEND %s (%s) {%d}", escapedFolderName,
+                            combineFlags(message.getFlags()), spooledMessage.getSize());
+                    connection.sendCommand(command, false);
 
-                    handleUntaggedResponse(response);
+                    do {
+                        response = connection.readResponse();
 
-                    if (response.isContinuationRequested()) {
-                        EOLConvertingOutputStream eolOut = new EOLConvertingOutputStream(connection.getOutputStream());
-                        message.writeTo(eolOut);
-                        eolOut.write('\r');
-                        eolOut.write('\n');
-                        eolOut.flush();
-                    }
-                } while (response.getTag() == null);
+                        handleUntaggedResponse(response);
+
+                        if (response.isContinuationRequested()) {
+                            OutputStream out = connection.getOutputStream();
+                            spooledMessage.writeTo(out);
+                            out.write('\r');
+                            out.write('\n');
+                            out.flush();
+                        }
+                    } while (response.getTag() == null);
+                } finally {
+                    spooledMessage.close();
+                }
 
                 if (response.size() > 1) {
                     /*
@@ -1272,6 +1608,31 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    /**
+     * Expunges only the given messages if the server supports {@code UID EXPUNGE} (RFC 4315). Otherwise all messages
+     * marked as deleted are expunged.
+     */
+    @Override
+    public void expungeUids(List<String> uids) throws MessagingException {
+        if (uids.isEmpty()) {
+            return;
+        }
+
+        open(OPEN_MODE_RW);
+        checkOpen();
+
+        if (!connection.isUidPlusCapable()) {
+            expunge();
+            return;
+        }
+
+        try {
+            executeSimpleCommand(String.format("UID EXPUNGE %s", combine(uids.toArray(), ',')));
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+    }
+
     private String combineFlags(Iterable<Flag> flags) {
         List<String> flagNames = new ArrayList<String>();
         for (Flag flag : flags) {
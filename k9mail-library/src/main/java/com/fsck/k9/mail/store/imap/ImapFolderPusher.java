@@ -3,14 +3,21 @@ package com.fsck.k9.mail.store.imap;
 
 import java.io.IOException;
 import java.net.SocketException;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.content.Context;
 import android.os.PowerManager;
+import android.support.annotation.VisibleForTesting;
 
 import com.fsck.k9.mail.AuthenticationFailedException;
 import com.fsck.k9.mail.Flag;
@@ -18,6 +25,7 @@ import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.PushReceiver;
+import com.fsck.k9.mail.UidRangeSet;
 import com.fsck.k9.mail.power.TracingPowerManager;
 import com.fsck.k9.mail.power.TracingPowerManager.TracingWakeLock;
 import com.fsck.k9.mail.store.RemoteStore;
@@ -27,26 +35,62 @@ import static com.fsck.k9.mail.K9MailLib.PUSH_WAKE_LOCK_TIMEOUT;
 import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
 
 
+/**
+ * Pushes changes to a folder using IDLE on a dedicated connection.
+ *
+ * <p>
+ * The pusher runs on a shared thread pool. While the connection is idling it's handed to {@link IdleEventLoop},
+ * so it doesn't occupy a thread until the server sends something or the IDLE command needs to be refreshed.
+ * </p>
+ * <p>
+ * If the server supports NOTIFY (RFC 5465), the same connection also watches the folders passed as
+ * {@code notifyFolderNames}. The server then reports changes to those folders as {@code STATUS} responses while we
+ * IDLE. Otherwise the {@link NotifyUnavailableCallback} is asked to push them using one connection per folder.
+ * </p>
+ */
 class ImapFolderPusher extends ImapFolder {
+    private static final String NOTIFY_EVENTS = "(MessageNew MessageExpunge FlagChange)";
     private static final int IDLE_READ_TIMEOUT_INCREMENT = 5 * 60 * 1000;
     private static final int IDLE_FAILURE_COUNT_LIMIT = 10;
     private static final int MAX_DELAY_TIME = 5 * 60 * 1000; // 5 minutes
     private static final int NORMAL_DELAY_TIME = 5000;
+    private static final ExecutorService PUSH_EXECUTOR = Executors.newCachedThreadPool();
 
 
     private final PushReceiver pushReceiver;
+    private final List<String> initialNotifyFolderNames;
+    private final NotifyUnavailableCallback notifyUnavailableCallback;
     private final Object threadLock = new Object();
     private final IdleStopper idleStopper = new IdleStopper();
     private final TracingWakeLock wakeLock;
+    private final IdleEventLoop idleEventLoop;
     private final List<ImapResponse> storedUntaggedResponses = new ArrayList<ImapResponse>();
-    private Thread listeningThread;
+    private boolean running = false;
+    private Thread workerThread;
+    private IdleEventLoop.Watch idleWatch;
+    private boolean refreshRequested = false;
     private volatile boolean stop = false;
     private volatile boolean idling = false;
 
 
     public ImapFolderPusher(ImapStore store, String name, PushReceiver pushReceiver) {
+        this(store, name, Collections.<String>emptyList(), null, pushReceiver);
+    }
+
+    public ImapFolderPusher(ImapStore store, String name, List<String> notifyFolderNames,
+            NotifyUnavailableCallback notifyUnavailableCallback, PushReceiver pushReceiver) {
+        this(store, name, notifyFolderNames, notifyUnavailableCallback, pushReceiver, IdleEventLoop.getInstance());
+    }
+
+    @VisibleForTesting
+    ImapFolderPusher(ImapStore store, String name, List<String> notifyFolderNames,
+            NotifyUnavailableCallback notifyUnavailableCallback, PushReceiver pushReceiver,
+            IdleEventLoop idleEventLoop) {
         super(store, name);
         this.pushReceiver = pushReceiver;
+        this.initialNotifyFolderNames = notifyFolderNames;
+        this.notifyUnavailableCallback = notifyUnavailableCallback;
+        this.idleEventLoop = idleEventLoop;
 
         Context context = pushReceiver.getContext();
         TracingPowerManager powerManager = TracingPowerManager.getPowerManager(context);
@@ -57,32 +101,57 @@ class ImapFolderPusher extends ImapFolder {
 
     public void start() {
         synchronized (threadLock) {
-            if (listeningThread != null) {
+            if (running) {
                 throw new IllegalStateException("start() called twice");
             }
 
-            listeningThread = new Thread(new PushRunnable());
-            listeningThread.start();
+            running = true;
+            PUSH_EXECUTOR.execute(new PushRunnable());
         }
     }
 
     public void refresh() throws IOException, MessagingException {
         if (idling) {
             wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
+
+            synchronized (threadLock) {
+                // The watch might already have finished for another reason, so resume() has to check this
+                refreshRequested = true;
+            }
+
+            if (wakeUpIdleConnection()) {
+                // The pusher refreshes IDLE once it got the connection back from the event loop
+                return;
+            }
+
+            synchronized (threadLock) {
+                refreshRequested = false;
+            }
+
             idleStopper.stopIdle();
         }
     }
 
     public void stop() {
         synchronized (threadLock) {
-            if (listeningThread == null) {
+            if (!running) {
                 throw new IllegalStateException("stop() called twice");
             }
 
+            running = false;
             stop = true;
 
-            listeningThread.interrupt();
-            listeningThread = null;
+            if (workerThread != null) {
+                workerThread.interrupt();
+            }
+        }
+
+        if (wakeUpIdleConnection()) {
+            if (K9MailLib.isDebug()) {
+                Timber.v("Waking up idle connection to stop pushing for %s", getLogId());
+            }
+
+            return;
         }
 
         ImapConnection conn = connection;
@@ -97,12 +166,27 @@ class ImapFolderPusher extends ImapFolder {
         }
     }
 
+    /**
+     * The connection must not be used while it's watched by {@link IdleEventLoop}.
+     *
+     * @return {@code true} if the pusher will take over once it got the connection back from the event loop.
+     */
+    private boolean wakeUpIdleConnection() {
+        IdleEventLoop.Watch watch;
+        synchronized (threadLock) {
+            watch = idleWatch;
+        }
+
+        return watch != null && watch.wakeUp();
+    }
+
     @Override
     protected void handleUntaggedResponse(ImapResponse response) {
         if (response.getTag() == null && response.size() > 1) {
             Object responseType = response.get(1);
             if (equalsIgnoreCase(responseType, "FETCH") || equalsIgnoreCase(responseType, "EXPUNGE") ||
-                    equalsIgnoreCase(responseType, "EXISTS")) {
+                    equalsIgnoreCase(responseType, "EXISTS") || isVanishedResponse(response) ||
+                    isStatusResponse(response)) {
 
                 if (K9MailLib.isDebug()) {
                     Timber.d("Storing response %s for later processing", response);
@@ -121,23 +205,112 @@ class ImapFolderPusher extends ImapFolder {
         super.handleUntaggedResponse(response);
     }
 
+    private static boolean isVanishedResponse(ImapResponse response) {
+        return equalsIgnoreCase(response.get(0), Responses.VANISHED);
+    }
+
+    private static boolean isStatusResponse(ImapResponse response) {
+        return equalsIgnoreCase(response.get(0), Responses.STATUS);
+    }
+
+    private static boolean isNotificationOverflowResponse(ImapResponse response) {
+        return equalsIgnoreCase(response.get(0), Responses.OK) &&
+                ResponseCodeExtractor.NOTIFICATION_OVERFLOW.equals(ResponseCodeExtractor.getResponseCode(response));
+    }
+
+    /**
+     * STATUS responses contain the encoded mailbox name. {@code INBOX} is case-insensitive.
+     */
+    private static String getMailboxKey(String encodedMailboxName) {
+        return "INBOX".equalsIgnoreCase(encodedMailboxName) ? "INBOX" : encodedMailboxName;
+    }
+
+    private String getPrefixedName(String folderName) {
+        if (store.getStoreConfig().getInboxFolderName().equalsIgnoreCase(folderName)) {
+            return folderName;
+        }
 
-    private class PushRunnable implements Runnable, UntaggedHandler {
+        return store.getCombinedPrefix() + folderName;
+    }
+
+
+    private class PushRunnable implements Runnable, UntaggedHandler, IdleEventLoop.Listener {
+        private final List<ImapResponse> idleResponses = new ArrayList<ImapResponse>();
+        private String idleTag;
+        private long lastUidNext = -1L;
         private int delayTime = NORMAL_DELAY_TIME;
         private int idleFailureCount = 0;
         private boolean needsPoll = false;
+        private List<String> notifyFolderNames = initialNotifyFolderNames;
+        private Map<String, String> notifyFolderNamesByMailbox = Collections.emptyMap();
+        private boolean notifyEnabled = false;
+        private boolean needsNotifySetup = false;
+        private final List<StatusResponse> initialStatusResponses = new ArrayList<StatusResponse>();
 
         @Override
         public void run() {
+            synchronized (threadLock) {
+                workerThread = Thread.currentThread();
+            }
+
             wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
 
             if (K9MailLib.isDebug()) {
                 Timber.i("Pusher starting for %s", getLogId());
             }
 
-            long lastUidNext = -1L;
+            runLoop();
+        }
+
+        @Override
+        public void onWakeUp(final IdleEventLoop.WakeUpReason reason) {
+            wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
+
+            PUSH_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    resume(reason);
+                }
+            });
+        }
+
+        private void resume(IdleEventLoop.WakeUpReason reason) {
+            boolean refresh;
+            synchronized (threadLock) {
+                idleWatch = null;
+                workerThread = Thread.currentThread();
+                refresh = refreshRequested;
+                refreshRequested = false;
+            }
+
+            if (K9MailLib.isDebug()) {
+                Timber.v("Idle connection woken up (%s) for %s", reason, getLogId());
+            }
+
+            if (stop) {
+                // stop() leaves closing the connection to us while it's watched by the event loop
+                ImapConnection conn = connection;
+                if (conn != null) {
+                    conn.close();
+                }
+            } else if (refresh || reason != IdleEventLoop.WakeUpReason.READABLE) {
+                idleStopper.stopIdle();
+            }
+
+            runLoop();
+        }
+
+        private void runLoop() {
             while (!stop) {
                 try {
+                    if (idleTag != null) {
+                        if (!continueIdle(connection)) {
+                            return;
+                        }
+
+                        continue;
+                    }
+
                     long oldUidNext = getOldUidNext();
 
                         /*
@@ -157,6 +330,11 @@ class ImapFolderPusher extends ImapFolder {
                         break;
                     }
 
+                    if (openedNewConnection || needsNotifySetup) {
+                        needsNotifySetup = false;
+                        setUpNotify();
+                    }
+
                     boolean pushPollOnConnect = store.getStoreConfig().isPushPollOnConnect();
                     if (pushPollOnConnect && (openedNewConnection || needsPoll)) {
                         needsPoll = false;
@@ -167,6 +345,8 @@ class ImapFolderPusher extends ImapFolder {
                         break;
                     }
 
+                    processInitialStatusResponses();
+
                     long newUidNext = getNewUidNext();
                     lastUidNext = newUidNext;
                     long startUid = getStartUid(oldUidNext, newUidNext);
@@ -184,9 +364,11 @@ class ImapFolderPusher extends ImapFolder {
 
                         ImapConnection conn = connection;
                         setReadTimeoutForIdle(conn);
-                        sendIdle(conn);
+                        idleTag = conn.sendCommand(Commands.IDLE, false);
 
-                        returnFromIdle();
+                        if (!continueIdle(conn)) {
+                            return;
+                        }
                     }
                 } catch (AuthenticationFailedException e) {
                     reacquireWakeLockAndCleanUp();
@@ -224,7 +406,7 @@ class ImapFolderPusher extends ImapFolder {
                 }
             }
 
-            pushReceiver.setPushActive(getName(), false);
+            setPushActive(false);
 
             try {
                 if (K9MailLib.isDebug()) {
@@ -235,6 +417,10 @@ class ImapFolderPusher extends ImapFolder {
             } catch (Exception me) {
                 Timber.e(me, "Got exception while closing for %s", getLogId());
             } finally {
+                synchronized (threadLock) {
+                    workerThread = null;
+                }
+
                 wakeLock.release();
             }
         }
@@ -243,8 +429,11 @@ class ImapFolderPusher extends ImapFolder {
             wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
 
             clearStoredUntaggedResponses();
+            idleResponses.clear();
             idling = false;
-            pushReceiver.setPushActive(getName(), false);
+            setPushActive(false);
+            notifyEnabled = false;
+            initialStatusResponses.clear();
 
             try {
                 connection.close();
@@ -295,26 +484,130 @@ class ImapFolderPusher extends ImapFolder {
         }
 
         private void prepareForIdle() {
-            pushReceiver.setPushActive(getName(), true);
+            setPushActive(true);
             idling = true;
         }
 
-        private void sendIdle(ImapConnection conn) throws MessagingException, IOException {
-            String tag = conn.sendCommand(Commands.IDLE, false);
+        private void setPushActive(boolean enabled) {
+            pushReceiver.setPushActive(getName(), enabled);
 
-            List<ImapResponse> responses;
+            if (notifyEnabled) {
+                for (String folderName : notifyFolderNames) {
+                    pushReceiver.setPushActive(folderName, enabled);
+                }
+            }
+        }
+
+        /**
+         * Reads the responses to the IDLE command sent with {@link #idleTag}.
+         *
+         * @return {@code false} if the connection was handed to {@link IdleEventLoop}. The pusher continues in
+         *         {@link #resume(IdleEventLoop.WakeUpReason)} then.
+         */
+        private boolean continueIdle(ImapConnection conn) throws MessagingException, IOException {
+            boolean parked = false;
             try {
-                try {
-                    responses = conn.readStatusResponse(tag, Commands.IDLE, this);
-                } finally {
-                    idleStopper.stopAcceptingDoneContinuation();
+                boolean waitForCompletion = false;
+                while (!readIdleResponses(conn, waitForCompletion)) {
+                    if (parkConnection(conn)) {
+                        parked = true;
+                        return false;
+                    }
+
+                    waitForCompletion = true;
                 }
             } catch (IOException e) {
                 conn.close();
                 throw e;
+            } finally {
+                if (!parked) {
+                    idleStopper.stopAcceptingDoneContinuation();
+                    idleTag = null;
+                }
             }
 
+            List<ImapResponse> responses = new ArrayList<ImapResponse>(idleResponses);
+            idleResponses.clear();
             handleUntaggedResponses(responses);
+
+            returnFromIdle();
+
+            return true;
+        }
+
+        /**
+         * Reads responses until the IDLE command completes or, unless {@code waitForCompletion} is set, until the
+         * next response has to be waited for while the server is idling.
+         *
+         * @return {@code true} if the IDLE command completed.
+         */
+        private boolean readIdleResponses(ImapConnection conn, boolean waitForCompletion) throws MessagingException,
+                IOException {
+            do {
+                ImapResponse response = conn.readResponse();
+
+                String responseTag = response.getTag();
+                if (responseTag == null) {
+                    handleAsyncUntaggedResponse(response);
+                    idleResponses.add(response);
+                } else if (responseTag.equalsIgnoreCase(idleTag)) {
+                    if (response.size() < 1 || !equalsIgnoreCase(response.get(0), Responses.OK)) {
+                        List<ImapResponse> responses = new ArrayList<ImapResponse>(idleResponses);
+                        responses.add(response);
+                        idleResponses.clear();
+
+                        throw new NegativeImapResponseException("Command: IDLE; response: " + response.toString(),
+                                responses);
+                    }
+
+                    idleResponses.add(response);
+                    return true;
+                } else {
+                    Timber.w("After sending tag %s, got tag response from previous command %s for %s",
+                            idleTag, response, getLogId());
+                }
+            } while (waitForCompletion || !idleStopper.isAcceptingDoneContinuation() || conn.hasBufferedInput());
+
+            return false;
+        }
+
+        /**
+         * Hands the idling connection to {@link IdleEventLoop}. It calls
+         * {@link #onWakeUp(IdleEventLoop.WakeUpReason)} when the server sends something or it's time to refresh the
+         * IDLE command.
+         *
+         * @return {@code false} if the connection can't be watched. The caller has to wait for the server then.
+         */
+        private boolean parkConnection(ImapConnection conn) {
+            SocketChannel channel = conn.getSocketChannel();
+            if (channel == null) {
+                return false;
+            }
+
+            long idleRefreshTimeout = store.getStoreConfig().getIdleRefreshMinutes() * 60 * 1000L;
+
+            synchronized (threadLock) {
+                if (stop) {
+                    return false;
+                }
+
+                try {
+                    idleWatch = idleEventLoop.watch(channel, idleRefreshTimeout, this);
+                } catch (IOException e) {
+                    Timber.w(e, "Unable to hand idle connection to event loop for %s", getLogId());
+                    return false;
+                }
+
+                workerThread = null;
+            }
+
+            if (K9MailLib.isDebug()) {
+                Timber.v("Waiting for server in event loop for %s", getLogId());
+            }
+
+            wakeLock.release();
+
+            return true;
         }
 
         private void returnFromIdle() {
@@ -332,9 +625,151 @@ class ImapFolderPusher extends ImapFolder {
             checkConnectionNotNull(conn);
             checkConnectionIdleCapable(conn);
 
+            if (conn != oldConnection) {
+                store.detachConnection(conn);
+            }
+
             return conn != oldConnection;
         }
 
+        /**
+         * Asks the server to report changes to the other folders on this connection. The initial STATUS responses
+         * are kept for {@link #processInitialStatusResponses()}.
+         */
+        private void setUpNotify() throws MessagingException, IOException {
+            notifyEnabled = false;
+            initialStatusResponses.clear();
+
+            if (notifyFolderNames.isEmpty()) {
+                return;
+            }
+
+            ImapConnection conn = connection;
+            if (!conn.isNotifyCapable()) {
+                Timber.i("Server doesn't support NOTIFY, can't push other folders using %s", getLogId());
+                pushOtherFoldersSeparately();
+                return;
+            }
+
+            FolderNameCodec folderNameCodec = store.getFolderNameCodec();
+            Map<String, String> folderNamesByMailbox = new HashMap<String, String>();
+            StringBuilder mailboxes = new StringBuilder();
+            for (String folderName : notifyFolderNames) {
+                String encodedFolderName = folderNameCodec.encode(getPrefixedName(folderName));
+                folderNamesByMailbox.put(getMailboxKey(encodedFolderName), folderName);
+
+                if (mailboxes.length() > 0) {
+                    mailboxes.append(' ');
+                }
+                mailboxes.append(ImapUtility.encodeString(encodedFolderName));
+            }
+
+            String command = String.format("%s (SELECTED %s) (MAILBOXES (%s) %s)", Commands.NOTIFY_SET_STATUS,
+                    NOTIFY_EVENTS, mailboxes, NOTIFY_EVENTS);
+
+            List<ImapResponse> responses;
+            try {
+                responses = conn.executeSimpleCommand(command);
+            } catch (NegativeImapResponseException e) {
+                Timber.w(e, "NOTIFY failed, can't push other folders using %s", getLogId());
+                pushOtherFoldersSeparately();
+                return;
+            }
+
+            notifyFolderNamesByMailbox = folderNamesByMailbox;
+            notifyEnabled = true;
+
+            for (ImapResponse response : responses) {
+                StatusResponse statusResponse = StatusResponse.parse(response);
+                if (statusResponse != null) {
+                    initialStatusResponses.add(statusResponse);
+                } else {
+                    handleUntaggedResponse(response);
+                }
+            }
+
+            if (K9MailLib.isDebug()) {
+                Timber.i("Watching %d other folders using NOTIFY for %s", notifyFolderNames.size(), getLogId());
+            }
+        }
+
+        private void pushOtherFoldersSeparately() {
+            List<String> folderNames = notifyFolderNames;
+            notifyFolderNames = Collections.emptyList();
+
+            if (notifyUnavailableCallback != null) {
+                notifyUnavailableCallback.onNotifyUnavailable(ImapFolderPusher.this, folderNames);
+            }
+        }
+
+        /**
+         * The server sends the current state of all other folders in response to {@code NOTIFY SET STATUS}. Only
+         * look for new messages then. Everything else is up to {@code pushPollOnConnect}.
+         */
+        private void processInitialStatusResponses() {
+            if (initialStatusResponses.isEmpty()) {
+                return;
+            }
+
+            List<StatusResponse> statusResponses = new ArrayList<StatusResponse>(initialStatusResponses);
+            initialStatusResponses.clear();
+
+            processStatusResponses(statusResponses, false);
+        }
+
+        /**
+         * Notifies the receiver about changes to other folders reported by STATUS responses. New messages are
+         * reported like for the pushed folder. Since STATUS responses don't say what else changed, the folder is
+         * synchronized if a response doesn't announce new messages and {@code syncOtherChanges} is set.
+         */
+        private void processStatusResponses(List<StatusResponse> statusResponses, boolean syncOtherChanges) {
+            Map<String, Long> oldUidNextByFolder = new HashMap<String, Long>();
+            Map<String, Long> newUidNextByFolder = new LinkedHashMap<String, Long>();
+            List<String> foldersWithOtherChanges = new ArrayList<String>();
+
+            for (StatusResponse statusResponse : statusResponses) {
+                String folderName = notifyFolderNamesByMailbox.get(getMailboxKey(statusResponse.getMailboxName()));
+                if (folderName == null) {
+                    if (K9MailLib.isDebug()) {
+                        Timber.d("Ignoring STATUS for %s on %s", statusResponse.getMailboxName(), getLogId());
+                    }
+                    continue;
+                }
+
+                if (!oldUidNextByFolder.containsKey(folderName)) {
+                    oldUidNextByFolder.put(folderName, getOldUidNext(folderName));
+                }
+
+                Long previousUidNext = newUidNextByFolder.get(folderName);
+                if (previousUidNext == null) {
+                    previousUidNext = oldUidNextByFolder.get(folderName);
+                }
+
+                long uidNext = statusResponse.getUidNext();
+                if (uidNext > previousUidNext) {
+                    newUidNextByFolder.put(folderName, uidNext);
+                } else if (!foldersWithOtherChanges.contains(folderName)) {
+                    // UIDNEXT didn't change, so messages were removed or flags changed
+                    foldersWithOtherChanges.add(folderName);
+                }
+            }
+
+            for (Map.Entry<String, Long> entry : newUidNextByFolder.entrySet()) {
+                String folderName = entry.getKey();
+                long newUidNext = entry.getValue();
+                long startUid = getStartUid(oldUidNextByFolder.get(folderName), newUidNext);
+                if (newUidNext > startUid) {
+                    notifyMessagesArrived(store.getFolder(folderName), startUid, newUidNext);
+                }
+            }
+
+            if (syncOtherChanges) {
+                for (String folderName : foldersWithOtherChanges) {
+                    pushReceiver.syncFolder(store.getFolder(folderName));
+                }
+            }
+        }
+
         private void checkConnectionNotNull(ImapConnection conn) throws MessagingException {
             if (conn == null) {
                 String message = "Could not establish connection for IDLE";
@@ -374,10 +809,19 @@ class ImapFolderPusher extends ImapFolder {
                 idleStopper.stopIdle();
             } else {
                 if (response.getTag() == null) {
-                    if (response.size() > 1) {
+                    if (response.size() > 1 && isNotificationOverflowResponse(response)) {
+                        // The server stopped sending notifications. Changes might have been lost.
+                        Timber.w("Got NOTIFICATIONOVERFLOW for %s", getLogId());
+
+                        wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
+                        needsNotifySetup = true;
+                        needsPoll = true;
+                        idleStopper.stopIdle();
+                    } else if (response.size() > 1) {
                         Object responseType = response.get(1);
                         if (equalsIgnoreCase(responseType, "EXISTS") || equalsIgnoreCase(responseType, "EXPUNGE") ||
-                                equalsIgnoreCase(responseType, "FETCH")) {
+                                equalsIgnoreCase(responseType, "FETCH") || isVanishedResponse(response) ||
+                                isStatusResponse(response)) {
 
                             wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
 
@@ -434,7 +878,22 @@ class ImapFolderPusher extends ImapFolder {
             }
         }
 
-        private void processUntaggedResponses(List<ImapResponse> responses) throws MessagingException {
+        private void processUntaggedResponses(List<ImapResponse> untaggedResponses) throws MessagingException {
+            List<ImapResponse> responses = new ArrayList<ImapResponse>(untaggedResponses.size());
+            List<StatusResponse> statusResponses = new ArrayList<StatusResponse>();
+            for (ImapResponse response : untaggedResponses) {
+                StatusResponse statusResponse = StatusResponse.parse(response);
+                if (statusResponse != null) {
+                    statusResponses.add(statusResponse);
+                } else {
+                    responses.add(response);
+                }
+            }
+
+            if (!statusResponses.isEmpty()) {
+                processStatusResponses(statusResponses, true);
+            }
+
             boolean skipSync = false;
 
             int oldMessageCount = messageCount;
@@ -547,6 +1006,26 @@ class ImapFolderPusher extends ImapFolder {
                             }
                         }
                     }
+
+                    // With QRESYNC enabled the server reports expunged messages by UID instead of EXPUNGE
+                    VanishedResponse vanishedResponse = VanishedResponse.parse(response);
+                    if (vanishedResponse != null && !vanishedResponse.isEarlier()) {
+                        UidRangeSet vanishedUids = vanishedResponse.getUids();
+                        messageCountDelta = (int) -Math.min(vanishedUids.size(), oldMessageCount);
+
+                        if (K9MailLib.isDebug()) {
+                            Timber.d("Got untagged VANISHED for UIDs %s for %s", vanishedUids, getLogId());
+                        }
+
+                        List<String> knownVanishedUids = vanishedUids.intersect(msgSeqUidMap.values());
+                        removeMsgUids.addAll(knownVanishedUids);
+                        msgSeqUidMap.values().removeAll(knownVanishedUids);
+
+                        if (knownVanishedUids.size() < vanishedUids.size()) {
+                            // Let the next sync find local copies of messages we don't have a sequence number for
+                            needsPoll = true;
+                        }
+                    }
                 } catch (Exception e) {
                     Timber.e(e, "Could not handle untagged FETCH for %s", getLogId());
                 }
@@ -647,42 +1126,63 @@ class ImapFolderPusher extends ImapFolder {
             }
 
             pushReceiver.syncFolder(ImapFolderPusher.this);
+
+            if (notifyEnabled) {
+                for (String folderName : notifyFolderNames) {
+                    pushReceiver.syncFolder(store.getFolder(folderName));
+                }
+            }
         }
 
         private void notifyMessagesArrived(long startUid, long uidNext) {
+            notifyMessagesArrived(ImapFolderPusher.this, startUid, uidNext);
+        }
+
+        private void notifyMessagesArrived(ImapFolder folder, long startUid, long uidNext) {
             if (K9MailLib.isDebug()) {
-                Timber.i("Needs sync from uid %d to %d for %s", startUid, uidNext, getLogId());
+                Timber.i("Needs sync from uid %d to %d for %s", startUid, uidNext, folder.getLogId());
             }
 
             int count = (int) (uidNext - startUid);
             List<Message> messages = new ArrayList<Message>(count);
 
             for (long uid = startUid; uid < uidNext; uid++) {
-                ImapMessage message = new ImapMessage(Long.toString(uid), ImapFolderPusher.this);
+                ImapMessage message = new ImapMessage(Long.toString(uid), folder);
                 messages.add(message);
             }
 
-            pushReceiver.messagesArrived(ImapFolderPusher.this, messages);
+            pushReceiver.messagesArrived(folder, messages);
         }
 
         private long getOldUidNext() {
+            return getOldUidNext(getName());
+        }
+
+        private long getOldUidNext(String folderName) {
             long oldUidNext = -1L;
             try {
-                String serializedPushState = pushReceiver.getPushState(getName());
+                String serializedPushState = pushReceiver.getPushState(folderName);
                 ImapPushState pushState = ImapPushState.parse(serializedPushState);
                 oldUidNext = pushState.uidNext;
 
                 if (K9MailLib.isDebug()) {
-                    Timber.i("Got oldUidNext %d for %s", oldUidNext, getLogId());
+                    Timber.i("Got oldUidNext %d for %s", oldUidNext, folderName);
                 }
             } catch (Exception e) {
-                Timber.e(e, "Unable to get oldUidNext for %s", getLogId());
+                Timber.e(e, "Unable to get oldUidNext for %s", folderName);
             }
 
             return oldUidNext;
         }
     }
 
+    interface NotifyUnavailableCallback {
+        /**
+         * Called if the server doesn't support watching the given folders using NOTIFY.
+         */
+        void onNotifyUnavailable(ImapFolderPusher folderPusher, List<String> folderNames);
+    }
+
     /**
      * Ensure the DONE continuation is only sent when the IDLE command was sent and hasn't completed yet.
      */
@@ -705,6 +1205,10 @@ class ImapFolderPusher extends ImapFolder {
             imapConnection = null;
         }
 
+        public synchronized boolean isAcceptingDoneContinuation() {
+            return acceptDoneContinuation;
+        }
+
         public synchronized void stopIdle() {
             if (acceptDoneContinuation) {
                 acceptDoneContinuation = false;
@@ -2,6 +2,7 @@ package com.fsck.k9.mail.store.imap;
 
 import com.fsck.k9.mail.MessagingException;
 
+import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -15,6 +16,7 @@ import java.util.Locale;
  */
 class ImapList extends ArrayList<Object> {
     private static final long serialVersionUID = -4067248341419617583L;
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
     private static final DateFormat DATE_FORMAT = new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss Z", Locale.US);
     private static final DateFormat BAD_DATE_TIME_FORMAT = new SimpleDateFormat("dd MMM yyyy HH:mm:ss Z", Locale.US);
     private static final DateFormat BAD_DATE_TIME_FORMAT_2 = new SimpleDateFormat("E, dd MMM yyyy HH:mm:ss Z", Locale.US);
@@ -33,11 +35,11 @@ class ImapList extends ArrayList<Object> {
     }
 
     public String getString(int index) {
-        return (String)get(index);
+        return asString(get(index));
     }
 
     public boolean isString(int index) {
-        return inRange(index) && get(index) instanceof String;
+        return inRange(index) && isString(get(index));
     }
 
     public long getLong(int index) {
@@ -82,7 +84,7 @@ class ImapList extends ArrayList<Object> {
     }
 
     public String getKeyedString(String key) {
-        return (String)getKeyedValue(key);
+        return asString(getKeyedValue(key));
     }
 
     public int getKeyedNumber(String key) {
@@ -112,6 +114,40 @@ class ImapList extends ArrayList<Object> {
         throw new IllegalArgumentException("getKeyIndex() only works for keys that are in the collection.");
     }
 
+    /**
+     * Returns the string value of a token. Literals are kept as {@code byte[]} by the parser and only converted here.
+     */
+    static String asString(Object token) {
+        if (token instanceof byte[]) {
+            return new String((byte[]) token, US_ASCII);
+        }
+
+        return (String) token;
+    }
+
+    private static boolean isString(Object token) {
+        return token instanceof String || token instanceof byte[];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0, count = size(); i < count; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+
+            Object token = get(i);
+            if (token instanceof byte[]) {
+                // Don't dump message contents into the log
+                sb.append('{').append(((byte[]) token).length).append(" bytes}");
+            } else {
+                sb.append(token);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
     private boolean inRange(int index) {
         return index >= 0 && index < size();
     }
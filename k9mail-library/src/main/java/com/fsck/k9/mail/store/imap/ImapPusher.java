@@ -10,7 +10,15 @@ import com.fsck.k9.mail.Pusher;
 import timber.log.Timber;
 
 
-class ImapPusher implements Pusher {
+/**
+ * Pushes changes to a list of folders.
+ *
+ * <p>
+ * The first folder is watched using IDLE. If the server supports NOTIFY, the same connection is used to watch all
+ * other folders. Otherwise each of them gets its own {@link ImapFolderPusher}, and with that its own connection.
+ * </p>
+ */
+class ImapPusher implements Pusher, ImapFolderPusher.NotifyUnavailableCallback {
     private final ImapStore store;
     private final PushReceiver pushReceiver;
 
@@ -31,15 +39,39 @@ class ImapPusher implements Pusher {
 
             setLastRefresh(currentTimeMillis());
 
-            for (String folderName : folderNames) {
-                ImapFolderPusher pusher = createImapFolderPusher(folderName);
-                folderPushers.add(pusher);
+            if (folderNames.isEmpty()) {
+                return;
+            }
+
+            String firstFolderName = folderNames.get(0);
+            List<String> otherFolderNames = new ArrayList<>(folderNames.subList(1, folderNames.size()));
+
+            ImapFolderPusher pusher = otherFolderNames.isEmpty() ?
+                    createImapFolderPusher(firstFolderName) :
+                    createImapFolderPusher(firstFolderName, otherFolderNames);
+            startImapFolderPusher(pusher);
+        }
+    }
 
-                pusher.start();
+    @Override
+    public void onNotifyUnavailable(ImapFolderPusher folderPusher, List<String> folderNames) {
+        synchronized (folderPushers) {
+            if (!folderPushers.contains(folderPusher)) {
+                // Stopped in the meantime
+                return;
+            }
+
+            for (String folderName : folderNames) {
+                startImapFolderPusher(createImapFolderPusher(folderName));
             }
         }
     }
 
+    private void startImapFolderPusher(ImapFolderPusher pusher) {
+        folderPushers.add(pusher);
+        pusher.start();
+    }
+
     @Override
     public void refresh() {
         synchronized (folderPushers) {
@@ -95,6 +127,10 @@ class ImapPusher implements Pusher {
         return new ImapFolderPusher(store, folderName, pushReceiver);
     }
 
+    ImapFolderPusher createImapFolderPusher(String folderName, List<String> notifyFolderNames) {
+        return new ImapFolderPusher(store, folderName, notifyFolderNames, this, pushReceiver);
+    }
+
     long currentTimeMillis() {
         return System.currentTimeMillis();
     }
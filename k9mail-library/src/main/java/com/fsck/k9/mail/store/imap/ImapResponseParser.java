@@ -2,6 +2,7 @@ package com.fsck.k9.mail.store.imap;
 
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -14,10 +15,37 @@ import timber.log.Timber;
 import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_IMAP;
 
 
+/**
+ * Parses IMAP responses.
+ *
+ * <p>
+ * Atoms, quoted strings and numbers are collected in a reusable byte buffer and only converted to {@code String}
+ * once complete. Frequently used atoms are mapped to shared {@code String} instances, so parsing e.g. a
+ * {@code FETCH} response doesn't allocate new strings for keywords like {@code UID} or {@code FLAGS}. Literals that
+ * aren't consumed by an {@link ImapResponseCallback} are returned as {@code byte[]}. Use
+ * {@link ImapList#getString(int)} to get them as {@code String}.
+ * </p>
+ */
 class ImapResponseParser {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int INITIAL_TOKEN_BUFFER_SIZE = 64;
+    private static final String[] KNOWN_ATOMS = {
+            Responses.OK, Responses.NO, Responses.BAD, Responses.BYE, Responses.PREAUTH, Responses.CAPABILITY,
+            Responses.LIST, Responses.LSUB, Responses.SEARCH, Responses.EXISTS, Responses.EXPUNGE,
+            Responses.VANISHED, "FETCH", "RECENT", "UID", "FLAGS", "NIL", "BODY", "BODYSTRUCTURE", "INTERNALDATE",
+            "RFC822.SIZE", "MODSEQ", Responses.UIDVALIDITY, "UIDNEXT", Responses.HIGHESTMODSEQ,
+            Responses.PERMANENTFLAGS, "UNSEEN",
+            "\\Seen", "\\Answered", "\\Flagged", "\\Deleted", "\\Draft", "\\Recent", "$Forwarded", "\\*"
+    };
+    private static final byte[][][] KNOWN_ATOMS_BY_LENGTH = createKnownAtomTable();
+    private static final String[][] KNOWN_ATOM_STRINGS_BY_LENGTH = createKnownAtomStringTable();
+
+
     private PeekableInputStream inputStream;
     private ImapResponse response;
     private Exception exception;
+    private byte[] tokenBuffer = new byte[INITIAL_TOKEN_BUFFER_SIZE];
+    private int tokenLength;
 
 
     public ImapResponseParser(PeekableInputStream in) {
@@ -125,6 +153,9 @@ class ImapResponseParser {
         response.clear();
 
         Object firstToken = readToken(response);
+        if (firstToken instanceof byte[]) {
+            firstToken = ImapList.asString(firstToken);
+        }
 
         checkTokenIsString(firstToken);
         String symbol = (String) firstToken;
@@ -264,7 +295,7 @@ class ImapResponseParser {
         if (ch == '"') {
             return parseQuoted();
         } else if (ch == '{') {
-            return (String) parseLiteral();
+            return ImapList.asString(parseLiteral());
         } else {
             return parseBareString(false);
         }
@@ -308,7 +339,7 @@ class ImapResponseParser {
     }
 
     private String parseBareString(boolean allowBrackets) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        tokenLength = 0;
 
         int ch;
         while (true) {
@@ -321,13 +352,13 @@ class ImapResponseParser {
                     ch == '{' || ch == ' ' || ch == '"' ||
                     (ch >= 0x00 && ch <= 0x1f) || ch == 0x7f) {
 
-                if (sb.length() == 0) {
+                if (tokenLength == 0) {
                     throw new IOException(String.format("parseBareString(): (%04x %c)", ch, ch));
                 }
 
-                return sb.toString();
+                return createAtomString();
             } else {
-                sb.append((char) inputStream.read());
+                appendToToken(inputStream.read());
             }
         }
     }
@@ -390,13 +421,13 @@ class ImapResponseParser {
             read += count;
         }
 
-        return new String(data, "US-ASCII");
+        return data;
     }
 
     private String parseQuoted() throws IOException {
         expect('"');
 
-        StringBuilder sb = new StringBuilder();
+        tokenLength = 0;
         int ch;
         boolean escape = false;
         while ((ch = inputStream.read()) != -1) {
@@ -404,9 +435,9 @@ class ImapResponseParser {
                 // Found the escape character
                 escape = true;
             } else if (!escape && ch == '"') {
-                return sb.toString();
+                return createString();
             } else {
-                sb.append((char) ch);
+                appendToToken(ch);
                 escape = false;
             }
         }
@@ -430,14 +461,14 @@ class ImapResponseParser {
     }
 
     private String readStringUntil(char end) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        tokenLength = 0;
 
         int ch;
         while ((ch = inputStream.read()) != -1) {
             if (ch == end) {
-                return sb.toString();
+                return createString();
             } else {
-                sb.append((char) ch);
+                appendToToken(ch);
             }
         }
 
@@ -451,6 +482,78 @@ class ImapResponseParser {
         return rest;
     }
 
+    private void appendToToken(int b) {
+        if (tokenLength == tokenBuffer.length) {
+            byte[] newBuffer = new byte[tokenBuffer.length * 2];
+            System.arraycopy(tokenBuffer, 0, newBuffer, 0, tokenLength);
+            tokenBuffer = newBuffer;
+        }
+        tokenBuffer[tokenLength++] = (byte) b;
+    }
+
+    /**
+     * Bytes are mapped to the characters with the same code point, i.e. the token is decoded as ISO-8859-1.
+     */
+    private String createString() {
+        return new String(tokenBuffer, 0, tokenLength, ISO_8859_1);
+    }
+
+    private String createAtomString() {
+        if (tokenLength < KNOWN_ATOMS_BY_LENGTH.length) {
+            byte[][] candidates = KNOWN_ATOMS_BY_LENGTH[tokenLength];
+            for (int i = 0; i < candidates.length; i++) {
+                if (tokenEquals(candidates[i])) {
+                    return KNOWN_ATOM_STRINGS_BY_LENGTH[tokenLength][i];
+                }
+            }
+        }
+
+        return createString();
+    }
+
+    private boolean tokenEquals(byte[] atom) {
+        for (int i = 0; i < tokenLength; i++) {
+            if (tokenBuffer[i] != atom[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[][][] createKnownAtomTable() {
+        String[][] atomStrings = createKnownAtomStringTable();
+        byte[][][] table = new byte[atomStrings.length][][];
+        for (int length = 0; length < atomStrings.length; length++) {
+            table[length] = new byte[atomStrings[length].length][];
+            for (int i = 0; i < atomStrings[length].length; i++) {
+                table[length][i] = atomStrings[length][i].getBytes(ISO_8859_1);
+            }
+        }
+        return table;
+    }
+
+    private static String[][] createKnownAtomStringTable() {
+        int maxLength = 0;
+        for (String atom : KNOWN_ATOMS) {
+            maxLength = Math.max(maxLength, atom.length());
+        }
+
+        List<List<String>> atomsByLength = new ArrayList<>(maxLength + 1);
+        for (int length = 0; length <= maxLength; length++) {
+            atomsByLength.add(new ArrayList<String>());
+        }
+        for (String atom : KNOWN_ATOMS) {
+            atomsByLength.get(atom.length()).add(atom);
+        }
+
+        String[][] table = new String[maxLength + 1][];
+        for (int length = 0; length <= maxLength; length++) {
+            List<String> atoms = atomsByLength.get(length);
+            table[length] = atoms.toArray(new String[atoms.size()]);
+        }
+        return table;
+    }
+
     private void expect(char expected) throws IOException {
         int readByte = inputStream.read();
         if (readByte != expected) {
@@ -468,11 +571,29 @@ class ImapResponseParser {
     }
 
     static boolean equalsIgnoreCase(Object token, String symbol) {
-        if (token == null || !(token instanceof String)) {
+        if (token instanceof String) {
+            return symbol.equalsIgnoreCase((String) token);
+        } else if (token instanceof byte[]) {
+            return equalsIgnoreCase((byte[]) token, symbol);
+        }
+
+        return false;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] token, String symbol) {
+        if (token.length != symbol.length()) {
             return false;
         }
 
-        return symbol.equalsIgnoreCase((String) token);
+        for (int i = 0; i < token.length; i++) {
+            char tokenChar = (char) (token[i] & 0xFF);
+            char symbolChar = symbol.charAt(i);
+            if (tokenChar != symbolChar &&
+                    Character.toUpperCase(tokenChar) != Character.toUpperCase(symbolChar)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void checkTokenIsString(Object token) throws IOException {
@@ -5,11 +5,9 @@ import java.io.IOException;
 import java.nio.charset.CharacterCodingException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -53,7 +51,7 @@ public class ImapStore extends RemoteStore {
     private String pathPrefix;
     private String combinedPrefix = null;
     private String pathDelimiter = null;
-    private final Deque<ImapConnection> connections = new LinkedList<ImapConnection>();
+    private final ImapConnectionPool connectionPool;
     private FolderNameCodec folderNameCodec;
 
     /**
@@ -100,6 +98,13 @@ public class ImapStore extends RemoteStore {
         pathPrefix = (settings.autoDetectNamespace) ? null : settings.pathPrefix;
 
         folderNameCodec = FolderNameCodec.newInstance();
+
+        connectionPool = new ImapConnectionPool(new ImapConnectionPool.ConnectionFactory() {
+            @Override
+            public ImapConnection createConnection() {
+                return createImapConnection();
+            }
+        });
     }
 
     @Override
@@ -310,35 +315,22 @@ public class ImapStore extends RemoteStore {
     }
 
     ImapConnection getConnection() throws MessagingException {
-        ImapConnection connection;
-        while ((connection = pollConnection()) != null) {
-            try {
-                connection.executeSimpleCommand(Commands.NOOP);
-                break;
-            } catch (IOException ioe) {
-                connection.close();
-            }
-        }
-
-        if (connection == null) {
-            connection = createImapConnection();
-        }
+        return connectionPool.acquire();
+    }
 
-        return connection;
+    void releaseConnection(ImapConnection connection) {
+        connectionPool.release(connection);
     }
 
-    private ImapConnection pollConnection() {
-        synchronized (connections) {
-            return connections.poll();
-        }
+    /**
+     * Excludes a connection from the pool's limit while it's in use, e.g. when it's used for {@code IDLE}.
+     */
+    void detachConnection(ImapConnection connection) {
+        connectionPool.detach(connection);
     }
 
-    void releaseConnection(ImapConnection connection) {
-        if (connection != null && connection.isConnected()) {
-            synchronized (connections) {
-                connections.offer(connection);
-            }
-        }
+    ImapConnectionPool getConnectionPool() {
+        return connectionPool;
     }
 
     ImapConnection createImapConnection() {
@@ -353,6 +345,21 @@ public class ImapStore extends RemoteStore {
         return folderNameCodec;
     }
 
+    int getMaxPipelinedFetchCommands() {
+        return mStoreConfig.getMaxPipelinedFetchCommands();
+    }
+
+    /**
+     * Sets the maximum number of connections to the server that are in use or kept for reuse.
+     *
+     * <p>
+     * Connections used for push don't count against this limit.
+     * </p>
+     */
+    public void setMaxConnections(int maxConnections) {
+        connectionPool.setMaxConnections(maxConnections);
+    }
+
     private List<ImapFolder> getFolders(Collection<String> folderNames) {
         List<ImapFolder> folders = new ArrayList<>(folderNames.size());
 
@@ -20,6 +20,7 @@ package com.fsck.k9.mail.store.imap;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.fsck.k9.mail.UidRangeSet;
 import timber.log.Timber;
 
 
@@ -111,6 +112,44 @@ class ImapUtility {
         return list;
     }
 
+    /**
+     * Gets the ranges of a sequence set per RFC 3501 without expanding them.
+     *
+     * @param set
+     *         The sequence set string as received by the server.
+     *
+     * @return The sequence set. Invalid items are skipped.
+     */
+    public static UidRangeSet getImapSequenceRanges(String set) {
+        List<long[]> ranges = new ArrayList<long[]>();
+        if (set != null) {
+            String[] setItems = set.split(",");
+            for (String item : setItems) {
+                int colonPos = item.indexOf(':');
+                if (colonPos == -1) {
+                    if (isNumberValid(item)) {
+                        long value = Long.parseLong(item);
+                        ranges.add(new long[] { value, value });
+                    }
+                } else {
+                    try {
+                        long first = Long.parseLong(item.substring(0, colonPos));
+                        long second = Long.parseLong(item.substring(colonPos + 1));
+                        if (is32bitValue(first) && is32bitValue(second)) {
+                            ranges.add(new long[] { first, second });
+                        } else {
+                            Timber.d("Invalid range: %s", item);
+                        }
+                    } catch (NumberFormatException e) {
+                        Timber.d(e, "Invalid range value: %s", item);
+                    }
+                }
+            }
+        }
+
+        return new UidRangeSet(ranges);
+    }
+
     private static boolean isNumberValid(String number) {
         try {
             long value = Long.parseLong(number);
@@ -68,12 +68,12 @@ class ListResponse {
         ImapList nameAttributes = response.getList(1);
         List<String> attributes = new ArrayList<>(nameAttributes.size());
 
-        for (Object nameAttribute : nameAttributes) {
-            if (!(nameAttribute instanceof String)) {
+        for (int i = 0, size = nameAttributes.size(); i < size; i++) {
+            if (!nameAttributes.isString(i)) {
                 return null;
             }
 
-            String attribute = (String) nameAttribute;
+            String attribute = nameAttributes.getString(i);
             attributes.add(attribute);
         }
 
@@ -3,6 +3,7 @@ package com.fsck.k9.mail.store.imap;
 
 class ResponseCodeExtractor {
     public static final String AUTHENTICATION_FAILED = "AUTHENTICATIONFAILED";
+    public static final String NOTIFICATION_OVERFLOW = "NOTIFICATIONOVERFLOW";
 
 
     private ResponseCodeExtractor() {
@@ -0,0 +1,42 @@
+package com.fsck.k9.mail.store.imap;
+
+
+/**
+ * The state of the folder selected on an {@link ImapConnection}, as seen by the last {@link ImapFolder} that used
+ * the connection.
+ *
+ * <p>
+ * It allows an {@code ImapFolder} to skip the {@code SELECT} or {@code EXAMINE} command when it gets a connection
+ * from the pool that still has the folder selected. Changes that happened in the meantime are reported by the
+ * server in response to the next command.
+ * </p>
+ */
+class SelectedFolderState {
+    final String folderName;
+    final int mode;
+    final int messageCount;
+    final long uidNext;
+    final long uidValidity;
+    final long highestModSeq;
+    final boolean canCreateKeywords;
+
+
+    SelectedFolderState(String folderName, int mode, int messageCount, long uidNext, long uidValidity,
+            long highestModSeq, boolean canCreateKeywords) {
+        this.folderName = folderName;
+        this.mode = mode;
+        this.messageCount = messageCount;
+        this.uidNext = uidNext;
+        this.uidValidity = uidValidity;
+        this.highestModSeq = highestModSeq;
+        this.canCreateKeywords = canCreateKeywords;
+    }
+
+    boolean isFolder(String folderName) {
+        return this.folderName.equals(folderName);
+    }
+
+    boolean isFolder(String folderName, int mode) {
+        return isFolder(folderName) && this.mode == mode;
+    }
+}
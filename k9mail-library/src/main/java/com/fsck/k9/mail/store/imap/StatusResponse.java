@@ -0,0 +1,55 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
+
+
+/**
+ * An untagged {@code STATUS} response, as sent by servers for changes to other mailboxes after {@code NOTIFY}
+ * (RFC 5465).
+ */
+class StatusResponse {
+    private final String mailboxName;
+    private final long uidNext;
+
+
+    private StatusResponse(String mailboxName, long uidNext) {
+        this.mailboxName = mailboxName;
+        this.uidNext = uidNext;
+    }
+
+    public static StatusResponse parse(ImapResponse response) {
+        if (response.isTagged() || response.size() < 3 || !equalsIgnoreCase(response.get(0), Responses.STATUS) ||
+                !response.isString(1) || !response.isList(2)) {
+            return null;
+        }
+
+        String mailboxName = response.getString(1);
+        ImapList attributes = response.getList(2);
+
+        long uidNext = -1L;
+        if (attributes.containsKey(Responses.UIDNEXT)) {
+            try {
+                uidNext = Long.parseLong(attributes.getKeyedString(Responses.UIDNEXT));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        return new StatusResponse(mailboxName, uidNext);
+    }
+
+    /**
+     * @return The (encoded) name of the mailbox as sent by the server.
+     */
+    public String getMailboxName() {
+        return mailboxName;
+    }
+
+    /**
+     * @return The {@code UIDNEXT} value of the mailbox, or {@code -1} if the server didn't send it.
+     */
+    public long getUidNext() {
+        return uidNext;
+    }
+}
@@ -0,0 +1,55 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import com.fsck.k9.mail.UidRangeSet;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
+import static com.fsck.k9.mail.store.imap.ImapUtility.getImapSequenceRanges;
+
+
+/**
+ * An untagged {@code VANISHED} response as sent by servers after {@code ENABLE QRESYNC} (RFC 7162).
+ */
+class VanishedResponse {
+    private final boolean earlier;
+    private final UidRangeSet uids;
+
+
+    private VanishedResponse(boolean earlier, UidRangeSet uids) {
+        this.earlier = earlier;
+        this.uids = uids;
+    }
+
+    public static VanishedResponse parse(ImapResponse response) {
+        if (response.isTagged() || response.size() < 2 || !equalsIgnoreCase(response.get(0), Responses.VANISHED)) {
+            return null;
+        }
+
+        boolean earlier = false;
+        int uidSetIndex = 1;
+        if (response.isList(1)) {
+            ImapList tagList = response.getList(1);
+            earlier = tagList.size() == 1 && equalsIgnoreCase(tagList.get(0), Responses.EARLIER);
+            uidSetIndex = 2;
+        }
+
+        if (response.size() <= uidSetIndex || !response.isString(uidSetIndex)) {
+            return null;
+        }
+
+        UidRangeSet uids = getImapSequenceRanges(response.getString(uidSetIndex));
+
+        return new VanishedResponse(earlier, uids);
+    }
+
+    /**
+     * @return {@code true} if the response reports messages expunged before the mailbox was selected.
+     */
+    public boolean isEarlier() {
+        return earlier;
+    }
+
+    public UidRangeSet getUids() {
+        return uids;
+    }
+}
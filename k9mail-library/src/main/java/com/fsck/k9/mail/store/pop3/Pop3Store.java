@@ -57,11 +57,24 @@ public class Pop3Store extends RemoteStore {
     private static final String STLS_CAPABILITY = "STLS";
     private static final String UIDL_CAPABILITY = "UIDL";
     private static final String TOP_CAPABILITY = "TOP";
+    private static final String PIPELINING_CAPABILITY = "PIPELINING";
     private static final String SASL_CAPABILITY = "SASL";
     private static final String AUTH_PLAIN_CAPABILITY = "PLAIN";
     private static final String AUTH_CRAM_MD5_CAPABILITY = "CRAM-MD5";
     private static final String AUTH_EXTERNAL_CAPABILITY = "EXTERNAL";
 
+    /**
+     * Maximum number of commands sent before waiting for a response if the server supports PIPELINING. Keeps the
+     * commands we write small enough to never fill the socket buffers while the server is waiting for us to read.
+     */
+    private static final int PIPELINE_WINDOW = 32;
+
+    /**
+     * Maximum number of messages that are indexed with one UIDL command each instead of a full listing if the
+     * server doesn't support PIPELINING.
+     */
+    private static final int MAX_SINGLE_UIDL_COMMANDS = 50;
+
     /**
      * Decodes a Pop3Store URI.
      *
@@ -209,6 +222,7 @@ public class Pop3Store extends RemoteStore {
     private ConnectionSecurity mConnectionSecurity;
     private Map<String, Folder> mFolders = new HashMap<String, Folder>();
     private Pop3Capabilities mCapabilities;
+    private final Pop3UidlCache mUidlCache;
 
     /**
      * This value is {@code true} if the server supports the CAPA command but doesn't advertise
@@ -219,6 +233,16 @@ public class Pop3Store extends RemoteStore {
 
 
     public Pop3Store(StoreConfig storeConfig, TrustedSocketFactory socketFactory) throws MessagingException {
+        this(storeConfig, socketFactory, null);
+    }
+
+    /**
+     * @param uidlCacheDirectory
+     *         Directory to keep the unique-id listing of the maildrop in between sessions, or {@code null} to always
+     *         request the full listing.
+     */
+    public Pop3Store(StoreConfig storeConfig, TrustedSocketFactory socketFactory, File uidlCacheDirectory)
+            throws MessagingException {
         super(storeConfig, socketFactory);
 
         ServerSettings settings;
@@ -237,6 +261,21 @@ public class Pop3Store extends RemoteStore {
         mPassword = settings.password;
         mClientCertificateAlias = settings.clientCertificateAlias;
         mAuthType = settings.authenticationType;
+
+        mUidlCache = (uidlCacheDirectory != null) ? createUidlCache(uidlCacheDirectory) : null;
+    }
+
+    private Pop3UidlCache createUidlCache(File directory) {
+        // The store URI contains the password, so the file name is derived from the parts identifying the maildrop
+        String maildrop = mUsername + "@" + mHost + ":" + mPort;
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            String fileName = "pop3-uidl-" + Hex.encodeHex(md.digest(maildrop.getBytes()));
+            return new Pop3UidlCache(new File(directory, fileName));
+        } catch (NoSuchAlgorithmException e) {
+            Timber.w(e, "Unable to create UIDL cache");
+            return null;
+        }
     }
 
     @Override
@@ -293,6 +332,15 @@ public class Pop3Store extends RemoteStore {
         @SuppressLint("UseSparseArrays")
         private Map<Integer, Pop3Message> mMsgNumToMsgMap = new HashMap<Integer, Pop3Message>();
         private Map<String, Integer> mUidToMsgNumMap = new HashMap<String, Integer>();
+        /**
+         * Unique-ids of all messages in the maildrop by message number. Only complete if
+         * {@link #mAllMessagesIndexed} is set.
+         */
+        @SuppressLint("UseSparseArrays")
+        private Map<Integer, String> mMsgNumToUidMap = new HashMap<Integer, String>();
+        private boolean mAllMessagesIndexed;
+        private boolean mUidlSnapshotChecked;
+        private Set<String> mDeletedUids = new HashSet<String>();
         private String mName;
         private int mMessageCount;
 
@@ -415,6 +463,10 @@ public class Pop3Store extends RemoteStore {
             mUidToMsgMap.clear();
             mMsgNumToMsgMap.clear();
             mUidToMsgNumMap.clear();
+            mMsgNumToUidMap.clear();
+            mAllMessagesIndexed = false;
+            mUidlSnapshotChecked = false;
+            mDeletedUids.clear();
         }
 
         private void login() throws MessagingException {
@@ -512,6 +564,7 @@ public class Pop3Store extends RemoteStore {
             try {
                 if (isOpen()) {
                     executeSimpleCommand(QUIT_COMMAND);
+                    updateUidlSnapshotAfterQuit();
                 }
             } catch (Exception e) {
                 /*
@@ -649,69 +702,27 @@ public class Pop3Store extends RemoteStore {
             if (unindexedMessageCount == 0) {
                 return;
             }
-            if (unindexedMessageCount < 50 && mMessageCount > 5000) {
-                /*
-                 * In extreme cases we'll do a UIDL command per message instead of a bulk
-                 * download.
-                 */
-                for (int msgNum = start; msgNum <= end; msgNum++) {
-                    Pop3Message message = mMsgNumToMsgMap.get(msgNum);
-                    if (message == null) {
-                        String response = executeSimpleCommand(UIDL_COMMAND + " " + msgNum);
-                        // response = "+OK msgNum msgUid"
-                        String[] uidParts = response.split(" +");
-                        if (uidParts.length < 3 || !"+OK".equals(uidParts[0])) {
-                            Timber.e("ERR response: %s", response);
-                            return;
-                        }
-                        String msgUid = uidParts[2];
-                        message = new Pop3Message(msgUid, this);
-                        indexMessage(msgNum, message);
-                    }
-                }
-            } else {
-                String response = executeSimpleCommand(UIDL_COMMAND);
-                while ((response = readLine()) != null) {
-                    if (response.equals(".")) {
-                        break;
-                    }
-
+            if (!indexAllMessagesUsingSnapshot() && !mAllMessagesIndexed) {
+                if (unindexedMessageCount < MAX_SINGLE_UIDL_COMMANDS && mMessageCount > 5000) {
                     /*
-                     * Yet another work-around for buggy server software:
-                     * split the response into message number and unique identifier, no matter how many spaces it has
-                     *
-                     * Example for a malformed response:
-                     * 1   2011071307115510400ae3e9e00bmu9
-                     *
-                     * Note the three spaces between message number and unique identifier.
-                     * See issue 3546
+                     * In extreme cases we'll do a UIDL command per message instead of a bulk
+                     * download.
                      */
-
-                    String[] uidParts = response.split(" +");
-                    if ((uidParts.length >= 3) && "+OK".equals(uidParts[0])) {
-                        /*
-                         * At least one server software places a "+OK" in
-                         * front of every line in the unique-id listing.
-                         *
-                         * Fix up the array if we detected this behavior.
-                         * See Issue 1237
-                         */
-                        uidParts[0] = uidParts[1];
-                        uidParts[1] = uidParts[2];
-                    }
-                    if (uidParts.length >= 2) {
-                        Integer msgNum = Integer.valueOf(uidParts[0]);
-                        String msgUid = uidParts[1];
-                        if (msgNum >= start && msgNum <= end) {
-                            Pop3Message message = mMsgNumToMsgMap.get(msgNum);
-                            if (message == null) {
-                                message = new Pop3Message(msgUid, this);
-                                indexMessage(msgNum, message);
-                            }
+                    List<Integer> msgNums = new ArrayList<Integer>();
+                    for (int msgNum = start; msgNum <= end; msgNum++) {
+                        if (mMsgNumToMsgMap.get(msgNum) == null) {
+                            msgNums.add(msgNum);
                         }
                     }
+                    indexMsgNumsUsingSingleUidlCommands(msgNums);
+                } else {
+                    indexAllMessages();
                 }
             }
+
+            for (int msgNum = start; msgNum <= end; msgNum++) {
+                indexMessage(msgNum);
+            }
         }
 
         private void indexUids(List<String> uids)
@@ -730,33 +741,243 @@ public class Pop3Store extends RemoteStore {
             }
             /*
              * If we are missing uids in the cache the only sure way to
-             * get them is to do a full UIDL list. A possible optimization
-             * would be trying UIDL for the latest X messages and praying.
+             * get them is to do a full UIDL list, unless the snapshot from
+             * the last session is still valid.
              */
+            if (!indexAllMessagesUsingSnapshot() && !mAllMessagesIndexed) {
+                indexAllMessages();
+            }
+
+            for (String uid : unindexedUids) {
+                Integer msgNum = mUidToMsgNumMap.get(uid);
+                if (msgNum != null) {
+                    if (K9MailLib.isDebug() && DEBUG_PROTOCOL_POP3) {
+                        Timber.d("Got msgNum %d for UID %s", msgNum, uid);
+                    }
+
+                    indexMessage(msgNum);
+                }
+            }
+        }
+
+        /**
+         * Requests the full unique-id listing and saves it as snapshot for the next session.
+         */
+        private void indexAllMessages() throws MessagingException, IOException {
             String response = executeSimpleCommand(UIDL_COMMAND);
             while ((response = readLine()) != null) {
                 if (response.equals(".")) {
                     break;
                 }
+
+                /*
+                 * Yet another work-around for buggy server software:
+                 * split the response into message number and unique identifier, no matter how many spaces it has
+                 *
+                 * Example for a malformed response:
+                 * 1   2011071307115510400ae3e9e00bmu9
+                 *
+                 * Note the three spaces between message number and unique identifier.
+                 * See issue 3546
+                 */
+
                 String[] uidParts = response.split(" +");
+                if ((uidParts.length >= 3) && "+OK".equals(uidParts[0])) {
+                    /*
+                     * At least one server software places a "+OK" in
+                     * front of every line in the unique-id listing.
+                     *
+                     * Fix up the array if we detected this behavior.
+                     * See Issue 1237
+                     */
+                    uidParts[0] = uidParts[1];
+                    uidParts[1] = uidParts[2];
+                }
 
                 // Ignore messages without a unique-id
                 if (uidParts.length >= 2) {
                     Integer msgNum = Integer.valueOf(uidParts[0]);
                     String msgUid = uidParts[1];
-                    if (unindexedUids.contains(msgUid)) {
-                        if (K9MailLib.isDebug() && DEBUG_PROTOCOL_POP3) {
-                            Timber.d("Got msgNum %d for UID %s", msgNum, msgUid);
-                        }
+                    addUid(msgNum, msgUid);
+                }
+            }
 
-                        Pop3Message message = mUidToMsgMap.get(msgUid);
-                        if (message == null) {
-                            message = new Pop3Message(msgUid, this);
-                        }
-                        indexMessage(msgNum, message);
+            mAllMessagesIndexed = true;
+            mUidlSnapshotChecked = true;
+
+            if (mUidlCache != null) {
+                List<String> allUids = getAllUids();
+                if (allUids != null) {
+                    mUidlCache.save(allUids);
+                } else {
+                    // There could be gaps in the message numbers. See issue 2252
+                    mUidlCache.clear();
+                }
+            }
+        }
+
+        /**
+         * Uses the unique-id listing saved in the last session if the messages it contains are still there. Only the
+         * unique-ids of messages added since then are requested, so the full listing can be skipped while the
+         * maildrop only grows.
+         *
+         * <p>
+         * This is only tried once per session.
+         * </p>
+         *
+         * @return {@code true} if all messages have been indexed.
+         */
+        private boolean indexAllMessagesUsingSnapshot() throws MessagingException, IOException {
+            if (mUidlCache == null || mUidlSnapshotChecked) {
+                return false;
+            }
+            mUidlSnapshotChecked = true;
+
+            List<String> snapshot = mUidlCache.load();
+            int snapshotSize = snapshot.size();
+            if (snapshotSize == 0 || snapshotSize > mMessageCount) {
+                return false;
+            }
+
+            int newMessageCount = mMessageCount - snapshotSize;
+            int maxNewMessageCount = mCapabilities.pipelining ? snapshotSize : MAX_SINGLE_UIDL_COMMANDS;
+            if (newMessageCount > maxNewMessageCount) {
+                // The full listing is cheaper
+                return false;
+            }
+
+            // Check that the last message of the snapshot still has the same message number
+            String lastUid;
+            try {
+                lastUid = parseSingleUidlResponse(snapshotSize,
+                        executeSimpleCommand(UIDL_COMMAND + " " + snapshotSize));
+            } catch (Pop3ErrorResponse e) {
+                lastUid = null;
+            }
+
+            if (!snapshot.get(snapshotSize - 1).equals(lastUid)) {
+                if (K9MailLib.isDebug() && DEBUG_PROTOCOL_POP3) {
+                    Timber.d("Messages have been removed since the UIDL snapshot was taken");
+                }
+                return false;
+            }
+
+            for (int i = 0; i < snapshotSize; i++) {
+                addUid(i + 1, snapshot.get(i));
+            }
+
+            if (newMessageCount > 0) {
+                List<Integer> msgNums = new ArrayList<Integer>();
+                for (int msgNum = snapshotSize + 1; msgNum <= mMessageCount; msgNum++) {
+                    msgNums.add(msgNum);
+                }
+
+                try {
+                    indexMsgNumsUsingSingleUidlCommands(msgNums);
+                } catch (Pop3ErrorResponse e) {
+                    Timber.w(e, "Unable to index new messages using UIDL snapshot");
+                    return false;
+                }
+            }
+
+            List<String> allUids = getAllUids();
+            if (allUids == null) {
+                return false;
+            }
+
+            if (K9MailLib.isDebug() && DEBUG_PROTOCOL_POP3) {
+                Timber.d("Used UIDL snapshot of %d messages, requested %d new ones", snapshotSize, newMessageCount);
+            }
+
+            mAllMessagesIndexed = true;
+            if (newMessageCount > 0) {
+                mUidlCache.save(allUids);
+            }
+
+            return true;
+        }
+
+        /**
+         * Sends a {@code UIDL n} command for every message. They are pipelined if the server supports it.
+         */
+        private void indexMsgNumsUsingSingleUidlCommands(final List<Integer> msgNums) throws MessagingException {
+            List<String> commands = new ArrayList<String>();
+            for (Integer msgNum : msgNums) {
+                commands.add(UIDL_COMMAND + " " + msgNum);
+            }
+
+            executePipelined(commands, new Pop3ResponseHandler() {
+                @Override
+                public void handleResponse(int index, String response) {
+                    int msgNum = msgNums.get(index);
+                    String msgUid = parseSingleUidlResponse(msgNum, response);
+                    if (msgUid == null) {
+                        Timber.e("ERR response: %s", response);
+                        return;
                     }
+
+                    addUid(msgNum, msgUid);
+                }
+            });
+        }
+
+        /**
+         * @return The unique-id from a {@code +OK msgNum msgUid} response, or {@code null} if it's malformed.
+         */
+        private String parseSingleUidlResponse(int msgNum, String response) {
+            String[] uidParts = response.split(" +");
+            if (uidParts.length < 3 || !"+OK".equals(uidParts[0]) || !uidParts[1].equals(Integer.toString(msgNum))) {
+                return null;
+            }
+            return uidParts[2];
+        }
+
+        /**
+         * @return The unique-ids of messages 1 to {@link #mMessageCount}, or {@code null} if any is unknown.
+         */
+        private List<String> getAllUids() {
+            List<String> uids = new ArrayList<String>(mMessageCount);
+            for (int msgNum = 1; msgNum <= mMessageCount; msgNum++) {
+                String uid = mMsgNumToUidMap.get(msgNum);
+                if (uid == null) {
+                    return null;
                 }
+                uids.add(uid);
+            }
+            return uids;
+        }
+
+        private void updateUidlSnapshotAfterQuit() {
+            if (mUidlCache == null || mDeletedUids.isEmpty() || !mAllMessagesIndexed) {
+                return;
+            }
+
+            List<String> allUids = getAllUids();
+            if (allUids == null) {
+                return;
+            }
+
+            // The server renumbers the remaining messages once the deletions have been committed
+            allUids.removeAll(mDeletedUids);
+            mUidlCache.save(allUids);
+        }
+
+        private void addUid(int msgNum, String msgUid) {
+            mMsgNumToUidMap.put(msgNum, msgUid);
+            mUidToMsgNumMap.put(msgUid, msgNum);
+        }
+
+        private void indexMessage(int msgNum) {
+            String msgUid = mMsgNumToUidMap.get(msgNum);
+            if (msgUid == null || mMsgNumToMsgMap.get(msgNum) != null) {
+                return;
+            }
+
+            Pop3Message message = mUidToMsgMap.get(msgUid);
+            if (message == null) {
+                message = new Pop3Message(msgUid, this);
             }
+            indexMessage(msgNum, message);
         }
 
         private void indexMessage(int msgNum, Pop3Message message) {
@@ -803,25 +1024,19 @@ public class Pop3Store extends RemoteStore {
             } catch (IOException ioe) {
                 throw new MessagingException("fetch", ioe);
             }
+            boolean fetchBody = fp.contains(FetchProfile.Item.BODY) || fp.contains(FetchProfile.Item.BODY_SANE);
+            if (fetchBody && mCapabilities.pipelining) {
+                fetchBodiesPipelined(messages, getBodyLineLimit(fp), fp, listener);
+                return;
+            }
             for (int i = 0, count = messages.size(); i < count; i++) {
                 Pop3Message pop3Message = messages.get(i);
                 try {
                     if (listener != null && !fp.contains(FetchProfile.Item.ENVELOPE)) {
                         listener.messageStarted(pop3Message.getUid(), i, count);
                     }
-                    if (fp.contains(FetchProfile.Item.BODY)) {
-                        fetchBody(pop3Message, -1);
-                    } else if (fp.contains(FetchProfile.Item.BODY_SANE)) {
-                        /*
-                         * To convert the suggested download size we take the size
-                         * divided by the maximum line size (76).
-                         */
-                        if (mStoreConfig.getMaximumAutoDownloadMessageSize() > 0) {
-                            fetchBody(pop3Message,
-                                      (mStoreConfig.getMaximumAutoDownloadMessageSize() / 76));
-                        } else {
-                            fetchBody(pop3Message, -1);
-                        }
+                    if (fetchBody) {
+                        fetchBody(pop3Message, getBodyLineLimit(fp));
                     } else if (fp.contains(FetchProfile.Item.STRUCTURE)) {
                         /*
                          * If the user is requesting STRUCTURE we are required to set the body
@@ -838,6 +1053,60 @@ public class Pop3Store extends RemoteStore {
             }
         }
 
+        /**
+         * @return The number of lines to download, or -1 for the whole message.
+         */
+        private int getBodyLineLimit(FetchProfile fp) {
+            if (!fp.contains(FetchProfile.Item.BODY) && mStoreConfig.getMaximumAutoDownloadMessageSize() > 0) {
+                /*
+                 * To convert the suggested download size we take the size
+                 * divided by the maximum line size (76).
+                 */
+                return mStoreConfig.getMaximumAutoDownloadMessageSize() / 76;
+            }
+            return -1;
+        }
+
+        /**
+         * Sends the TOP or RETR commands for all messages without waiting for each message to be downloaded.
+         *
+         * <p>
+         * Only used if the server supports PIPELINING. It also supports CAPA then, so we know whether TOP is supported
+         * and don't need to try it first.
+         * </p>
+         */
+        private void fetchBodiesPipelined(final List<Pop3Message> messages, final int lines, final FetchProfile fp,
+                final MessageRetrievalListener<Pop3Message> listener) throws MessagingException {
+            boolean useTop = lines != -1 && mCapabilities.top;
+
+            List<String> commands = new ArrayList<String>();
+            for (Pop3Message message : messages) {
+                Integer msgNum = mUidToMsgNumMap.get(message.getUid());
+                if (useTop) {
+                    commands.add(String.format(Locale.US, TOP_COMMAND + " %d %d", msgNum, lines));
+                } else {
+                    commands.add(String.format(Locale.US, RETR_COMMAND + " %d", msgNum));
+                }
+            }
+
+            final int count = messages.size();
+            executePipelined(commands, new Pop3ResponseHandler() {
+                @Override
+                public void handleResponse(int index, String response) throws IOException, MessagingException {
+                    Pop3Message message = messages.get(index);
+                    if (listener != null && !fp.contains(FetchProfile.Item.ENVELOPE)) {
+                        listener.messageStarted(message.getUid(), index, count);
+                    }
+
+                    parseBody(message, lines);
+
+                    if (listener != null && !(fp.contains(FetchProfile.Item.ENVELOPE) && fp.size() == 1)) {
+                        listener.messageFinished(message, index, count);
+                    }
+                }
+            });
+        }
+
         private void fetchEnvelope(List<Pop3Message> messages,
                                    MessageRetrievalListener<Pop3Message> listener)  throws IOException, MessagingException {
             int unsizedMessages = 0;
@@ -854,21 +1123,7 @@ public class Pop3Store extends RemoteStore {
                  * In extreme cases we'll do a command per message instead of a bulk request
                  * to hopefully save some time and bandwidth.
                  */
-                for (int i = 0, count = messages.size(); i < count; i++) {
-                    Pop3Message message = messages.get(i);
-                    if (listener != null) {
-                        listener.messageStarted(message.getUid(), i, count);
-                    }
-                    String response = executeSimpleCommand(String.format(Locale.US, LIST_COMMAND + " %d",
-                                                           mUidToMsgNumMap.get(message.getUid())));
-                    String[] listParts = response.split(" ");
-                    //int msgNum = Integer.parseInt(listParts[1]);
-                    int msgSize = Integer.parseInt(listParts[2]);
-                    message.setSize(msgSize);
-                    if (listener != null) {
-                        listener.messageFinished(message, i, count);
-                    }
-                }
+                fetchEnvelopeUsingSingleListCommands(messages, listener);
             } else {
                 Set<String> msgUidIndex = new HashSet<String>();
                 for (Message message : messages) {
@@ -898,6 +1153,32 @@ public class Pop3Store extends RemoteStore {
             }
         }
 
+        private void fetchEnvelopeUsingSingleListCommands(final List<Pop3Message> messages,
+                final MessageRetrievalListener<Pop3Message> listener) throws MessagingException {
+            List<String> commands = new ArrayList<String>();
+            for (Pop3Message message : messages) {
+                commands.add(String.format(Locale.US, LIST_COMMAND + " %d", mUidToMsgNumMap.get(message.getUid())));
+            }
+
+            final int count = messages.size();
+            executePipelined(commands, new Pop3ResponseHandler() {
+                @Override
+                public void handleResponse(int index, String response) {
+                    Pop3Message message = messages.get(index);
+                    if (listener != null) {
+                        listener.messageStarted(message.getUid(), index, count);
+                    }
+                    String[] listParts = response.split(" ");
+                    //int msgNum = Integer.parseInt(listParts[1]);
+                    int msgSize = Integer.parseInt(listParts[2]);
+                    message.setSize(msgSize);
+                    if (listener != null) {
+                        listener.messageFinished(message, index, count);
+                    }
+                }
+            });
+        }
+
         /**
          * Fetches the body of the given message, limiting the downloaded data to the specified
          * number of lines if possible.
@@ -944,8 +1225,13 @@ public class Pop3Store extends RemoteStore {
                                      mUidToMsgNumMap.get(message.getUid())));
             }
 
+            parseBody(message, lines);
+        }
+
+        private void parseBody(Pop3Message message, int lines) throws IOException, MessagingException {
+            Pop3ResponseInputStream in = new Pop3ResponseInputStream(mIn);
             try {
-                message.parse(new Pop3ResponseInputStream(mIn));
+                message.parse(in);
 
                 // TODO: if we've received fewer lines than requested we also have the complete message.
                 if (lines == -1 || !mCapabilities.top) {
@@ -961,6 +1247,11 @@ public class Pop3Store extends RemoteStore {
                 if (lines == -1) {
                     throw me;
                 }
+
+                // Don't read the rest of the broken message as response to the next command
+                while (in.read() != -1) {
+                    // Skip
+                }
             }
         }
 
@@ -1007,7 +1298,13 @@ public class Pop3Store extends RemoteStore {
             } catch (IOException ioe) {
                 throw new MessagingException("Could not get message number for uid " + uids, ioe);
             }
+            final List<String> deleteUids = new ArrayList<String>();
+            List<String> commands = new ArrayList<String>();
             for (Message message : messages) {
+                if (mDeletedUids.contains(message.getUid())) {
+                    // Deleted by an earlier call that failed for other messages. Another DELE would be rejected.
+                    continue;
+                }
 
                 Integer msgNum = mUidToMsgNumMap.get(message.getUid());
                 if (msgNum == null) {
@@ -1016,7 +1313,25 @@ public class Pop3Store extends RemoteStore {
                     me.setPermanentFailure(true);
                     throw me;
                 }
-                executeSimpleCommand(String.format(DELE_COMMAND + " %s", msgNum));
+                deleteUids.add(message.getUid());
+                commands.add(String.format(DELE_COMMAND + " %s", msgNum));
+            }
+
+            try {
+                executePipelined(commands, new Pop3ResponseHandler() {
+                    @Override
+                    public void handleResponse(int index, String response) {
+                        mDeletedUids.add(deleteUids.get(index));
+                    }
+                });
+            } catch (Pop3ErrorResponse e) {
+                /*
+                 * With PIPELINING, commands sent after the rejected one may still have succeeded. Those messages
+                 * are deleted when the session ends, so only report the others.
+                 */
+                List<String> notDeletedUids = new ArrayList<String>(deleteUids);
+                notDeletedUids.removeAll(mDeletedUids);
+                throw new Pop3ErrorResponse("Could not delete messages " + notDeletedUids + ": " + e.getMessage());
             }
         }
 
@@ -1093,6 +1408,8 @@ public class Pop3Store extends RemoteStore {
                         capabilities.uidl = true;
                     } else if (response.equals(TOP_CAPABILITY)) {
                         capabilities.top = true;
+                    } else if (response.equals(PIPELINING_CAPABILITY)) {
+                        capabilities.pipelining = true;
                     } else if (response.startsWith(SASL_CAPABILITY)) {
                         List<String> saslAuthMechanisms = Arrays.asList(response.split(" "));
                         if (saslAuthMechanisms.contains(AUTH_PLAIN_CAPABILITY)) {
@@ -1154,6 +1471,66 @@ public class Pop3Store extends RemoteStore {
             }
         }
 
+        /**
+         * Sends the commands and passes the responses to {@code handler}. If the server supports PIPELINING
+         * (RFC 2449) up to {@link #PIPELINE_WINDOW} commands are sent before waiting for a response. Otherwise
+         * one command is sent at a time.
+         *
+         * <p>
+         * No further commands are sent after a negative response. The first one is thrown as
+         * {@link Pop3ErrorResponse} once all responses to commands already sent have been read.
+         * </p>
+         */
+        private void executePipelined(List<String> commands, Pop3ResponseHandler handler)
+                throws MessagingException {
+            int commandCount = commands.size();
+            int sentCount = 0;
+            int responseCount = 0;
+            Pop3ErrorResponse error = null;
+            try {
+                open(Folder.OPEN_MODE_RW);
+
+                int window = mCapabilities.pipelining ? PIPELINE_WINDOW : 1;
+                while (responseCount < sentCount || (error == null && sentCount < commandCount)) {
+                    if (error == null && sentCount < commandCount && sentCount < responseCount + window) {
+                        while (sentCount < commandCount && sentCount < responseCount + window) {
+                            String command = commands.get(sentCount++);
+                            if (K9MailLib.isDebug() && DEBUG_PROTOCOL_POP3) {
+                                Timber.d(">>> %s", command);
+                            }
+                            mOut.write(command.getBytes());
+                            mOut.write('\r');
+                            mOut.write('\n');
+                        }
+                        mOut.flush();
+                    }
+
+                    String response = readLine();
+                    int index = responseCount++;
+                    if (response.length() == 0 || response.charAt(0) != '+') {
+                        if (error == null) {
+                            error = new Pop3ErrorResponse(response);
+                        }
+                    } else {
+                        handler.handleResponse(index, response);
+                    }
+                }
+            } catch (MessagingException me) {
+                if (responseCount < sentCount) {
+                    // Responses to the commands already sent would be read as responses to the next command
+                    closeIO();
+                }
+                throw me;
+            } catch (Exception e) {
+                closeIO();
+                throw new MessagingException("Unable to execute POP3 command", e);
+            }
+
+            if (error != null) {
+                throw error;
+            }
+        }
+
         @Override
         public boolean isFlagSupported(Flag flag) {
             return (flag == Flag.DELETED);
@@ -1179,6 +1556,16 @@ public class Pop3Store extends RemoteStore {
 
     }//Pop3Folder
 
+    /**
+     * Handles positive responses to commands sent by {@code Pop3Folder.executePipelined()}.
+     */
+    private interface Pop3ResponseHandler {
+        /**
+         * Called in the order the commands were sent. Must read the rest of a multi-line response.
+         */
+        void handleResponse(int index, String response) throws IOException, MessagingException;
+    }
+
     static class Pop3Message extends MimeMessage {
         Pop3Message(String uid, Pop3Folder folder) {
             mUid = uid;
@@ -1217,16 +1604,18 @@ public class Pop3Store extends RemoteStore {
         public boolean top;
         public boolean uidl;
         public boolean external;
+        public boolean pipelining;
 
         @Override
         public String toString() {
-            return String.format("CRAM-MD5 %b, PLAIN %b, STLS %b, TOP %b, UIDL %b, EXTERNAL %b",
+            return String.format("CRAM-MD5 %b, PLAIN %b, STLS %b, TOP %b, UIDL %b, EXTERNAL %b, PIPELINING %b",
                                  cramMD5,
                                  authPlain,
                                  stls,
                                  top,
                                  uidl,
-                                 external);
+                                 external,
+                                 pipelining);
         }
     }
 
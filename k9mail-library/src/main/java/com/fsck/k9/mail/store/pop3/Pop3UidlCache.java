@@ -0,0 +1,109 @@
+package com.fsck.k9.mail.store.pop3;
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import timber.log.Timber;
+
+
+/**
+ * Keeps the unique-id listing of a maildrop between POP3 sessions.
+ *
+ * <p>
+ * Message numbers only change when messages are removed from the maildrop. If the last message in the snapshot
+ * still has the same message number and unique-id, none of the messages before it have been removed. Then only the
+ * unique-ids of messages added since the snapshot was taken need to be requested from the server.
+ * </p>
+ */
+class Pop3UidlCache {
+    private static final String HEADER = "UIDL 1";
+    // Unique-ids are read from the server byte by byte, so every char fits into one byte
+    private static final String CHARSET = "ISO-8859-1";
+
+
+    private final File file;
+
+
+    Pop3UidlCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return The unique-ids ordered by message number, starting with message 1. The list is empty if there is no
+     *         snapshot.
+     */
+    List<String> load() {
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+            if (!HEADER.equals(reader.readLine())) {
+                Timber.w("Ignoring UIDL snapshot with unknown format: %s", file);
+                return Collections.emptyList();
+            }
+
+            List<String> uids = new ArrayList<String>();
+            String uid;
+            while ((uid = reader.readLine()) != null) {
+                uids.add(uid);
+            }
+
+            return uids;
+        } catch (IOException e) {
+            Timber.w(e, "Unable to read UIDL snapshot %s", file);
+            return Collections.emptyList();
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    void save(List<String> uids) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+        boolean success = false;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), CHARSET));
+            writer.write(HEADER);
+            writer.write('\n');
+            for (String uid : uids) {
+                writer.write(uid);
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tempFile + " to " + file);
+            }
+            success = true;
+        } catch (IOException e) {
+            Timber.w(e, "Unable to save UIDL snapshot %s", file);
+        } finally {
+            IOUtils.closeQuietly(writer);
+            if (!success) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    void clear() {
+        if (file.exists() && !file.delete()) {
+            Timber.w("Unable to delete UIDL snapshot %s", file);
+        }
+    }
+}
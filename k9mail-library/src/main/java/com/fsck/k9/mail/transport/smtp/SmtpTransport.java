@@ -43,6 +43,7 @@ import com.fsck.k9.mail.filter.LineWrapOutputStream;
 import com.fsck.k9.mail.filter.PeekableInputStream;
 import com.fsck.k9.mail.filter.SmtpDataStuffing;
 import com.fsck.k9.mail.internet.CharsetSupport;
+import com.fsck.k9.mail.internet.SpooledMessage;
 import com.fsck.k9.mail.oauth.OAuth2TokenProvider;
 import com.fsck.k9.mail.oauth.XOAuth2ChallengeParser;
 import com.fsck.k9.mail.ssl.TrustedSocketFactory;
@@ -56,8 +57,14 @@ import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_SMTP;
 
 public class SmtpTransport extends Transport {
     public static final int SMTP_CONTINUE_REQUEST = 334;
+    public static final int SMTP_SERVICE_NOT_AVAILABLE = 421;
     public static final int SMTP_AUTHENTICATION_FAILURE_ERROR_CODE = 535;
 
+    /**
+     * Maximum number of bytes sent with one BDAT command (RFC 3030).
+     */
+    private static final int BDAT_CHUNK_SIZE = 64 * 1024;
+
     private TrustedSocketFactory mTrustedSocketFactory;
     private OAuth2TokenProvider oauthTokenProvider;
 
@@ -212,6 +219,8 @@ public class SmtpTransport extends Transport {
     private OutputStream mOut;
     private boolean m8bitEncodingAllowed;
     private boolean mEnhancedStatusCodesProvided;
+    private boolean pipeliningSupported;
+    private boolean chunkingSupported;
     private int mLargestAcceptableMessage;
     private boolean retryXoauthWithNewToken;
 
@@ -342,6 +351,8 @@ public class SmtpTransport extends Transport {
                 authXoauth2Supported = saslMech.contains("XOAUTH2");
             }
             parseOptionalSizeValue(extensions);
+            pipeliningSupported = extensions.containsKey("PIPELINING");
+            chunkingSupported = extensions.containsKey("CHUNKING");
 
             if (!TextUtils.isEmpty(mUsername)
                     && (!TextUtils.isEmpty(mPassword) ||
@@ -545,57 +556,168 @@ public class SmtpTransport extends Transport {
         }
     }
 
+    /**
+     * Sends a message using the current connection, or a new one if there is none.
+     *
+     * <p>
+     * The connection is kept open afterwards, so sending more messages doesn't require connecting and authenticating
+     * again. It's only closed on errors that leave it in an unknown state. Callers have to {@link #close()} the
+     * transport when they're done.
+     * </p>
+     */
     private void sendMessageTo(List<String> addresses, Message message)
     throws MessagingException {
-        close();
-        open();
+        SpooledMessage spooledMessage = spoolMessage(message);
+        try {
+            sendMessageTo(addresses, message.getFrom(), spooledMessage);
+        } finally {
+            spooledMessage.close();
+        }
+    }
+
+    private SpooledMessage spoolMessage(Message message) throws MessagingException {
+        try {
+            return SpooledMessage.create(message);
+        } catch (IOException e) {
+            throw new MessagingException("Unable to render message", e);
+        }
+    }
+
+    private void sendMessageTo(List<String> addresses, Address[] from, SpooledMessage spooledMessage)
+    throws MessagingException {
+        openOrReset();
 
         if (!m8bitEncodingAllowed) {
             Timber.d("Server does not support 8bit transfer encoding");
         }
-        // If the message has attachments and our server has told us about a limit on
-        // the size of messages, count the message's size before sending it
-        if (mLargestAcceptableMessage > 0 && message.hasAttachments()) {
-            if (message.calculateSize() > mLargestAcceptableMessage) {
-                throw new MessagingException("Message too large for server", true);
-            }
+        // If our server has told us about a limit on the size of messages, check the message's size before sending it
+        if (mLargestAcceptableMessage > 0 && spooledMessage.getSize() > mLargestAcceptableMessage) {
+            throw new MessagingException("Message too large for server", true);
         }
 
         boolean entireMessageSent = false;
-        Address[] from = message.getFrom();
         try {
             String fromAddress = from[0].getAddress();
-            if (m8bitEncodingAllowed) {
-                executeCommand("MAIL FROM:<%s> BODY=8BITMIME", fromAddress);
+            if (pipeliningSupported) {
+                sendEnvelopePipelined(fromAddress, addresses);
             } else {
-                executeCommand("MAIL FROM:<%s>", fromAddress);
+                sendEnvelope(fromAddress, addresses);
             }
 
-            for (String address : addresses) {
-                executeCommand("RCPT TO:<%s>", address);
-            }
+            if (chunkingSupported) {
+                BdatOutputStream bdatOut = new BdatOutputStream();
+                EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
+                        new LineWrapOutputStream(bdatOut, 1000));
+
+                spooledMessage.writeTo(msgOut);
+                msgOut.endWithCrLfAndFlush();
 
-            executeCommand("DATA");
+                entireMessageSent = true; // After the last chunk is attempted, we may have sent the message
+                bdatOut.finish();
+            } else {
+                executeCommand("DATA");
 
-            EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
-                    new LineWrapOutputStream(new SmtpDataStuffing(mOut), 1000));
+                EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
+                        new LineWrapOutputStream(new SmtpDataStuffing(mOut), 1000));
 
-            message.writeTo(msgOut);
-            msgOut.endWithCrLfAndFlush();
+                spooledMessage.writeTo(msgOut);
+                msgOut.endWithCrLfAndFlush();
 
-            entireMessageSent = true; // After the "\r\n." is attempted, we may have sent the message
-            executeCommand(".");
+                entireMessageSent = true; // After the "\r\n." is attempted, we may have sent the message
+                executeCommand(".");
+            }
         } catch (NegativeSmtpReplyException e) {
-            throw e;
+            throw handleNegativeReply(e);
+        } catch (BdatChunkRejectedException e) {
+            throw handleNegativeReply(e.reply);
         } catch (Exception e) {
+            close();
+
             MessagingException me = new MessagingException("Unable to send message", e);
             me.setPermanentFailure(entireMessageSent);
 
             throw me;
-        } finally {
+        }
+    }
+
+    private NegativeSmtpReplyException handleNegativeReply(NegativeSmtpReplyException negativeReply) {
+        if (negativeReply.getReplyCode() == SMTP_SERVICE_NOT_AVAILABLE) {
+            // The server is closing the connection
             close();
         }
+        return negativeReply;
+    }
+
+    /**
+     * Opens a new connection or, if there already is one, resets the state left behind by the previous mail
+     * transaction. RSET also tells us whether the server is still there.
+     */
+    private void openOrReset() throws MessagingException {
+        if (mSocket != null) {
+            try {
+                executeCommand("RSET");
+                return;
+            } catch (IOException | MessagingException e) {
+                Timber.d(e, "Unable to reuse SMTP connection");
+                close();
+            }
+        }
+
+        open();
+    }
+
+    private void sendEnvelope(String fromAddress, List<String> addresses) throws IOException, MessagingException {
+        executeCommand(getMailFromFormat(), fromAddress);
+
+        for (String address : addresses) {
+            executeCommand("RCPT TO:<%s>", address);
+        }
+    }
+
+    /**
+     * Sends MAIL FROM and all RCPT TO commands at once and then reads all replies (RFC 2920).
+     *
+     * <p>
+     * DATA is sent separately. If one of the recipients was rejected we must not end up in data mode.
+     * </p>
+     */
+    private void sendEnvelopePipelined(String fromAddress, List<String> addresses)
+            throws IOException, MessagingException {
+        writeLine(String.format(Locale.ROOT, getMailFromFormat(), fromAddress), false, false);
+        for (String address : addresses) {
+            writeLine(String.format(Locale.ROOT, "RCPT TO:<%s>", address), false, false);
+        }
+        mOut.flush();
+
+        readResponses(1 + addresses.size());
+    }
+
+    private String getMailFromFormat() {
+        return m8bitEncodingAllowed ? "MAIL FROM:<%s> BODY=8BITMIME" : "MAIL FROM:<%s>";
+    }
+
+    /**
+     * Reads the replies to pipelined commands.
+     *
+     * @throws NegativeSmtpReplyException
+     *         The first negative reply. It's only thrown after all replies have been read, so the connection can
+     *         still be used afterwards.
+     */
+    private void readResponses(int count) throws IOException, MessagingException {
+        NegativeSmtpReplyException firstNegativeReply = null;
+        for (int i = 0; i < count; i++) {
+            try {
+                readResponse();
+            } catch (NegativeSmtpReplyException e) {
+                if (firstNegativeReply == null) {
+                    firstNegativeReply = e;
+                }
+            }
+        }
 
+        if (firstNegativeReply != null) {
+            throw firstNegativeReply;
+        }
     }
 
     @Override
@@ -633,6 +755,10 @@ public class SmtpTransport extends Transport {
     }
 
     private void writeLine(String s, boolean sensitive) throws IOException {
+        writeLine(s, sensitive, true);
+    }
+
+    private void writeLine(String s, boolean sensitive, boolean flush) throws IOException {
         if (K9MailLib.isDebug() && DEBUG_PROTOCOL_SMTP) {
             final String commandToLog;
             if (sensitive && !K9MailLib.isDebugSensitive()) {
@@ -652,7 +778,9 @@ public class SmtpTransport extends Transport {
          * See issue 799.
          */
         mOut.write(data);
-        mOut.flush();
+        if (flush) {
+            mOut.flush();
+        }
     }
 
     private static class CommandResponse {
@@ -677,12 +805,16 @@ public class SmtpTransport extends Transport {
 
     private CommandResponse executeCommand(boolean sensitive, String format, Object... args)
             throws IOException, MessagingException {
-        List<String> results = new ArrayList<>();
         if (format != null) {
             String command = String.format(Locale.ROOT, format, args);
             writeLine(command, sensitive);
         }
 
+        return readResponse();
+    }
+
+    private CommandResponse readResponse() throws IOException, MessagingException {
+        List<String> results = new ArrayList<>();
         String line = readCommandResponseLine(results);
 
         int length = line.length();
@@ -899,4 +1031,81 @@ public class SmtpTransport extends Transport {
     protected String getCanonicalHostName(InetAddress localAddress) {
         return localAddress.getCanonicalHostName();
     }
+
+
+    /**
+     * Sends the message data written to it in BDAT chunks (RFC 3030), so it doesn't have to be dot-stuffed.
+     *
+     * <p>
+     * If the server supports pipelining, the replies to all chunks are read after the last chunk was sent.
+     * Otherwise the reply to every chunk is read before the next one is sent.
+     * </p>
+     */
+    private class BdatOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[BDAT_CHUNK_SIZE];
+        private int count = 0;
+        private int pendingReplies = 0;
+
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            buffer[count++] = (byte) oneByte;
+            if (count == buffer.length) {
+                sendChunk(false);
+            }
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                int chunkLength = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, chunkLength);
+                count += chunkLength;
+                offset += chunkLength;
+                length -= chunkLength;
+
+                if (count == buffer.length) {
+                    sendChunk(false);
+                }
+            }
+        }
+
+        /**
+         * Sends the remaining data with BDAT LAST and reads all outstanding replies.
+         */
+        public void finish() throws IOException, MessagingException {
+            sendChunk(true);
+            readResponses(pendingReplies);
+            pendingReplies = 0;
+        }
+
+        private void sendChunk(boolean last) throws IOException {
+            writeLine(String.format(Locale.ROOT, last ? "BDAT %d LAST" : "BDAT %d", count), false, false);
+            mOut.write(buffer, 0, count);
+            mOut.flush();
+            count = 0;
+            pendingReplies++;
+
+            if (!last && !pipeliningSupported) {
+                try {
+                    readResponses(pendingReplies);
+                    pendingReplies = 0;
+                } catch (NegativeSmtpReplyException e) {
+                    // We're not allowed to send more chunks. Pass the reply on to sendMessageTo().
+                    throw new BdatChunkRejectedException(e);
+                } catch (MessagingException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+    private static class BdatChunkRejectedException extends IOException {
+        final NegativeSmtpReplyException reply;
+
+        BdatChunkRejectedException(NegativeSmtpReplyException reply) {
+            super(reply.getMessage());
+            this.reply = reply;
+        }
+    }
 }
@@ -0,0 +1,69 @@
+package com.fsck.k9.mail;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class DefaultBodyFactoryTest {
+    private DefaultBodyFactory bodyFactory;
+
+
+    @Before
+    public void setUp() throws Exception {
+        BinaryTempFileBody.setTempDirectory(new File(System.getProperty("java.io.tmpdir")));
+        bodyFactory = new DefaultBodyFactory();
+    }
+
+    @Test
+    public void createBody_with7bit_shouldUseRawSizeAsDecodedSize() throws Exception {
+        BinaryTempFileBody body = createBody("7bit", "text/plain", "Hello world");
+
+        assertEquals(11, body.getDecodedSize());
+        assertEquals("Hello world", readRawData(body));
+    }
+
+    @Test
+    public void createBody_withBase64_shouldCountDecodedBytes() throws Exception {
+        BinaryTempFileBody body = createBody("base64", "application/octet-stream", "SGVsbG8g\r\nd29ybGQ=\r\n");
+
+        assertEquals(11, body.getDecodedSize());
+    }
+
+    @Test
+    public void createBody_withBase64_shouldStoreRawDataIncludingTrailingText() throws Exception {
+        String rawData = "SGVsbG8=\r\ntrailing garbage\r\n";
+        BinaryTempFileBody body = createBody("base64", "application/octet-stream", rawData);
+
+        assertEquals(5, body.getDecodedSize());
+        assertEquals(rawData, readRawData(body));
+    }
+
+    @Test
+    public void createBody_withQuotedPrintable_shouldCountDecodedBytes() throws Exception {
+        BinaryTempFileBody body = createBody("Quoted-Printable", "text/plain", "Gr=C3=BC=C3=9Fe=\r\n!");
+
+        assertEquals(8, body.getDecodedSize());
+    }
+
+    private BinaryTempFileBody createBody(String encoding, String contentType, String rawData) throws Exception {
+        InputStream inputStream = new ByteArrayInputStream(rawData.getBytes("US-ASCII"));
+        return (BinaryTempFileBody) bodyFactory.createBody(encoding, contentType, inputStream);
+    }
+
+    private String readRawData(BinaryTempFileBody body) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        body.writeTo(outputStream);
+        return outputStream.toString("US-ASCII");
+    }
+}
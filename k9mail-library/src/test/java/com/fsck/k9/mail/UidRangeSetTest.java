@@ -0,0 +1,57 @@
+package com.fsck.k9.mail;
+
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class UidRangeSetTest {
+    @Test
+    public void constructor_shouldMergeOverlappingAndAdjacentRanges() throws Exception {
+        UidRangeSet set = new UidRangeSet(asList(new long[] { 7, 9 }, new long[] { 3, 1 }, new long[] { 4, 5 },
+                new long[] { 8, 12 }));
+
+        assertEquals("1:5,7:12", set.toString());
+        assertEquals(11L, set.size());
+    }
+
+    @Test
+    public void contains_shouldCheckRangeBoundaries() throws Exception {
+        UidRangeSet set = new UidRangeSet(asList(new long[] { 10, 20 }, new long[] { 30, 30 }));
+
+        assertFalse(set.contains("9"));
+        assertTrue(set.contains("10"));
+        assertTrue(set.contains("20"));
+        assertFalse(set.contains("21"));
+        assertTrue(set.contains("30"));
+        assertFalse(set.contains("31"));
+        assertFalse(set.contains("uid"));
+    }
+
+    @Test
+    public void intersect_withLargeRange_shouldOnlyReturnGivenUids() throws Exception {
+        UidRangeSet set = new UidRangeSet(Collections.singletonList(new long[] { 1, 4000000000L }));
+
+        assertEquals(asList("3", "4000000000"), set.intersect(asList("3", "4000000001", "4000000000", "uid")));
+    }
+
+    @Test
+    public void union_shouldContainUidsOfBothSets() throws Exception {
+        UidRangeSet set = UidRangeSet.fromUids(asList("1", "2")).union(UidRangeSet.fromUids(asList("3", "10")));
+
+        assertEquals("1:3,10", set.toString());
+    }
+
+    @Test
+    public void empty_shouldNotContainAnything() throws Exception {
+        assertTrue(UidRangeSet.EMPTY.isEmpty());
+        assertEquals(0L, UidRangeSet.EMPTY.size());
+        assertFalse(UidRangeSet.EMPTY.contains(1L));
+    }
+}
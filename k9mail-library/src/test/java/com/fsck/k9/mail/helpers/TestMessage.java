@@ -12,17 +12,17 @@ import okio.Okio;
 
 
 class TestMessage extends MimeMessage {
-    private final long messageSize;
     private final Address[] from;
     private final Address[] to;
+    private final Address[] cc;
     private final boolean hasAttachments;
 
 
     TestMessage(TestMessageBuilder builder) {
         from = toAddressArray(builder.from);
         to = toAddressArray(builder.to);
+        cc = toAddressArray(builder.cc);
         hasAttachments = builder.hasAttachments;
-        messageSize = builder.messageSize;
     }
 
     @Override
@@ -36,7 +36,7 @@ class TestMessage extends MimeMessage {
             case TO:
                 return to;
             case CC:
-                return new Address[0];
+                return cc;
             case BCC:
                 return new Address[0];
         }
@@ -49,11 +49,6 @@ class TestMessage extends MimeMessage {
         return hasAttachments;
     }
 
-    @Override
-    public long calculateSize() {
-        return messageSize;
-    }
-
     @Override
     public void writeTo(OutputStream out) throws IOException, MessagingException {
         BufferedSink bufferedSink = Okio.buffer(Okio.sink(out));
@@ -7,8 +7,8 @@ import com.fsck.k9.mail.Message;
 public class TestMessageBuilder {
     String from;
     String to;
+    String cc;
     boolean hasAttachments;
-    long messageSize;
 
 
     public TestMessageBuilder from(String email) {
@@ -21,13 +21,13 @@ public class TestMessageBuilder {
         return this;
     }
 
-    public TestMessageBuilder setHasAttachments(boolean hasAttachments) {
-        this.hasAttachments = hasAttachments;
+    public TestMessageBuilder cc(String email) {
+        cc = email;
         return this;
     }
 
-    public TestMessageBuilder messageSize(long messageSize) {
-        this.messageSize = messageSize;
+    public TestMessageBuilder setHasAttachments(boolean hasAttachments) {
+        this.hasAttachments = hasAttachments;
         return this;
     }
     
@@ -0,0 +1,89 @@
+package com.fsck.k9.mail.internet;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class MimeHeaderTest {
+    private MimeHeader header;
+
+
+    @Before
+    public void setUp() throws Exception {
+        header = new MimeHeader();
+    }
+
+    @Test
+    public void getHeader_shouldIgnoreCaseOfName() throws Exception {
+        header.addHeader("Received", "from a");
+        header.addHeader("RECEIVED", "from b");
+
+        assertArrayEquals(new String[] { "from a", "from b" }, header.getHeader("received"));
+        assertEquals("from a", header.getFirstHeader("Received"));
+    }
+
+    @Test
+    public void getHeader_withUnknownName_shouldReturnEmptyArray() throws Exception {
+        assertEquals(0, header.getHeader("Subject").length);
+        assertNull(header.getFirstHeader("Subject"));
+    }
+
+    @Test
+    public void getHeader_withRawHeader_shouldReturnUnfoldedValue() throws Exception {
+        header.addRawHeader("Subject", "Subject: Hello");
+
+        assertArrayEquals(new String[] { "Hello" }, header.getHeader("Subject"));
+    }
+
+    @Test
+    public void getHeader_afterAddingValue_shouldIncludeNewValue() throws Exception {
+        header.addHeader("Received", "from a");
+        header.getHeader("Received");
+
+        header.addHeader("Received", "from b");
+
+        assertArrayEquals(new String[] { "from a", "from b" }, header.getHeader("Received"));
+    }
+
+    @Test
+    public void setHeader_shouldReplaceAllValuesAndMoveFieldToEnd() throws Exception {
+        header.addHeader("Subject", "Old subject");
+        header.addHeader("To", "alice@example.com");
+        header.addHeader("subject", "Other subject");
+
+        header.setHeader("Subject", "New subject");
+
+        assertArrayEquals(new String[] { "New subject" }, header.getHeader("SUBJECT"));
+        assertEquals("To: alice@example.com\r\nSubject: New subject\r\n", header.toString());
+    }
+
+    @Test
+    public void removeHeader_shouldKeepOrderOfOtherFields() throws Exception {
+        header.addHeader("From", "alice@example.com");
+        header.addHeader("Received", "from a");
+        header.addHeader("To", "bob@example.com");
+
+        header.removeHeader("received");
+
+        assertEquals(0, header.getHeader("Received").length);
+        assertEquals("From: alice@example.com\r\nTo: bob@example.com\r\n", header.toString());
+    }
+
+    @Test
+    public void clone_shouldNotShareFields() throws Exception {
+        header.addHeader("Subject", "Hello");
+
+        MimeHeader clone = header.clone();
+        clone.setHeader("Subject", "Changed");
+        clone.addHeader("To", "bob@example.com");
+
+        assertEquals("Hello", header.getFirstHeader("Subject"));
+        assertEquals(0, header.getHeader("To").length);
+        assertEquals("Changed", clone.getFirstHeader("Subject"));
+    }
+}
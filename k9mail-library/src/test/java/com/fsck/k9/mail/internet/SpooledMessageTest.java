@@ -0,0 +1,90 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import com.fsck.k9.mailstore.BinaryMemoryBody;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class SpooledMessageTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File tempDirectory;
+
+
+    @Before
+    public void setUp() throws Exception {
+        tempDirectory = temporaryFolder.newFolder();
+        BinaryTempFileBody.setTempDirectory(tempDirectory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BinaryTempFileBody.setTempDirectory(null);
+    }
+
+    @Test
+    public void writeTo_shouldWriteMessageWithCrLfLineBreaks() throws Exception {
+        MimeMessage message = createMessage("one\ntwo\rthree\r\n");
+        SpooledMessage spooledMessage = SpooledMessage.create(message);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        spooledMessage.writeTo(out);
+        spooledMessage.close();
+
+        String output = out.toString("US-ASCII");
+        assertEquals("Subject: Test\r\n" +
+                "\r\n" +
+                "one\r\ntwo\r\nthree\r\n", output.substring(output.indexOf("Subject:")));
+    }
+
+    @Test
+    public void getSize_shouldReturnNumberOfBytesWritten() throws Exception {
+        MimeMessage message = createMessage("one\ntwo\n");
+        SpooledMessage spooledMessage = SpooledMessage.create(message);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        spooledMessage.writeTo(out);
+        spooledMessage.close();
+
+        assertEquals(out.size(), spooledMessage.getSize());
+        assertEquals(message.calculateSize(), spooledMessage.getSize());
+    }
+
+    @Test
+    public void close_shouldDeleteSpoolFile() throws Exception {
+        SpooledMessage spooledMessage = SpooledMessage.create(createMessage("text"));
+        assertEquals(1, tempDirectory.list().length);
+
+        spooledMessage.close();
+
+        assertEquals(0, tempDirectory.list().length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeTo_afterClose_shouldThrow() throws Exception {
+        SpooledMessage spooledMessage = SpooledMessage.create(createMessage("text"));
+        spooledMessage.close();
+
+        spooledMessage.writeTo(new ByteArrayOutputStream());
+    }
+
+    private MimeMessage createMessage(String text) throws Exception {
+        MimeMessage message = new MimeMessage();
+        message.setSubject("Test");
+        message.setBody(new BinaryMemoryBody(text.getBytes("US-ASCII"), "7bit"));
+        return message;
+    }
+}
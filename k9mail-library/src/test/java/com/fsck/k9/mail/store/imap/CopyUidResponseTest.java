@@ -4,12 +4,14 @@ package com.fsck.k9.mail.store.imap;
 import com.fsck.k9.mail.K9LibRobolectricTestRunner;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -36,6 +38,19 @@ public class CopyUidResponseTest {
         assertNull(result);
     }
 
+    @Test
+    public void parse_withUntaggedResponseInResponseList_shouldCreateUidMapping() throws Exception {
+        List<ImapResponse> imapResponses = asList(
+                createImapResponse("* OK [COPYUID 1 1,3:5 7:10] Moved"),
+                createImapResponse("* 1 EXPUNGE"),
+                createImapResponse("x OK Done"));
+
+        CopyUidResponse result = CopyUidResponse.parse(imapResponses);
+
+        assertNotNull(result);
+        assertEquals(createUidMapping("1=7", "3=8", "4=9", "5=10"), result.getUidMapping());
+    }
+
     @Test
     public void parse_withTooShortResponse_shouldReturnNull() throws Exception {
         ImapResponse imapResponse = createImapResponse("x OK");
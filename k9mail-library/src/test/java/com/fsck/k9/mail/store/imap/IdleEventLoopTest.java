@@ -0,0 +1,155 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.store.imap.IdleEventLoop.WakeUpReason;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class IdleEventLoopTest {
+    private static final long WATCH_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    private static final long WAIT_TIMEOUT_SECONDS = 5;
+
+
+    private IdleEventLoop idleEventLoop;
+    private ServerSocketChannel serverChannel;
+    private SocketChannel clientChannel;
+    private SocketChannel serverSideChannel;
+    private RecordingListener listener;
+
+
+    @Before
+    public void setUp() throws Exception {
+        idleEventLoop = new IdleEventLoop();
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        clientChannel = SocketChannel.open(serverChannel.socket().getLocalSocketAddress());
+        serverSideChannel = serverChannel.accept();
+
+        listener = new RecordingListener(clientChannel);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        clientChannel.close();
+        serverSideChannel.close();
+        serverChannel.close();
+    }
+
+    @Test
+    public void watch_withDataArriving_shouldNotifyListenerWithBlockingChannel() throws Exception {
+        idleEventLoop.watch(clientChannel, WATCH_TIMEOUT, listener);
+
+        serverSideChannel.write(ByteBuffer.wrap("* 1 EXISTS\r\n".getBytes("US-ASCII")));
+
+        assertEquals(WakeUpReason.READABLE, listener.awaitWakeUp());
+        assertTrue(listener.wasBlocking);
+        assertEquals(0, idleEventLoop.getWatchCount());
+    }
+
+    @Test
+    public void watch_withDataArriving_shouldNotConsumeData() throws Exception {
+        idleEventLoop.watch(clientChannel, WATCH_TIMEOUT, listener);
+        serverSideChannel.write(ByteBuffer.wrap("DATA".getBytes("US-ASCII")));
+        listener.awaitWakeUp();
+
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        while (buffer.hasRemaining()) {
+            clientChannel.read(buffer);
+        }
+
+        assertEquals("DATA", new String(buffer.array(), "US-ASCII"));
+    }
+
+    @Test
+    public void watch_withTimeoutExpiring_shouldNotifyListener() throws Exception {
+        idleEventLoop.watch(clientChannel, 50, listener);
+
+        assertEquals(WakeUpReason.TIMEOUT, listener.awaitWakeUp());
+        assertTrue(listener.wasBlocking);
+    }
+
+    @Test
+    public void wakeUp_shouldNotifyListener() throws Exception {
+        IdleEventLoop.Watch watch = idleEventLoop.watch(clientChannel, WATCH_TIMEOUT, listener);
+
+        boolean result = watch.wakeUp();
+
+        assertTrue(result);
+        assertEquals(WakeUpReason.REQUESTED, listener.awaitWakeUp());
+        assertTrue(listener.wasBlocking);
+    }
+
+    @Test
+    public void wakeUp_afterListenerWasNotified_shouldReturnFalse() throws Exception {
+        IdleEventLoop.Watch watch = idleEventLoop.watch(clientChannel, WATCH_TIMEOUT, listener);
+        serverSideChannel.write(ByteBuffer.wrap("DATA".getBytes("US-ASCII")));
+        listener.awaitWakeUp();
+
+        boolean result = watch.wakeUp();
+
+        assertFalse(result);
+        assertNull(listener.reasons.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void watch_withMultipleChannels_shouldOnlyNotifyListenerOfReadableChannel() throws Exception {
+        SocketChannel otherClientChannel = SocketChannel.open(serverChannel.socket().getLocalSocketAddress());
+        SocketChannel otherServerSideChannel = serverChannel.accept();
+        try {
+            RecordingListener otherListener = new RecordingListener(otherClientChannel);
+            idleEventLoop.watch(clientChannel, WATCH_TIMEOUT, listener);
+            IdleEventLoop.Watch otherWatch = idleEventLoop.watch(otherClientChannel, WATCH_TIMEOUT, otherListener);
+
+            otherServerSideChannel.write(ByteBuffer.wrap("DATA".getBytes("US-ASCII")));
+
+            assertEquals(WakeUpReason.READABLE, otherListener.awaitWakeUp());
+            assertNull(listener.reasons.poll(100, TimeUnit.MILLISECONDS));
+            assertFalse(otherWatch.wakeUp());
+        } finally {
+            otherClientChannel.close();
+            otherServerSideChannel.close();
+        }
+    }
+
+
+    private static class RecordingListener implements IdleEventLoop.Listener {
+        private final LinkedBlockingQueue<WakeUpReason> reasons = new LinkedBlockingQueue<>();
+        private final SocketChannel channel;
+        private volatile boolean wasBlocking;
+
+
+        RecordingListener(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void onWakeUp(WakeUpReason reason) {
+            wasBlocking = channel.isBlocking();
+            reasons.add(reason);
+        }
+
+        WakeUpReason awaitWakeUp() throws InterruptedException {
+            WakeUpReason reason = reasons.poll(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (reason == null) {
+                throw new AssertionError("Listener wasn't notified");
+            }
+            return reason;
+        }
+    }
+}
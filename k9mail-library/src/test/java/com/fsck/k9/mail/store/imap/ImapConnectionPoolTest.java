@@ -0,0 +1,297 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.store.imap.ImapConnectionPool.ConnectionFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+public class ImapConnectionPoolTest {
+    private static final long MAX_IDLE_MILLIS = 60000L;
+    private static final long HEALTH_CHECK_INTERVAL_MILLIS = 10000L;
+
+
+    private final Deque<ImapConnection> connectionsToCreate = new ArrayDeque<>();
+    private TestImapConnectionPool pool;
+
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new TestImapConnectionPool(new ConnectionFactory() {
+            @Override
+            public ImapConnection createConnection() {
+                if (connectionsToCreate.isEmpty()) {
+                    throw new AssertionError("Unexpectedly tried to create an ImapConnection instance");
+                }
+                return connectionsToCreate.pop();
+            }
+        });
+        pool.setMaxIdleMillis(MAX_IDLE_MILLIS);
+        pool.setHealthCheckIntervalMillis(HEALTH_CHECK_INTERVAL_MILLIS);
+    }
+
+    @Test
+    public void acquire_withEmptyPool_shouldCreateConnection() throws Exception {
+        ImapConnection connection = enqueueConnection();
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(connection, result);
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.getOpenCount());
+        assertEquals(0, pool.getHitCount());
+    }
+
+    @Test
+    public void acquire_afterRelease_shouldReturnReleasedConnection() throws Exception {
+        ImapConnection connection = enqueueConnection();
+        pool.release(pool.acquire());
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(connection, result);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getOpenCount());
+    }
+
+    @Test
+    public void acquire_withSeveralIdleConnections_shouldReturnMostRecentlyReleasedConnection() throws Exception {
+        ImapConnection connectionOne = enqueueConnection();
+        ImapConnection connectionTwo = enqueueConnection();
+        pool.acquire();
+        pool.acquire();
+        pool.release(connectionOne);
+        pool.release(connectionTwo);
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(connectionTwo, result);
+    }
+
+    @Test
+    public void acquire_withRecentlyUsedConnection_shouldNotSendNoop() throws Exception {
+        ImapConnection connection = enqueueConnection();
+        pool.release(pool.acquire());
+        pool.advanceTime(HEALTH_CHECK_INTERVAL_MILLIS - 1);
+
+        pool.acquire();
+
+        verify(connection, never()).executeSimpleCommand(Commands.NOOP);
+    }
+
+    @Test
+    public void acquire_withConnectionIdleLongerThanHealthCheckInterval_shouldSendNoop() throws Exception {
+        ImapConnection connection = enqueueConnection();
+        pool.release(pool.acquire());
+        pool.advanceTime(HEALTH_CHECK_INTERVAL_MILLIS);
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(connection, result);
+        verify(connection).executeSimpleCommand(Commands.NOOP);
+    }
+
+    @Test
+    public void acquire_withConnectionFailingHealthCheck_shouldCloseItAndCreateNewConnection() throws Exception {
+        ImapConnection connectionOne = enqueueConnection();
+        ImapConnection connectionTwo = enqueueConnection();
+        pool.release(pool.acquire());
+        pool.advanceTime(HEALTH_CHECK_INTERVAL_MILLIS);
+        doThrow(IOException.class).when(connectionOne).executeSimpleCommand(Commands.NOOP);
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(connectionTwo, result);
+        verify(connectionOne).close();
+        assertEquals(1, pool.getEvictionCount());
+    }
+
+    @Test
+    public void acquire_withConnectionIdleLongerThanMaxIdleTime_shouldCloseItAndCreateNewConnection()
+            throws Exception {
+        ImapConnection connectionOne = enqueueConnection();
+        ImapConnection connectionTwo = enqueueConnection();
+        pool.release(pool.acquire());
+        pool.advanceTime(MAX_IDLE_MILLIS);
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(connectionTwo, result);
+        verify(connectionOne).close();
+        verify(connectionOne, never()).executeSimpleCommand(Commands.NOOP);
+        assertEquals(1, pool.getEvictionCount());
+        assertEquals(2, pool.getOpenCount());
+    }
+
+    @Test
+    public void release_withDisconnectedConnection_shouldNotKeepConnection() throws Exception {
+        ImapConnection connection = enqueueConnection();
+        pool.acquire();
+        when(connection.isConnected()).thenReturn(false);
+
+        pool.release(connection);
+
+        assertEquals(0, pool.getIdleConnectionCount());
+        assertEquals(0, pool.getActiveConnectionCount());
+    }
+
+    @Test
+    public void release_withMoreConnectionsThanAllowed_shouldCloseConnection() throws Exception {
+        ImapConnection connectionOne = enqueueConnection();
+        ImapConnection connectionTwo = enqueueConnection();
+        pool.acquire();
+        pool.acquire();
+        pool.setMaxConnections(1);
+
+        pool.release(connectionOne);
+        pool.release(connectionTwo);
+
+        verify(connectionOne).close();
+        verify(connectionTwo, never()).close();
+        assertEquals(1, pool.getIdleConnectionCount());
+        assertEquals(1, pool.getEvictionCount());
+    }
+
+    @Test
+    public void acquire_withAllConnectionsInUse_shouldWaitForRelease() throws Exception {
+        pool.setMaxConnections(1);
+        final ImapConnection connection = enqueueConnection();
+        pool.acquire();
+        final AtomicReference<ImapConnection> result = new AtomicReference<>();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(pool.acquire());
+                    acquired.countDown();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+
+        pool.release(connection);
+
+        assertTrue(acquired.await(ImapConnectionPool.WAIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertSame(connection, result.get());
+        assertEquals(1, pool.getOpenCount());
+    }
+
+    @Test
+    public void acquire_withDetachedConnection_shouldNotCountItAgainstLimit() throws Exception {
+        pool.setMaxConnections(1);
+        ImapConnection pushConnection = enqueueConnection();
+        ImapConnection connection = enqueueConnection();
+        pool.acquire();
+        pool.detach(pushConnection);
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(connection, result);
+    }
+
+    @Test
+    public void acquire_withConnectionFailingHealthCheckWithMessagingException_shouldNotCountItAgainstLimit()
+            throws Exception {
+        pool.setMaxConnections(1);
+        ImapConnection connectionOne = enqueueConnection();
+        ImapConnection connectionTwo = enqueueConnection();
+        pool.release(pool.acquire());
+        pool.advanceTime(HEALTH_CHECK_INTERVAL_MILLIS);
+        doThrow(MessagingException.class).when(connectionOne).executeSimpleCommand(Commands.NOOP);
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(connectionTwo, result);
+        verify(connectionOne).close();
+        assertEquals(1, pool.getActiveConnectionCount());
+    }
+
+    @Test
+    public void acquire_withUntaggedResponseToNoop_shouldInvalidateSelectedFolderState() throws Exception {
+        ImapConnection connection = enqueueConnection();
+        pool.release(pool.acquire());
+        pool.advanceTime(HEALTH_CHECK_INTERVAL_MILLIS);
+        when(connection.executeSimpleCommand(Commands.NOOP)).thenReturn(asList(
+                createImapResponse("* 23 EXISTS"),
+                createImapResponse("x OK NOOP completed")));
+
+        pool.acquire();
+
+        verify(connection).setSelectedFolderState(null);
+    }
+
+    @Test
+    public void acquire_withOnlyTaggedResponseToNoop_shouldKeepSelectedFolderState() throws Exception {
+        ImapConnection connection = enqueueConnection();
+        pool.release(pool.acquire());
+        pool.advanceTime(HEALTH_CHECK_INTERVAL_MILLIS);
+        when(connection.executeSimpleCommand(Commands.NOOP)).thenReturn(singletonList(
+                createImapResponse("x OK NOOP completed")));
+
+        pool.acquire();
+
+        verify(connection, never()).setSelectedFolderState(any(SelectedFolderState.class));
+    }
+
+    @Test
+    public void acquire_withClosedConnectionInUse_shouldNotCountItAgainstLimit() throws Exception {
+        pool.setMaxConnections(1);
+        ImapConnection closedConnection = enqueueConnection();
+        ImapConnection connection = enqueueConnection();
+        pool.acquire();
+        when(closedConnection.isClosed()).thenReturn(true);
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(connection, result);
+    }
+
+    private ImapConnection enqueueConnection() {
+        ImapConnection connection = mock(ImapConnection.class);
+        when(connection.isConnected()).thenReturn(true);
+        connectionsToCreate.add(connection);
+        return connection;
+    }
+
+
+    static class TestImapConnectionPool extends ImapConnectionPool {
+        private long currentTimeMillis = 1000L;
+
+        TestImapConnectionPool(ConnectionFactory connectionFactory) {
+            super(connectionFactory);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return currentTimeMillis;
+        }
+
+        void advanceTime(long millis) {
+            currentTimeMillis += millis;
+        }
+    }
+}
@@ -881,6 +881,41 @@ public class ImapConnectionTest {
         server.shutdown();
     }
 
+    @Test
+    public void open_withQresyncCapability_shouldEnableQresync() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simplePreAuthAndLoginDialog(server, "ENABLE CONDSTORE QRESYNC");
+        server.expect("3 ENABLE QRESYNC");
+        server.output("* ENABLED QRESYNC");
+        server.output("3 OK");
+        simplePostAuthenticationDialog(server, 4);
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        imapConnection.open();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+        assertTrue(imapConnection.isQresyncEnabled());
+        assertTrue(imapConnection.isCondstoreCapable());
+    }
+
+    @Test
+    public void open_withQresyncRejected_shouldNotEnableQresync() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simplePreAuthAndLoginDialog(server, "ENABLE QRESYNC");
+        server.expect("3 ENABLE QRESYNC");
+        server.output("3 NO");
+        simplePostAuthenticationDialog(server, 4);
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        imapConnection.open();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+        assertFalse(imapConnection.isQresyncEnabled());
+        assertFalse(imapConnection.isCondstoreCapable());
+    }
+
     @Test
     public void sendContinuation() throws Exception {
         settings.setAuthType(AuthType.PLAIN);
@@ -0,0 +1,260 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import android.net.ConnectivityManager;
+
+import com.fsck.k9.mail.AuthType;
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.PushReceiver;
+import com.fsck.k9.mail.helpers.TestTrustedSocketFactory;
+import com.fsck.k9.mail.oauth.OAuth2TokenProvider;
+import com.fsck.k9.mail.store.StoreConfig;
+import com.fsck.k9.mail.store.imap.mockserver.MockImapServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class ImapFolderPusherTest {
+    private static final String USERNAME = "user";
+    private static final String PASSWORD = "123456";
+    private static final int SOCKET_TIMEOUT = 10000;
+    private static final long WAIT_TIMEOUT_MILLIS = 5000L;
+
+
+    private MockImapServer server;
+    private ImapStore imapStore;
+    private PushReceiver pushReceiver;
+    private TestIdleEventLoop idleEventLoop;
+    private ImapFolderPusher folderPusher;
+    private boolean pusherRunning = false;
+
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockImapServer();
+
+        StoreConfig storeConfig = mock(StoreConfig.class);
+        when(storeConfig.getInboxFolderName()).thenReturn("INBOX");
+        when(storeConfig.getIdleRefreshMinutes()).thenReturn(24);
+
+        imapStore = mock(ImapStore.class);
+        when(imapStore.getStoreConfig()).thenReturn(storeConfig);
+        when(imapStore.getCombinedPrefix()).thenReturn("");
+        when(imapStore.getFolderNameCodec()).thenReturn(FolderNameCodec.newInstance());
+
+        pushReceiver = mock(PushReceiver.class);
+        when(pushReceiver.getContext()).thenReturn(RuntimeEnvironment.application);
+
+        idleEventLoop = new TestIdleEventLoop();
+        folderPusher = new ImapFolderPusher(imapStore, "INBOX", Collections.<String>emptyList(), null, pushReceiver,
+                idleEventLoop);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (pusherRunning) {
+            stopPusher();
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void start_shouldHandIdleConnectionToEventLoop() throws Exception {
+        openAndIdleDialog();
+        startServerAndPusher();
+
+        idleEventLoop.awaitWatch();
+
+        assertEquals(1, idleEventLoop.getWatchCount());
+        server.verifyConnectionStillOpen();
+    }
+
+    @Test
+    public void keepAliveWhileParked_shouldParkConnectionAgain() throws Exception {
+        CountDownLatch parked = new CountDownLatch(1);
+        openAndIdleDialog();
+        server.waitFor(parked);
+        server.output("* OK Still here");
+        startServerAndPusher();
+        idleEventLoop.awaitWatch();
+
+        parked.countDown();
+
+        // Sending DONE would make the pusher wait for the server in a blocking read instead
+        idleEventLoop.awaitWatch();
+        server.verifyConnectionStillOpen();
+    }
+
+    @Test
+    public void existsWhileParked_shouldWakeUpPusherAndReportNewMessage() throws Exception {
+        CountDownLatch parked = new CountDownLatch(1);
+        openAndIdleDialog();
+        server.waitFor(parked);
+        newMessageDialog();
+        startServerAndPusher();
+        idleEventLoop.awaitWatch();
+
+        parked.countDown();
+
+        verifyNewMessageReported();
+        idleEventLoop.awaitWatch();
+    }
+
+    @Test
+    public void refreshWhileParked_shouldRestartIdle() throws Exception {
+        openAndIdleDialog();
+        server.expect("DONE");
+        server.output("5 OK IDLE terminated");
+        server.expect("6 NOOP");
+        server.output("6 OK NOOP completed");
+        server.expect("7 IDLE");
+        server.output("+ idling");
+        startServerAndPusher();
+        idleEventLoop.awaitWatch();
+
+        folderPusher.refresh();
+
+        idleEventLoop.awaitWatch();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void stopWhileParked_shouldCloseConnection() throws Exception {
+        openAndIdleDialog();
+        startServerAndPusher();
+        idleEventLoop.awaitWatch();
+
+        stopPusher();
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void existsWithoutEventLoop_shouldWakeUpPusherWaitingForServer() throws Exception {
+        CountDownLatch waiting = new CountDownLatch(1);
+        idleEventLoop.watchingSupported = false;
+        openAndIdleDialog();
+        server.waitFor(waiting);
+        newMessageDialog();
+        startServerAndPusher();
+        idleEventLoop.awaitWatch();
+
+        waiting.countDown();
+
+        verifyNewMessageReported();
+        idleEventLoop.awaitWatch();
+        stopPusher();
+        server.verifyConnectionClosed();
+    }
+
+    private void openAndIdleDialog() {
+        server.output("* OK IMAP4rev1 Service Ready");
+        server.expect("1 CAPABILITY");
+        server.output("* CAPABILITY IMAP4 IMAP4REV1");
+        server.output("1 OK CAPABILITY");
+        server.expect("2 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        server.output("2 OK [CAPABILITY IMAP4 IMAP4REV1 IDLE] LOGIN completed");
+        server.expect("3 LIST \"\" \"\"");
+        server.output("* LIST () \"/\" foo/bar");
+        server.output("3 OK");
+        server.expect("4 EXAMINE \"INBOX\"");
+        server.output("* 1 EXISTS");
+        server.output("* OK [UIDNEXT 2]");
+        server.output("4 OK [READ-ONLY] EXAMINE completed");
+        server.expect("5 IDLE");
+        server.output("+ idling");
+    }
+
+    private void newMessageDialog() {
+        server.output("* 2 EXISTS");
+        server.expect("DONE");
+        server.output("5 OK IDLE terminated");
+        server.expect("6 NOOP");
+        server.output("6 OK NOOP completed");
+        server.expect("7 UID SEARCH 2:2");
+        server.output("* SEARCH 2");
+        server.output("7 OK SEARCH completed");
+        server.expect("8 IDLE");
+        server.output("+ idling");
+    }
+
+    private void startServerAndPusher() throws Exception {
+        server.start();
+
+        SimpleImapSettings settings = new SimpleImapSettings();
+        settings.setHost(server.getHost());
+        settings.setPort(server.getPort());
+        settings.setAuthType(AuthType.PLAIN);
+        settings.setUsername(USERNAME);
+        settings.setPassword(PASSWORD);
+
+        ImapConnection imapConnection = new ImapConnection(settings, new TestTrustedSocketFactory(),
+                mock(ConnectivityManager.class), mock(OAuth2TokenProvider.class), SOCKET_TIMEOUT, SOCKET_TIMEOUT);
+        when(imapStore.getConnection()).thenReturn(imapConnection);
+
+        folderPusher.start();
+        pusherRunning = true;
+    }
+
+    private void stopPusher() {
+        pusherRunning = false;
+        folderPusher.stop();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void verifyNewMessageReported() {
+        ArgumentCaptor<List> messagesCaptor = ArgumentCaptor.forClass(List.class);
+        verify(pushReceiver, timeout(WAIT_TIMEOUT_MILLIS)).messagesArrived(eq(folderPusher),
+                (List<Message>) messagesCaptor.capture());
+
+        List<Message> messages = messagesCaptor.getValue();
+        assertEquals("2", messages.get(messages.size() - 1).getUid());
+    }
+
+
+    private static class TestIdleEventLoop extends IdleEventLoop {
+        private final LinkedBlockingQueue<SocketChannel> watchedChannels = new LinkedBlockingQueue<>();
+        volatile boolean watchingSupported = true;
+
+
+        @Override
+        Watch watch(SocketChannel channel, long timeoutMillis, Listener listener) throws IOException {
+            if (!watchingSupported) {
+                watchedChannels.add(channel);
+                throw new IOException("Watching not supported");
+            }
+
+            Watch watch = super.watch(channel, timeoutMillis, listener);
+            watchedChannels.add(channel);
+            return watch;
+        }
+
+        void awaitWatch() throws InterruptedException {
+            if (watchedChannels.poll(WAIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) == null) {
+                throw new AssertionError("Connection wasn't handed to the event loop");
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@ import com.fsck.k9.mail.FetchProfile.Item;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.FolderChanges;
 import com.fsck.k9.mail.K9LibRobolectricTestRunner;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
@@ -32,6 +33,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.robolectric.RuntimeEnvironment;
@@ -50,7 +52,9 @@ import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -160,6 +164,48 @@ public class ImapFolderTest {
         verify(imapStore, times(2)).getConnection();
     }
 
+    @Test
+    public void open_withConnectionThatHasFolderSelected_shouldSendNoopInsteadOfSelect() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        when(imapStore.getConnection()).thenReturn(imapConnection);
+        when(imapConnection.getSelectedFolderState())
+                .thenReturn(new SelectedFolderState("Folder", OPEN_MODE_RW, 23, 57576L, 1125022061L, -1L, false));
+        when(imapConnection.executeSimpleCommand(Commands.NOOP)).thenReturn(asList(
+                createImapResponse("* 24 EXISTS"),
+                createImapResponse("2 OK NOOP completed")));
+
+        imapFolder.open(OPEN_MODE_RW);
+
+        assertEquals(24, imapFolder.getMessageCount());
+        assertEquals(OPEN_MODE_RW, imapFolder.getMode());
+        verify(imapConnection, never()).executeSimpleCommand("SELECT \"Folder\"");
+    }
+
+    @Test
+    public void open_withConnectionThatHasOtherFolderSelected_shouldSelectFolder() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.getSelectedFolderState())
+                .thenReturn(new SelectedFolderState("Other", OPEN_MODE_RW, 5, 6L, 7L, -1L, false));
+
+        imapFolder.open(OPEN_MODE_RW);
+
+        verify(imapConnection).executeSimpleCommand("SELECT \"Folder\"");
+        verify(imapConnection, never()).executeSimpleCommand(Commands.NOOP);
+    }
+
+    @Test
+    public void open_withConnectionThatHasFolderSelectedReadOnly_shouldSelectFolderForReadWrite() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.getSelectedFolderState())
+                .thenReturn(new SelectedFolderState("Folder", OPEN_MODE_RO, 23, 57576L, 1125022061L, -1L, false));
+
+        imapFolder.open(OPEN_MODE_RW);
+
+        verify(imapConnection).executeSimpleCommand("SELECT \"Folder\"");
+    }
+
     @Test
     public void open_withIoException_shouldThrowMessagingException() throws Exception {
         ImapFolder imapFolder = createFolder("Folder");
@@ -206,6 +252,110 @@ public class ImapFolderTest {
         }
     }
 
+    @Test
+    public void openAndGetChangesSince_withoutCondstoreCapability_shouldOpenFolderAndReturnNull() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+
+        FolderChanges<ImapMessage> changes = imapFolder.openAndGetChangesSince(OPEN_MODE_RW, 1125022061L, 100L);
+
+        assertNull(changes);
+        assertTrue(imapFolder.isOpen());
+        assertEquals(23, imapFolder.getMessageCount());
+        verify(imapConnection).executeSimpleCommand("SELECT \"Folder\"");
+    }
+
+    @Test
+    public void openAndGetChangesSince_withQresync_shouldReturnVanishedAndChangedMessages() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForModSeqOpen(true);
+        List<ImapResponse> selectResponses = asList(
+                createImapResponse("* 23 EXISTS"),
+                createImapResponse("* OK [UIDVALIDITY 1125022061] UIDs valid"),
+                createImapResponse("* OK [HIGHESTMODSEQ 120] Highest"),
+                createImapResponse("* VANISHED (EARLIER) 41,43:44"),
+                createImapResponse("* 5 FETCH (UID 50 FLAGS (\\Seen) MODSEQ (115))"),
+                createImapResponse("2 OK [READ-WRITE] Select completed.")
+        );
+        when(imapConnection.executeSimpleCommand("SELECT \"Folder\" (QRESYNC (1125022061 100))"))
+                .thenReturn(selectResponses);
+
+        FolderChanges<ImapMessage> changes = imapFolder.openAndGetChangesSince(OPEN_MODE_RW, 1125022061L, 100L);
+
+        assertNotNull(changes);
+        assertTrue(changes.isExpungeInfoComplete());
+        assertEquals(120L, changes.getHighestModSeq());
+        assertEquals("41,43:44", changes.getVanishedUids().toString());
+        assertEquals(1, changes.getChangedMessages().size());
+        assertEquals("50", changes.getChangedMessages().get(0).getUid());
+        assertTrue(changes.getChangedMessages().get(0).isSet(Flag.SEEN));
+        assertEquals(23, imapFolder.getMessageCount());
+    }
+
+    @Test
+    public void openAndGetChangesSince_withCondstore_shouldFetchChangedFlags() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForModSeqOpen(false);
+        List<ImapResponse> selectResponses = asList(
+                createImapResponse("* 23 EXISTS"),
+                createImapResponse("* OK [UIDVALIDITY 1125022061] UIDs valid"),
+                createImapResponse("* OK [HIGHESTMODSEQ 120] Highest"),
+                createImapResponse("2 OK [READ-WRITE] Select completed.")
+        );
+        when(imapConnection.executeSimpleCommand("SELECT \"Folder\" (CONDSTORE)")).thenReturn(selectResponses);
+        List<ImapResponse> fetchResponses = singletonList(
+                createImapResponse("* 5 FETCH (UID 50 FLAGS (\\Flagged) MODSEQ (115))"));
+        when(imapConnection.executeSimpleCommand("UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE 100)"))
+                .thenReturn(fetchResponses);
+
+        FolderChanges<ImapMessage> changes = imapFolder.openAndGetChangesSince(OPEN_MODE_RW, 1125022061L, 100L);
+
+        assertNotNull(changes);
+        assertFalse(changes.isExpungeInfoComplete());
+        assertEquals(1, changes.getChangedMessages().size());
+        assertEquals("50", changes.getChangedMessages().get(0).getUid());
+        assertTrue(changes.getChangedMessages().get(0).isSet(Flag.FLAGGED));
+    }
+
+    @Test
+    public void openAndGetChangesSince_withCondstoreAndUnchangedModSeq_shouldNotFetch() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForModSeqOpen(false);
+        List<ImapResponse> selectResponses = asList(
+                createImapResponse("* 23 EXISTS"),
+                createImapResponse("* OK [UIDVALIDITY 1125022061] UIDs valid"),
+                createImapResponse("* OK [HIGHESTMODSEQ 100] Highest"),
+                createImapResponse("2 OK [READ-WRITE] Select completed.")
+        );
+        when(imapConnection.executeSimpleCommand("SELECT \"Folder\" (CONDSTORE)")).thenReturn(selectResponses);
+
+        FolderChanges<ImapMessage> changes = imapFolder.openAndGetChangesSince(OPEN_MODE_RW, 1125022061L, 100L);
+
+        assertNotNull(changes);
+        assertTrue(changes.isEmpty());
+        verify(imapConnection, never()).executeSimpleCommand("UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE 100)");
+    }
+
+    @Test
+    public void openAndGetChangesSince_withChangedUidValidity_shouldReturnNull() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForModSeqOpen(true);
+        List<ImapResponse> selectResponses = asList(
+                createImapResponse("* 23 EXISTS"),
+                createImapResponse("* OK [UIDVALIDITY 42] UIDs valid"),
+                createImapResponse("* OK [HIGHESTMODSEQ 120] Highest"),
+                createImapResponse("2 OK [READ-WRITE] Select completed.")
+        );
+        when(imapConnection.executeSimpleCommand("SELECT \"Folder\" (QRESYNC (1125022061 100))"))
+                .thenReturn(selectResponses);
+
+        FolderChanges<ImapMessage> changes = imapFolder.openAndGetChangesSince(OPEN_MODE_RW, 1125022061L, 100L);
+
+        assertNull(changes);
+        assertEquals(42L, imapFolder.getUidValidity());
+        assertEquals(120L, imapFolder.getHighestModSeq());
+    }
+
     @Test
     public void close_shouldCloseImapFolder() throws Exception {
         ImapFolder imapFolder = createFolder("Folder");
@@ -374,6 +524,50 @@ public class ImapFolderTest {
         verify(imapConnection).executeSimpleCommand("UID STORE 1 +FLAGS.SILENT (\\Deleted)");
     }
 
+    @Test
+    public void moveMessages_withMoveCapability_shouldIssueUidMoveCommand() throws Exception {
+        ImapFolder sourceFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isMoveCapable()).thenReturn(true);
+        ImapFolder destinationFolder = createFolder("Destination");
+        List<ImapMessage> messages = createImapMessages("1", "2");
+        List<ImapResponse> moveResponses = asList(
+                createImapResponse("* OK [COPYUID 23 1:2 101:102] Moved"),
+                createImapResponse("* 1 EXPUNGE"),
+                createImapResponse("* 1 EXPUNGE"),
+                createImapResponse("x OK Done")
+        );
+        when(imapConnection.executeSimpleCommand("UID MOVE 1,2 \"Destination\"")).thenReturn(moveResponses);
+        sourceFolder.open(OPEN_MODE_RW);
+
+        Map<String, String> uidMapping = sourceFolder.moveMessages(messages, destinationFolder);
+
+        assertNotNull(uidMapping);
+        assertEquals("101", uidMapping.get("1"));
+        assertEquals("102", uidMapping.get("2"));
+        verify(imapConnection, never()).executeSimpleCommand("UID COPY 1,2 \"Destination\"");
+        verify(imapConnection, never()).executeSimpleCommand("UID STORE 1,2 +FLAGS.SILENT (\\Deleted)");
+    }
+
+    @Test
+    public void isMoveRemovingMessages_withMoveCapability_shouldReturnTrue() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isMoveCapable()).thenReturn(true);
+        folder.open(OPEN_MODE_RW);
+
+        assertTrue(folder.isMoveRemovingMessages());
+    }
+
+    @Test
+    public void isMoveRemovingMessages_withoutMoveCapability_shouldReturnFalse() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        folder.open(OPEN_MODE_RW);
+
+        assertFalse(folder.isMoveRemovingMessages());
+    }
+
     @Test
     public void moveMessages_withEmptyMessageList_shouldReturnNull() throws Exception {
         ImapFolder sourceFolder = createFolder("Source");
@@ -445,6 +639,41 @@ public class ImapFolderTest {
         verify(imapConnection).executeSimpleCommand("CREATE \"Trash\"");
     }
 
+    @Test
+    public void delete_calledTwice_shouldOnlyCheckTrashFolderOnce() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        ImapFolder trashFolder = createFolder("Trash");
+        when(imapStore.getFolder("Trash")).thenReturn(trashFolder);
+        folder.open(OPEN_MODE_RW);
+
+        folder.delete(createImapMessages("2"), "Trash");
+        folder.delete(createImapMessages("3"), "Trash");
+
+        verify(imapConnection, times(1)).executeSimpleCommand("STATUS \"Trash\" (RECENT)");
+        verify(imapConnection).executeSimpleCommand("UID COPY 3 \"Trash\"");
+    }
+
+    @Test
+    public void delete_afterCopyFailed_shouldCheckTrashFolderAgain() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        ImapFolder trashFolder = createFolder("Trash");
+        when(imapStore.getFolder("Trash")).thenReturn(trashFolder);
+        doThrow(NegativeImapResponseException.class)
+                .when(imapConnection).executeSimpleCommand("UID COPY 2 \"Trash\"");
+        folder.open(OPEN_MODE_RW);
+        try {
+            folder.delete(createImapMessages("2"), "Trash");
+            fail("Expected exception");
+        } catch (NegativeImapResponseException ignored) {
+        }
+
+        folder.delete(createImapMessages("3"), "Trash");
+
+        verify(imapConnection, times(2)).executeSimpleCommand("STATUS \"Trash\" (RECENT)");
+    }
+
     @Test
     public void getUnreadMessageCount_withClosedFolder_shouldThrow() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -925,6 +1154,49 @@ public class ImapFolderTest {
         verify(imapMessage).setFlagInternal(Flag.SEEN, true);
     }
 
+    @Test
+    public void fetch_withMoreMessagesThanFetchWindow_shouldPipelineCommands() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        when(imapStore.getMaxPipelinedFetchCommands()).thenReturn(2);
+        when(imapConnection.readResponse(any(ImapResponseCallback.class))).thenReturn(createImapResponse("x OK"));
+        List<ImapMessage> messages = createImapMessages(createUids(1, 250));
+        FetchProfile fetchProfile = createFetchProfile(Item.FLAGS);
+
+        folder.fetch(messages, fetchProfile, null);
+
+        InOrder inOrder = inOrder(imapConnection);
+        inOrder.verify(imapConnection).sendCommand("UID FETCH " + joinUids(1, 100) + " (UID FLAGS)", false);
+        inOrder.verify(imapConnection).sendCommand("UID FETCH " + joinUids(101, 200) + " (UID FLAGS)", false);
+        inOrder.verify(imapConnection).readResponse(any(ImapResponseCallback.class));
+        inOrder.verify(imapConnection).sendCommand("UID FETCH " + joinUids(201, 250) + " (UID FLAGS)", false);
+        inOrder.verify(imapConnection, times(2)).readResponse(any(ImapResponseCallback.class));
+    }
+
+    @Test
+    public void fetch_withPipelinedCommands_shouldMatchResponsesByUid() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        when(imapStore.getMaxPipelinedFetchCommands()).thenReturn(2);
+        List<ImapMessage> messages = createImapMessages(createUids(1, 101));
+        FetchProfile fetchProfile = createFetchProfile(Item.FLAGS);
+        when(imapConnection.readResponse(any(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("* 1 FETCH (FLAGS (\\Seen) UID 1)"))
+                .thenReturn(createImapResponse("x OK"))
+                .thenReturn(createImapResponse("* 101 FETCH (FLAGS (\\Flagged) UID 101)"))
+                .thenReturn(createImapResponse("y OK"));
+        MessageRetrievalListener<ImapMessage> listener = createMessageRetrievalListener();
+
+        folder.fetch(messages, fetchProfile, listener);
+
+        verify(messages.get(0)).setFlagInternal(Flag.SEEN, true);
+        verify(messages.get(100)).setFlagInternal(Flag.FLAGGED, true);
+        verify(listener).messageFinished(messages.get(0), 1, 101);
+        verify(listener).messageFinished(messages.get(100), 2, 101);
+    }
+
     @Test
     public void fetchPart_withTextSection_shouldIssueRespectiveCommand() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -1035,6 +1307,28 @@ public class ImapFolderTest {
         verify(imapConnection).executeSimpleCommand("EXPUNGE");
     }
 
+    @Test
+    public void expungeUids_withUidPlusCapability_shouldIssueUidExpungeCommand() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isUidPlusCapable()).thenReturn(true);
+
+        folder.expungeUids(asList("1", "2", "5"));
+
+        verify(imapConnection).executeSimpleCommand("UID EXPUNGE 1,2,5");
+        verify(imapConnection, never()).executeSimpleCommand("EXPUNGE");
+    }
+
+    @Test
+    public void expungeUids_withoutUidPlusCapability_shouldIssueExpungeCommand() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+
+        folder.expungeUids(asList("1", "2", "5"));
+
+        verify(imapConnection).executeSimpleCommand("EXPUNGE");
+    }
+
     @Test
     public void setFlags_shouldIssueUidStoreCommand() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -1184,6 +1478,27 @@ public class ImapFolderTest {
         return message;
     }
 
+    private String[] createUids(int first, int last) {
+        String[] uids = new String[last - first + 1];
+        for (int i = 0; i < uids.length; i++) {
+            uids[i] = Integer.toString(first + i);
+        }
+
+        return uids;
+    }
+
+    private String joinUids(int first, int last) {
+        StringBuilder sb = new StringBuilder();
+        for (int uid = first; uid <= last; uid++) {
+            if (uid > first) {
+                sb.append(',');
+            }
+            sb.append(uid);
+        }
+
+        return sb.toString();
+    }
+
     private List<ImapMessage> createImapMessages(String... uids) {
         List<ImapMessage> imapMessages = new ArrayList<>(uids.length);
 
@@ -1236,6 +1551,12 @@ public class ImapFolderTest {
         }
     }
 
+    private void prepareImapFolderForModSeqOpen(boolean qresyncEnabled) throws MessagingException {
+        when(imapStore.getConnection()).thenReturn(imapConnection);
+        when(imapConnection.isCondstoreCapable()).thenReturn(true);
+        when(imapConnection.isQresyncEnabled()).thenReturn(qresyncEnabled);
+    }
+
     private void assertCheckOpenErrorMessage(String folderName, MessagingException e) {
         assertEquals("Folder " + folderName + " is not open.", e.getMessage());
     }
@@ -66,17 +66,51 @@ public class ImapPusherTest {
     }
 
     @Test
-    public void start_withTwoFolderNames_shouldCreateTwoImapFolderPushersAndCallStart() throws Exception {
+    public void start_withTwoFolderNames_shouldCreateOneImapFolderPusherNotifyingAboutSecondFolder() throws Exception {
         List<String> folderNames = Arrays.asList("Important", "Drafts");
 
         imapPusher.start(folderNames);
 
         List<ImapFolderPusher> imapFolderPushers = imapPusher.getImapFolderPushers();
-        assertEquals(2, imapFolderPushers.size());
-        ImapFolderPusher imapFolderPusherOne = imapFolderPushers.get(0);
-        ImapFolderPusher imapFolderPusherTwo = imapFolderPushers.get(1);
-        verify(imapFolderPusherOne).start();
-        verify(imapFolderPusherTwo).start();
+        assertEquals(1, imapFolderPushers.size());
+        verify(imapFolderPushers.get(0)).start();
+        assertEquals(Collections.singletonList("Drafts"), imapPusher.getNotifyFolderNames());
+    }
+
+    @Test
+    public void onNotifyUnavailable_shouldCreateImapFolderPushersForRemainingFoldersAndCallStart() throws Exception {
+        imapPusher.start(Arrays.asList("INBOX", "Important", "Drafts"));
+        ImapFolderPusher inboxPusher = imapPusher.getImapFolderPushers().get(0);
+
+        imapPusher.onNotifyUnavailable(inboxPusher, Arrays.asList("Important", "Drafts"));
+
+        List<ImapFolderPusher> imapFolderPushers = imapPusher.getImapFolderPushers();
+        assertEquals(3, imapFolderPushers.size());
+        verify(imapFolderPushers.get(1)).start();
+        verify(imapFolderPushers.get(2)).start();
+    }
+
+    @Test
+    public void onNotifyUnavailable_afterStop_shouldNotCreateImapFolderPushers() throws Exception {
+        imapPusher.start(Arrays.asList("INBOX", "Important"));
+        ImapFolderPusher inboxPusher = imapPusher.getImapFolderPushers().get(0);
+        imapPusher.stop();
+
+        imapPusher.onNotifyUnavailable(inboxPusher, Collections.singletonList("Important"));
+
+        assertEquals(1, imapPusher.getImapFolderPushers().size());
+    }
+
+    @Test
+    public void stop_afterNotifyUnavailable_shouldStopAllImapFolderPushers() throws Exception {
+        imapPusher.start(Arrays.asList("INBOX", "Important"));
+        ImapFolderPusher inboxPusher = imapPusher.getImapFolderPushers().get(0);
+        imapPusher.onNotifyUnavailable(inboxPusher, Collections.singletonList("Important"));
+
+        imapPusher.stop();
+
+        verify(inboxPusher).stop();
+        verify(imapPusher.getImapFolderPushers().get(1)).stop();
     }
 
     @Test
@@ -157,6 +191,7 @@ public class ImapPusherTest {
 
 
         private final List<ImapFolderPusher> imapFolderPushers = new ArrayList<>();
+        private List<String> notifyFolderNames;
 
 
         public TestImapPusher(ImapStore store, PushReceiver receiver) {
@@ -170,10 +205,20 @@ public class ImapPusherTest {
             return imapFolderPusher;
         }
 
+        @Override
+        ImapFolderPusher createImapFolderPusher(String folderName, List<String> notifyFolderNames) {
+            this.notifyFolderNames = notifyFolderNames;
+            return createImapFolderPusher(folderName);
+        }
+
         public List<ImapFolderPusher> getImapFolderPushers() {
             return imapFolderPushers;
         }
 
+        public List<String> getNotifyFolderNames() {
+            return notifyFolderNames;
+        }
+
         @Override
         long currentTimeMillis() {
             return CURRENT_TIME_MILLIS;
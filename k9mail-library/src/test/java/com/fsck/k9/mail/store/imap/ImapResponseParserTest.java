@@ -13,8 +13,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -211,6 +214,65 @@ public class ImapResponseParserTest {
         assertEquals("test", response.getString(0));
     }
 
+    @Test
+    public void readResponse_withLiteral_shouldKeepBytes() throws Exception {
+        byte[] input = { '*', ' ', '1', ' ', '{', '3', '}', '\r', '\n', (byte) 0xE4, (byte) 0xF6, 'x', '\r', '\n' };
+        ImapResponseParser parser = createParser(input);
+
+        ImapResponse response = parser.readResponse();
+
+        assertEquals(2, response.size());
+        assertArrayEquals(new byte[] { (byte) 0xE4, (byte) 0xF6, 'x' }, (byte[]) response.get(1));
+        assertTrue(response.isString(1));
+    }
+
+    @Test
+    public void readResponse_withLiteral_shouldNotIncludeContentInToString() throws Exception {
+        ImapResponseParser parser = createParser("* 1 {4}\r\ntest\r\n");
+
+        ImapResponse response = parser.readResponse();
+
+        assertEquals("#null# [1, {4 bytes}]", response.toString());
+    }
+
+    @Test
+    public void equalsIgnoreCase_withLiteral() throws Exception {
+        assertTrue(ImapResponseParser.equalsIgnoreCase("fetch".getBytes(), "FETCH"));
+        assertFalse(ImapResponseParser.equalsIgnoreCase("fetched".getBytes(), "FETCH"));
+    }
+
+    @Test
+    public void readResponse_withKnownAtoms_shouldReturnSharedInstances() throws Exception {
+        ImapResponseParser parser = createParser("* 1 FETCH (UID 23 FLAGS (\\Seen))\r\n");
+
+        ImapResponse response = parser.readResponse();
+
+        assertSame("FETCH", response.getString(1));
+        assertSame("UID", response.getList(2).getString(0));
+        assertSame("FLAGS", response.getList(2).getString(2));
+        assertSame("\\Seen", response.getList(2).getList(3).getString(0));
+    }
+
+    @Test
+    public void readResponse_withAtomLongerThanInitialBuffer() throws Exception {
+        String longAtom = "ATOM_0123456789_0123456789_0123456789_0123456789_0123456789_0123456789_0123456789";
+        ImapResponseParser parser = createParser("* OK [" + longAtom + "]\r\n");
+
+        ImapResponse response = parser.readResponse();
+
+        assertEquals(longAtom, response.getList(1).getString(0));
+    }
+
+    @Test
+    public void readResponse_withEightBitQuotedString_shouldDecodeAsLatin1() throws Exception {
+        byte[] input = { '*', ' ', 'X', ' ', '"', (byte) 0xE4, '"', '\r', '\n' };
+        ImapResponseParser parser = createParser(input);
+
+        ImapResponse response = parser.readResponse();
+
+        assertEquals("\u00e4", response.getString(1));
+    }
+
     @Test
     public void testParseLiteralWithEmptyString() throws Exception {
         ImapResponseParser parser = createParser("* {0}\r\n\r\n");
@@ -417,6 +479,44 @@ public class ImapResponseParserTest {
         assertEquals("INBOX", response.get(3));
     }
 
+    @Test
+    public void readResponse_withListResponseContainingLiterals_shouldReturnStrings() throws Exception {
+        ImapResponseParser parser = createParser("* LIST ({7}\r\n\\Marked) \"/\" {10}\r\nFolder one\r\n");
+
+        ImapResponse response = parser.readResponse();
+
+        assertEquals(4, response.size());
+        assertTrue(response.getList(1).isString(0));
+        assertEquals("\\Marked", response.getList(1).getString(0));
+        assertTrue(response.isString(2));
+        assertEquals("/", response.getString(2));
+        assertTrue(response.isString(3));
+        assertEquals("Folder one", response.getString(3));
+    }
+
+    @Test
+    public void readResponse_withCramMd5Challenge_shouldReturnChallengeAsString() throws Exception {
+        ImapResponseParser parser = createParser("+ PDAwMDAuMDAwMDAwMDAwQGV4YW1wbGUub3JnPg==\r\n");
+
+        ImapResponse response = parser.readResponse();
+
+        assertTrue(response.isContinuationRequested());
+        assertEquals(1, response.size());
+        assertTrue(response.isString(0));
+        assertEquals("PDAwMDAuMDAwMDAwMDAwQGV4YW1wbGUub3JnPg==", response.getString(0));
+    }
+
+    @Test
+    public void readResponse_withContinuationRequestLookingLikeLiteral_shouldReturnTextAsString() throws Exception {
+        ImapResponseParser parser = createParser("+ {4}\r\n");
+
+        ImapResponse response = parser.readResponse();
+
+        assertEquals(1, response.size());
+        assertTrue(response.isString(0));
+        assertEquals("{4}", response.getString(0));
+    }
+
     @Test
     public void readResponse_withListAsFirstToken_shouldThrow() throws Exception {
         ImapResponseParser parser = createParser("* [1 2] 3\r\n");
@@ -487,7 +587,11 @@ public class ImapResponseParserTest {
     }
 
     private ImapResponseParser createParser(String response) {
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(response.getBytes());
+        return createParser(response.getBytes());
+    }
+
+    private ImapResponseParser createParser(byte[] response) {
+        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(response);
         peekableInputStream = new PeekableInputStream(byteArrayInputStream);
         return new ImapResponseParser(peekableInputStream);
     }
@@ -283,6 +283,7 @@ public class ImapStoreTest {
         ImapConnection imapConnectionTwo = mock(ImapConnection.class);
         imapStore.enqueueImapConnection(imapConnectionOne);
         imapStore.enqueueImapConnection(imapConnectionTwo);
+        imapStore.getConnectionPool().setHealthCheckIntervalMillis(0);
         imapStore.getConnection();
         when(imapConnectionOne.isConnected()).thenReturn(true);
         doThrow(IOException.class).when(imapConnectionOne).executeSimpleCommand(Commands.NOOP);
@@ -293,6 +294,28 @@ public class ImapStoreTest {
         assertSame(imapConnectionTwo, result);
     }
 
+    @Test
+    public void getConnection_withRecentlyReleasedConnection_shouldNotSendNoop() throws Exception {
+        ImapConnection imapConnection = mock(ImapConnection.class);
+        when(imapConnection.isConnected()).thenReturn(true);
+        imapStore.enqueueImapConnection(imapConnection);
+        imapStore.releaseConnection(imapStore.getConnection());
+
+        ImapConnection result = imapStore.getConnection();
+
+        assertSame(imapConnection, result);
+        verify(imapConnection, never()).executeSimpleCommand(Commands.NOOP);
+    }
+
+    @Test
+    public void getMaxPipelinedFetchCommands_shouldReturnValueFromStoreConfig() throws Exception {
+        when(storeConfig.getMaxPipelinedFetchCommands()).thenReturn(8);
+
+        int result = imapStore.getMaxPipelinedFetchCommands();
+
+        assertEquals(8, result);
+    }
+
     private StoreConfig createStoreConfig() {
         StoreConfig storeConfig = mock(StoreConfig.class);
         when(storeConfig.getInboxFolderName()).thenReturn("INBOX");
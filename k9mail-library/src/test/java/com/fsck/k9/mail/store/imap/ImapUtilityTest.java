@@ -25,6 +25,7 @@ import org.junit.runner.RunWith;
 import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 
 @RunWith(K9LibRobolectricTestRunner.class)
@@ -104,6 +105,16 @@ public class ImapUtilityTest  {
         assertArrayEquals(expected, actual.toArray());
     }
 
+    @Test
+    public void testGetImapSequenceRanges() {
+        assertEquals("1", ImapUtility.getImapSequenceRanges("1").toString());
+        assertEquals("1:3,7:9", ImapUtility.getImapSequenceRanges("3,1:2,9:7").toString());
+        assertEquals("1:4000000000", ImapUtility.getImapSequenceRanges("1:4000000000").toString());
+        assertEquals("1:5", ImapUtility.getImapSequenceRanges("1,x,5:2,a:d").toString());
+        assertEquals("", ImapUtility.getImapSequenceRanges("4294967296:4294967297").toString());
+        assertEquals("", ImapUtility.getImapSequenceRanges(null).toString());
+    }
+
     @Test public void testGetImapRangeValues() {
         String[] expected;
         List<String> actual;
@@ -49,6 +49,22 @@ public class ListResponseTest {
         assertListResponseEquals(asList("\\HasChildren", "\\Noselect"), ".", "Folder", result.get(0));
     }
 
+    @Test
+    public void parseList_withLiteralAttribute_shouldReturnListResponse() throws Exception {
+        List<ListResponse> result = parseSingle("* LIST ({7}\r\n\\Marked \\Noselect) \".\" \"Folder\"");
+
+        assertEquals(1, result.size());
+        assertListResponseEquals(asList("\\Marked", "\\Noselect"), ".", "Folder", result.get(0));
+    }
+
+    @Test
+    public void parseList_withLiteralMailboxName_shouldReturnListResponse() throws Exception {
+        List<ListResponse> result = parseSingle("* LIST () \"/\" {10}\r\nFolder one");
+
+        assertEquals(1, result.size());
+        assertListResponseEquals(noAttributes(), "/", "Folder one", result.get(0));
+    }
+
     @Test
     public void parseList_withoutListResponse_shouldReturnEmptyList() throws Exception {
         List<ListResponse> result = parseSingle("* LSUB () \".\" INBOX");
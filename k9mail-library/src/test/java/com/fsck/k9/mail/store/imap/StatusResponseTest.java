@@ -0,0 +1,67 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+
+public class StatusResponseTest {
+
+    @Test
+    public void parse_withUidNext() throws Exception {
+        StatusResponse result = parse("* STATUS \"Drafts\" (MESSAGES 17 UIDNEXT 4294967295)");
+
+        assertNotNull(result);
+        assertEquals("Drafts", result.getMailboxName());
+        assertEquals(4294967295L, result.getUidNext());
+    }
+
+    @Test
+    public void parse_withoutUidNext_shouldReturnMinusOne() throws Exception {
+        StatusResponse result = parse("* STATUS INBOX (HIGHESTMODSEQ 7011231777)");
+
+        assertNotNull(result);
+        assertEquals("INBOX", result.getMailboxName());
+        assertEquals(-1L, result.getUidNext());
+    }
+
+    @Test
+    public void parse_withInvalidUidNext_shouldReturnNull() throws Exception {
+        StatusResponse result = parse("* STATUS INBOX (UIDNEXT x)");
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withoutStatusResponse_shouldReturnNull() throws Exception {
+        StatusResponse result = parse("* 23 EXISTS");
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withTaggedResponse_shouldReturnNull() throws Exception {
+        StatusResponse result = parse("x STATUS INBOX (UIDNEXT 1)");
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withoutAttributeList_shouldReturnNull() throws Exception {
+        StatusResponse result = parse("* STATUS INBOX");
+
+        assertNull(result);
+    }
+
+    private StatusResponse parse(String response) throws IOException {
+        ImapResponse imapResponse = createImapResponse(response);
+
+        return StatusResponse.parse(imapResponse);
+    }
+}
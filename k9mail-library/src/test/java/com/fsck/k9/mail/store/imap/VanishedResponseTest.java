@@ -0,0 +1,72 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class VanishedResponseTest {
+
+    @Test
+    public void parse_withUidSet() throws Exception {
+        VanishedResponse result = parse("* VANISHED 3,7:9");
+
+        assertNotNull(result);
+        assertFalse(result.isEarlier());
+        assertEquals("3,7:9", result.getUids().toString());
+    }
+
+    @Test
+    public void parse_withEarlierTag() throws Exception {
+        VanishedResponse result = parse("* VANISHED (EARLIER) 41,43:44");
+
+        assertNotNull(result);
+        assertTrue(result.isEarlier());
+        assertEquals("41,43:44", result.getUids().toString());
+    }
+
+    @Test
+    public void parse_withLargeRange_shouldNotExpandRange() throws Exception {
+        VanishedResponse result = parse("* VANISHED (EARLIER) 1:4000000000");
+
+        assertNotNull(result);
+        assertEquals(4000000000L, result.getUids().size());
+        assertEquals(asList("5", "3999999999"), result.getUids().intersect(asList("5", "3999999999", "4000000001")));
+    }
+
+    @Test
+    public void parse_withoutVanishedResponse_shouldReturnNull() throws Exception {
+        VanishedResponse result = parse("* 23 EXPUNGE");
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withTaggedResponse_shouldReturnNull() throws Exception {
+        VanishedResponse result = parse("x VANISHED 1");
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withoutUidSet_shouldReturnNull() throws Exception {
+        VanishedResponse result = parse("* VANISHED (EARLIER)");
+
+        assertNull(result);
+    }
+
+    private VanishedResponse parse(String response) throws IOException {
+        ImapResponse imapResponse = createImapResponse(response);
+
+        return VanishedResponse.parse(imapResponse);
+    }
+}
@@ -86,6 +86,14 @@ public class MockImapServer {
         interactions.add(new CloseConnection());
     }
 
+    /**
+     * Makes the server wait until {@code latch} has been counted down before continuing with the next interaction.
+     */
+    public void waitFor(CountDownLatch latch) {
+        checkServerNotRunning();
+        interactions.add(new WaitForLatch(latch));
+    }
+
     public void start() throws IOException {
         checkServerNotRunning();
 
@@ -218,6 +226,22 @@ public class MockImapServer {
     private static class CloseConnection implements ImapInteraction {
     }
 
+    private static class WaitForLatch implements ImapInteraction {
+        private final CountDownLatch latch;
+
+
+        public WaitForLatch(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        public void await() {
+            try {
+                latch.await(5000L, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
     private static class EnableCompression implements ImapInteraction {
     }
 
@@ -311,6 +335,8 @@ public class MockImapServer {
                 writeCannedResponse((CannedResponse) interaction);
             } else if (interaction instanceof CloseConnection) {
                 clientSocket.close();
+            } else if (interaction instanceof WaitForLatch) {
+                ((WaitForLatch) interaction).await();
             } else if (interaction instanceof EnableCompression) {
                 enableCompression(socket);
             } else if (interaction instanceof UpgradeToTls) {
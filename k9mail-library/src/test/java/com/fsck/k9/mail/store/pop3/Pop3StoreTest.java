@@ -3,24 +3,36 @@ package com.fsck.k9.mail.store.pop3;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import com.fsck.k9.mail.AuthenticationFailedException;
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Folder.FolderType;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.filter.Base64;
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.ssl.TrustedSocketFactory;
 import com.fsck.k9.mail.store.StoreConfig;
+import com.fsck.k9.mail.store.pop3.Pop3Store.Pop3Message;
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -46,6 +58,12 @@ public class Pop3StoreTest {
     private static final String AUTH_PLAIN_FAILED_RESPONSE = "+OK\r\n" + "Plain authentication failure";
     private static final String STAT = "STAT\r\n";
     private static final String STAT_RESPONSE = "+OK 20 0\r\n";
+    private static final String CAPA_WITH_PIPELINING_RESPONSE = "+OK Capability list follows\r\n" +
+            "TOP\r\n" +
+            "UIDL\r\n" +
+            "PIPELINING\r\n" +
+            ".\r\n";
+    private static final String OPEN_COMMANDS = AUTH + CAPA + AUTH_PLAIN_WITH_LOGIN + STAT;
 
 
     private Pop3Store store;
@@ -54,6 +72,9 @@ public class Pop3StoreTest {
     private Socket mockSocket = mock(Socket.class);
     private OutputStream mockOutputStream = mock(OutputStream.class);
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 
     @Before
     public void setUp() throws Exception {
@@ -68,6 +89,11 @@ public class Pop3StoreTest {
         store = new Pop3Store(mockStoreConfig, mockTrustedSocketFactory);
     }
 
+    @After
+    public void tearDown() throws Exception {
+        BinaryTempFileBody.setTempDirectory(null);
+    }
+
     @Test
     public void getFolder_shouldReturnSameFolderEachTime() {
         Folder folderOne = store.getFolder("TestFolder");
@@ -190,4 +216,151 @@ public class Pop3StoreTest {
 
         folder.open(Folder.OPEN_MODE_RW);
     }
+
+    @Test
+    public void fetch_withPipeliningCapability_shouldSendAllRetrCommandsAtOnce() throws Exception {
+        BinaryTempFileBody.setTempDirectory(temporaryFolder.newFolder());
+        ByteArrayOutputStream output = setUpServer(CAPA_WITH_PIPELINING_RESPONSE, 2,
+                "+OK\r\n1 uid1\r\n2 uid2\r\n.\r\n" +
+                "+OK\r\nSubject: one\r\n\r\nbody\r\n.\r\n" +
+                "+OK\r\nSubject: two\r\n\r\nbody\r\n.\r\n");
+        Pop3Store.Pop3Folder folder = (Pop3Store.Pop3Folder) store.getFolder("Inbox");
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> messages = folder.getMessages(1, 2, null, null);
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(FetchProfile.Item.BODY);
+
+        folder.fetch(messages, fetchProfile, null);
+
+        assertEquals(OPEN_COMMANDS + "UIDL\r\nRETR 1\r\nRETR 2\r\n", output.toString("UTF-8"));
+        assertArrayEquals(new String[] { "one" }, messages.get(0).getHeader("Subject"));
+        assertArrayEquals(new String[] { "two" }, messages.get(1).getHeader("Subject"));
+    }
+
+    @Test
+    public void setFlags_withDeletedFlag_shouldDeleteAllMessages() throws Exception {
+        ByteArrayOutputStream output = setUpServer(CAPA_WITH_PIPELINING_RESPONSE, 2,
+                "+OK\r\n1 uid1\r\n2 uid2\r\n.\r\n" +
+                "+OK\r\n" +
+                "+OK\r\n");
+        Pop3Store.Pop3Folder folder = (Pop3Store.Pop3Folder) store.getFolder("Inbox");
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> messages = Arrays.asList(folder.getMessage("uid1"), folder.getMessage("uid2"));
+
+        folder.setFlags(messages, Collections.singleton(Flag.DELETED), true);
+
+        assertEquals(OPEN_COMMANDS + "UIDL\r\nDELE 1\r\nDELE 2\r\n", output.toString("UTF-8"));
+    }
+
+    @Test(expected = MessagingException.class)
+    public void setFlags_withErrorResponse_shouldThrow() throws Exception {
+        setUpServer(CAPA_WITH_PIPELINING_RESPONSE, 2,
+                "+OK\r\n1 uid1\r\n2 uid2\r\n.\r\n" +
+                "-ERR no such message\r\n" +
+                "+OK\r\n");
+        Pop3Store.Pop3Folder folder = (Pop3Store.Pop3Folder) store.getFolder("Inbox");
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> messages = Arrays.asList(folder.getMessage("uid1"), folder.getMessage("uid2"));
+
+        folder.setFlags(messages, Collections.singleton(Flag.DELETED), true);
+    }
+
+    @Test
+    public void setFlags_withErrorResponse_shouldOnlyReportMessagesThatWerentDeleted() throws Exception {
+        setUpServer(CAPA_WITH_PIPELINING_RESPONSE, 3,
+                "+OK\r\n1 uid1\r\n2 uid2\r\n3 uid3\r\n.\r\n" +
+                "+OK\r\n" +
+                "-ERR no such message\r\n" +
+                "+OK\r\n");
+        Pop3Store.Pop3Folder folder = (Pop3Store.Pop3Folder) store.getFolder("Inbox");
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> messages = Arrays.asList(folder.getMessage("uid1"), folder.getMessage("uid2"),
+                folder.getMessage("uid3"));
+
+        try {
+            folder.setFlags(messages, Collections.singleton(Flag.DELETED), true);
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertTrue(e.getMessage().contains("[uid2]"));
+        }
+    }
+
+    @Test
+    public void setFlags_afterErrorResponse_shouldOnlyRetryMessagesThatWerentDeleted() throws Exception {
+        ByteArrayOutputStream output = setUpServer(CAPA_WITH_PIPELINING_RESPONSE, 2,
+                "+OK\r\n1 uid1\r\n2 uid2\r\n.\r\n" +
+                "-ERR temporary failure\r\n" +
+                "+OK\r\n" +
+                "+OK\r\n");
+        Pop3Store.Pop3Folder folder = (Pop3Store.Pop3Folder) store.getFolder("Inbox");
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> messages = Arrays.asList(folder.getMessage("uid1"), folder.getMessage("uid2"));
+        try {
+            folder.setFlags(messages, Collections.singleton(Flag.DELETED), true);
+        } catch (MessagingException ignored) {
+        }
+
+        folder.setFlags(messages, Collections.singleton(Flag.DELETED), true);
+
+        assertEquals(OPEN_COMMANDS + "UIDL\r\nDELE 1\r\nDELE 2\r\nDELE 1\r\n", output.toString("UTF-8"));
+    }
+
+    @Test
+    public void getMessages_withValidUidlSnapshot_shouldOnlyRequestNewUids() throws Exception {
+        File cacheDirectory = temporaryFolder.newFolder();
+        store = new Pop3Store(mockStoreConfig, mockTrustedSocketFactory, cacheDirectory);
+        setUpServer(CAPA_WITH_PIPELINING_RESPONSE, 2, "+OK\r\n1 uid1\r\n2 uid2\r\n.\r\n");
+        Pop3Store.Pop3Folder folder = (Pop3Store.Pop3Folder) store.getFolder("Inbox");
+        folder.open(Folder.OPEN_MODE_RW);
+        folder.getMessages(1, 2, null, null);
+        store = new Pop3Store(mockStoreConfig, mockTrustedSocketFactory, cacheDirectory);
+        ByteArrayOutputStream output = setUpServer(CAPA_WITH_PIPELINING_RESPONSE, 3,
+                "+OK 2 uid2\r\n" +
+                "+OK 3 uid3\r\n");
+        folder = (Pop3Store.Pop3Folder) store.getFolder("Inbox");
+        folder.open(Folder.OPEN_MODE_RW);
+
+        List<Pop3Message> messages = folder.getMessages(1, 3, null, null);
+
+        assertEquals(OPEN_COMMANDS + "UIDL 2\r\nUIDL 3\r\n", output.toString("UTF-8"));
+        assertEquals(3, messages.size());
+        assertEquals("uid1", messages.get(0).getUid());
+        assertEquals("uid3", messages.get(2).getUid());
+    }
+
+    @Test
+    public void getMessages_withOutdatedUidlSnapshot_shouldRequestFullListing() throws Exception {
+        File cacheDirectory = temporaryFolder.newFolder();
+        store = new Pop3Store(mockStoreConfig, mockTrustedSocketFactory, cacheDirectory);
+        setUpServer(CAPA_WITH_PIPELINING_RESPONSE, 2, "+OK\r\n1 uid1\r\n2 uid2\r\n.\r\n");
+        Pop3Store.Pop3Folder folder = (Pop3Store.Pop3Folder) store.getFolder("Inbox");
+        folder.open(Folder.OPEN_MODE_RW);
+        folder.getMessages(1, 2, null, null);
+        store = new Pop3Store(mockStoreConfig, mockTrustedSocketFactory, cacheDirectory);
+        ByteArrayOutputStream output = setUpServer(CAPA_WITH_PIPELINING_RESPONSE, 2,
+                "+OK 2 uid3\r\n" +
+                "+OK\r\n1 uid2\r\n2 uid3\r\n.\r\n");
+        folder = (Pop3Store.Pop3Folder) store.getFolder("Inbox");
+        folder.open(Folder.OPEN_MODE_RW);
+
+        List<Pop3Message> messages = folder.getMessages(1, 2, null, null);
+
+        assertEquals(OPEN_COMMANDS + "UIDL 2\r\nUIDL\r\n", output.toString("UTF-8"));
+        assertEquals("uid2", messages.get(0).getUid());
+        assertEquals("uid3", messages.get(1).getUid());
+    }
+
+    private ByteArrayOutputStream setUpServer(String capaResponse, int messageCount, String responses)
+            throws Exception {
+        String response = INITIAL_RESPONSE +
+                AUTH_HANDLE_RESPONSE +
+                capaResponse +
+                AUTH_PLAIN_AUTHENTICATED_RESPONSE +
+                "+OK " + messageCount + " 0\r\n" +
+                responses;
+        when(mockSocket.getInputStream()).thenReturn(new ByteArrayInputStream(response.getBytes("UTF-8")));
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        when(mockSocket.getOutputStream()).thenReturn(byteArrayOutputStream);
+        return byteArrayOutputStream;
+    }
 }
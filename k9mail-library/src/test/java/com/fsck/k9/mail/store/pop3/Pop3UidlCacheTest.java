@@ -0,0 +1,69 @@
+package com.fsck.k9.mail.store.pop3;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class Pop3UidlCacheTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+    private Pop3UidlCache cache;
+
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(temporaryFolder.getRoot(), "uidl");
+        cache = new Pop3UidlCache(file);
+    }
+
+    @Test
+    public void load_withoutSnapshot_shouldReturnEmptyList() throws Exception {
+        List<String> result = cache.load();
+
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void load_afterSave_shouldReturnSavedUids() throws Exception {
+        cache.save(Arrays.asList("uid1", "uid2", "<uid3@example.com>"));
+
+        List<String> result = cache.load();
+
+        assertEquals(Arrays.asList("uid1", "uid2", "<uid3@example.com>"), result);
+    }
+
+    @Test
+    public void load_withUnknownFormat_shouldReturnEmptyList() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("uid1\nuid2\n".getBytes("US-ASCII"));
+        out.close();
+
+        List<String> result = cache.load();
+
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void clear_shouldDeleteSnapshot() throws Exception {
+        cache.save(Arrays.asList("uid1"));
+
+        cache.clear();
+
+        assertFalse(file.exists());
+        assertTrue(cache.load().isEmpty());
+    }
+}
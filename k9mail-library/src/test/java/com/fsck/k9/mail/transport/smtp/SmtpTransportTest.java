@@ -584,6 +584,7 @@ public class SmtpTransportTest {
         SmtpTransport transport = startServerAndCreateSmtpTransport(server);
 
         transport.sendMessage(message);
+        transport.close();
 
         server.verifyConnectionClosed();
         server.verifyInteractionCompleted();
@@ -608,6 +609,7 @@ public class SmtpTransportTest {
         SmtpTransport transport = startServerAndCreateSmtpTransport(server);
 
         transport.sendMessage(message);
+        transport.close();
 
         server.verifyConnectionClosed();
         server.verifyInteractionCompleted();
@@ -632,6 +634,7 @@ public class SmtpTransportTest {
         SmtpTransport transport = startServerAndCreateSmtpTransport(server);
 
         transport.sendMessage(message);
+        transport.close();
 
         server.verifyConnectionClosed();
         server.verifyInteractionCompleted();
@@ -641,9 +644,8 @@ public class SmtpTransportTest {
     public void sendMessage_withMessageTooLarge_shouldThrow() throws Exception {
         Message message = getDefaultMessageBuilder()
                 .setHasAttachments(true)
-                .messageSize(1234L)
                 .build();
-        MockSmtpServer server = createServerAndSetupForPlainAuthentication("SIZE 1000");
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("SIZE 10");
         SmtpTransport transport = startServerAndCreateSmtpTransport(server);
 
         try {
@@ -688,6 +690,161 @@ public class SmtpTransportTest {
         server.verifyInteractionCompleted();
     }
 
+    @Test
+    public void sendMessage_calledTwice_shouldReuseConnection() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication();
+        expectMessageSentWithData(server);
+        server.expect("RSET");
+        server.output("250 OK");
+        expectMessageSentWithData(server);
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.sendMessage(message);
+        transport.sendMessage(message);
+        transport.close();
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withNegativeReplyToRecipient_shouldKeepConnectionOpen() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication();
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("550 No such user");
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        try {
+            transport.sendMessage(message);
+            fail("Expected exception");
+        } catch (NegativeSmtpReplyException e) {
+            assertEquals(550, e.getReplyCode());
+        }
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withPipelining_shouldSendEnvelopeCommandsWithoutWaitingForReplies() throws Exception {
+        Message message = getDefaultMessageBuilder().cc("user3@localhost").build();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("PIPELINING");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.expect("RCPT TO:<user3@localhost>");
+        server.output("250 OK");
+        server.output("250 OK");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12345");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.sendMessage(message);
+        transport.close();
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withPipeliningAndRejectedRecipient_shouldNotSendData() throws Exception {
+        Message message = getDefaultMessageBuilder().cc("user3@localhost").build();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("PIPELINING");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.expect("RCPT TO:<user3@localhost>");
+        server.output("250 OK");
+        server.output("550 No such user");
+        server.output("250 OK");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        try {
+            transport.sendMessage(message);
+            fail("Expected exception");
+        } catch (NegativeSmtpReplyException e) {
+            assertEquals(550, e.getReplyCode());
+        }
+        transport.close();
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withChunking_shouldSendDataUsingBdat() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("CHUNKING");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("BDAT 16 LAST");
+        server.expect("[message data]");
+        server.output("250 OK: queued as 12345");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.sendMessage(message);
+        transport.close();
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withChunkingAndNegativeReply_shouldThrow() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("CHUNKING");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("BDAT 16 LAST");
+        server.expect("[message data]");
+        server.output("554 Transaction failed");
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        try {
+            transport.sendMessage(message);
+            fail("Expected exception");
+        } catch (NegativeSmtpReplyException e) {
+            assertEquals(554, e.getReplyCode());
+        }
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
+    private void expectMessageSentWithData(MockSmtpServer server) {
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12345");
+    }
+
     private SmtpTransport startServerAndCreateSmtpTransport(MockSmtpServer server) throws IOException,
             MessagingException {
         return startServerAndCreateSmtpTransport(server, AuthType.PLAIN, ConnectionSecurity.NONE);
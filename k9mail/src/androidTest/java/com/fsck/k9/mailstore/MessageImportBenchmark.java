@@ -0,0 +1,291 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.ApplicationTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.mail.internet.MimeMessage;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
+import com.fsck.k9.message.extractors.PreviewResult;
+
+
+/**
+ * Measures how many messages per second can be imported into a {@link LocalFolder}.
+ *
+ * <p>
+ * Results are written to logcat with the tag {@value #LOG_TAG}. Run with
+ * {@code ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.fsck.k9.mailstore.MessageImportBenchmark}
+ * </p>
+ */
+public class MessageImportBenchmark extends ApplicationTestCase<K9> {
+    private static final String LOG_TAG = "MessageImportBenchmark";
+    private static final int MESSAGE_COUNT = 10000;
+    private static final int BATCH_SIZE = 100;
+
+
+    private Account account;
+    private LocalStore localStore;
+
+
+    public MessageImportBenchmark() {
+        super(K9.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "db-benchmark-");
+        setContext(context);
+
+        BinaryTempFileBody.setTempDirectory(context.getCacheDir());
+
+        createApplication();
+
+        account = new ReconstructMessageFromDatabaseTest.DummyAccount(context);
+        localStore = LocalStore.getInstance(account, getApplication());
+    }
+
+    public void testAppendMessages() throws Exception {
+        LocalFolder folder = createFolderInDatabase("INBOX");
+
+        long totalNanos = 0;
+        for (int start = 0; start < MESSAGE_COUNT; start += BATCH_SIZE) {
+            List<MimeMessage> batch = createMessages(start, BATCH_SIZE);
+
+            long startTime = System.nanoTime();
+            folder.appendMessages(batch);
+            totalNanos += System.nanoTime() - startTime;
+        }
+
+        report("LocalFolder.appendMessages()", MESSAGE_COUNT, totalNanos);
+        assertEquals(MESSAGE_COUNT, folder.getMessageCount());
+    }
+
+    /**
+     * Compares the row writes done for every stored message using {@link ContentValues}, as
+     * {@link LocalFolder} used to do, with {@link MessageBatchWriter}.
+     */
+    public void testRowWritesContentValuesVersusBatchWriter() throws Exception {
+        final LocalFolder folder = createFolderInDatabase("INBOX");
+        final List<MimeMessage> messages = createMessages(0, MESSAGE_COUNT);
+        final ExtractedMessageData extractedData =
+                new ExtractedMessageData(PreviewResult.text("Preview text"), "Fulltext", 0);
+        LockableDatabase database = localStore.database;
+
+        long contentValuesNanos = database.execute(true, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) throws WrappedException, MessagingException {
+                long startTime = System.nanoTime();
+                for (MimeMessage message : messages) {
+                    writeRowsUsingContentValues(db, folder.getId(), message, extractedData);
+                }
+                return System.nanoTime() - startTime;
+            }
+        });
+
+        long batchWriterNanos = database.execute(true, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) throws WrappedException, MessagingException {
+                MessageBatchWriter writer = new MessageBatchWriter(db);
+                try {
+                    long startTime = System.nanoTime();
+                    for (MimeMessage message : messages) {
+                        writeRowsUsingBatchWriter(writer, folder.getId(), message, extractedData);
+                    }
+                    return System.nanoTime() - startTime;
+                } finally {
+                    writer.close();
+                }
+            }
+        });
+
+        report("ContentValues", MESSAGE_COUNT, contentValuesNanos);
+        report("MessageBatchWriter", MESSAGE_COUNT, batchWriterNanos);
+    }
+
+    /**
+     * Compares looking up the thread entries of every referenced Message-ID with one query each, as
+     * {@link LocalFolder} used to do, with preloading them for a whole batch using {@link MessageThreadIndex}.
+     */
+    public void testThreadLookupsPerMessageVersusPreloadedIndex() throws Exception {
+        final LocalFolder folder = createFolderInDatabase("INBOX");
+        folder.appendMessages(createMessages(0, MESSAGE_COUNT));
+
+        final List<MimeMessage> replies = createReplies(MESSAGE_COUNT, MESSAGE_COUNT);
+        LockableDatabase database = localStore.database;
+
+        long perMessageNanos = database.execute(false, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) throws WrappedException, MessagingException {
+                long startTime = System.nanoTime();
+                for (MimeMessage reply : replies) {
+                    MessageThreadIndex threadIndex = new MessageThreadIndex(db, folder.getId());
+                    lookUpThreads(threadIndex, reply);
+                }
+                return System.nanoTime() - startTime;
+            }
+        });
+
+        long preloadedNanos = database.execute(false, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) throws WrappedException, MessagingException {
+                long startTime = System.nanoTime();
+                for (int start = 0; start < MESSAGE_COUNT; start += BATCH_SIZE) {
+                    List<MimeMessage> batch = replies.subList(start, start + BATCH_SIZE);
+                    MessageThreadIndex threadIndex = new MessageThreadIndex(db, folder.getId());
+                    threadIndex.preload(batch);
+                    for (MimeMessage reply : batch) {
+                        lookUpThreads(threadIndex, reply);
+                    }
+                }
+                return System.nanoTime() - startTime;
+            }
+        });
+
+        report("Thread lookups per message", MESSAGE_COUNT, perMessageNanos);
+        report("Thread lookups with MessageThreadIndex", MESSAGE_COUNT, preloadedNanos);
+    }
+
+    private void lookUpThreads(MessageThreadIndex threadIndex, MimeMessage message) {
+        threadIndex.getThreadInfo(message.getMessageId(), true);
+        for (String reference : MessageThreadIndex.getReferencedMessageIds(message)) {
+            threadIndex.getThreadInfo(reference, false);
+        }
+    }
+
+    private void writeRowsUsingContentValues(SQLiteDatabase db, long folderId, MimeMessage message,
+            ExtractedMessageData extractedData) throws MessagingException {
+        ContentValues cv = new ContentValues();
+        cv.put("type", 0);
+        cv.put("parent", -1);
+        cv.put("seq", 0);
+        cv.put("mime_type", message.getMimeType());
+        cv.put("data_location", 1);
+        long messagePartId = db.insertOrThrow("message_parts", null, cv);
+
+        cv.clear();
+        cv.put("message_part_id", messagePartId);
+        cv.put("uid", message.getUid());
+        cv.put("subject", message.getSubject());
+        cv.put("sender_list", "sender@example.com");
+        cv.put("date", System.currentTimeMillis());
+        cv.put("flags", "");
+        cv.put("deleted", 0);
+        cv.put("read", 0);
+        cv.put("flagged", 0);
+        cv.put("answered", 0);
+        cv.put("forwarded", 0);
+        cv.put("folder_id", folderId);
+        cv.put("to_list", "to@example.com");
+        cv.put("cc_list", "");
+        cv.put("bcc_list", "");
+        cv.put("reply_to_list", "");
+        cv.put("attachment_count", extractedData.attachmentCount);
+        cv.put("internal_date", System.currentTimeMillis());
+        cv.put("mime_type", message.getMimeType());
+        cv.put("empty", 0);
+        cv.put("preview_type", "text");
+        cv.put("preview", extractedData.previewResult.getPreviewText());
+        cv.put("message_id", message.getMessageId());
+        long messageId = db.insert("messages", "uid", cv);
+
+        cv.clear();
+        cv.put("message_id", messageId);
+        db.insert("threads", null, cv);
+
+        cv.clear();
+        cv.put("docid", messageId);
+        cv.put("fulltext", extractedData.fulltext);
+        db.replace("messages_fulltext", null, cv);
+    }
+
+    private void writeRowsUsingBatchWriter(MessageBatchWriter writer, long folderId, MimeMessage message,
+            ExtractedMessageData extractedData) throws MessagingException {
+        MessagePartRow part = new MessagePartRow();
+        part.type = 0;
+        part.parent = -1;
+        part.seq = 0;
+        part.mimeType = message.getMimeType();
+        part.dataLocation = 1;
+        long messagePartId = writer.insertMessagePart(part);
+
+        long messageId = writer.insertMessage(folderId, message.getUid(), messagePartId, message, extractedData);
+        writer.insertThread(messageId, -1, -1);
+        writer.replaceFulltext(messageId, extractedData.fulltext);
+    }
+
+    private LocalFolder createFolderInDatabase(String name) throws MessagingException {
+        LocalFolder folder = localStore.getFolder(name);
+        List<LocalFolder> folders = new ArrayList<>();
+        folders.add(folder);
+        localStore.createFolders(folders, 10);
+        folder.open(LocalFolder.OPEN_MODE_RW);
+        return folder;
+    }
+
+    private List<MimeMessage> createMessages(int start, int count) throws IOException, MessagingException {
+        List<MimeMessage> messages = new ArrayList<>(count);
+        for (int i = start; i < start + count; i++) {
+            String source = "From: sender@example.com\r\n" +
+                    "To: to@example.com\r\n" +
+                    "Subject: Message " + i + "\r\n" +
+                    "Date: Thu, 13 Nov 2014 17:09:38 +0100\r\n" +
+                    "Message-ID: <" + i + "@example.com>\r\n" +
+                    "Content-Type: text/plain; charset=utf-8\r\n" +
+                    "MIME-Version: 1.0\r\n" +
+                    "\r\n" +
+                    "This is the body of message " + i + ".\r\n";
+            MimeMessage message = MimeMessage.parseMimeMessage(new ByteArrayInputStream(source.getBytes()), true);
+            message.setUid(Integer.toString(i + 1));
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Creates messages that reply to the previous messages of a mailing list thread.
+     */
+    private List<MimeMessage> createReplies(int start, int count) throws IOException, MessagingException {
+        List<MimeMessage> messages = new ArrayList<>(count);
+        for (int i = start; i < start + count; i++) {
+            int parent = i - start;
+            String source = "From: sender@example.com\r\n" +
+                    "To: list@example.com\r\n" +
+                    "Subject: Re: Message " + parent + "\r\n" +
+                    "Date: Thu, 13 Nov 2014 17:09:38 +0100\r\n" +
+                    "Message-ID: <" + i + "@example.com>\r\n" +
+                    "References: <" + Math.max(parent - 2, 0) + "@example.com> <" +
+                            Math.max(parent - 1, 0) + "@example.com>\r\n" +
+                    "In-Reply-To: <" + parent + "@example.com>\r\n" +
+                    "Content-Type: text/plain; charset=utf-8\r\n" +
+                    "MIME-Version: 1.0\r\n" +
+                    "\r\n" +
+                    "This is a reply to message " + parent + ".\r\n";
+            MimeMessage message = MimeMessage.parseMimeMessage(new ByteArrayInputStream(source.getBytes()), true);
+            message.setUid(Integer.toString(i + 1));
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private void report(String name, int messageCount, long nanos) {
+        double seconds = nanos / 1e9;
+        Log.i(LOG_TAG, String.format(Locale.US, "%s: %d messages in %.2f s (%.0f messages/s)",
+                name, messageCount, seconds, messageCount / seconds));
+    }
+}
@@ -106,6 +106,7 @@ public class Account implements BaseAccount, StoreConfig {
     public static final boolean DEFAULT_REPLY_AFTER_QUOTE = false;
     public static final boolean DEFAULT_STRIP_SIGNATURE = true;
     public static final int DEFAULT_REMOTE_SEARCH_NUM_RESULTS = 25;
+    public static final int DEFAULT_MAX_PIPELINED_FETCH_COMMANDS = 4;
 
     public static final String ACCOUNT_DESCRIPTION_KEY = "description";
     public static final String STORE_URI_KEY = "storeUri";
@@ -201,6 +202,7 @@ public class Account implements BaseAccount, StoreConfig {
     private Expunge expungePolicy = Expunge.EXPUNGE_IMMEDIATELY;
     private int maxPushFolders;
     private int idleRefreshMinutes;
+    private int maxPipelinedFetchCommands;
     private boolean goToUnreadMessageSearch;
     private final Map<NetworkType, Boolean> compressionMap = new ConcurrentHashMap<>();
     private Searchable searchableFolders;
@@ -280,6 +282,7 @@ public class Account implements BaseAccount, StoreConfig {
         localStorageProviderId = StorageManager.getInstance(context).getDefaultProviderId();
         automaticCheckIntervalMinutes = -1;
         idleRefreshMinutes = 24;
+        maxPipelinedFetchCommands = DEFAULT_MAX_PIPELINED_FETCH_COMMANDS;
         pushPollOnConnect = true;
         displayCount = K9.DEFAULT_VISIBLE_LIMIT;
         accountNumber = -1;
@@ -385,6 +388,8 @@ public class Account implements BaseAccount, StoreConfig {
         alwaysBcc = storage.getString(accountUuid + ".alwaysBcc", alwaysBcc);
         automaticCheckIntervalMinutes = storage.getInt(accountUuid + ".automaticCheckIntervalMinutes", -1);
         idleRefreshMinutes = storage.getInt(accountUuid + ".idleRefreshMinutes", 24);
+        maxPipelinedFetchCommands = storage.getInt(accountUuid + ".maxPipelinedFetchCommands",
+                DEFAULT_MAX_PIPELINED_FETCH_COMMANDS);
         pushPollOnConnect = storage.getBoolean(accountUuid + ".pushPollOnConnect", true);
         displayCount = storage.getInt(accountUuid + ".displayCount", K9.DEFAULT_VISIBLE_LIMIT);
         if (displayCount < 0) {
@@ -511,6 +516,7 @@ public class Account implements BaseAccount, StoreConfig {
         editor.remove(accountUuid + ".automaticCheckIntervalMinutes");
         editor.remove(accountUuid + ".pushPollOnConnect");
         editor.remove(accountUuid + ".idleRefreshMinutes");
+        editor.remove(accountUuid + ".maxPipelinedFetchCommands");
         editor.remove(accountUuid + ".lastAutomaticCheckTime");
         editor.remove(accountUuid + ".latestOldMessageSeenTime");
         editor.remove(accountUuid + ".notifyNewMail");
@@ -679,6 +685,7 @@ public class Account implements BaseAccount, StoreConfig {
         editor.putString(accountUuid + ".alwaysBcc", alwaysBcc);
         editor.putInt(accountUuid + ".automaticCheckIntervalMinutes", automaticCheckIntervalMinutes);
         editor.putInt(accountUuid + ".idleRefreshMinutes", idleRefreshMinutes);
+        editor.putInt(accountUuid + ".maxPipelinedFetchCommands", maxPipelinedFetchCommands);
         editor.putBoolean(accountUuid + ".pushPollOnConnect", pushPollOnConnect);
         editor.putInt(accountUuid + ".displayCount", displayCount);
         editor.putLong(accountUuid + ".latestOldMessageSeenTime", latestOldMessageSeenTime);
@@ -780,8 +787,9 @@ public class Account implements BaseAccount, StoreConfig {
 
         ContentResolver cr = context.getContentResolver();
 
+        // Only folders are excluded, so the precomputed per-folder counts can be used
         Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI,
-                "account/" + getUuid() + "/stats");
+                "account/" + getUuid() + "/stats/folders");
 
         String[] projection = {
                 StatsColumns.UNREAD_COUNT,
@@ -1446,6 +1454,14 @@ public class Account implements BaseAccount, StoreConfig {
         this.idleRefreshMinutes = idleRefreshMinutes;
     }
 
+    public synchronized int getMaxPipelinedFetchCommands() {
+        return maxPipelinedFetchCommands;
+    }
+
+    public synchronized void setMaxPipelinedFetchCommands(int maxPipelinedFetchCommands) {
+        this.maxPipelinedFetchCommands = maxPipelinedFetchCommands;
+    }
+
     public synchronized boolean isPushPollOnConnect() {
         return pushPollOnConnect;
     }
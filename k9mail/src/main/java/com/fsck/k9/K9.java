@@ -246,6 +246,7 @@ public class K9 extends Application {
     private static boolean mWrapFolderNames = false;
     private static boolean mHideUserAgent = false;
     private static boolean mHideTimeZone = false;
+    private static boolean sDatabaseWriteAheadLogging = false;
 
     private static String sOpenPgpProvider = "";
     private static boolean sOpenPgpSupportSignOnly = false;
@@ -485,6 +486,7 @@ public class K9 extends Application {
         editor.putBoolean("wrapFolderNames", mWrapFolderNames);
         editor.putBoolean("hideUserAgent", mHideUserAgent);
         editor.putBoolean("hideTimeZone", mHideTimeZone);
+        editor.putBoolean("databaseWriteAheadLogging", sDatabaseWriteAheadLogging);
 
         editor.putString("openPgpProvider", sOpenPgpProvider);
         editor.putBoolean("openPgpSupportSignOnly", sOpenPgpSupportSignOnly);
@@ -719,6 +721,7 @@ public class K9 extends Application {
         mWrapFolderNames = storage.getBoolean("wrapFolderNames", false);
         mHideUserAgent = storage.getBoolean("hideUserAgent", false);
         mHideTimeZone = storage.getBoolean("hideTimeZone", false);
+        sDatabaseWriteAheadLogging = storage.getBoolean("databaseWriteAheadLogging", false);
 
         sOpenPgpProvider = storage.getString("openPgpProvider", NO_OPENPGP_PROVIDER);
         sOpenPgpSupportSignOnly = storage.getBoolean("openPgpSupportSignOnly", false);
@@ -1264,6 +1267,14 @@ public class K9 extends Application {
         mHideTimeZone = state;
     }
 
+    public static boolean isDatabaseWriteAheadLoggingEnabled() {
+        return sDatabaseWriteAheadLogging;
+    }
+
+    public static void setDatabaseWriteAheadLoggingEnabled(boolean enabled) {
+        sDatabaseWriteAheadLogging = enabled;
+    }
+
     public static boolean isOpenPgpProviderConfigured() {
         return !NO_OPENPGP_PROVIDER.equals(sOpenPgpProvider);
     }
@@ -0,0 +1,363 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.support.annotation.NonNull;
+
+import timber.log.Timber;
+
+
+/**
+ * Runs {@link Command}s on a bounded number of worker threads.
+ *
+ * <p>
+ * Every command belongs to a lane, e.g. an account or a folder. Commands of the same lane are executed one after
+ * another, foreground commands first and otherwise in the order they were scheduled. Commands of different lanes
+ * may run at the same time.
+ * </p>
+ * <p>
+ * Commands can belong to a group, e.g. all lanes of an account. A barrier command of a group is only started once
+ * all commands of that group scheduled before it have completed. Until the barrier has completed, commands of the
+ * group scheduled after it are held back. Other groups are not affected. A barrier without a group waits for all
+ * commands scheduled before it, but doesn't hold back commands scheduled after it.
+ * </p>
+ */
+class CommandScheduler {
+    static final String DEFAULT_LANE = "default";
+
+    private static final AtomicInteger sequencing = new AtomicInteger(0);
+
+
+    private final Object lock = new Object();
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private final PriorityQueue<Lane> readyLanes = new PriorityQueue<>();
+    private final TreeSet<Command> waitingBarriers = new TreeSet<>();
+    private final TreeSet<Integer> activeSequences = new TreeSet<>();
+    private final Map<String, TreeSet<Integer>> activeGroupSequences = new HashMap<>();
+    private final Map<String, TreeSet<Integer>> pendingGroupBarriers = new HashMap<>();
+    private final Map<String, List<Command>> heldCommands = new HashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final CommandRunner commandRunner;
+
+    private boolean stopped = false;
+    private int queuedCommandCount = 0;
+    private int runningCommandCount = 0;
+    private long startedCommandCount = 0;
+    private long totalWaitTimeMillis = 0;
+    private long maxWaitTimeMillis = 0;
+
+
+    CommandScheduler(int workerCount, ThreadFactory threadFactory, CommandRunner commandRunner) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be at least 1");
+        }
+
+        this.commandRunner = commandRunner;
+
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            });
+            workers.add(worker);
+        }
+    }
+
+    void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    void stop(long timeoutMillis) throws InterruptedException {
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Thread worker : workers) {
+            worker.interrupt();
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis > 0) {
+                worker.join(remainingMillis);
+            }
+        }
+    }
+
+    void schedule(Command command) {
+        synchronized (lock) {
+            // A command that is scheduled again, e.g. after its account was unavailable, must not overtake barriers
+            // that have been scheduled in the meantime
+            command.sequence = sequencing.getAndIncrement();
+            command.enqueueTime = System.nanoTime();
+            activeSequences.add(command.sequence);
+            if (command.group != null) {
+                addSequence(activeGroupSequences, command.group, command.sequence);
+            }
+            queuedCommandCount++;
+
+            if (command.isBarrier) {
+                if (command.group != null) {
+                    addSequence(pendingGroupBarriers, command.group, command.sequence);
+                }
+                waitingBarriers.add(command);
+                releaseReadyBarriers();
+            } else if (isHeldBack(command)) {
+                List<Command> commands = heldCommands.get(command.group);
+                if (commands == null) {
+                    commands = new ArrayList<>();
+                    heldCommands.put(command.group, commands);
+                }
+                commands.add(command);
+            } else {
+                addToLane(command);
+            }
+
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return The number of commands that are waiting to be started.
+     */
+    int getQueuedCommandCount() {
+        synchronized (lock) {
+            return queuedCommandCount;
+        }
+    }
+
+    /**
+     * @return The number of commands that are waiting to be started in the given lane.
+     */
+    int getQueuedCommandCount(String laneName) {
+        synchronized (lock) {
+            Lane lane = lanes.get(laneName);
+            return lane != null ? lane.commands.size() : 0;
+        }
+    }
+
+    int getRunningCommandCount() {
+        synchronized (lock) {
+            return runningCommandCount;
+        }
+    }
+
+    /**
+     * @return The average time commands had to wait in their lane before being started, in milliseconds.
+     */
+    long getAverageWaitTimeMillis() {
+        synchronized (lock) {
+            return startedCommandCount > 0 ? totalWaitTimeMillis / startedCommandCount : 0;
+        }
+    }
+
+    /**
+     * @return The longest time a command had to wait in its lane before being started, in milliseconds.
+     */
+    long getMaxWaitTimeMillis() {
+        synchronized (lock) {
+            return maxWaitTimeMillis;
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            Lane lane;
+            Command command;
+            long waitTimeMillis;
+            synchronized (lock) {
+                while (!stopped && readyLanes.isEmpty()) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // Check whether we have been stopped
+                    }
+                }
+
+                if (stopped) {
+                    return;
+                }
+
+                lane = readyLanes.poll();
+                command = lane.commands.poll();
+                lane.running = true;
+
+                queuedCommandCount--;
+                runningCommandCount++;
+                waitTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - command.enqueueTime);
+                recordWaitTime(waitTimeMillis);
+            }
+
+            Timber.d("Command '%s' waited %d ms in lane %s (%d queued, %d running)", command.description,
+                    waitTimeMillis, lane.name, getQueuedCommandCount(), getRunningCommandCount());
+
+            try {
+                commandRunner.runCommand(command);
+            } catch (Exception e) {
+                Timber.e(e, "Error running command '%s'", command.description);
+            } finally {
+                synchronized (lock) {
+                    runningCommandCount--;
+                    activeSequences.remove(command.sequence);
+                    if (command.group != null) {
+                        removeSequence(activeGroupSequences, command.group, command.sequence);
+                        if (command.isBarrier) {
+                            removeSequence(pendingGroupBarriers, command.group, command.sequence);
+                            releaseHeldCommands(command.group);
+                        }
+                    }
+                    lane.running = false;
+                    if (lane.commands.isEmpty()) {
+                        lanes.remove(lane.name);
+                    } else {
+                        readyLanes.add(lane);
+                    }
+
+                    releaseReadyBarriers();
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void recordWaitTime(long waitTimeMillis) {
+        startedCommandCount++;
+        totalWaitTimeMillis += waitTimeMillis;
+        maxWaitTimeMillis = Math.max(maxWaitTimeMillis, waitTimeMillis);
+    }
+
+    private void releaseReadyBarriers() {
+        Iterator<Command> iterator = waitingBarriers.iterator();
+        while (iterator.hasNext()) {
+            Command barrier = iterator.next();
+            TreeSet<Integer> sequences = barrier.group != null ?
+                    activeGroupSequences.get(barrier.group) : activeSequences;
+            if (sequences.first() == barrier.sequence) {
+                iterator.remove();
+                addToLane(barrier);
+            }
+        }
+    }
+
+    private boolean isHeldBack(Command command) {
+        if (command.group == null) {
+            return false;
+        }
+
+        TreeSet<Integer> barriers = pendingGroupBarriers.get(command.group);
+        return barriers != null && barriers.first() < command.sequence;
+    }
+
+    private void releaseHeldCommands(String group) {
+        List<Command> commands = heldCommands.get(group);
+        if (commands == null) {
+            return;
+        }
+
+        Iterator<Command> iterator = commands.iterator();
+        while (iterator.hasNext()) {
+            Command command = iterator.next();
+            if (!isHeldBack(command)) {
+                iterator.remove();
+                addToLane(command);
+            }
+        }
+
+        if (commands.isEmpty()) {
+            heldCommands.remove(group);
+        }
+    }
+
+    private static void addSequence(Map<String, TreeSet<Integer>> sequencesByGroup, String group, int sequence) {
+        TreeSet<Integer> sequences = sequencesByGroup.get(group);
+        if (sequences == null) {
+            sequences = new TreeSet<>();
+            sequencesByGroup.put(group, sequences);
+        }
+        sequences.add(sequence);
+    }
+
+    private static void removeSequence(Map<String, TreeSet<Integer>> sequencesByGroup, String group, int sequence) {
+        TreeSet<Integer> sequences = sequencesByGroup.get(group);
+        if (sequences != null) {
+            sequences.remove(sequence);
+            if (sequences.isEmpty()) {
+                sequencesByGroup.remove(group);
+            }
+        }
+    }
+
+    private void addToLane(Command command) {
+        Lane lane = lanes.get(command.lane);
+        if (lane == null) {
+            lane = new Lane(command.lane);
+            lanes.put(command.lane, lane);
+        }
+
+        if (lane.running) {
+            lane.commands.add(command);
+        } else {
+            // The head of the lane might change, so the lane has to be re-sorted
+            readyLanes.remove(lane);
+            lane.commands.add(command);
+            readyLanes.add(lane);
+        }
+    }
+
+
+    interface CommandRunner {
+        void runCommand(Command command);
+    }
+
+    static class Command implements Comparable<Command> {
+        public Runnable runnable;
+        public MessagingListener listener;
+        public String description;
+        public String lane = DEFAULT_LANE;
+        public String group;
+        boolean isForegroundPriority;
+        boolean isBarrier;
+
+        int sequence;
+        long enqueueTime;
+
+        @Override
+        public int compareTo(@NonNull Command other) {
+            if (other.isForegroundPriority && !isForegroundPriority) {
+                return 1;
+            } else if (!other.isForegroundPriority && isForegroundPriority) {
+                return -1;
+            } else {
+                return (sequence - other.sequence);
+            }
+        }
+    }
+
+    private static class Lane implements Comparable<Lane> {
+        final String name;
+        final PriorityQueue<Command> commands = new PriorityQueue<>();
+        boolean running;
+
+        Lane(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public int compareTo(@NonNull Lane other) {
+            return commands.peek().compareTo(other.commands.peek());
+        }
+    }
+}
@@ -18,14 +18,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -39,7 +38,6 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.PowerManager;
 import android.os.Process;
-import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
@@ -56,6 +54,8 @@ import com.fsck.k9.activity.ActivityListener;
 import com.fsck.k9.activity.MessageReference;
 import com.fsck.k9.activity.setup.AccountSetupCheckSettings.CheckDirection;
 import com.fsck.k9.cache.EmailProviderCache;
+import com.fsck.k9.controller.CommandScheduler.Command;
+import com.fsck.k9.controller.CommandScheduler.CommandRunner;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingAppend;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingEmptyTrash;
@@ -63,6 +63,7 @@ import com.fsck.k9.controller.MessagingControllerCommands.PendingExpunge;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingMarkAllAsRead;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingMoveOrCopy;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingSetFlag;
+import com.fsck.k9.controller.PendingCommandCoalescer.CoalescedCommand;
 import com.fsck.k9.controller.ProgressBodyFactory.ProgressListener;
 import com.fsck.k9.helper.Contacts;
 import com.fsck.k9.mail.Address;
@@ -75,6 +76,7 @@ import com.fsck.k9.mail.FetchProfile.Item;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.FolderChanges;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.Message.RecipientType;
 import com.fsck.k9.mail.MessageRetrievalListener;
@@ -85,6 +87,7 @@ import com.fsck.k9.mail.Pusher;
 import com.fsck.k9.mail.Store;
 import com.fsck.k9.mail.Transport;
 import com.fsck.k9.mail.TransportProvider;
+import com.fsck.k9.mail.UidRangeSet;
 import com.fsck.k9.mail.internet.MessageExtractor;
 import com.fsck.k9.mail.internet.MimeMessage;
 import com.fsck.k9.mail.internet.MimeMessageHelper;
@@ -93,6 +96,7 @@ import com.fsck.k9.mail.internet.TextBody;
 import com.fsck.k9.mail.power.TracingPowerManager;
 import com.fsck.k9.mail.power.TracingPowerManager.TracingWakeLock;
 import com.fsck.k9.mail.store.pop3.Pop3Store;
+import com.fsck.k9.mailstore.FulltextIndexer;
 import com.fsck.k9.mailstore.LocalFolder;
 import com.fsck.k9.mailstore.LocalFolder.MoreMessages;
 import com.fsck.k9.mailstore.LocalMessage;
@@ -130,6 +134,9 @@ public class MessagingController {
     public static final long INVALID_MESSAGE_ID = -1;
 
     private static final Set<Flag> SYNC_FLAGS = EnumSet.of(Flag.SEEN, Flag.FLAGGED, Flag.ANSWERED, Flag.FORWARDED);
+    private static final int MAX_CONCURRENT_COMMANDS = 3;
+    private static final int SMALL_MESSAGE_STORE_BATCH_SIZE = 10;
+    private static final int FULLTEXT_INDEX_BATCH_SIZE = 50;
 
 
     private static MessagingController inst = null;
@@ -139,12 +146,13 @@ public class MessagingController {
     private final Contacts contacts;
     private final NotificationController notificationController;
 
-    private final Thread controllerThread;
+    private final CommandScheduler commandScheduler;
 
-    private final BlockingQueue<Command> queuedCommands = new PriorityBlockingQueue<>();
     private final Set<MessagingListener> listeners = new CopyOnWriteArraySet<>();
     private final ConcurrentHashMap<String, AtomicInteger> sendCount = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Account, Pusher> pushers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> pendingCommandLocks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Boolean> fulltextIndexingAccounts = new ConcurrentHashMap<>();
     private final ExecutorService threadPool = Executors.newCachedThreadPool();
     private final MemorizingMessagingListener memorizingMessagingListener = new MemorizingMessagingListener();
     private final TransportProvider transportProvider;
@@ -174,92 +182,135 @@ public class MessagingController {
         this.contacts = contacts;
         this.transportProvider = transportProvider;
 
-        controllerThread = new Thread(new Runnable() {
+        commandScheduler = new CommandScheduler(MAX_CONCURRENT_COMMANDS, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(0);
+
             @Override
-            public void run() {
-                runInBackground();
+            public Thread newThread(@NonNull final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                });
+                thread.setName("MessagingController-" + threadNumber.incrementAndGet());
+                return thread;
+            }
+        }, new CommandRunner() {
+            @Override
+            public void runCommand(Command command) {
+                runInBackground(command);
             }
         });
-        controllerThread.setName("MessagingController");
-        controllerThread.start();
+        commandScheduler.start();
         addListener(memorizingMessagingListener);
     }
 
     @VisibleForTesting
     void stop() throws InterruptedException {
         stopped = true;
-        controllerThread.interrupt();
-        controllerThread.join(1000L);
+        commandScheduler.stop(1000L);
     }
 
-    private void runInBackground() {
-        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-        while (!stopped) {
-            String commandDescription = null;
-            try {
-                final Command command = queuedCommands.take();
-
-                if (command != null) {
-                    commandDescription = command.description;
-
-                    Timber.i("Running command '%s', seq = %s (%s priority)",
-                            command.description,
-                            command.sequence,
-                            command.isForegroundPriority ? "foreground" : "background");
+    private void runInBackground(final Command command) {
+        Timber.i("Running command '%s', seq = %s (%s priority)",
+                command.description,
+                command.sequence,
+                command.isForegroundPriority ? "foreground" : "background");
 
+        try {
+            command.runnable.run();
+        } catch (UnavailableAccountException e) {
+            // retry later
+            new Thread() {
+                @Override
+                public void run() {
                     try {
-                        command.runnable.run();
-                    } catch (UnavailableAccountException e) {
-                        // retry later
-                        new Thread() {
-                            @Override
-                            public void run() {
-                                try {
-                                    sleep(30 * 1000);
-                                    queuedCommands.put(command);
-                                } catch (InterruptedException e) {
-                                    Timber.e("Interrupted while putting a pending command for an unavailable account " +
-                                            "back into the queue. THIS SHOULD NEVER HAPPEN.");
-                                }
-                            }
-                        }.start();
+                        sleep(30 * 1000);
+                        if (!stopped) {
+                            commandScheduler.schedule(command);
+                        }
+                    } catch (InterruptedException e) {
+                        Timber.e("Interrupted while putting a pending command for an unavailable account " +
+                                "back into the queue. THIS SHOULD NEVER HAPPEN.");
                     }
-
-                    Timber.i(" Command '%s' completed", command.description);
                 }
-            } catch (Exception e) {
-                Timber.e(e, "Error running command '%s'", commandDescription);
-            }
+            }.start();
         }
+
+        Timber.i(" Command '%s' completed", command.description);
     }
 
-    private void put(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(queuedCommands, description, listener, runnable, true);
+    /**
+     * @return The number of commands waiting to be run.
+     */
+    public int getQueuedCommandCount() {
+        return commandScheduler.getQueuedCommandCount();
     }
 
-    private void putBackground(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(queuedCommands, description, listener, runnable, false);
+    /**
+     * @return The average time in milliseconds a command had to wait before being run.
+     */
+    public long getAverageCommandWaitTimeMillis() {
+        return commandScheduler.getAverageWaitTimeMillis();
     }
 
-    private void putCommand(BlockingQueue<Command> queue, String description, MessagingListener listener,
-            Runnable runnable, boolean isForeground) {
-        int retries = 10;
-        Exception e = null;
-        while (retries-- > 0) {
-            try {
-                Command command = new Command();
-                command.listener = listener;
-                command.runnable = runnable;
-                command.description = description;
-                command.isForegroundPriority = isForeground;
-                queue.put(command);
-                return;
-            } catch (InterruptedException ie) {
-                SystemClock.sleep(200);
-                e = ie;
-            }
+    /**
+     * @return The longest time in milliseconds a command had to wait before being run.
+     */
+    public long getMaxCommandWaitTimeMillis() {
+        return commandScheduler.getMaxWaitTimeMillis();
+    }
+
+    private static String accountLane(Account account) {
+        return account.getUuid();
+    }
+
+    private static String folderLane(Account account, String folderName) {
+        return account.getUuid() + ":" + folderName;
+    }
+
+    /**
+     * @return The UUID of the account the lane belongs to, or {@code null} for {@link CommandScheduler#DEFAULT_LANE}.
+     */
+    private static String laneGroup(String lane) {
+        if (CommandScheduler.DEFAULT_LANE.equals(lane)) {
+            return null;
         }
-        throw new Error(e);
+
+        int separatorIndex = lane.indexOf(':');
+        return separatorIndex == -1 ? lane : lane.substring(0, separatorIndex);
+    }
+
+    private void put(String description, String lane, MessagingListener listener, Runnable runnable) {
+        putCommand(description, lane, listener, runnable, true, false);
+    }
+
+    private void putBackground(String description, String lane, MessagingListener listener, Runnable runnable) {
+        putCommand(description, lane, listener, runnable, false, false);
+    }
+
+    /**
+     * Enqueues a command that will only be run after all previously enqueued commands of the same account have
+     * completed. Commands of that account enqueued later will wait for the barrier to complete. A barrier in
+     * {@link CommandScheduler#DEFAULT_LANE} waits for the commands of all accounts but doesn't hold back any.
+     */
+    private void putBarrier(String description, String lane, MessagingListener listener, Runnable runnable) {
+        putCommand(description, lane, listener, runnable, false, true);
+    }
+
+    private void putCommand(String description, String lane, MessagingListener listener, Runnable runnable,
+            boolean isForeground, boolean isBarrier) {
+        Command command = new Command();
+        command.listener = listener;
+        command.runnable = runnable;
+        command.description = description;
+        command.lane = lane;
+        command.group = laneGroup(lane);
+        command.isForegroundPriority = isForeground;
+        command.isBarrier = isBarrier;
+        commandScheduler.schedule(command);
     }
 
     public void addListener(MessagingListener listener) {
@@ -415,7 +466,7 @@ public class MessagingController {
     }
 
     private void doRefreshRemote(final Account account, final MessagingListener listener) {
-        put("doRefreshRemote", listener, new Runnable() {
+        put("doRefreshRemote", accountLane(account), listener, new Runnable() {
             @Override
             public void run() {
                 refreshRemoteSynchronous(account, listener);
@@ -715,7 +766,7 @@ public class MessagingController {
      */
     public void synchronizeMailbox(final Account account, final String folder, final MessagingListener listener,
             final Folder providedRemoteFolder) {
-        putBackground("synchronizeMailbox", listener, new Runnable() {
+        putBackground("synchronizeMailbox", folderLane(account, folder), listener, new Runnable() {
             @Override
             public void run() {
                 synchronizeMailboxSynchronous(account, folder, listener, providedRemoteFolder);
@@ -777,6 +828,9 @@ public class MessagingController {
             localFolder.updateLastUid();
             Map<String, Long> localUidMap = localFolder.getAllMessagesAndEffectiveDates();
 
+            FolderChanges<? extends Message> folderChanges = null;
+            long remoteUidValidity = -1L;
+            long remoteHighestModSeq = -1L;
             if (providedRemoteFolder != null) {
                 Timber.v("SYNC: using providedRemoteFolder %s", folder);
                 remoteFolder = providedRemoteFolder;
@@ -814,7 +868,21 @@ public class MessagingController {
                  */
                 Timber.v("SYNC: About to open remote folder %s", folder);
 
-                remoteFolder.open(Folder.OPEN_MODE_RW);
+                /*
+                 * Only ask for changes if the set of messages we expect to have locally didn't change since the
+                 * last synchronization, e.g. because the visible limit was increased.
+                 */
+                boolean knownStateUsable = localFolder.getMoreMessages() != MoreMessages.UNKNOWN;
+                long knownUidValidity = knownStateUsable ? localFolder.getSyncedUidValidity() : -1L;
+                long knownHighestModSeq = knownStateUsable ? localFolder.getSyncedHighestModSeq() : -1L;
+
+                folderChanges = remoteFolder.openAndGetChangesSince(Folder.OPEN_MODE_RW, knownUidValidity,
+                        knownHighestModSeq);
+
+                // Record the state before expunging so the next sync will learn about the expunged messages
+                remoteUidValidity = remoteFolder.getUidValidity();
+                remoteHighestModSeq = remoteFolder.getHighestModSeq();
+
                 if (Expunge.EXPUNGE_ON_POLL == account.getExpungePolicy()) {
                     Timber.d("SYNC: Expunging folder %s:%s", account.getDescription(), folder);
                     remoteFolder.expunge();
@@ -845,14 +913,28 @@ public class MessagingController {
 
 
             int remoteStart = 1;
-            if (remoteMessageCount > 0) {
+            if (remoteMessageCount > 0 && visibleLimit > 0) {
                 /* Message numbers start at 1.  */
-                if (visibleLimit > 0) {
-                    remoteStart = Math.max(0, remoteMessageCount - visibleLimit) + 1;
-                } else {
-                    remoteStart = 1;
-                }
+                remoteStart = Math.max(0, remoteMessageCount - visibleLimit) + 1;
+            }
 
+            /*
+             * New messages show up as changes with an unknown UID. Use the regular listing in that case so the
+             * visible limit and the earliest poll date are honored.
+             */
+            boolean incrementalSync = folderChanges != null && folderChanges.isExpungeInfoComplete() &&
+                    localUidMap.keySet().containsAll(getUidsFromMessages(folderChanges.getChangedMessages()));
+            if (incrementalSync) {
+                Timber.v("SYNC: Got %d changed and %d vanished messages for folder %s",
+                        folderChanges.getChangedMessages().size(), folderChanges.getVanishedUids().size(), folder);
+
+                for (Message changedMessage : folderChanges.getChangedMessages()) {
+                    Long localMessageTimestamp = localUidMap.get(changedMessage.getUid());
+                    if (localMessageTimestamp == null || localMessageTimestamp >= earliestTimestamp) {
+                        remoteMessages.add(changedMessage);
+                    }
+                }
+            } else if (remoteMessageCount > 0) {
                 Timber.v("SYNC: About to get messages %d through %d for folder %s",
                         remoteStart, remoteMessageCount, folder);
 
@@ -895,9 +977,20 @@ public class MessagingController {
             MoreMessages moreMessages = localFolder.getMoreMessages();
             if (account.syncRemoteDeletions()) {
                 List<String> destroyMessageUids = new ArrayList<>();
-                for (String localMessageUid : localUidMap.keySet()) {
-                    if (remoteUidMap.get(localMessageUid) == null) {
-                        destroyMessageUids.add(localMessageUid);
+                if (incrementalSync) {
+                    UidRangeSet vanishedUids = folderChanges.getVanishedUids();
+                    for (Entry<String, Long> localMessage : localUidMap.entrySet()) {
+                        Long localMessageTimestamp = localMessage.getValue();
+                        if (vanishedUids.contains(localMessage.getKey()) ||
+                                (localMessageTimestamp != null && localMessageTimestamp < earliestTimestamp)) {
+                            destroyMessageUids.add(localMessage.getKey());
+                        }
+                    }
+                } else {
+                    for (String localMessageUid : localUidMap.keySet()) {
+                        if (remoteUidMap.get(localMessageUid) == null) {
+                            destroyMessageUids.add(localMessageUid);
+                        }
                     }
                 }
 
@@ -924,7 +1017,8 @@ public class MessagingController {
             /*
              * Now we download the actual content of messages.
              */
-            int newMessages = downloadMessages(account, remoteFolder, localFolder, remoteMessages, false, true);
+            int newMessages = downloadMessages(account, remoteFolder, localFolder, remoteMessages, false, true,
+                    folderChanges);
 
             int unreadMessageCount = localFolder.getUnreadMessageCount();
             for (MessagingListener l : getListeners()) {
@@ -935,6 +1029,9 @@ public class MessagingController {
 
             localFolder.setLastChecked(System.currentTimeMillis());
             localFolder.setStatus(null);
+            if (providedRemoteFolder == null) {
+                localFolder.setSyncedModSeqState(remoteUidValidity, remoteHighestModSeq);
+            }
 
             Timber.d("Done synchronizing folder %s:%s @ %tc with %d new messages",
                     account.getDescription(),
@@ -1063,6 +1160,9 @@ public class MessagingController {
      *         Only flags will be fetched from the remote store if this is {@code true}.
      * @param purgeToVisibleLimit
      *         If true, local messages will be purged down to the limit of visible messages.
+     * @param folderChanges
+     *         The flag changes reported by the server since the last synchronization, or {@code null} if unknown.
+     *         If present, flags are only refreshed for messages contained in it.
      *
      * @return The number of downloaded messages that are not flagged as {@link Flag#SEEN}.
      *
@@ -1070,7 +1170,8 @@ public class MessagingController {
      */
     private int downloadMessages(final Account account, final Folder remoteFolder,
             final LocalFolder localFolder, List<Message> inputMessages,
-            boolean flagSyncOnly, boolean purgeToVisibleLimit) throws MessagingException {
+            boolean flagSyncOnly, boolean purgeToVisibleLimit, FolderChanges<? extends Message> folderChanges)
+            throws MessagingException {
 
         final Date earliestDate = account.getEarliestPollDate();
         Date downloadStarted = new Date(); // now
@@ -1100,6 +1201,10 @@ public class MessagingController {
                     syncFlagMessages, flagSyncOnly);
         }
 
+        if (folderChanges != null) {
+            syncFlagMessages = getMessagesWithChangedFlags(syncFlagMessages, folderChanges);
+        }
+
         final AtomicInteger progress = new AtomicInteger(0);
         final int todo = unsyncedMessages.size() + syncFlagMessages.size();
         for (MessagingListener l : getListeners()) {
@@ -1179,7 +1284,8 @@ public class MessagingController {
          * download.
          */
 
-        refreshLocalMessageFlags(account, remoteFolder, localFolder, syncFlagMessages, progress, todo);
+        refreshLocalMessageFlags(account, remoteFolder, localFolder, syncFlagMessages, folderChanges == null,
+                progress, todo);
 
         Timber.d("SYNC: Synced remote messages for folder %s, %d new messages", folder, newMessages.get());
 
@@ -1215,6 +1321,30 @@ public class MessagingController {
         return newMessages.get();
     }
 
+    /**
+     * Replaces the messages in {@code syncFlagMessages} with the instances from {@code folderChanges} that carry the
+     * current flags. Messages without flag changes since the last synchronization are dropped.
+     */
+    private List<Message> getMessagesWithChangedFlags(List<Message> syncFlagMessages,
+            FolderChanges<? extends Message> folderChanges) {
+        Map<String, Message> changedMessages = new HashMap<>();
+        for (Message changedMessage : folderChanges.getChangedMessages()) {
+            changedMessages.put(changedMessage.getUid(), changedMessage);
+        }
+
+        List<Message> result = new ArrayList<>();
+        for (Message message : syncFlagMessages) {
+            Message changedMessage = changedMessages.get(message.getUid());
+            if (changedMessage != null) {
+                result.add(changedMessage);
+            }
+        }
+
+        Timber.d("SYNC: %d of %d messages have changed flags", result.size(), syncFlagMessages.size());
+
+        return result;
+    }
+
     private void evaluateMessageForDownload(final Message message, final String folder,
             final LocalFolder localFolder,
             final Folder remoteFolder,
@@ -1355,65 +1485,112 @@ public class MessagingController {
 
         Timber.d("SYNC: Fetching %d small messages for folder %s", smallMessages.size(), folder);
 
-        remoteFolder.fetch(smallMessages,
-                fp, new MessageRetrievalListener<T>() {
-                    @Override
-                    public void messageFinished(final T message, int number, int ofTotal) {
-                        try {
-
+        final List<T> messagesToStore = new ArrayList<>(SMALL_MESSAGE_STORE_BATCH_SIZE);
+        try {
+            remoteFolder.fetch(smallMessages,
+                    fp, new MessageRetrievalListener<T>() {
+                        @Override
+                        public void messageFinished(final T message, int number, int ofTotal) {
                             if (!shouldImportMessage(account, message, earliestDate)) {
                                 progress.incrementAndGet();
 
                                 return;
                             }
 
-                            // Store the updated message locally
-                            final LocalMessage localMessage = localFolder.storeSmallMessage(message, new Runnable() {
-                                @Override
-                                public void run() {
-                                    progress.incrementAndGet();
-                                }
-                            });
-
-                            // Increment the number of "new messages" if the newly downloaded message is
-                            // not marked as read.
-                            if (!localMessage.isSet(Flag.SEEN)) {
-                                newMessages.incrementAndGet();
+                            messagesToStore.add(message);
+                            if (messagesToStore.size() >= SMALL_MESSAGE_STORE_BATCH_SIZE) {
+                                storeSmallMessages(account, localFolder, messagesToStore, progress,
+                                        unreadBeforeStart, newMessages, todo);
                             }
+                        }
 
-                            Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
-                                    account, folder, message.getUid());
+                        @Override
+                        public void messageStarted(String uid, int number, int ofTotal) {
+                        }
 
-                            // Update the listener with what we've found
-                            for (MessagingListener l : getListeners()) {
-                                l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
-                                if (!localMessage.isSet(Flag.SEEN)) {
-                                    l.synchronizeMailboxNewMessage(account, folder, localMessage);
-                                }
-                            }
-                            // Send a notification of this message
+                        @Override
+                        public void messagesFinished(int total) {
+                        }
+                    });
+        } finally {
+            // Keep the messages that were downloaded before the fetch failed
+            storeSmallMessages(account, localFolder, messagesToStore, progress, unreadBeforeStart, newMessages, todo);
+        }
 
-                            if (shouldNotifyForMessage(account, localFolder, message)) {
-                                // Notify with the localMessage so that we don't have to recalculate the content preview.
-                                notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
-                            }
+        Timber.d("SYNC: Done fetching small messages for folder %s", folder);
+    }
 
-                        } catch (MessagingException me) {
-                            addErrorMessage(account, null, me);
-                            Timber.e(me, "SYNC: fetch small messages");
-                        }
-                    }
+    /**
+     * Stores the downloaded messages in a single transaction, notifies listeners, and clears {@code messages}.
+     *
+     * <p>
+     * If the batch can't be stored, the messages are stored one at a time so a single broken message doesn't
+     * prevent the others from being stored.
+     * </p>
+     */
+    private void storeSmallMessages(Account account, LocalFolder localFolder, List<? extends Message> messages,
+            AtomicInteger progress, int unreadBeforeStart, AtomicInteger newMessages, int todo) {
+        if (messages.isEmpty()) {
+            return;
+        }
 
-                    @Override
-                    public void messageStarted(String uid, int number, int ofTotal) {
-                    }
+        String folder = localFolder.getName();
+        List<Message> storedMessages = new ArrayList<>(messages.size());
+        List<LocalMessage> localMessages = new ArrayList<>(messages.size());
+        try {
+            // Store the updated messages locally
+            localMessages.addAll(localFolder.storeSmallMessages(messages));
+            storedMessages.addAll(messages);
+        } catch (MessagingException e) {
+            if (messages.size() == 1) {
+                addErrorMessage(account, null, e);
+                Timber.e(e, "SYNC: fetch small messages");
+            } else {
+                Timber.w(e, "SYNC: Unable to store %d small messages at once, storing them one by one",
+                        messages.size());
 
-                    @Override
-                    public void messagesFinished(int total) {
+                for (Message message : messages) {
+                    try {
+                        localMessages.addAll(localFolder.storeSmallMessages(Collections.singletonList(message)));
+                        storedMessages.add(message);
+                    } catch (MessagingException me) {
+                        addErrorMessage(account, null, me);
+                        Timber.e(me, "SYNC: fetch small messages");
                     }
-                });
+                }
+            }
+        } finally {
+            messages.clear();
+        }
 
-        Timber.d("SYNC: Done fetching small messages for folder %s", folder);
+        for (int i = 0, end = storedMessages.size(); i < end; i++) {
+            Message message = storedMessages.get(i);
+            LocalMessage localMessage = localMessages.get(i);
+            progress.incrementAndGet();
+
+            // Increment the number of "new messages" if the newly downloaded message is
+            // not marked as read.
+            if (!localMessage.isSet(Flag.SEEN)) {
+                newMessages.incrementAndGet();
+            }
+
+            Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
+                    account, folder, message.getUid());
+
+            // Update the listener with what we've found
+            for (MessagingListener l : getListeners()) {
+                l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
+                if (!localMessage.isSet(Flag.SEEN)) {
+                    l.synchronizeMailboxNewMessage(account, folder, localMessage);
+                }
+            }
+            // Send a notification of this message
+
+            if (shouldNotifyForMessage(account, localFolder, message)) {
+                // Notify with the localMessage so that we don't have to recalculate the content preview.
+                notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
+            }
+        }
     }
 
     private <T extends Message> void downloadLargeMessages(final Account account, final Folder<T> remoteFolder,
@@ -1549,6 +1726,7 @@ public class MessagingController {
     private void refreshLocalMessageFlags(final Account account, final Folder remoteFolder,
             final LocalFolder localFolder,
             List<Message> syncFlagMessages,
+            boolean fetchFlags,
             final AtomicInteger progress,
             final int todo
     ) throws MessagingException {
@@ -1557,17 +1735,19 @@ public class MessagingController {
         if (remoteFolder.supportsFetchingFlags()) {
             Timber.d("SYNC: About to sync flags for %d remote messages for folder %s", syncFlagMessages.size(), folder);
 
-            FetchProfile fp = new FetchProfile();
-            fp.add(FetchProfile.Item.FLAGS);
+            if (fetchFlags) {
+                FetchProfile fp = new FetchProfile();
+                fp.add(FetchProfile.Item.FLAGS);
 
-            List<Message> undeletedMessages = new LinkedList<>();
-            for (Message message : syncFlagMessages) {
-                if (!message.isSet(Flag.DELETED)) {
-                    undeletedMessages.add(message);
+                List<Message> undeletedMessages = new LinkedList<>();
+                for (Message message : syncFlagMessages) {
+                    if (!message.isSet(Flag.DELETED)) {
+                        undeletedMessages.add(message);
+                    }
                 }
-            }
 
-            remoteFolder.fetch(undeletedMessages, fp, null);
+                remoteFolder.fetch(undeletedMessages, fp, null);
+            }
             for (Message remoteMessage : syncFlagMessages) {
                 LocalMessage localMessage = localFolder.getMessage(remoteMessage.getUid());
                 boolean messageChanged = syncFlags(localMessage, remoteMessage);
@@ -1650,7 +1830,7 @@ public class MessagingController {
     }
 
     private void processPendingCommands(final Account account) {
-        putBackground("processPendingCommands", null, new Runnable() {
+        putBackground("processPendingCommands", accountLane(account), null, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -1674,6 +1854,19 @@ public class MessagingController {
     }
 
     private void processPendingCommandsSynchronous(Account account) throws MessagingException {
+        // Folders of the same account may be synchronized concurrently, but pending commands must be processed in order
+        synchronized (getPendingCommandLock(account)) {
+            processPendingCommandsSynchronousLocked(account);
+        }
+    }
+
+    private Object getPendingCommandLock(Account account) {
+        Object newLock = new Object();
+        Object lock = pendingCommandLocks.putIfAbsent(account.getUuid(), newLock);
+        return lock != null ? lock : newLock;
+    }
+
+    private void processPendingCommandsSynchronousLocked(Account account) throws MessagingException {
         LocalStore localStore = account.getLocalStore();
         List<PendingCommand> commands = localStore.getPendingCommands();
 
@@ -1683,6 +1876,11 @@ public class MessagingController {
             return;
         }
 
+        List<CoalescedCommand> coalescedCommands = PendingCommandCoalescer.coalesce(commands);
+        if (coalescedCommands.size() < todo) {
+            Timber.d("Coalesced %d pending commands into %d", todo, coalescedCommands.size());
+        }
+
         for (MessagingListener l : getListeners()) {
             l.pendingCommandsProcessing(account);
             l.synchronizeMailboxProgress(account, null, progress, todo);
@@ -1690,7 +1888,8 @@ public class MessagingController {
 
         PendingCommand processingCommand = null;
         try {
-            for (PendingCommand command : commands) {
+            for (CoalescedCommand coalescedCommand : coalescedCommands) {
+                PendingCommand command = coalescedCommand.command;
                 processingCommand = command;
                 Timber.d("Processing pending command '%s'", command);
 
@@ -1705,19 +1904,19 @@ public class MessagingController {
                 try {
                     command.execute(this, account);
 
-                    localStore.removePendingCommand(command);
+                    localStore.removePendingCommands(coalescedCommand.originalCommands);
 
                     Timber.d("Done processing pending command '%s'", command);
                 } catch (MessagingException me) {
                     if (me.isPermanentFailure()) {
                         addErrorMessage(account, null, me);
                         Timber.e("Failure of command '%s' was permanent, removing command from queue", command);
-                        localStore.removePendingCommand(processingCommand);
+                        localStore.removePendingCommands(coalescedCommand.originalCommands);
                     } else {
                         throw me;
                     }
                 } finally {
-                    progress++;
+                    progress += coalescedCommand.originalCommands.size();
                     for (MessagingListener l : getListeners()) {
                         l.synchronizeMailboxProgress(account, null, progress, todo);
                         l.pendingCommandCompleted(account, command.getCommandName());
@@ -1856,7 +2055,7 @@ public class MessagingController {
                     if (remoteDate != null) {
                         remoteMessage.setFlag(Flag.DELETED, true);
                         if (Expunge.EXPUNGE_IMMEDIATELY == account.getExpungePolicy()) {
-                            remoteFolder.expunge();
+                            remoteFolder.expungeUids(Collections.singletonList(remoteMessage.getUid()));
                         }
                     }
                 }
@@ -1929,6 +2128,7 @@ public class MessagingController {
                     "isCopy = %s", srcFolder, messages.size(), destFolder, isCopy);
 
             Map<String, String> remoteUidMap = null;
+            boolean messagesRemoved = false;
 
             if (!isCopy && destFolder.equals(account.getTrashFolderName())) {
                 Timber.d("processingPendingMoveOrCopy doing special case for deleting message");
@@ -1938,6 +2138,10 @@ public class MessagingController {
                     destFolderName = null;
                 }
                 remoteSrcFolder.delete(messages, destFolderName);
+
+                // Deleting messages in the trash folder only sets the \Deleted flag
+                messagesRemoved = destFolderName != null && !srcFolder.equalsIgnoreCase(destFolderName) &&
+                        remoteSrcFolder.isMoveRemovingMessages();
             } else {
                 remoteDestFolder = remoteStore.getFolder(destFolder);
 
@@ -1945,11 +2149,16 @@ public class MessagingController {
                     remoteUidMap = remoteSrcFolder.copyMessages(messages, remoteDestFolder);
                 } else {
                     remoteUidMap = remoteSrcFolder.moveMessages(messages, remoteDestFolder);
+                    messagesRemoved = remoteSrcFolder.isMoveRemovingMessages();
                 }
             }
-            if (!isCopy && Expunge.EXPUNGE_IMMEDIATELY == account.getExpungePolicy()) {
+            if (!isCopy && !messagesRemoved && Expunge.EXPUNGE_IMMEDIATELY == account.getExpungePolicy()) {
                 Timber.i("processingPendingMoveOrCopy expunging folder %s:%s", account.getDescription(), srcFolder);
-                remoteSrcFolder.expunge();
+                List<String> movedUids = new ArrayList<>(messages.size());
+                for (Message message : messages) {
+                    movedUids.add(message.getUid());
+                }
+                remoteSrcFolder.expungeUids(movedUids);
             }
 
             /*
@@ -1983,7 +2192,8 @@ public class MessagingController {
 
     private void queueSetFlag(final Account account, final String folderName,
             final boolean newState, final Flag flag, final List<String> uids) {
-        putBackground("queueSetFlag " + account.getDescription() + ":" + folderName, null, new Runnable() {
+        String description = "queueSetFlag " + account.getDescription() + ":" + folderName;
+        putBackground(description, accountLane(account), null, new Runnable() {
             @Override
             public void run() {
                 PendingCommand command = PendingSetFlag.create(folderName, newState, flag, uids);
@@ -2034,7 +2244,8 @@ public class MessagingController {
     }
 
     private void queueExpunge(final Account account, final String folderName) {
-        putBackground("queueExpunge " + account.getDescription() + ":" + folderName, null, new Runnable() {
+        String description = "queueExpunge " + account.getDescription() + ":" + folderName;
+        putBackground(description, accountLane(account), null, new Runnable() {
             @Override
             public void run() {
                 PendingCommand command = PendingExpunge.create(folderName);
@@ -2398,7 +2609,7 @@ public class MessagingController {
 
     public void loadMessageRemotePartial(final Account account, final String folder,
             final String uid, final MessagingListener listener) {
-        put("loadMessageRemotePartial", listener, new Runnable() {
+        put("loadMessageRemotePartial", folderLane(account, folder), listener, new Runnable() {
             @Override
             public void run() {
                 loadMessageRemoteSynchronous(account, folder, uid, listener, true);
@@ -2409,7 +2620,7 @@ public class MessagingController {
     //TODO: Fix the callback mess. See GH-782
     public void loadMessageRemote(final Account account, final String folder,
             final String uid, final MessagingListener listener) {
-        put("loadMessageRemote", listener, new Runnable() {
+        put("loadMessageRemote", folderLane(account, folder), listener, new Runnable() {
             @Override
             public void run() {
                 loadMessageRemoteSynchronous(account, folder, uid, listener, false);
@@ -2466,7 +2677,7 @@ public class MessagingController {
 
                 if (loadPartialFromSearch) {
                     downloadMessages(account, remoteFolder, localFolder,
-                            Collections.singletonList(remoteMessage), false, false);
+                            Collections.singletonList(remoteMessage), false, false, null);
                 } else {
                     FetchProfile fp = new FetchProfile();
                     fp.add(FetchProfile.Item.BODY);
@@ -2540,7 +2751,7 @@ public class MessagingController {
     public void loadAttachment(final Account account, final LocalMessage message, final Part part,
             final MessagingListener listener) {
 
-        put("loadAttachment", listener, new Runnable() {
+        put("loadAttachment", folderLane(account, message.getFolder().getName()), listener, new Runnable() {
             @Override
             public void run() {
                 Folder remoteFolder = null;
@@ -2631,7 +2842,7 @@ public class MessagingController {
      */
     public void sendPendingMessages(final Account account,
             MessagingListener listener) {
-        putBackground("sendPendingMessages", listener, new Runnable() {
+        putBackground("sendPendingMessages", accountLane(account), listener, new Runnable() {
             @Override
             public void run() {
                 if (!account.isAvailable(context)) {
@@ -2691,6 +2902,7 @@ public class MessagingController {
     @VisibleForTesting
     protected void sendPendingMessagesSynchronous(final Account account) {
         LocalFolder localFolder = null;
+        Transport transport = null;
         Exception lastFailure = null;
         boolean wasPermanentFailure = false;
         try {
@@ -2723,7 +2935,8 @@ public class MessagingController {
             Timber.i("Scanning folder '%s' (%d) for messages to send",
                     account.getOutboxFolderName(), localFolder.getId());
 
-            Transport transport = transportProvider.getTransport(K9.app, account);
+            // The transport keeps its connection open between messages. It's closed after the last one.
+            transport = transportProvider.getTransport(K9.app, account);
 
             for (LocalMessage message : localMessages) {
                 if (message.isSet(Flag.DELETED)) {
@@ -2822,6 +3035,9 @@ public class MessagingController {
             addErrorMessage(account, null, e);
 
         } finally {
+            if (transport != null) {
+                transport.close();
+            }
             if (lastFailure == null) {
                 notificationController.clearSendFailedNotification(account);
             }
@@ -2943,8 +3159,10 @@ public class MessagingController {
             String selection = query.toString();
             String[] selectionArgs = queryArgs.toArray(new String[queryArgs.size()]);
 
+            // Searches that only select folders can use the precomputed per-folder counts
+            String statsPath = SqlQueryBuilder.isFolderLevelSearch(conditions) ? "/stats/folders" : "/stats";
             Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI,
-                    "account/" + account.getUuid() + "/stats");
+                    "account/" + account.getUuid() + statsPath);
 
             // Query content provider to get the account stats
             Cursor cursor = cr.query(uri, projection, selection, selectionArgs, null);
@@ -2991,7 +3209,8 @@ public class MessagingController {
         };
 
 
-        put("getFolderUnread:" + account.getDescription() + ":" + folderName, l, unreadRunnable);
+        put("getFolderUnread:" + account.getDescription() + ":" + folderName, folderLane(account, folderName), l,
+                unreadRunnable);
     }
 
 
@@ -3033,7 +3252,7 @@ public class MessagingController {
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
                 suppressMessages(account, messages);
 
-                putBackground("moveMessages", null, new Runnable() {
+                putBackground("moveMessages", accountLane(account), null, new Runnable() {
                     @Override
                     public void run() {
                         moveOrCopyMessageSynchronous(account, srcFolder, messages, destFolder, false);
@@ -3050,7 +3269,7 @@ public class MessagingController {
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
                 suppressMessages(account, messages);
 
-                putBackground("moveMessagesInThread", null, new Runnable() {
+                putBackground("moveMessagesInThread", accountLane(account), null, new Runnable() {
                     @Override
                     public void run() {
                         try {
@@ -3075,7 +3294,7 @@ public class MessagingController {
         actOnMessageGroup(srcAccount, srcFolder, messageReferences, new MessageActor() {
             @Override
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
-                putBackground("copyMessages", null, new Runnable() {
+                putBackground("copyMessages", accountLane(account), null, new Runnable() {
                     @Override
                     public void run() {
                         moveOrCopyMessageSynchronous(srcAccount, srcFolder, messages, destFolder, true);
@@ -3090,7 +3309,7 @@ public class MessagingController {
         actOnMessageGroup(srcAccount, srcFolder, messageReferences, new MessageActor() {
             @Override
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
-                putBackground("copyMessagesInThread", null, new Runnable() {
+                putBackground("copyMessagesInThread", accountLane(account), null, new Runnable() {
                     @Override
                     public void run() {
                         try {
@@ -3208,7 +3427,7 @@ public class MessagingController {
     }
 
     public void expunge(final Account account, final String folder) {
-        putBackground("expunge", null, new Runnable() {
+        putBackground("expunge", folderLane(account, folder), null, new Runnable() {
             @Override
             public void run() {
                 queueExpunge(account, folder);
@@ -3242,7 +3461,7 @@ public class MessagingController {
                     final List<LocalMessage> accountMessages) {
                 suppressMessages(account, accountMessages);
 
-                putBackground("deleteThreads", null, new Runnable() {
+                putBackground("deleteThreads", accountLane(account), null, new Runnable() {
                     @Override
                     public void run() {
                         deleteThreadsSynchronous(account, messageFolder.getName(), accountMessages);
@@ -3294,7 +3513,7 @@ public class MessagingController {
                     final List<LocalMessage> accountMessages) {
                 suppressMessages(account, accountMessages);
 
-                putBackground("deleteMessages", null, new Runnable() {
+                putBackground("deleteMessages", accountLane(account), null, new Runnable() {
                     @Override
                     public void run() {
                         deleteMessagesSynchronous(account, messageFolder.getName(), accountMessages, listener);
@@ -3317,7 +3536,7 @@ public class MessagingController {
             public void act(final Account account, final LocalFolder messageFolder,
                     final List<LocalMessage> accountMessages) {
 
-                putBackground("debugClearLocalMessages", null, new Runnable() {
+                putBackground("debugClearLocalMessages", accountLane(account), null, new Runnable() {
                     @Override
                     public void run() {
                         for (LocalMessage message : accountMessages) {
@@ -3447,7 +3666,7 @@ public class MessagingController {
     }
 
     public void emptyTrash(final Account account, MessagingListener listener) {
-        putBackground("emptyTrash", listener, new Runnable() {
+        putBackground("emptyTrash", accountLane(account), listener, new Runnable() {
             @Override
             public void run() {
                 LocalFolder localFolder = null;
@@ -3486,7 +3705,7 @@ public class MessagingController {
     }
 
     public void clearFolder(final Account account, final String folderName, final ActivityListener listener) {
-        putBackground("clearFolder", listener, new Runnable() {
+        putBackground("clearFolder", folderLane(account, folderName), listener, new Runnable() {
             @Override
             public void run() {
                 clearFolderSynchronous(account, folderName, listener);
@@ -3599,7 +3818,7 @@ public class MessagingController {
         for (MessagingListener l : getListeners()) {
             l.checkMailStarted(context, account);
         }
-        putBackground("checkMail", listener, new Runnable() {
+        putBackground("checkMail", CommandScheduler.DEFAULT_LANE, listener, new Runnable() {
             @Override
             public void run() {
 
@@ -3624,7 +3843,7 @@ public class MessagingController {
                     Timber.e(e, "Unable to synchronize mail");
                     addErrorMessage(account, null, e);
                 }
-                putBackground("finalize sync", null, new Runnable() {
+                putBarrier("finalize sync", CommandScheduler.DEFAULT_LANE, null, new Runnable() {
                             @Override
                             public void run() {
 
@@ -3704,7 +3923,8 @@ public class MessagingController {
             Timber.e(e, "Unable to synchronize account %s", account.getName());
             addErrorMessage(account, null, e);
         } finally {
-            putBackground("clear notification flag for " + account.getDescription(), null, new Runnable() {
+            String description = "clear notification flag for " + account.getDescription();
+            putBarrier(description, accountLane(account), null, new Runnable() {
                         @Override
                         public void run() {
                             Timber.v("Clearing notification flag for %s", account.getDescription());
@@ -3723,9 +3943,64 @@ public class MessagingController {
             );
         }
 
+        indexFulltext(account);
+    }
+
 
+    /**
+     * Adds missing and outdated entries to the full-text search index of an account.
+     *
+     * <p>
+     * The messages are indexed in small batches. Every batch is a separate background command, so other commands
+     * don't have to wait for the whole index to be built.
+     * </p>
+     */
+    public void indexFulltext(final Account account) {
+        if (fulltextIndexingAccounts.putIfAbsent(account.getUuid(), Boolean.TRUE) != null) {
+            // Already in progress
+            return;
+        }
+
+        putIndexFulltextBatch(account);
     }
 
+    private void putIndexFulltextBatch(final Account account) {
+        putBackground("indexFulltext", accountLane(account), null, new Runnable() {
+            @Override
+            public void run() {
+                boolean moreMessages = false;
+                try {
+                    moreMessages = indexFulltextBatch(account);
+                } catch (Exception e) {
+                    Timber.e(e, "Error indexing fulltext of account %s", account.getDescription());
+                } finally {
+                    if (moreMessages) {
+                        putIndexFulltextBatch(account);
+                    } else {
+                        fulltextIndexingAccounts.remove(account.getUuid());
+                    }
+                }
+            }
+        });
+    }
+
+    private boolean indexFulltextBatch(Account account) throws MessagingException {
+        if (!account.isAvailable(context)) {
+            return false;
+        }
+
+        FulltextIndexer fulltextIndexer = account.getLocalStore().getFulltextIndexer();
+        if (fulltextIndexer.indexNextBatch(FULLTEXT_INDEX_BATCH_SIZE) == 0) {
+            return false;
+        }
+
+        FulltextIndexer.Progress progress = fulltextIndexer.getProgress();
+        for (MessagingListener l : getListeners()) {
+            l.fulltextIndexProgress(account, progress.indexedCount, progress.totalCount);
+        }
+
+        return true;
+    }
 
     private void synchronizeFolder(
             final Account account,
@@ -3742,7 +4017,7 @@ public class MessagingController {
             return;
         }
 
-        putBackground("sync" + folder.getName(), null, new Runnable() {
+        putBackground("sync" + folder.getName(), folderLane(account, folder.getName()), null, new Runnable() {
                     @Override
                     public void run() {
                         LocalFolder tLocalFolder = null;
@@ -3794,7 +4069,7 @@ public class MessagingController {
 
 
     public void compact(final Account account, final MessagingListener ml) {
-        putBackground("compact:" + account.getDescription(), ml, new Runnable() {
+        putBarrier("compact:" + account.getDescription(), accountLane(account), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3816,7 +4091,7 @@ public class MessagingController {
     }
 
     public void clear(final Account account, final MessagingListener ml) {
-        putBackground("clear:" + account.getDescription(), ml, new Runnable() {
+        putBarrier("clear:" + account.getDescription(), accountLane(account), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3844,7 +4119,7 @@ public class MessagingController {
     }
 
     public void recreate(final Account account, final MessagingListener ml) {
-        putBackground("recreate:" + account.getDescription(), ml, new Runnable() {
+        putBarrier("recreate:" + account.getDescription(), accountLane(account), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -4020,28 +4295,6 @@ public class MessagingController {
         }
     }
 
-    private static AtomicInteger sequencing = new AtomicInteger(0);
-
-    private static class Command implements Comparable<Command> {
-        public Runnable runnable;
-        public MessagingListener listener;
-        public String description;
-        boolean isForegroundPriority;
-
-        int sequence = sequencing.getAndIncrement();
-
-        @Override
-        public int compareTo(@NonNull Command other) {
-            if (other.isForegroundPriority && !isForegroundPriority) {
-                return 1;
-            } else if (!other.isForegroundPriority && isForegroundPriority) {
-                return -1;
-            } else {
-                return (sequence - other.sequence);
-            }
-        }
-    }
-
     public MessagingListener getCheckMailListener() {
         return checkMailListener;
     }
@@ -4178,8 +4431,9 @@ public class MessagingController {
                 account.getDescription(), remoteFolder.getName());
 
         final CountDownLatch latch = new CountDownLatch(1);
-        putBackground("Push messageArrived of account " + account.getDescription()
-                + ", folder " + remoteFolder.getName(), null, new Runnable() {
+        String description = "Push messageArrived of account " + account.getDescription()
+                + ", folder " + remoteFolder.getName();
+        putBackground(description, folderLane(account, remoteFolder.getName()), null, new Runnable() {
             @Override
             public void run() {
                 LocalFolder localFolder = null;
@@ -4189,7 +4443,8 @@ public class MessagingController {
                     localFolder.open(Folder.OPEN_MODE_RW);
 
                     account.setRingNotified(false);
-                    int newCount = downloadMessages(account, remoteFolder, localFolder, messages, flagSyncOnly, true);
+                    int newCount = downloadMessages(account, remoteFolder, localFolder, messages, flagSyncOnly, true,
+                            null);
 
                     int unreadMessageCount = localFolder.getUnreadMessageCount();
 
@@ -39,6 +39,8 @@ public interface MessagingListener {
     void synchronizeMailboxFinished(Account account, String folder, int totalMessagesInMailbox, int numNewMessages);
     void synchronizeMailboxFailed(Account account, String folder, String message);
 
+    void fulltextIndexProgress(Account account, int completed, int total);
+
     void loadMessageRemoteFinished(Account account, String folder, String uid);
     void loadMessageRemoteFailed(Account account, String folder, String uid, Throwable t);
 
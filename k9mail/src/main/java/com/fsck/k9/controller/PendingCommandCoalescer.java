@@ -0,0 +1,258 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fsck.k9.controller.MessagingControllerCommands.PendingAppend;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingExpunge;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingMarkAllAsRead;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingMoveOrCopy;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingSetFlag;
+import com.fsck.k9.mail.Flag;
+
+
+/**
+ * Merges pending commands before they are executed, so that e.g. marking many messages as read while offline
+ * results in a few remote commands instead of one per message.
+ *
+ * <p>
+ * The result has the same effect as executing the pending commands one by one:
+ * <ul>
+ * <li>A flag change is dropped for messages whose flag is changed again by a later command.</li>
+ * <li>A flag change is dropped for messages that are later marked as deleted and expunged.</li>
+ * <li>Adjacent flag changes for the same folder, flag and value are merged, as are adjacent moves or copies between
+ * the same folders.</li>
+ * </ul>
+ * Commands that depend on the flags of the messages in a folder, e.g. moving messages (which copies their flags),
+ * end the range in which flag changes for that folder can be dropped.
+ * </p>
+ */
+class PendingCommandCoalescer {
+    /**
+     * Commands are only merged as long as they contain at most this many UIDs, to keep the commands sent to the
+     * server reasonably short.
+     */
+    static final int MAX_MERGED_UIDS = 1000;
+
+
+    private PendingCommandCoalescer() { }
+
+    static List<CoalescedCommand> coalesce(List<PendingCommand> commands) {
+        List<PendingCommand> reducedCommands = dropSupersededFlagChanges(commands);
+
+        List<CoalescedCommand> result = new ArrayList<>();
+        List<PendingCommand> droppedCommands = new ArrayList<>();
+        CoalescedCommand previous = null;
+        for (int i = 0, size = commands.size(); i < size; i++) {
+            PendingCommand originalCommand = commands.get(i);
+            PendingCommand command = reducedCommands.get(i);
+
+            if (command == null) {
+                // Removed from the queue together with the next command that is executed
+                droppedCommands.add(originalCommand);
+                continue;
+            }
+
+            PendingCommand mergedCommand = (previous != null) ? merge(previous.command, command) : null;
+            if (mergedCommand != null) {
+                previous.command = mergedCommand;
+            } else {
+                previous = new CoalescedCommand(command);
+                result.add(previous);
+            }
+
+            previous.originalCommands.addAll(droppedCommands);
+            previous.originalCommands.add(originalCommand);
+            droppedCommands.clear();
+        }
+
+        // A command is only dropped because of a later command that is executed. Play it safe anyway.
+        for (PendingCommand droppedCommand : droppedCommands) {
+            CoalescedCommand coalescedCommand = new CoalescedCommand(droppedCommand);
+            coalescedCommand.originalCommands.add(droppedCommand);
+            result.add(coalescedCommand);
+        }
+
+        return result;
+    }
+
+    /**
+     * Walks the commands from last to first and removes the UIDs from flag changes that have no effect.
+     *
+     * @return A list with the same size as {@code commands}. It contains {@code null} for commands that can be
+     *         dropped entirely.
+     */
+    private static List<PendingCommand> dropSupersededFlagChanges(List<PendingCommand> commands) {
+        Map<String, FolderState> folderStates = new HashMap<>();
+
+        PendingCommand[] result = new PendingCommand[commands.size()];
+        for (int i = commands.size() - 1; i >= 0; i--) {
+            PendingCommand command = commands.get(i);
+
+            if (command instanceof PendingSetFlag) {
+                PendingSetFlag setFlagCommand = (PendingSetFlag) command;
+                result[i] = reduceSetFlag(setFlagCommand, getFolderState(folderStates, setFlagCommand.folder));
+                continue;
+            }
+
+            result[i] = command;
+
+            if (command instanceof PendingExpunge) {
+                FolderState folderState = new FolderState();
+                folderState.expungePending = true;
+                folderStates.put(((PendingExpunge) command).folder, folderState);
+            } else if (command instanceof PendingMoveOrCopy) {
+                // Moving or copying messages copies their flags, so earlier flag changes matter
+                folderStates.remove(((PendingMoveOrCopy) command).srcFolder);
+            } else if (command instanceof PendingMarkAllAsRead) {
+                folderStates.remove(((PendingMarkAllAsRead) command).folder);
+            } else if (command instanceof PendingAppend) {
+                folderStates.remove(((PendingAppend) command).folder);
+            } else {
+                folderStates.clear();
+            }
+        }
+
+        List<PendingCommand> reducedCommands = new ArrayList<>(result.length);
+        Collections.addAll(reducedCommands, result);
+        return reducedCommands;
+    }
+
+    private static FolderState getFolderState(Map<String, FolderState> folderStates, String folder) {
+        FolderState folderState = folderStates.get(folder);
+        if (folderState == null) {
+            folderState = new FolderState();
+            folderStates.put(folder, folderState);
+        }
+
+        return folderState;
+    }
+
+    private static PendingSetFlag reduceSetFlag(PendingSetFlag command, FolderState folderState) {
+        Set<String> changedLater = folderState.getUidsChangedLater(command.flag);
+
+        List<String> uids = new ArrayList<>(command.uids.size());
+        for (String uid : command.uids) {
+            if (changedLater.contains(uid)) {
+                continue;
+            }
+
+            if (command.flag != Flag.DELETED && folderState.expungedUids.contains(uid)) {
+                continue;
+            }
+
+            uids.add(uid);
+        }
+
+        for (String uid : uids) {
+            changedLater.add(uid);
+            if (command.flag == Flag.DELETED && command.newState && folderState.expungePending) {
+                folderState.expungedUids.add(uid);
+            }
+        }
+
+        if (uids.isEmpty()) {
+            return null;
+        } else if (uids.size() == command.uids.size()) {
+            return command;
+        }
+
+        return PendingSetFlag.create(command.folder, command.newState, command.flag, uids);
+    }
+
+    private static PendingCommand merge(PendingCommand first, PendingCommand second) {
+        if (first instanceof PendingSetFlag && second instanceof PendingSetFlag) {
+            return mergeSetFlag((PendingSetFlag) first, (PendingSetFlag) second);
+        } else if (first instanceof PendingMoveOrCopy && second instanceof PendingMoveOrCopy) {
+            return mergeMoveOrCopy((PendingMoveOrCopy) first, (PendingMoveOrCopy) second);
+        }
+
+        return null;
+    }
+
+    private static PendingSetFlag mergeSetFlag(PendingSetFlag first, PendingSetFlag second) {
+        if (!first.folder.equals(second.folder) || first.flag != second.flag || first.newState != second.newState ||
+                first.uids.size() + second.uids.size() > MAX_MERGED_UIDS) {
+            return null;
+        }
+
+        Set<String> uids = new LinkedHashSet<>(first.uids);
+        uids.addAll(second.uids);
+
+        return PendingSetFlag.create(first.folder, first.newState, first.flag, new ArrayList<>(uids));
+    }
+
+    private static PendingMoveOrCopy mergeMoveOrCopy(PendingMoveOrCopy first, PendingMoveOrCopy second) {
+        if (!first.srcFolder.equals(second.srcFolder) || !first.destFolder.equals(second.destFolder) ||
+                first.isCopy != second.isCopy) {
+            return null;
+        }
+
+        if (first.uids != null && second.uids != null) {
+            if (first.uids.size() + second.uids.size() > MAX_MERGED_UIDS) {
+                return null;
+            }
+
+            Set<String> uids = new LinkedHashSet<>(first.uids);
+            uids.addAll(second.uids);
+
+            return PendingMoveOrCopy.create(first.srcFolder, first.destFolder, first.isCopy, new ArrayList<>(uids));
+        } else if (first.newUidMap != null && second.newUidMap != null) {
+            if (first.newUidMap.size() + second.newUidMap.size() > MAX_MERGED_UIDS ||
+                    !Collections.disjoint(first.newUidMap.keySet(), second.newUidMap.keySet())) {
+                return null;
+            }
+
+            Map<String, String> newUidMap = new LinkedHashMap<>(first.newUidMap);
+            newUidMap.putAll(second.newUidMap);
+
+            return PendingMoveOrCopy.create(first.srcFolder, first.destFolder, first.isCopy, newUidMap);
+        }
+
+        return null;
+    }
+
+
+    /**
+     * A command to execute in place of one or more pending commands.
+     */
+    static class CoalescedCommand {
+        PendingCommand command;
+        final List<PendingCommand> originalCommands = new ArrayList<>();
+
+
+        CoalescedCommand(PendingCommand command) {
+            this.command = command;
+        }
+    }
+
+    /**
+     * What the commands following the current one do to the messages of a folder.
+     */
+    private static class FolderState {
+        final Map<Flag, Set<String>> uidsChangedLater = new EnumMap<>(Flag.class);
+        final Set<String> expungedUids = new HashSet<>();
+        boolean expungePending;
+
+
+        Set<String> getUidsChangedLater(Flag flag) {
+            Set<String> uids = uidsChangedLater.get(flag);
+            if (uids == null) {
+                uids = new HashSet<>();
+                uidsChangedLater.put(flag, uids);
+            }
+
+            return uids;
+        }
+    }
+}
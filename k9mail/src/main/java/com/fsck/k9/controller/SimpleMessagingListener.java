@@ -86,6 +86,10 @@ public abstract class SimpleMessagingListener implements MessagingListener {
     public void synchronizeMailboxFailed(Account account, String folder, String message) {
     }
 
+    @Override
+    public void fulltextIndexProgress(Account account, int completed, int total) {
+    }
+
     @Override
     public void loadMessageRemoteFinished(Account account, String folder, String uid) {
     }
@@ -43,6 +43,8 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.Window;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.AdapterView.OnItemClickListener;
@@ -74,6 +76,7 @@ import com.fsck.k9.fragment.MessageListFragmentComparators.ReverseIdComparator;
 import com.fsck.k9.fragment.MessageListFragmentComparators.SenderComparator;
 import com.fsck.k9.fragment.MessageListFragmentComparators.SubjectComparator;
 import com.fsck.k9.fragment.MessageListFragmentComparators.UnreadComparator;
+import com.fsck.k9.fragment.MessageListLoader.PagedCursor;
 import com.fsck.k9.helper.ContactPicture;
 import com.fsck.k9.helper.MergeCursorWithUniqueId;
 import com.fsck.k9.helper.MessageHelper;
@@ -124,6 +127,16 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
     private static final int ACTIVITY_CHOOSE_FOLDER_MOVE = 1;
     private static final int ACTIVITY_CHOOSE_FOLDER_COPY = 2;
 
+    /**
+     * Number of messages loaded per account when the list is opened or scrolled to the end.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Number of messages before the end of the list at which the next page is loaded.
+     */
+    private static final int PAGE_PREFETCH_DISTANCE = 20;
+
     private static final String ARG_SEARCH = "searchObject";
     private static final String ARG_THREADED_LIST = "showingThreadedList";
     private static final String ARG_IS_THREAD_DISPLAY = "isThreadedDisplay";
@@ -726,6 +739,20 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         }
     }
 
+    private void loadNextPages() {
+        if (!isLoadFinished()) {
+            return;
+        }
+
+        LoaderManager loaderManager = getLoaderManager();
+        for (int i = 0, len = accountUuids.length; i < len; i++) {
+            Loader<Cursor> loader = loaderManager.getLoader(i);
+            if (loader instanceof MessageListLoader) {
+                ((MessageListLoader) loader).loadNextPage();
+            }
+        }
+    }
+
     private void initializePullToRefresh(View layout) {
         swipeRefreshLayout = (SwipeRefreshLayout) layout.findViewById(R.id.swiperefresh);
         listView = (ListView) layout.findViewById(R.id.message_list);
@@ -760,6 +787,19 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         listView.setFastScrollEnabled(true);
         listView.setScrollingCacheEnabled(false);
         listView.setOnItemClickListener(this);
+        listView.setOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (totalItemCount > 0 &&
+                        firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_PREFETCH_DISTANCE) {
+                    loadNextPages();
+                }
+            }
+        });
 
         registerForContextMenu(listView);
     }
@@ -2561,6 +2601,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         Account account = preferences.getAccount(accountUuid);
 
         String threadId = getThreadId(search);
+        boolean selectActive = activeMessage != null && activeMessage.getAccountUuid().equals(accountUuid);
 
         Uri uri;
         String[] projection;
@@ -2570,7 +2611,10 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
             projection = PROJECTION;
             needConditions = false;
         } else if (showingThreadedList) {
-            uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + accountUuid + "/messages/threaded");
+            // The precomputed thread summaries can only be used if the selection doesn't depend on single messages
+            String path = (!selectActive && SqlQueryBuilder.isFolderLevelSearch(search.getConditions())) ?
+                    "/messages/threaded/summary" : "/messages/threaded";
+            uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + accountUuid + path);
             projection = THREADED_PROJECTION;
             needConditions = true;
         } else {
@@ -2582,8 +2626,6 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         StringBuilder query = new StringBuilder();
         List<String> queryArgs = new ArrayList<>();
         if (needConditions) {
-            boolean selectActive = activeMessage != null && activeMessage.getAccountUuid().equals(accountUuid);
-
             if (selectActive) {
                 query.append("(" + MessageColumns.UID + " = ? AND " + SpecialColumns.FOLDER_NAME + " = ?) OR (");
                 queryArgs.add(activeMessage.getUid());
@@ -2600,10 +2642,15 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         String selection = query.toString();
         String[] selectionArgs = queryArgs.toArray(new String[0]);
 
-        String sortOrder = buildSortOrder();
+        MessageListSortOrder sortOrder = new MessageListSortOrder(sortType, sortAscending, sortDateAscending);
+
+        if (threadId != null) {
+            return new CursorLoader(getActivity(), uri, projection, selection, selectionArgs,
+                    sortOrder.getSortOrder());
+        }
 
-        return new CursorLoader(getActivity(), uri, projection, selection, selectionArgs,
-                sortOrder);
+        return new MessageListLoader(getActivity(), uri, projection, selection, selectionArgs, sortOrder,
+                PAGE_SIZE);
     }
 
     private String getThreadId(LocalSearch search) {
@@ -2617,51 +2664,6 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         return null;
     }
 
-    private String buildSortOrder() {
-        String sortColumn;
-        switch (sortType) {
-            case SORT_ARRIVAL: {
-                sortColumn = MessageColumns.INTERNAL_DATE;
-                break;
-            }
-            case SORT_ATTACHMENT: {
-                sortColumn = "(" + MessageColumns.ATTACHMENT_COUNT + " < 1)";
-                break;
-            }
-            case SORT_FLAGGED: {
-                sortColumn = "(" + MessageColumns.FLAGGED + " != 1)";
-                break;
-            }
-            case SORT_SENDER: {
-                //FIXME
-                sortColumn = MessageColumns.SENDER_LIST;
-                break;
-            }
-            case SORT_SUBJECT: {
-                sortColumn = MessageColumns.SUBJECT + " COLLATE NOCASE";
-                break;
-            }
-            case SORT_UNREAD: {
-                sortColumn = MessageColumns.READ;
-                break;
-            }
-            case SORT_DATE:
-            default: {
-                sortColumn = MessageColumns.DATE;
-            }
-        }
-
-        String sortDirection = (sortAscending) ? " ASC" : " DESC";
-        String secondarySort;
-        if (sortType == SortType.SORT_DATE || sortType == SortType.SORT_ARRIVAL) {
-            secondarySort = "";
-        } else {
-            secondarySort = MessageColumns.DATE + ((sortDateAscending) ? " ASC, " : " DESC, ");
-        }
-
-        return sortColumn + sortDirection + ", " + secondarySort + MessageColumns.ID + " DESC";
-    }
-
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         if (isThreadDisplay && data.getCount() == 0) {
@@ -2678,7 +2680,9 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
 
         Cursor cursor;
         if (cursors.length > 1) {
-            cursor = new MergeCursorWithUniqueId(cursors, getComparator());
+            MergeCursorWithUniqueId mergeCursor = new MergeCursorWithUniqueId(cursors, getComparator());
+            mergeCursor.truncateAfterLastRowOf(getCursorsWithMorePages());
+            cursor = mergeCursor;
             uniqueIdColumn = cursor.getColumnIndex("_id");
         } else {
             cursor = data;
@@ -2717,6 +2721,20 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         }
     }
 
+    /**
+     * Rows of other accounts sorted after the last loaded row of an account with more pages can't be shown yet,
+     * because messages of that account that belong in between haven't been loaded.
+     */
+    private boolean[] getCursorsWithMorePages() {
+        boolean[] morePages = new boolean[cursors.length];
+        for (int i = 0, len = cursors.length; i < len; i++) {
+            Cursor cursor = cursors[i];
+            morePages[i] = cursor instanceof PagedCursor && ((PagedCursor) cursor).hasMore();
+        }
+
+        return morePages;
+    }
+
     private void updateMoreMessagesOfCurrentFolder() {
         if (folderName != null) {
             try {
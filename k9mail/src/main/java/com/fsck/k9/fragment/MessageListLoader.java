@@ -0,0 +1,298 @@
+package com.fsck.k9.fragment;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+
+import com.fsck.k9.helper.MessageHelper;
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.provider.EmailProvider;
+import com.fsck.k9.provider.EmailProvider.MessageColumns;
+
+
+/**
+ * Loads the message list of one account page by page.
+ *
+ * <p>
+ * Initially only the first {@code pageSize} rows are loaded. {@link #loadNextPage()} queries the rows sorted after
+ * the last loaded row using the keyset selection built by {@link MessageListSortOrder}, and delivers a cursor
+ * containing all pages. When the content changes all rows loaded so far are queried again in one go.
+ * </p>
+ */
+class MessageListLoader extends AsyncTaskLoader<Cursor> {
+    private final ForceLoadContentObserver observer = new ForceLoadContentObserver();
+
+    private final Uri uri;
+    private final String[] projection;
+    private final String selection;
+    private final String[] selectionArgs;
+    private final MessageListSortOrder sortOrder;
+    private final int pageSize;
+
+    private PagedCursor cursor;
+    private int loadedRowCount;
+    private PagedCursor nextPageBase;
+    private String nextPageSelection;
+    private String[] nextPageSelectionArgs;
+
+
+    MessageListLoader(Context context, Uri uri, String[] projection, String selection, String[] selectionArgs,
+            MessageListSortOrder sortOrder, int pageSize) {
+        super(context);
+        this.uri = uri;
+        this.projection = projection;
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+        this.sortOrder = sortOrder;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Loads the rows following the ones that have already been delivered.
+     *
+     * @return {@code false} if there are no more rows or the next page is already being loaded.
+     */
+    boolean loadNextPage() {
+        synchronized (this) {
+            if (!isStarted() || cursor == null || !cursor.hasMore() || nextPageBase != null) {
+                return false;
+            }
+
+            // Read the last row here, the delivered cursor must not be moved by the background thread
+            Cursor lastPage = cursor.getLastPage();
+            int position = lastPage.getPosition();
+            if (!lastPage.moveToLast()) {
+                return false;
+            }
+
+            List<String> pageSelectionArgs = new ArrayList<>(Arrays.asList(selectionArgs));
+            nextPageSelection = sortOrder.buildPageSelection(lastPage, pageSelectionArgs);
+            nextPageSelectionArgs = pageSelectionArgs.toArray(new String[0]);
+            nextPageBase = cursor;
+
+            lastPage.moveToPosition(position);
+        }
+
+        forceLoad();
+        return true;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        PagedCursor base;
+        String pageSelection;
+        String[] pageSelectionArgs;
+        int limit;
+        synchronized (this) {
+            base = nextPageBase;
+            pageSelection = nextPageSelection;
+            pageSelectionArgs = nextPageSelectionArgs;
+            nextPageBase = null;
+            limit = Math.max(pageSize, loadedRowCount);
+        }
+
+        if (base != null && !base.isClosed()) {
+            return loadNextPage(base, pageSelection, pageSelectionArgs);
+        }
+
+        // Query everything that has been loaded before, so the list doesn't shrink when the content changes
+        Cursor page = query(null, selectionArgs, limit);
+        if (page == null) {
+            return null;
+        }
+
+        return new PagedCursor(Collections.singletonList(page), page.getCount() >= limit);
+    }
+
+    private PagedCursor loadNextPage(PagedCursor base, String pageSelection, String[] pageSelectionArgs) {
+        Cursor page = query(pageSelection, pageSelectionArgs, pageSize);
+        if (page == null) {
+            return base;
+        }
+
+        List<Cursor> pages = new ArrayList<>(base.pages);
+        pages.add(page);
+
+        return new PagedCursor(pages, page.getCount() >= pageSize);
+    }
+
+    private Cursor query(String pageSelection, String[] args, int limit) {
+        Uri.Builder builder = uri.buildUpon()
+                .appendQueryParameter(EmailProvider.QUERY_PARAMETER_LIMIT, Integer.toString(limit));
+        if (pageSelection != null) {
+            builder.appendQueryParameter(EmailProvider.QUERY_PARAMETER_PAGE_SELECTION, pageSelection);
+        }
+
+        Cursor page = getContext().getContentResolver().query(builder.build(), projection, selection, args,
+                sortOrder.getSortOrder());
+        if (page != null) {
+            try {
+                // Ensure the cursor window is filled
+                page.getCount();
+                page.registerContentObserver(observer);
+                preloadContactNames(page);
+            } catch (RuntimeException e) {
+                page.close();
+                throw e;
+            }
+        }
+
+        return page;
+    }
+
+    /**
+     * Looks up the contact names displayed for the rows of a page in bulk instead of once per row while binding.
+     */
+    private void preloadContactNames(Cursor page) {
+        int senderListColumn = page.getColumnIndex(MessageColumns.SENDER_LIST);
+        int toListColumn = page.getColumnIndex(MessageColumns.TO_LIST);
+        if (senderListColumn == -1 || toListColumn == -1) {
+            return;
+        }
+
+        List<Address[]> addressLists = new ArrayList<>();
+        for (page.moveToFirst(); !page.isAfterLast(); page.moveToNext()) {
+            addressLists.add(Address.unpack(page.getString(senderListColumn)));
+            addressLists.add(Address.unpack(page.getString(toListColumn)));
+        }
+        page.moveToPosition(-1);
+
+        MessageHelper.getInstance(getContext()).preloadContactNames(addressLists);
+    }
+
+    @Override
+    public void deliverResult(Cursor data) {
+        PagedCursor result = (PagedCursor) data;
+        if (isReset()) {
+            if (result != null) {
+                result.closePages(null);
+            }
+            return;
+        }
+
+        PagedCursor oldCursor;
+        synchronized (this) {
+            oldCursor = cursor;
+            cursor = result;
+            loadedRowCount = (result != null) ? result.getCount() : 0;
+        }
+
+        if (isStarted()) {
+            super.deliverResult(result);
+        }
+
+        if (oldCursor != null && oldCursor != result) {
+            oldCursor.closePages(result);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (cursor != null) {
+            deliverResult(cursor);
+        }
+        if (takeContentChanged() || cursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Cursor data) {
+        PagedCursor canceledCursor = (PagedCursor) data;
+        if (canceledCursor != null && canceledCursor != cursor) {
+            canceledCursor.closePages(cursor);
+        }
+    }
+
+    @Override
+    public void onContentChanged() {
+        synchronized (this) {
+            // Appending to pages that are outdated would result in an inconsistent list
+            nextPageBase = null;
+        }
+
+        super.onContentChanged();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        onStopLoading();
+
+        PagedCursor oldCursor;
+        synchronized (this) {
+            oldCursor = cursor;
+            cursor = null;
+            loadedRowCount = 0;
+            nextPageBase = null;
+        }
+
+        if (oldCursor != null) {
+            oldCursor.closePages(null);
+        }
+    }
+
+
+    /**
+     * The concatenation of the pages loaded so far.
+     *
+     * <p>
+     * Pages are shared between the cursors delivered for consecutive pages. So closing this cursor doesn't close the
+     * pages. They are closed by the loader once no delivered cursor uses them anymore.
+     * </p>
+     */
+    static class PagedCursor extends MergeCursor {
+        private final List<Cursor> pages;
+        private final boolean hasMore;
+
+
+        PagedCursor(List<Cursor> pages, boolean hasMore) {
+            super(pages.toArray(new Cursor[pages.size()]));
+            this.pages = pages;
+            this.hasMore = hasMore;
+        }
+
+        /**
+         * @return {@code true} if rows sorted after the last row of this cursor might exist.
+         */
+        boolean hasMore() {
+            return hasMore;
+        }
+
+        Cursor getLastPage() {
+            return pages.get(pages.size() - 1);
+        }
+
+        @Override
+        public void close() {
+            // Pages are closed by the loader
+        }
+
+        @Override
+        public boolean isClosed() {
+            return getLastPage().isClosed();
+        }
+
+        void closePages(PagedCursor retainedCursor) {
+            for (Cursor page : pages) {
+                if (retainedCursor == null || !retainedCursor.pages.contains(page)) {
+                    page.close();
+                }
+            }
+        }
+    }
+}
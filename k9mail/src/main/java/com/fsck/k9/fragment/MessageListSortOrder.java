@@ -0,0 +1,211 @@
+package com.fsck.k9.fragment;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+
+import com.fsck.k9.Account.SortType;
+import com.fsck.k9.provider.EmailProvider.MessageColumns;
+
+
+/**
+ * The sort order of the message list.
+ *
+ * <p>
+ * Every sort order ends with the message ID, so it's a total order. This allows to build a keyset selection that
+ * matches all rows sorted after a given row, so loading the next page of the message list doesn't have to skip all
+ * rows that have already been loaded.
+ * </p>
+ * <p>
+ * The sort keys are plain columns where possible, so SQLite can use an index on them. {@code NULL} values aren't
+ * replaced with a default value but matched explicitly in the selection. SQLite sorts them before all other values.
+ * </p>
+ */
+class MessageListSortOrder {
+    private final List<SortKey> sortKeys = new ArrayList<>(3);
+
+
+    MessageListSortOrder(SortType sortType, boolean sortAscending, boolean sortDateAscending) {
+        sortKeys.add(getSortKey(sortType, sortAscending));
+
+        if (sortType != SortType.SORT_DATE && sortType != SortType.SORT_ARRIVAL) {
+            sortKeys.add(getSortKey(SortType.SORT_DATE, sortDateAscending));
+        }
+
+        sortKeys.add(new SortKey(MessageColumns.ID, MessageColumns.ID, false, false, false));
+    }
+
+    private static SortKey getSortKey(SortType sortType, boolean ascending) {
+        switch (sortType) {
+            case SORT_ARRIVAL: {
+                return new SortKey(MessageColumns.INTERNAL_DATE, MessageColumns.INTERNAL_DATE, ascending, false, true);
+            }
+            case SORT_ATTACHMENT: {
+                // Messages with and without attachments are only separated, not sorted by their number of attachments
+                return new SortKey("(IFNULL(" + MessageColumns.ATTACHMENT_COUNT + ", 0) < 1)",
+                        MessageColumns.ATTACHMENT_COUNT, ascending, false, false) {
+                    @Override
+                    String getValue(Cursor cursor, int columnIndex) {
+                        return (cursor.getInt(columnIndex) < 1) ? "1" : "0";
+                    }
+                };
+            }
+            case SORT_FLAGGED: {
+                // Flagged messages come first when sorting in ascending order
+                return new SortKey(MessageColumns.FLAGGED, MessageColumns.FLAGGED, !ascending, false, true);
+            }
+            case SORT_SENDER: {
+                //FIXME
+                return new SortKey(MessageColumns.SENDER_LIST, MessageColumns.SENDER_LIST, ascending, true, true);
+            }
+            case SORT_SUBJECT: {
+                return new SortKey(MessageColumns.SUBJECT + " COLLATE NOCASE", MessageColumns.SUBJECT, ascending,
+                        true, true);
+            }
+            case SORT_UNREAD: {
+                return new SortKey(MessageColumns.READ, MessageColumns.READ, ascending, false, true);
+            }
+            case SORT_DATE:
+            default: {
+                return new SortKey(MessageColumns.DATE, MessageColumns.DATE, ascending, false, true);
+            }
+        }
+    }
+
+    /**
+     * @return The {@code ORDER BY} clause for the message list query.
+     */
+    String getSortOrder() {
+        StringBuilder sortOrder = new StringBuilder();
+        for (SortKey sortKey : sortKeys) {
+            if (sortOrder.length() > 0) {
+                sortOrder.append(", ");
+            }
+            sortOrder.append(sortKey.expression);
+            sortOrder.append(sortKey.ascending ? " ASC" : " DESC");
+        }
+
+        return sortOrder.toString();
+    }
+
+    /**
+     * Builds a selection matching all rows that are sorted after the current row of {@code cursor}.
+     *
+     * @param cursor
+     *         A cursor positioned on a row of the message list. It has to contain the columns of the sort order.
+     * @param selectionArgs
+     *         The arguments for the returned selection are appended to this list.
+     */
+    String buildPageSelection(Cursor cursor, List<String> selectionArgs) {
+        StringBuilder selection = new StringBuilder();
+        appendPageSelection(selection, 0, cursor, selectionArgs);
+
+        return selection.toString();
+    }
+
+    private void appendPageSelection(StringBuilder selection, int keyIndex, Cursor cursor,
+            List<String> selectionArgs) {
+        SortKey sortKey = sortKeys.get(keyIndex);
+        String value = sortKey.getValue(cursor);
+        boolean lastKey = keyIndex == sortKeys.size() - 1;
+
+        // NULL sorts first, so no row comes after it in descending order
+        boolean hasRowsAfterValue = value != null || sortKey.ascending;
+        if (hasRowsAfterValue) {
+            appendSortedAfter(selection, sortKey, value, selectionArgs);
+        } else if (lastKey) {
+            selection.append('0');
+        }
+
+        if (!lastKey) {
+            if (hasRowsAfterValue) {
+                selection.append(" OR (");
+            }
+
+            appendEqual(selection, sortKey, value, selectionArgs);
+            selection.append(" AND (");
+            appendPageSelection(selection, keyIndex + 1, cursor, selectionArgs);
+            selection.append(')');
+
+            if (hasRowsAfterValue) {
+                selection.append(')');
+            }
+        }
+    }
+
+    private static void appendSortedAfter(StringBuilder selection, SortKey sortKey, String value,
+            List<String> selectionArgs) {
+        selection.append(sortKey.expression);
+        if (value == null) {
+            selection.append(" IS NOT NULL");
+        } else if (sortKey.ascending) {
+            selection.append(" > ");
+            appendValue(selection, sortKey, value, selectionArgs);
+        } else {
+            selection.append(" < ");
+            appendValue(selection, sortKey, value, selectionArgs);
+
+            if (sortKey.nullable) {
+                selection.append(" OR ").append(sortKey.expression).append(" IS NULL");
+            }
+        }
+    }
+
+    private static void appendEqual(StringBuilder selection, SortKey sortKey, String value,
+            List<String> selectionArgs) {
+        selection.append(sortKey.expression);
+        if (value == null) {
+            selection.append(" IS NULL");
+        } else {
+            selection.append(" = ");
+            appendValue(selection, sortKey, value, selectionArgs);
+        }
+    }
+
+    private static void appendValue(StringBuilder selection, SortKey sortKey, String value,
+            List<String> selectionArgs) {
+        if (sortKey.text) {
+            selection.append('?');
+            selectionArgs.add(value);
+        } else {
+            // Numbers are inlined because aggregated columns have no type affinity and would compare as text
+            selection.append(value);
+        }
+    }
+
+
+    private static class SortKey {
+        final String expression;
+        final String columnName;
+        final boolean ascending;
+        final boolean text;
+        final boolean nullable;
+
+
+        SortKey(String expression, String columnName, boolean ascending, boolean text, boolean nullable) {
+            this.expression = expression;
+            this.columnName = columnName;
+            this.ascending = ascending;
+            this.text = text;
+            this.nullable = nullable;
+        }
+
+        /**
+         * @return The value of the sort key for the current row of {@code cursor}, or {@code null} for {@code NULL}.
+         */
+        String getValue(Cursor cursor) {
+            int columnIndex = cursor.getColumnIndexOrThrow(columnName);
+            if (nullable && cursor.isNull(columnIndex)) {
+                return null;
+            }
+
+            return getValue(cursor, columnIndex);
+        }
+
+        String getValue(Cursor cursor, int columnIndex) {
+            return text ? cursor.getString(columnIndex) : Long.toString(cursor.getLong(columnIndex));
+        }
+    }
+}
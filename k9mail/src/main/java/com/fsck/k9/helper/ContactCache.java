@@ -0,0 +1,113 @@
+package com.fsck.k9.helper;
+
+
+import java.util.Locale;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.provider.ContactsContract;
+import android.support.annotation.VisibleForTesting;
+import android.util.LruCache;
+
+import com.fsck.k9.K9;
+import timber.log.Timber;
+
+
+/**
+ * Caches the results of looking up email addresses in the contacts stored on the device.
+ *
+ * <p>
+ * Addresses that don't belong to a contact are cached as well, since most senders in a message list aren't
+ * contacts. Addresses are compared case-insensitively. The whole cache is cleared when anything in the contacts
+ * provider changes.
+ * </p>
+ */
+public class ContactCache {
+    static final int MAX_SIZE = 500;
+
+    /**
+     * Cached value for addresses that don't belong to a contact.
+     */
+    static final CachedContact NO_CONTACT = new CachedContact(-1, null);
+
+
+    private static ContactCache instance;
+
+    public static synchronized ContactCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ContactCache(MAX_SIZE);
+            instance.registerObserver(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+
+    private final LruCache<String, CachedContact> cache;
+
+
+    @VisibleForTesting
+    ContactCache(int maxSize) {
+        cache = new LruCache<>(maxSize);
+    }
+
+    @VisibleForTesting
+    void registerObserver(Context context) {
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        };
+
+        context.getContentResolver().registerContentObserver(ContactsContract.AUTHORITY_URI, true, observer);
+    }
+
+    /**
+     * @return The cached contact, {@link #NO_CONTACT} if the address is known not to belong to a contact, or
+     *         {@code null} if the address hasn't been looked up yet.
+     */
+    CachedContact get(String address) {
+        return cache.get(getKey(address));
+    }
+
+    void put(String address, CachedContact contact) {
+        cache.put(getKey(address), contact);
+    }
+
+    static String getKey(String address) {
+        return address.toLowerCase(Locale.US);
+    }
+
+    void invalidate() {
+        if (K9.isDebug()) {
+            Timber.d("Clearing contact cache (%d hits, %d misses)", getHitCount(), getMissCount());
+        }
+
+        cache.evictAll();
+    }
+
+    public int getHitCount() {
+        return cache.hitCount();
+    }
+
+    public int getMissCount() {
+        return cache.missCount();
+    }
+
+
+    static class CachedContact {
+        final long contactId;
+        final String name;
+
+
+        CachedContact(long contactId, String name) {
+            this.contactId = contactId;
+            this.name = name;
+        }
+
+        boolean isContact() {
+            return this != NO_CONTACT;
+        }
+    }
+}
@@ -1,15 +1,25 @@
 package com.fsck.k9.helper;
 
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.ContactsContract;
+import android.support.annotation.VisibleForTesting;
 import timber.log.Timber;
 import android.provider.ContactsContract.CommonDataKinds.Photo;
 
+import com.fsck.k9.helper.ContactCache.CachedContact;
 import com.fsck.k9.mail.Address;
 
 /**
@@ -46,6 +56,24 @@ public class Contacts {
      */
     protected static final int CONTACT_ID_INDEX = 2;
 
+    /**
+     * Array of columns to load when looking up several email addresses at once.
+     */
+    private static final String BULK_PROJECTION[] = {
+            ContactsContract.CommonDataKinds.Email.ADDRESS,
+            ContactsContract.Contacts.DISPLAY_NAME,
+            ContactsContract.CommonDataKinds.Email.CONTACT_ID
+    };
+
+    private static final int BULK_ADDRESS_INDEX = 0;
+    private static final int BULK_NAME_INDEX = 1;
+    private static final int BULK_CONTACT_ID_INDEX = 2;
+
+    /**
+     * Maximum number of email addresses looked up with one query.
+     */
+    private static final int BULK_QUERY_SIZE = 100;
+
 
     /**
      * Get instance of the Contacts class.
@@ -63,6 +91,7 @@ public class Contacts {
 
     protected Context mContext;
     protected ContentResolver mContentResolver;
+    private final ContactCache mCache;
 
 
     /**
@@ -71,8 +100,14 @@ public class Contacts {
      * @param context A {@link Context} instance.
      */
     protected Contacts(Context context) {
+        this(context, ContactCache.getInstance(context));
+    }
+
+    @VisibleForTesting
+    Contacts(Context context, ContactCache cache) {
         mContext = context;
         mContentResolver = context.getContentResolver();
+        mCache = cache;
     }
 
     /**
@@ -126,18 +161,7 @@ public class Contacts {
      *         <tt>false</tt>, otherwise.
      */
     public boolean isInContacts(final String emailAddress) {
-        boolean result = false;
-
-        final Cursor c = getContactByAddress(emailAddress);
-
-        if (c != null) {
-            if (c.getCount() > 0) {
-                result = true;
-            }
-            c.close();
-        }
-
-        return result;
+        return getCachedContact(emailAddress).isContact();
     }
 
     /**
@@ -172,18 +196,7 @@ public class Contacts {
             return null;
         }
 
-        final Cursor c = getContactByAddress(address);
-
-        String name = null;
-        if (c != null) {
-            if (c.getCount() > 0) {
-                c.moveToFirst();
-                name = c.getString(NAME_INDEX);
-            }
-            c.close();
-        }
-
-        return name;
+        return getCachedContact(address).name;
     }
 
     /**
@@ -193,18 +206,74 @@ public class Contacts {
      *        contacts to be marked as contacted.
      */
     public void markAsContacted(final Address[] addresses) {
-        //TODO: Optimize! Potentially a lot of database queries
         for (final Address address : addresses) {
-            final Cursor c = getContactByAddress(address.getAddress());
+            CachedContact contact = getCachedContact(address.getAddress());
+            if (contact.isContact()) {
+                ContactsContract.Contacts.markAsContacted(mContentResolver, contact.contactId);
+            }
+        }
+    }
+
+    /**
+     * Looks up the given email addresses with as few queries as possible and caches the results, so that subsequent
+     * calls to {@link #getNameForAddress(String)} and {@link #isInContacts(String)} don't need to query the contacts
+     * provider.
+     *
+     * @param addresses The email addresses to look up. Addresses that are already cached are skipped.
+     */
+    public void preloadContacts(Collection<String> addresses) {
+        Set<String> uncachedKeys = new HashSet<>();
+        for (String address : addresses) {
+            if (address != null && mCache.get(address) == null) {
+                uncachedKeys.add(ContactCache.getKey(address));
+            }
+        }
+
+        List<String> uncachedAddresses = new ArrayList<>(uncachedKeys);
+
+        for (int start = 0, size = uncachedAddresses.size(); start < size; start += BULK_QUERY_SIZE) {
+            int end = Math.min(start + BULK_QUERY_SIZE, size);
+            preloadContacts(uncachedAddresses.subList(start, end));
+        }
+    }
+
+    private void preloadContacts(List<String> addresses) {
+        StringBuilder selection = new StringBuilder();
+        selection.append(ContactsContract.CommonDataKinds.Email.ADDRESS);
+        selection.append(" COLLATE NOCASE IN (");
+        for (int i = 0, size = addresses.size(); i < size; i++) {
+            selection.append((i == 0) ? "?" : ",?");
+        }
+        selection.append(')');
+
+        Cursor c = mContentResolver.query(ContactsContract.CommonDataKinds.Email.CONTENT_URI, BULK_PROJECTION,
+                selection.toString(), addresses.toArray(new String[addresses.size()]), SORT_ORDER);
+        if (c == null) {
+            return;
+        }
 
-            if (c != null) {
-                if (c.getCount() > 0) {
-                    c.moveToFirst();
-                    final long personId = c.getLong(CONTACT_ID_INDEX);
-                    ContactsContract.Contacts.markAsContacted(mContentResolver, personId);
+        // Rows are sorted by preference, so the first row for each address wins
+        Map<String, CachedContact> contacts = new HashMap<>();
+        try {
+            while (c.moveToNext()) {
+                String address = c.getString(BULK_ADDRESS_INDEX);
+                if (address == null) {
+                    continue;
+                }
+
+                String key = ContactCache.getKey(address);
+                if (!contacts.containsKey(key)) {
+                    long contactId = c.getLong(BULK_CONTACT_ID_INDEX);
+                    contacts.put(key, new CachedContact(contactId, c.getString(BULK_NAME_INDEX)));
                 }
-                c.close();
             }
+        } finally {
+            c.close();
+        }
+
+        for (String address : addresses) {
+            CachedContact contact = contacts.get(ContactCache.getKey(address));
+            mCache.put(address, (contact != null) ? contact : ContactCache.NO_CONTACT);
         }
     }
 
@@ -251,6 +320,26 @@ public class Contacts {
         }
     }
 
+    private CachedContact getCachedContact(String address) {
+        CachedContact contact = mCache.get(address);
+        if (contact != null) {
+            return contact;
+        }
+
+        contact = ContactCache.NO_CONTACT;
+        final Cursor c = getContactByAddress(address);
+        if (c != null) {
+            if (c.moveToFirst()) {
+                contact = new CachedContact(c.getLong(CONTACT_ID_INDEX), c.getString(NAME_INDEX));
+            }
+            c.close();
+        }
+
+        mCache.put(address, contact);
+
+        return contact;
+    }
+
     /**
      * Return a {@link Cursor} instance that can be used to fetch information
      * about the contact with the given email address.
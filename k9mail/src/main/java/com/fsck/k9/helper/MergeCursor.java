@@ -82,6 +82,34 @@ public class MergeCursor implements Cursor {
         resetCursors();
     }
 
+    /**
+     * Hides all rows following the last row of any of the given cursors.
+     *
+     * <p>
+     * This is used when some of the cursors only contain the first part of a larger result. Rows of the other cursors
+     * that are sorted after the last row of such a cursor can't be shown yet, because rows of the incomplete cursor
+     * might belong in between.
+     * </p>
+     *
+     * @param incompleteCursors
+     *         {@code true} at the index of every cursor that only contains the first part of its result.
+     */
+    public void truncateAfterLastRowOf(boolean[] incompleteCursors) {
+        int count = getCount();
+
+        resetCursors();
+        for (int position = 0; position < count; position++) {
+            moveToNext();
+            if (incompleteCursors[mActiveCursorIndex] && mActiveCursor.isLast()) {
+                count = position + 1;
+                break;
+            }
+        }
+        resetCursors();
+
+        mCount = count;
+    }
+
     private void resetCursors() {
         mActiveCursorIndex = -1;
         mActiveCursor = null;
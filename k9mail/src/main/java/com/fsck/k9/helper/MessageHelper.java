@@ -1,6 +1,9 @@
 package com.fsck.k9.helper;
 
 
+import java.util.ArrayList;
+import java.util.List;
+
 import android.content.Context;
 import android.text.Spannable;
 import android.text.SpannableString;
@@ -105,6 +108,30 @@ public class MessageHelper {
         return displayName;
     }
 
+    /**
+     * Looks up the contact names for the given address lists in bulk, so that displaying them later doesn't need one
+     * query per address.
+     */
+    public void preloadContactNames(List<Address[]> addressLists) {
+        if (!K9.showContactName() || !K9.showCorrespondentNames()) {
+            return;
+        }
+
+        List<String> addresses = new ArrayList<>();
+        for (Address[] addressList : addressLists) {
+            // toFriendly() doesn't look up contacts for long address lists
+            if (addressList.length >= TOO_MANY_ADDRESSES) {
+                continue;
+            }
+
+            for (Address address : addressList) {
+                addresses.add(address.getAddress());
+            }
+        }
+
+        Contacts.getInstance(mContext).preloadContacts(addresses);
+    }
+
     public boolean toMe(Account account, Address[] toAddrs) {
         for (Address address : toAddrs) {
             if (account.isAnIdentity(address)) {
@@ -160,7 +187,6 @@ public class MessageHelper {
             return address.getAddress();
         } else if (contacts != null) {
             final String name = contacts.getNameForAddress(address.getAddress());
-            // TODO: The results should probably be cached for performance reasons.
             if (name != null) {
                 if (changeContactNameColor) {
                     final SpannableString coloredName = new SpannableString(name);
@@ -0,0 +1,20 @@
+package com.fsck.k9.mailstore;
+
+
+import com.fsck.k9.message.extractors.PreviewResult;
+
+
+/**
+ * Values derived from a message's content that are stored alongside the message in the database.
+ */
+class ExtractedMessageData {
+    public final PreviewResult previewResult;
+    public final String fulltext;
+    public final int attachmentCount;
+
+    public ExtractedMessageData(PreviewResult previewResult, String fulltext, int attachmentCount) {
+        this.previewResult = previewResult;
+        this.fulltext = fulltext;
+        this.attachmentCount = attachmentCount;
+    }
+}
@@ -0,0 +1,85 @@
+package com.fsck.k9.mailstore;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+/**
+ * Definition of the {@code folder_counters} table and the triggers that keep the unread and flagged counts of every
+ * folder up to date.
+ *
+ * <p>
+ * Used when creating the database from scratch and by the migration that added the table.
+ * </p>
+ */
+public class FolderCountersSchema {
+    private FolderCountersSchema() {
+    }
+
+    public static void createTableAndTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS folder_counters");
+        db.execSQL("CREATE TABLE folder_counters (" +
+                "folder_id INTEGER PRIMARY KEY, " +
+                "unread_count INTEGER NOT NULL default 0, " +
+                "flagged_count INTEGER NOT NULL default 0" +
+                ")");
+
+        db.execSQL("DROP TRIGGER IF EXISTS count_inserted_message");
+        db.execSQL("CREATE TRIGGER count_inserted_message " +
+                "AFTER INSERT ON messages " +
+                "WHEN NEW.deleted = 0 AND NEW.empty = 0 " +
+                "BEGIN " +
+                "INSERT OR IGNORE INTO folder_counters (folder_id) VALUES (NEW.folder_id); " +
+                "UPDATE folder_counters SET " +
+                "unread_count = unread_count + (NEW.read = 0), " +
+                "flagged_count = flagged_count + (NEW.flagged = 1) " +
+                "WHERE folder_id = NEW.folder_id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS count_updated_message");
+        db.execSQL("CREATE TRIGGER count_updated_message " +
+                "AFTER UPDATE OF folder_id, deleted, empty, read, flagged ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id OR OLD.deleted IS NOT NEW.deleted OR " +
+                "OLD.empty IS NOT NEW.empty OR OLD.read IS NOT NEW.read OR OLD.flagged IS NOT NEW.flagged " +
+                "BEGIN " +
+                "UPDATE folder_counters SET " +
+                "unread_count = unread_count - (OLD.read = 0), " +
+                "flagged_count = flagged_count - (OLD.flagged = 1) " +
+                "WHERE folder_id = OLD.folder_id AND OLD.deleted = 0 AND OLD.empty = 0; " +
+                "INSERT OR IGNORE INTO folder_counters (folder_id) " +
+                "SELECT NEW.folder_id WHERE NEW.deleted = 0 AND NEW.empty = 0; " +
+                "UPDATE folder_counters SET " +
+                "unread_count = unread_count + (NEW.read = 0), " +
+                "flagged_count = flagged_count + (NEW.flagged = 1) " +
+                "WHERE folder_id = NEW.folder_id AND NEW.deleted = 0 AND NEW.empty = 0; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS count_deleted_message");
+        db.execSQL("CREATE TRIGGER count_deleted_message " +
+                "AFTER DELETE ON messages " +
+                "WHEN OLD.deleted = 0 AND OLD.empty = 0 " +
+                "BEGIN " +
+                "UPDATE folder_counters SET " +
+                "unread_count = unread_count - (OLD.read = 0), " +
+                "flagged_count = flagged_count - (OLD.flagged = 1) " +
+                "WHERE folder_id = OLD.folder_id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_folder_counters");
+        db.execSQL("CREATE TRIGGER delete_folder_counters " +
+                "AFTER DELETE ON folders " +
+                "BEGIN " +
+                "DELETE FROM folder_counters WHERE folder_id = OLD.id; " +
+                "END");
+    }
+
+    /**
+     * Counts the messages of all folders. The table is expected to be empty.
+     */
+    public static void populate(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO folder_counters (folder_id, unread_count, flagged_count) " +
+                "SELECT folder_id, SUM(read = 0), SUM(flagged = 1) FROM messages " +
+                "WHERE deleted = 0 AND empty = 0 AND folder_id IS NOT NULL " +
+                "GROUP BY folder_id");
+    }
+}
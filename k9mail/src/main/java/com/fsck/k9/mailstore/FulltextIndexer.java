@@ -0,0 +1,271 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.support.annotation.WorkerThread;
+
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
+import com.fsck.k9.message.extractors.MessageFulltextCreator;
+import timber.log.Timber;
+
+
+/**
+ * Adds missing and outdated entries to the {@code messages_fulltext} table in the background.
+ *
+ * <p>
+ * The {@code fulltext_version} column of every message records the {@link MessageFulltextCreator#VERSION} its
+ * entry was created with. Messages whose parts were downloaded after they were stored, messages stored before the
+ * column existed and all messages after {@code VERSION} was increased have a lower value.
+ * {@link #indexNextBatch(int)} indexes a small batch of those messages, newest first, so it can be run as a
+ * low-priority command between other work. Because the column is only updated together with the fulltext, an
+ * interrupted run continues where it left off.
+ * </p>
+ */
+public class FulltextIndexer {
+    // Merge up to 8 segments at a time, with at most 32 pages (of usually 1 KB) of work per batch
+    private static final String MERGE_COMMAND = "merge=32,8";
+
+
+    private final LocalStore localStore;
+    private final MessageFulltextCreator fulltextCreator;
+
+    /**
+     * Only messages with a lower database ID are considered by the next batch. Makes sure messages that can't be
+     * indexed don't come up again before all other messages have been processed.
+     */
+    private long maxMessageId = Long.MAX_VALUE;
+    /**
+     * Whether any message was indexed since the last time the batches started over with the newest message.
+     */
+    private boolean indexedSinceStart = false;
+    private boolean indexChangedSinceOptimize = false;
+
+
+    FulltextIndexer(LocalStore localStore, MessageFulltextCreator fulltextCreator) {
+        this.localStore = localStore;
+        this.fulltextCreator = fulltextCreator;
+    }
+
+    /**
+     * Indexes up to {@code batchSize} messages whose fulltext is missing or outdated.
+     *
+     * @return The number of messages that were processed. {@code 0} if there are no more messages to index or if
+     *         none of the remaining messages could be indexed the last time they came up.
+     */
+    @WorkerThread
+    public synchronized int indexNextBatch(int batchSize) throws MessagingException {
+        List<PendingMessage> pendingMessages = findPendingMessages(batchSize);
+        if (pendingMessages.isEmpty() && maxMessageId != Long.MAX_VALUE) {
+            maxMessageId = Long.MAX_VALUE;
+            if (indexedSinceStart) {
+                // Start over to pick up messages that changed since we passed them
+                indexedSinceStart = false;
+                pendingMessages = findPendingMessages(batchSize);
+            }
+        }
+
+        if (pendingMessages.isEmpty()) {
+            if (indexChangedSinceOptimize) {
+                optimizeIndex();
+                indexChangedSinceOptimize = false;
+            }
+            return 0;
+        }
+
+        maxMessageId = pendingMessages.get(pendingMessages.size() - 1).id;
+
+        createFulltext(pendingMessages);
+        if (writeFulltext(pendingMessages) > 0) {
+            indexedSinceStart = true;
+            indexChangedSinceOptimize = true;
+        }
+
+        return pendingMessages.size();
+    }
+
+    @WorkerThread
+    public Progress getProgress() throws MessagingException {
+        return localStore.database.execute(false, new DbCallback<Progress>() {
+            @Override
+            public Progress doDbWork(SQLiteDatabase db) {
+                int totalCount = queryCount(db, "SELECT COUNT(*) FROM messages WHERE deleted = 0 AND empty = 0");
+                int pendingCount = queryCount(db, "SELECT COUNT(*) FROM messages " +
+                        "WHERE deleted = 0 AND empty = 0 AND fulltext_version < " + MessageFulltextCreator.VERSION);
+
+                return new Progress(totalCount - pendingCount, totalCount);
+            }
+        });
+    }
+
+    private static int queryCount(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private List<PendingMessage> findPendingMessages(final int limit) throws MessagingException {
+        return localStore.database.execute(false, new DbCallback<List<PendingMessage>>() {
+            @Override
+            public List<PendingMessage> doDbWork(SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery("SELECT m.id, m.uid, m.fulltext_version, f.name " +
+                        "FROM messages m " +
+                        "JOIN folders f ON (f.id = m.folder_id) " +
+                        "WHERE m.deleted = 0 AND m.empty = 0 AND m.fulltext_version < ? AND m.id < ? " +
+                        "ORDER BY m.id DESC " +
+                        "LIMIT ?",
+                        new String[] {
+                                Integer.toString(MessageFulltextCreator.VERSION),
+                                Long.toString(maxMessageId),
+                                Integer.toString(limit)
+                        });
+                try {
+                    List<PendingMessage> pendingMessages = new ArrayList<>(cursor.getCount());
+                    while (cursor.moveToNext()) {
+                        pendingMessages.add(new PendingMessage(cursor.getLong(0), cursor.getString(1),
+                                cursor.getInt(2), cursor.getString(3)));
+                    }
+                    return pendingMessages;
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private void createFulltext(List<PendingMessage> pendingMessages) throws MessagingException {
+        Map<String, List<PendingMessage>> messagesByFolder = new LinkedHashMap<>();
+        for (PendingMessage pendingMessage : pendingMessages) {
+            List<PendingMessage> folderMessages = messagesByFolder.get(pendingMessage.folderName);
+            if (folderMessages == null) {
+                folderMessages = new ArrayList<>();
+                messagesByFolder.put(pendingMessage.folderName, folderMessages);
+            }
+            folderMessages.add(pendingMessage);
+        }
+
+        FetchProfile fp = new FetchProfile();
+        fp.add(FetchProfile.Item.BODY);
+
+        for (Map.Entry<String, List<PendingMessage>> entry : messagesByFolder.entrySet()) {
+            LocalFolder folder = localStore.getFolder(entry.getKey());
+            folder.open(LocalFolder.OPEN_MODE_RO);
+
+            for (PendingMessage pendingMessage : entry.getValue()) {
+                LocalMessage message = folder.getMessage(pendingMessage.uid);
+                if (message == null || message.getId() != pendingMessage.id) {
+                    // Changed since we looked. The next pass will pick it up if necessary.
+                    continue;
+                }
+
+                folder.fetch(Collections.singletonList(message), fp, null);
+
+                try {
+                    pendingMessage.fulltext = fulltextCreator.createFulltext(message);
+                } catch (Exception e) {
+                    // Don't try again and again. The message is still found by its headers.
+                    Timber.e(e, "Error creating fulltext for message %d", pendingMessage.id);
+                }
+                pendingMessage.loaded = true;
+            }
+        }
+    }
+
+    private int writeFulltext(final List<PendingMessage> pendingMessages) throws MessagingException {
+        int indexedCount = localStore.database.execute(true, new DbCallback<Integer>() {
+            @Override
+            public Integer doDbWork(SQLiteDatabase db) throws WrappedException {
+                int indexedCount = 0;
+                MessageBatchWriter writer = new MessageBatchWriter(db);
+                try {
+                    for (PendingMessage pendingMessage : pendingMessages) {
+                        if (!pendingMessage.loaded ||
+                                !writer.updateFulltextVersion(pendingMessage.id, pendingMessage.fulltextVersion)) {
+                            continue;
+                        }
+
+                        if (pendingMessage.fulltext != null) {
+                            writer.replaceFulltext(pendingMessage.id, pendingMessage.fulltext);
+                        } else {
+                            writer.deleteFulltext(pendingMessage.id);
+                        }
+                        indexedCount++;
+                    }
+                } finally {
+                    writer.close();
+                }
+
+                mergeIndexSegments(db);
+
+                return indexedCount;
+            }
+        });
+
+        Timber.d("Indexed fulltext of %d out of %d messages", indexedCount, pendingMessages.size());
+
+        return indexedCount;
+    }
+
+    /**
+     * Does a bit of the work of {@link #optimizeIndex()} after every batch, so searches don't slow down while a lot
+     * of entries are added.
+     */
+    private static void mergeIndexSegments(SQLiteDatabase db) {
+        try {
+            db.execSQL("INSERT INTO messages_fulltext (messages_fulltext) VALUES (?)", new Object[] { MERGE_COMMAND });
+        } catch (SQLiteException e) {
+            // The 'merge' command requires SQLite 3.7.16 (Android 4.3); older versions only support 'optimize'
+            Timber.d(e, "Couldn't merge fulltext index segments");
+        }
+    }
+
+    private void optimizeIndex() throws MessagingException {
+        localStore.database.execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                db.execSQL("INSERT INTO messages_fulltext (messages_fulltext) VALUES ('optimize')");
+                return null;
+            }
+        });
+    }
+
+
+    public static class Progress {
+        public final int indexedCount;
+        public final int totalCount;
+
+        Progress(int indexedCount, int totalCount) {
+            this.indexedCount = indexedCount;
+            this.totalCount = totalCount;
+        }
+    }
+
+    private static class PendingMessage {
+        final long id;
+        final String uid;
+        final int fulltextVersion;
+        final String folderName;
+        boolean loaded;
+        String fulltext;
+
+        PendingMessage(long id, String uid, int fulltextVersion, String folderName) {
+            this.id = id;
+            this.uid = uid;
+            this.fulltextVersion = fulltextVersion;
+            this.folderName = folderName;
+        }
+    }
+}
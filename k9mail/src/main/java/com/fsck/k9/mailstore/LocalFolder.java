@@ -34,7 +34,6 @@ import com.fsck.k9.activity.MessageReference;
 import com.fsck.k9.activity.Search;
 import com.fsck.k9.helper.FileHelper;
 import com.fsck.k9.helper.Utility;
-import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.Body;
 import com.fsck.k9.mail.BodyPart;
 import com.fsck.k9.mail.BoundaryGenerator;
@@ -42,7 +41,6 @@ import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Message;
-import com.fsck.k9.mail.Message.RecipientType;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Multipart;
@@ -57,12 +55,7 @@ import com.fsck.k9.mail.internet.SizeAware;
 import com.fsck.k9.mail.message.MessageHeaderParser;
 import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
 import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
-import com.fsck.k9.message.extractors.AttachmentCounter;
 import com.fsck.k9.message.extractors.AttachmentInfoExtractor;
-import com.fsck.k9.message.extractors.MessageFulltextCreator;
-import com.fsck.k9.message.extractors.MessagePreviewCreator;
-import com.fsck.k9.message.extractors.PreviewResult;
-import com.fsck.k9.message.extractors.PreviewResult.PreviewType;
 import com.fsck.k9.preferences.Storage;
 import com.fsck.k9.preferences.StorageEditor;
 import org.apache.commons.io.IOUtils;
@@ -93,6 +86,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
     // know whether or not an unread message added to the local folder is actually "new" or not.
     private Integer mLastUid = null;
     private MoreMessages moreMessages = MoreMessages.UNKNOWN;
+    private long syncedUidValidity = -1L;
+    private long syncedHighestModSeq = -1L;
 
     public LocalFolder(LocalStore localStore, String name) {
         super();
@@ -206,6 +201,10 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         mSyncClass = Folder.FolderClass.valueOf((syncClass == null) ? noClass : syncClass);
         String moreMessagesValue = cursor.getString(LocalStore.MORE_MESSAGES_INDEX);
         moreMessages = MoreMessages.fromDatabaseName(moreMessagesValue);
+        syncedUidValidity = cursor.isNull(LocalStore.FOLDER_UID_VALIDITY_INDEX) ?
+                -1L : cursor.getLong(LocalStore.FOLDER_UID_VALIDITY_INDEX);
+        syncedHighestModSeq = cursor.isNull(LocalStore.FOLDER_HIGHEST_MOD_SEQ_INDEX) ?
+                -1L : cursor.getLong(LocalStore.FOLDER_HIGHEST_MOD_SEQ_INDEX);
     }
 
     @Override
@@ -316,9 +315,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                 @Override
                 public Integer doDbWork(final SQLiteDatabase db) throws WrappedException {
                     int unreadMessageCount = 0;
-                    Cursor cursor = db.query("messages", new String[] { "COUNT(id)" },
-                            "folder_id = ? AND empty = 0 AND deleted = 0 AND read=0",
-                            new String[] { Long.toString(mFolderId) }, null, null, null);
+                    Cursor cursor = db.query("folder_counters", new String[] { "unread_count" },
+                            "folder_id = ?", new String[] { Long.toString(mFolderId) }, null, null, null);
 
                     try {
                         if (cursor.moveToFirst()) {
@@ -347,9 +345,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                 @Override
                 public Integer doDbWork(final SQLiteDatabase db) throws WrappedException {
                     int flaggedMessageCount = 0;
-                    Cursor cursor = db.query("messages", new String[] { "COUNT(id)" },
-                            "folder_id = ? AND empty = 0 AND deleted = 0 AND flagged = 1",
-                            new String[] { Long.toString(mFolderId) }, null, null, null);
+                    Cursor cursor = db.query("folder_counters", new String[] { "flagged_count" },
+                            "folder_id = ?", new String[] { Long.toString(mFolderId) }, null, null, null);
 
                     try {
                         if (cursor.moveToFirst()) {
@@ -464,6 +461,45 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         return mPushState;
     }
 
+    /**
+     * @return The UIDVALIDITY of the remote folder at the time of the last successful synchronization, or -1.
+     */
+    public long getSyncedUidValidity() {
+        return syncedUidValidity;
+    }
+
+    /**
+     * @return The HIGHESTMODSEQ of the remote folder at the time of the last successful synchronization, or -1.
+     */
+    public long getSyncedHighestModSeq() {
+        return syncedHighestModSeq;
+    }
+
+    public void setSyncedModSeqState(final long uidValidity, final long highestModSeq) throws MessagingException {
+        try {
+            this.localStore.database.execute(false, new DbCallback<Void>() {
+                @Override
+                public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
+                    try {
+                        open(OPEN_MODE_RW);
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    }
+                    Object uidValidityValue = uidValidity > 0 ? uidValidity : null;
+                    Object highestModSeqValue = highestModSeq > 0 ? highestModSeq : null;
+                    db.execSQL("UPDATE folders SET uid_validity = ?, highest_mod_seq = ? WHERE id = ?",
+                            new Object[] { uidValidityValue, highestModSeqValue, mFolderId });
+                    return null;
+                }
+            });
+        } catch (WrappedException e) {
+            throw(MessagingException) e.getCause();
+        }
+
+        syncedUidValidity = uidValidity > 0 ? uidValidity : -1L;
+        syncedHighestModSeq = highestModSeq > 0 ? highestModSeq : -1L;
+    }
+
     @Override
     public FolderClass getDisplayClass() {
         return mDisplayClass;
@@ -1029,8 +1065,13 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
             this.localStore.database.execute(false, new DbCallback<Void>() {
                 @Override
                 public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
+                    MessageBatchWriter writer = new MessageBatchWriter(db);
                     try {
                         lDestFolder.open(OPEN_MODE_RW);
+
+                        MessageThreadIndex threadIndex = new MessageThreadIndex(db, lDestFolder.getId());
+                        threadIndex.preload(msgs);
+
                         for (Message message : msgs) {
                             LocalMessage lMessage = (LocalMessage)message;
 
@@ -1049,7 +1090,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                             uidMap.put(oldUID, newUid);
 
                             // Message threading in the target folder
-                            ThreadInfo threadInfo = lDestFolder.doMessageThreading(db, message);
+                            ThreadInfo threadInfo = lDestFolder.doMessageThreading(writer, threadIndex, message);
 
                             /*
                              * "Move" the message into the new folder
@@ -1126,9 +1167,13 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                             cv.put("message_id", newId);
                             db.update("threads", cv, "id = ?",
                                     new String[] { Long.toString(lMessage.getThreadId()) });
+
+                            threadIndex.invalidate(messageId);
                         }
                     } catch (MessagingException e) {
                         throw new WrappedException(e);
+                    } finally {
+                        writer.close();
                     }
                     return null;
                 }
@@ -1152,11 +1197,14 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
      * @throws MessagingException
      */
     public LocalMessage storeSmallMessage(final Message message, final Runnable runnable) throws MessagingException {
+        final List<Message> messages = Collections.singletonList(message);
+        final List<ExtractedMessageData> extractedData = localStore.getMessageDataExtractor().extract(messages);
+
         return this.localStore.database.execute(true, new DbCallback<LocalMessage>() {
             @Override
             public LocalMessage doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
                 try {
-                    appendMessages(Collections.singletonList(message));
+                    appendMessages(messages, extractedData, false);
                     final String uid = message.getUid();
                     final LocalMessage result = getMessage(uid);
                     runnable.run();
@@ -1170,6 +1218,42 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         });
     }
 
+    /**
+     * Stores a batch of messages in a single transaction and sets them as fully downloaded.
+     *
+     * <p>
+     * Preview, fulltext and attachment count of all messages are computed in parallel before the transaction is
+     * started.
+     * </p>
+     *
+     * @param messages Messages to store. Never <code>null</code>.
+     * @return The local versions of the messages, in the same order as {@code messages}.
+     * @throws MessagingException
+     */
+    public List<LocalMessage> storeSmallMessages(final List<? extends Message> messages) throws MessagingException {
+        final List<ExtractedMessageData> extractedData = localStore.getMessageDataExtractor().extract(messages);
+
+        return this.localStore.database.execute(true, new DbCallback<List<LocalMessage>>() {
+            @Override
+            public List<LocalMessage> doDbWork(final SQLiteDatabase db) throws WrappedException,
+                    UnavailableStorageException {
+                try {
+                    appendMessages(messages, extractedData, false);
+
+                    List<LocalMessage> result = new ArrayList<>(messages.size());
+                    for (Message message : messages) {
+                        LocalMessage localMessage = getMessage(message.getUid());
+                        localMessage.setFlag(Flag.X_DOWNLOADED_FULL, true);
+                        result.add(localMessage);
+                    }
+                    return result;
+                } catch (MessagingException e) {
+                    throw new WrappedException(e);
+                }
+            }
+        });
+    }
+
     /**
      * The method differs slightly from the contract; If an incoming message already has a uid
      * assigned and it matches the uid of an existing message then this message will replace the
@@ -1206,39 +1290,6 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         }
     }
 
-    private ThreadInfo getThreadInfo(SQLiteDatabase db, String messageId, boolean onlyEmpty) {
-        if (messageId == null) {
-            return null;
-        }
-
-        String sql = "SELECT t.id, t.message_id, t.root, t.parent " +
-                "FROM messages m " +
-                "LEFT JOIN threads t ON (t.message_id = m.id) " +
-                "WHERE m.folder_id = ? AND m.message_id = ? " +
-                ((onlyEmpty) ? "AND m.empty = 1 " : "") +
-                "ORDER BY m.id LIMIT 1";
-        String[] selectionArgs = { Long.toString(mFolderId), messageId };
-        Cursor cursor = db.rawQuery(sql, selectionArgs);
-
-        if (cursor != null) {
-            try {
-                if (cursor.getCount() > 0) {
-                    cursor.moveToFirst();
-                    long threadId = cursor.getLong(0);
-                    long msgId = cursor.getLong(1);
-                    long rootId = (cursor.isNull(2)) ? -1 : cursor.getLong(2);
-                    long parentId = (cursor.isNull(3)) ? -1 : cursor.getLong(3);
-
-                    return new ThreadInfo(threadId, msgId, messageId, rootId, parentId);
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-
-        return null;
-    }
-
     /**
      * The method differs slightly from the contract; If an incoming message already has a uid
      * assigned and it matches the uid of an existing message then this message will replace
@@ -1251,20 +1302,32 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
      * message, retrieve the appropriate local message instance first (if it already exists).
      * @return uidMap of srcUids -> destUids
      */
-    private Map<String, String> appendMessages(final List<? extends Message> messages, final boolean copy)
+    private Map<String, String> appendMessages(List<? extends Message> messages, boolean copy)
             throws MessagingException {
+        List<ExtractedMessageData> extractedData = localStore.getMessageDataExtractor().extract(messages);
+        return appendMessages(messages, extractedData, copy);
+    }
+
+    private Map<String, String> appendMessages(final List<? extends Message> messages,
+            final List<ExtractedMessageData> extractedData, final boolean copy) throws MessagingException {
         open(OPEN_MODE_RW);
         try {
             final Map<String, String> uidMap = new HashMap<>();
             this.localStore.database.execute(true, new DbCallback<Void>() {
                 @Override
                 public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
+                    MessageBatchWriter writer = new MessageBatchWriter(db);
                     try {
-                        for (Message message : messages) {
-                            saveMessage(db, message, copy, uidMap);
+                        MessageThreadIndex threadIndex = new MessageThreadIndex(db, mFolderId);
+                        threadIndex.preload(messages);
+
+                        for (int i = 0, end = messages.size(); i < end; i++) {
+                            saveMessage(writer, threadIndex, messages.get(i), extractedData.get(i), copy, uidMap);
                         }
                     } catch (MessagingException e) {
                         throw new WrappedException(e);
+                    } finally {
+                        writer.close();
                     }
                     return null;
                 }
@@ -1278,8 +1341,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         }
     }
 
-    protected void saveMessage(SQLiteDatabase db, Message message, boolean copy, Map<String, String> uidMap)
-            throws MessagingException {
+    protected void saveMessage(MessageBatchWriter writer, MessageThreadIndex threadIndex, Message message,
+            ExtractedMessageData extractedData, boolean copy, Map<String, String> uidMap) throws MessagingException {
         if (!(message instanceof MimeMessage)) {
             throw new Error("LocalStore can only store Messages that extend MimeMessage");
         }
@@ -1306,6 +1369,9 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
             if (oldMessage != null) {
                 oldMessageId = oldMessage.getId();
 
+                // The Message-ID of the existing row might change
+                threadIndex.invalidate(oldMessage.getMessageId());
+
                 long oldRootMessagePartId = oldMessage.getMessagePartId();
                 deleteMessagePartsAndDataFromDisk(oldRootMessagePartId);
             }
@@ -1317,95 +1383,42 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
 
         if (oldMessageId == -1) {
             // This is a new message. Do the message threading.
-            ThreadInfo threadInfo = doMessageThreading(db, message);
+            ThreadInfo threadInfo = doMessageThreading(writer, threadIndex, message);
             oldMessageId = threadInfo.msgId;
             rootId = threadInfo.rootId;
             parentId = threadInfo.parentId;
         }
 
         try {
-            MessagePreviewCreator previewCreator = localStore.getMessagePreviewCreator();
-            PreviewResult previewResult = previewCreator.createPreview(message);
-            PreviewType previewType = previewResult.getPreviewType();
-            DatabasePreviewType databasePreviewType = DatabasePreviewType.fromPreviewType(previewType);
-
-            MessageFulltextCreator fulltextCreator = localStore.getMessageFulltextCreator();
-            String fulltext = fulltextCreator.createFulltext(message);
-
-            AttachmentCounter attachmentCounter = localStore.getAttachmentCounter();
-            int attachmentCount = attachmentCounter.getAttachmentCount(message);
-
-            long rootMessagePartId = saveMessageParts(db, message);
-
-            ContentValues cv = new ContentValues();
-            cv.put("message_part_id", rootMessagePartId);
-            cv.put("uid", uid);
-            cv.put("subject", message.getSubject());
-            cv.put("sender_list", Address.pack(message.getFrom()));
-            cv.put("date", message.getSentDate() == null
-                    ? System.currentTimeMillis() : message.getSentDate().getTime());
-            cv.put("flags", this.localStore.serializeFlags(message.getFlags()));
-            cv.put("deleted", message.isSet(Flag.DELETED) ? 1 : 0);
-            cv.put("read", message.isSet(Flag.SEEN) ? 1 : 0);
-            cv.put("flagged", message.isSet(Flag.FLAGGED) ? 1 : 0);
-            cv.put("answered", message.isSet(Flag.ANSWERED) ? 1 : 0);
-            cv.put("forwarded", message.isSet(Flag.FORWARDED) ? 1 : 0);
-            cv.put("folder_id", mFolderId);
-            cv.put("to_list", Address.pack(message.getRecipients(RecipientType.TO)));
-            cv.put("cc_list", Address.pack(message.getRecipients(RecipientType.CC)));
-            cv.put("bcc_list", Address.pack(message.getRecipients(RecipientType.BCC)));
-            cv.put("reply_to_list", Address.pack(message.getReplyTo()));
-            cv.put("attachment_count", attachmentCount);
-            cv.put("internal_date", message.getInternalDate() == null
-                    ? System.currentTimeMillis() : message.getInternalDate().getTime());
-            cv.put("mime_type", message.getMimeType());
-            cv.put("empty", 0);
-
-            cv.put("preview_type", databasePreviewType.getDatabaseValue());
-            if (previewResult.isPreviewTextAvailable()) {
-                cv.put("preview", previewResult.getPreviewText());
-            } else {
-                cv.putNull("preview");
-            }
-
-            String messageId = message.getMessageId();
-            if (messageId != null) {
-                cv.put("message_id", messageId);
-            }
+            long rootMessagePartId = saveMessageParts(writer, message);
 
             if (oldMessageId == -1) {
-                msgId = db.insert("messages", "uid", cv);
+                msgId = writer.insertMessage(mFolderId, uid, rootMessagePartId, message, extractedData);
 
                 // Create entry in 'threads' table
-                cv.clear();
-                cv.put("message_id", msgId);
-
-                if (rootId != -1) {
-                    cv.put("root", rootId);
-                }
-                if (parentId != -1) {
-                    cv.put("parent", parentId);
-                }
-
-                db.insert("threads", null, cv);
+                long threadId = writer.insertThread(msgId, rootId, parentId);
+                threadIndex.addMessage(message.getMessageId(), msgId, threadId, rootId, parentId, false);
             } else {
                 msgId = oldMessageId;
-                db.update("messages", cv, "id = ?", new String[] { Long.toString(oldMessageId) });
+                writer.updateMessage(oldMessageId, mFolderId, uid, rootMessagePartId, message, extractedData);
+                threadIndex.invalidate(message.getMessageId());
             }
 
+            String fulltext = extractedData.fulltext;
             if (fulltext != null) {
-                cv.clear();
-                cv.put("docid", msgId);
-                cv.put("fulltext", fulltext);
-                db.replace("messages_fulltext", null, cv);
+                writer.replaceFulltext(msgId, fulltext);
+            } else if (msgId == oldMessageId) {
+                // Don't keep the fulltext of a previous version of the message
+                writer.deleteFulltext(msgId);
             }
         } catch (Exception e) {
             throw new MessagingException("Error appending message: " + message.getSubject(), e);
         }
     }
 
-    private long saveMessageParts(SQLiteDatabase db, Message message) throws IOException, MessagingException {
-        long rootMessagePartId = saveMessagePart(db, new PartContainer(-1, message), -1, 0);
+    private long saveMessageParts(MessageBatchWriter writer, Message message)
+            throws IOException, MessagingException {
+        long rootMessagePartId = saveMessagePart(writer, new PartContainer(-1, message), -1, 0);
 
         Stack<PartContainer> partsToSave = new Stack<>();
         addChildrenToStack(partsToSave, message, rootMessagePartId);
@@ -1413,7 +1426,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         int order = 1;
         while (!partsToSave.isEmpty()) {
             PartContainer partContainer = partsToSave.pop();
-            long messagePartId = saveMessagePart(db, partContainer, rootMessagePartId, order);
+            long messagePartId = saveMessagePart(writer, partContainer, rootMessagePartId, order);
             order++;
 
             addChildrenToStack(partsToSave, partContainer.part, messagePartId);
@@ -1422,20 +1435,25 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         return rootMessagePartId;
     }
 
-    private long saveMessagePart(SQLiteDatabase db, PartContainer partContainer, long rootMessagePartId, int order)
-            throws IOException, MessagingException {
+    private long saveMessagePart(MessageBatchWriter writer, PartContainer partContainer, long rootMessagePartId,
+            int order) throws IOException, MessagingException {
 
         Part part = partContainer.part;
 
-        ContentValues cv = new ContentValues();
-        if (rootMessagePartId != -1) {
-            cv.put("root", rootMessagePartId);
+        MessagePartRow row = new MessagePartRow();
+        row.root = rootMessagePartId;
+        row.parent = partContainer.parent;
+        row.seq = order;
+        row.serverExtra = part.getServerExtra();
+
+        File file = messagePartToRow(row, part);
+        long messagePartId = writer.insertMessagePart(row);
+
+        if (file != null) {
+            moveTemporaryFile(file, Long.toString(messagePartId));
         }
-        cv.put("parent", partContainer.parent);
-        cv.put("seq", order);
-        cv.put("server_extra", part.getServerExtra());
 
-        return updateOrInsertMessagePart(db, cv, part, INVALID_MESSAGE_PART_ID);
+        return messagePartId;
     }
 
     private void moveTemporaryFile(File tempFile, String messagePartId) throws IOException {
@@ -1443,25 +1461,11 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         FileHelper.renameOrMoveByCopying(tempFile, destinationFile);
     }
 
-    private long updateOrInsertMessagePart(SQLiteDatabase db, ContentValues cv, Part part, long existingMessagePartId)
+    private long updateOrInsertMessagePart(SQLiteDatabase db, Part part, long existingMessagePartId)
             throws IOException, MessagingException {
-        byte[] headerBytes = getHeaderBytes(part);
-
-        cv.put("mime_type", part.getMimeType());
-        cv.put("header", headerBytes);
-        cv.put("type", MessagePartType.UNKNOWN);
-
-        File file = null;
-        Body body = part.getBody();
-        if (body instanceof Multipart) {
-            multipartToContentValues(cv, (Multipart) body);
-        } else if (body == null) {
-            missingPartToContentValues(cv, part);
-        } else if (body instanceof Message) {
-            messageMarkerToContentValues(cv);
-        } else {
-            file = leafPartToContentValues(cv, part, body);
-        }
+        MessagePartRow row = new MessagePartRow();
+        File file = messagePartToRow(row, part);
+        ContentValues cv = row.toContentValues();
 
         long messagePartId;
         if (existingMessagePartId != INVALID_MESSAGE_PART_ID) {
@@ -1478,32 +1482,56 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         return messagePartId;
     }
 
-    private void multipartToContentValues(ContentValues cv, Multipart multipart) {
-        cv.put("data_location", DataLocation.CHILD_PART_CONTAINS_DATA);
-        cv.put("preamble", multipart.getPreamble());
-        cv.put("epilogue", multipart.getEpilogue());
-        cv.put("boundary", multipart.getBoundary());
+    /**
+     * @return The temporary file containing the part's body if it needs to be moved to the attachment directory,
+     *         {@code null} otherwise.
+     */
+    private File messagePartToRow(MessagePartRow row, Part part) throws IOException, MessagingException {
+        row.mimeType = part.getMimeType();
+        row.header = getHeaderBytes(part);
+        row.type = MessagePartType.UNKNOWN;
+
+        File file = null;
+        Body body = part.getBody();
+        if (body instanceof Multipart) {
+            multipartToRow(row, (Multipart) body);
+        } else if (body == null) {
+            missingPartToRow(row, part);
+        } else if (body instanceof Message) {
+            messageMarkerToRow(row);
+        } else {
+            file = leafPartToRow(row, part, body);
+        }
+
+        return file;
     }
 
-    private void missingPartToContentValues(ContentValues cv, Part part) throws MessagingException {
+    private void multipartToRow(MessagePartRow row, Multipart multipart) {
+        row.dataLocation = DataLocation.CHILD_PART_CONTAINS_DATA;
+        row.preamble = multipart.getPreamble();
+        row.epilogue = multipart.getEpilogue();
+        row.boundary = multipart.getBoundary();
+    }
+
+    private void missingPartToRow(MessagePartRow row, Part part) throws MessagingException {
         AttachmentViewInfo attachment = attachmentInfoExtractor.extractAttachmentInfoForDatabase(part);
-        cv.put("display_name", attachment.displayName);
-        cv.put("data_location", DataLocation.MISSING);
-        cv.put("decoded_body_size", attachment.size);
+        row.displayName = attachment.displayName;
+        row.dataLocation = DataLocation.MISSING;
+        row.decodedBodySize = attachment.size;
 
         if (MimeUtility.isMultipart(part.getMimeType())) {
-            cv.put("boundary", BoundaryGenerator.getInstance().generateBoundary());
+            row.boundary = BoundaryGenerator.getInstance().generateBoundary();
         }
     }
 
-    private void messageMarkerToContentValues(ContentValues cv) throws MessagingException {
-        cv.put("data_location", DataLocation.CHILD_PART_CONTAINS_DATA);
+    private void messageMarkerToRow(MessagePartRow row) throws MessagingException {
+        row.dataLocation = DataLocation.CHILD_PART_CONTAINS_DATA;
     }
 
-    private File leafPartToContentValues(ContentValues cv, Part part, Body body)
+    private File leafPartToRow(MessagePartRow row, Part part, Body body)
             throws MessagingException, IOException {
         AttachmentViewInfo attachment = attachmentInfoExtractor.extractAttachmentInfoForDatabase(part);
-        cv.put("display_name", attachment.displayName);
+        row.displayName = attachment.displayName;
 
         String encoding = getTransferEncoding(part);
 
@@ -1514,6 +1542,9 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         SizeAware sizeAwareBody = (SizeAware) body;
         long fileSize = sizeAwareBody.getSize();
 
+        // Bodies created while parsing a message already know their decoded size
+        long decodedSize = (body instanceof BinaryTempFileBody) ? ((BinaryTempFileBody) body).getDecodedSize() : -1;
+
         File file = null;
         int dataLocation;
         if (fileSize > MAX_BODY_SIZE_FOR_DATABASE) {
@@ -1521,20 +1552,19 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
 
             file = writeBodyToDiskIfNecessary(part);
 
-            long size = decodeAndCountBytes(file, encoding, fileSize);
-            cv.put("decoded_body_size", size);
+            row.decodedBodySize = (decodedSize != -1) ? decodedSize : decodeAndCountBytes(file, encoding, fileSize);
         } else {
             dataLocation = DataLocation.IN_DATABASE;
 
             byte[] bodyData = getBodyBytes(body);
-            cv.put("data", bodyData);
+            row.data = bodyData;
 
-            long size = decodeAndCountBytes(bodyData, encoding, bodyData.length);
-            cv.put("decoded_body_size", size);
+            row.decodedBodySize = (decodedSize != -1) ? decodedSize :
+                    decodeAndCountBytes(bodyData, encoding, bodyData.length);
         }
-        cv.put("data_location", dataLocation);
-        cv.put("encoding", encoding);
-        cv.put("content_id", part.getContentId());
+        row.dataLocation = dataLocation;
+        row.encoding = encoding;
+        row.contentId = part.getContentId();
 
         return file;
     }
@@ -1660,15 +1690,21 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                 }
 
                 try {
-                    updateOrInsertMessagePart(db, new ContentValues(), part, messagePartId);
+                    updateOrInsertMessagePart(db, part, messagePartId);
                 } catch (Exception e) {
                     Timber.e(e, "Error writing message part");
                 }
 
+                // Have FulltextIndexer index the message again. Every change gets a distinct value so the indexer
+                // can tell whether the parts changed while it was creating the fulltext.
+                db.execSQL("UPDATE messages SET fulltext_version = MIN(fulltext_version, 0) - 1 WHERE id = ?",
+                        new Object[] { message.getId() });
+
                 return null;
             }
         });
 
+        MessageViewInfoCache.getInstance(localStore.context).remove(message);
         localStore.notifyChange();
     }
 
@@ -1795,6 +1831,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         this.localStore.notifyChange();
 
         setPushState(null);
+        setSyncedModSeqState(-1L, -1L);
         setLastPush(0);
         setLastChecked(0);
         setVisibleLimit(getAccount().getDisplayCount());
@@ -1960,67 +1997,37 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         });
     }
 
-    private ThreadInfo doMessageThreading(SQLiteDatabase db, Message message)
-            throws MessagingException {
+    private ThreadInfo doMessageThreading(MessageBatchWriter writer, MessageThreadIndex threadIndex,
+            Message message) throws MessagingException {
         long rootId = -1;
         long parentId = -1;
 
         String messageId = message.getMessageId();
 
         // If there's already an empty message in the database, update that
-        ThreadInfo msgThreadInfo = getThreadInfo(db, messageId, true);
-
-        // Get the message IDs from the "References" header line
-        String[] referencesArray = message.getHeader("References");
-        List<String> messageIds = null;
-        if (referencesArray.length > 0) {
-            messageIds = Utility.extractMessageIds(referencesArray[0]);
-        }
-
-        // Append the first message ID from the "In-Reply-To" header line
-        String[] inReplyToArray = message.getHeader("In-Reply-To");
-        String inReplyTo;
-        if (inReplyToArray.length > 0) {
-            inReplyTo = Utility.extractMessageId(inReplyToArray[0]);
-            if (inReplyTo != null) {
-                if (messageIds == null) {
-                    messageIds = new ArrayList<>(1);
-                    messageIds.add(inReplyTo);
-                } else if (!messageIds.contains(inReplyTo)) {
-                    messageIds.add(inReplyTo);
-                }
-            }
-        }
+        ThreadInfo msgThreadInfo = threadIndex.getThreadInfo(messageId, true);
+
+        // Get the message IDs from the "References" and "In-Reply-To" header lines
+        List<String> messageIds = MessageThreadIndex.getReferencedMessageIds(message);
 
-        if (messageIds == null) {
+        if (messageIds.isEmpty()) {
             // This is not a reply, nothing to do for us.
             return (msgThreadInfo != null) ?
                     msgThreadInfo : new ThreadInfo(-1, -1, messageId, -1, -1);
         }
 
         for (String reference : messageIds) {
-            ThreadInfo threadInfo = getThreadInfo(db, reference, false);
+            ThreadInfo threadInfo = threadIndex.getThreadInfo(reference, false);
 
             if (threadInfo == null) {
                 // Create placeholder message in 'messages' table
-                ContentValues cv = new ContentValues();
-                cv.put("message_id", reference);
-                cv.put("folder_id", mFolderId);
-                cv.put("empty", 1);
-
-                long newMsgId = db.insert("messages", null, cv);
+                long newMsgId = writer.insertEmptyMessage(mFolderId, reference);
 
                 // Create entry in 'threads' table
-                cv.clear();
-                cv.put("message_id", newMsgId);
-                if (rootId != -1) {
-                    cv.put("root", rootId);
-                }
-                if (parentId != -1) {
-                    cv.put("parent", parentId);
-                }
+                long threadId = writer.insertThread(newMsgId, rootId, parentId);
+                threadIndex.addMessage(reference, newMsgId, threadId, rootId, parentId, true);
 
-                parentId = db.insert("threads", null, cv);
+                parentId = threadId;
                 if (rootId == -1) {
                     rootId = parentId;
                 }
@@ -2029,17 +2036,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                     // We found an existing root container that is not
                     // the root of our current path (References).
                     // Connect it to the current parent.
-
-                    // Let all children know who's the new root
-                    ContentValues cv = new ContentValues();
-                    cv.put("root", rootId);
-                    db.update("threads", cv, "root = ?",
-                            new String[] { Long.toString(threadInfo.threadId) });
-
-                    // Connect the message to the current parent
-                    cv.put("parent", parentId);
-                    db.update("threads", cv, "id = ?",
-                            new String[] { Long.toString(threadInfo.threadId) });
+                    writer.reattachThreadRoot(threadInfo.threadId, rootId, parentId);
+                    threadIndex.reattachThreadRoot(threadInfo.threadId, rootId, parentId);
                 } else {
                     rootId = (threadInfo.rootId == -1) ?
                             threadInfo.threadId : threadInfo.rootId;
@@ -331,6 +331,7 @@ public class LocalMessage extends MimeMessage {
             throw (MessagingException) e.getCause();
         }
 
+        MessageViewInfoCache.getInstance(localStore.context).remove(this);
         localStore.notifyChange();
     }
 
@@ -364,6 +365,7 @@ public class LocalMessage extends MimeMessage {
             throw (MessagingException) e.getCause();
         }
 
+        MessageViewInfoCache.getInstance(localStore.context).remove(this);
         localStore.notifyChange();
     }
 
@@ -437,6 +439,7 @@ public class LocalMessage extends MimeMessage {
             throw(MessagingException) e.getCause();
         }
 
+        MessageViewInfoCache.getInstance(localStore.context).remove(this);
         this.localStore.notifyChange();
     }
 
@@ -105,7 +105,8 @@ public class LocalStore extends Store implements Serializable {
 
     static final String GET_FOLDER_COLS =
         "folders.id, name, visible_limit, last_updated, status, push_state, last_pushed, " +
-        "integrate, top_group, poll_class, push_class, display_class, notify_class, more_messages";
+        "integrate, top_group, poll_class, push_class, display_class, notify_class, more_messages, " +
+        "uid_validity, highest_mod_seq";
 
     static final int FOLDER_ID_INDEX = 0;
     static final int FOLDER_NAME_INDEX = 1;
@@ -121,6 +122,8 @@ public class LocalStore extends Store implements Serializable {
     static final int FOLDER_DISPLAY_CLASS_INDEX = 11;
     static final int FOLDER_NOTIFY_CLASS_INDEX = 12;
     static final int MORE_MESSAGES_INDEX = 13;
+    static final int FOLDER_UID_VALIDITY_INDEX = 14;
+    static final int FOLDER_HIGHEST_MOD_SEQ_INDEX = 15;
 
     static final String[] UID_CHECK_PROJECTION = { "uid" };
 
@@ -153,7 +156,7 @@ public class LocalStore extends Store implements Serializable {
      */
     private static final int THREAD_FLAG_UPDATE_BATCH_SIZE = 500;
 
-    public static final int DB_VERSION = 60;
+    public static final int DB_VERSION = 64;
 
 
     public static String getColumnNameForFlag(Flag flag) {
@@ -188,6 +191,8 @@ public class LocalStore extends Store implements Serializable {
     private final MessagePreviewCreator messagePreviewCreator;
     private final MessageFulltextCreator messageFulltextCreator;
     private final AttachmentCounter attachmentCounter;
+    private final MessageDataExtractor messageDataExtractor;
+    private final FulltextIndexer fulltextIndexer;
     private final PendingCommandSerializer pendingCommandSerializer;
     final AttachmentInfoExtractor attachmentInfoExtractor;
 
@@ -203,11 +208,15 @@ public class LocalStore extends Store implements Serializable {
         this.context = context;
         mContentResolver = context.getContentResolver();
         database.setStorageProviderId(account.getLocalStorageProviderId());
+        database.setWriteAheadLoggingEnabled(K9.isDatabaseWriteAheadLoggingEnabled());
         uUid = account.getUuid();
 
         messagePreviewCreator = MessagePreviewCreator.newInstance();
         messageFulltextCreator = MessageFulltextCreator.newInstance();
         attachmentCounter = AttachmentCounter.newInstance();
+        messageDataExtractor = new MessageDataExtractor(messagePreviewCreator, messageFulltextCreator,
+                attachmentCounter);
+        fulltextIndexer = new FulltextIndexer(this, messageFulltextCreator);
         pendingCommandSerializer = PendingCommandSerializer.getInstance();
         attachmentInfoExtractor = AttachmentInfoExtractor.getInstance();
 
@@ -295,7 +304,8 @@ public class LocalStore extends Store implements Serializable {
                 }
 
                 final File dbFile = storageManager.getDatabase(uUid, database.getStorageProviderId());
-                return dbFile.length() + attachmentLength;
+                final File walFile = new File(dbFile.getPath() + "-wal");
+                return dbFile.length() + walFile.length() + attachmentLength;
             }
         });
     }
@@ -313,6 +323,9 @@ public class LocalStore extends Store implements Serializable {
             }
         });
 
+        // VACUUM rewrites the whole database. In WAL mode that ends up in the log until it's checkpointed.
+        database.checkpoint();
+
         if (K9.isDebug()) {
             Timber.i("After compaction size = %d", getSize());
         }
@@ -350,6 +363,8 @@ public class LocalStore extends Store implements Serializable {
             }
         });
 
+        MessageViewInfoCache.getInstance(context).removeAccount(mAccount.getUuid());
+
         compact();
 
         if (K9.isDebug()) {
@@ -438,10 +453,12 @@ public class LocalStore extends Store implements Serializable {
 
     public void delete() throws UnavailableStorageException {
         database.delete();
+        MessageViewInfoCache.getInstance(context).removeAccount(mAccount.getUuid());
     }
 
     public void recreate() throws UnavailableStorageException {
         database.recreate();
+        MessageViewInfoCache.getInstance(context).removeAccount(mAccount.getUuid());
     }
 
     private void deleteAllMessageDataFromDisk() throws MessagingException {
@@ -543,6 +560,18 @@ public class LocalStore extends Store implements Serializable {
         });
     }
 
+    public void removePendingCommands(final List<PendingCommand> commands) throws MessagingException {
+        database.execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
+                for (PendingCommand command : commands) {
+                    db.delete("pending_commands", "id = ?", new String[] { Long.toString(command.databaseId) });
+                }
+                return null;
+            }
+        });
+    }
+
     public void removePendingCommands() throws MessagingException {
         database.execute(false, new DbCallback<Void>() {
             @Override
@@ -986,10 +1015,18 @@ public class LocalStore extends Store implements Serializable {
         return messageFulltextCreator;
     }
 
+    public FulltextIndexer getFulltextIndexer() {
+        return fulltextIndexer;
+    }
+
     public AttachmentCounter getAttachmentCounter() {
         return attachmentCounter;
     }
 
+    MessageDataExtractor getMessageDataExtractor() {
+        return messageDataExtractor;
+    }
+
     void notifyChange() {
         Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + uUid + "/messages");
         mContentResolver.notifyChange(uri, null);
@@ -7,6 +7,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.os.Build;
@@ -140,6 +141,8 @@ public class LockableDatabase {
 
     private String uUid;
 
+    private volatile boolean writeAheadLoggingEnabled = false;
+
     /**
      * @param context
      *            Never <code>null</code>.
@@ -162,6 +165,24 @@ public class LockableDatabase {
         return mStorageProviderId;
     }
 
+    /**
+     * Enable or disable write-ahead logging.
+     *
+     * <p>
+     * In WAL mode the framework keeps a pool of read-only connections next to the primary connection. Queries run
+     * outside of a transaction, e.g. by {@code EmailProvider}, can then proceed while another thread is writing.
+     * Writes are still serialized on the primary connection. The setting takes effect the next time the database is
+     * opened and is ignored on devices older than Jelly Bean.
+     * </p>
+     */
+    public void setWriteAheadLoggingEnabled(boolean enabled) {
+        writeAheadLoggingEnabled = enabled;
+    }
+
+    public boolean isWriteAheadLoggingEnabled() {
+        return writeAheadLoggingEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
     private StorageManager getStorageManager() {
         return StorageManager.getInstance(context);
     }
@@ -373,19 +394,51 @@ public class LockableDatabase {
             } catch (SQLiteException e) {
                 // TODO handle this error in a better way!
                 Timber.w(e, "Unable to open DB %s - removing file and retrying", databaseFile);
-                if (databaseFile.exists() && !databaseFile.delete()) {
-                    Timber.d("Failed to remove %s that couldn't be opened", databaseFile);
-                }
+                // Also remove the write-ahead log; it would be applied to the newly created database otherwise
+                deleteDatabase(databaseFile);
                 doOpenOrCreateDb(databaseFile);
             }
             if (mDb.getVersion() != mSchemaDefinition.getVersion()) {
                 mSchemaDefinition.doDbUpgrade(mDb);
             }
+            if (isWriteAheadLoggingEnabled() && !mDb.enableWriteAheadLogging()) {
+                Timber.w("LockableDatabase: Unable to enable write-ahead logging for DB %s", uUid);
+            }
         } finally {
             unlockWrite();
         }
     }
 
+    /**
+     * Copy the content of the write-ahead log back into the database file and truncate the log.
+     *
+     * <p>
+     * Does nothing if write-ahead logging isn't enabled. This is meant to be called after large deletes and
+     * {@code VACUUM}, so the space isn't kept allocated by the log file.
+     * </p>
+     */
+    public void checkpoint() throws MessagingException {
+        if (!isWriteAheadLoggingEnabled()) {
+            return;
+        }
+
+        execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) throws WrappedException {
+                String mode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? "TRUNCATE" : "FULL";
+                Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(" + mode + ")", null);
+                try {
+                    if (cursor.moveToFirst() && cursor.getInt(0) != 0) {
+                        Timber.d("LockableDatabase: Checkpoint of DB %s was blocked by a reader", uUid);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                return null;
+            }
+        });
+    }
+
     private void doOpenOrCreateDb(final File databaseFile) {
         if (StorageManager.InternalStorageProvider.ID.equals(mStorageProviderId)) {
             // internal storage
@@ -507,6 +560,8 @@ public class LockableDatabase {
         } else {
             deleted = database.delete();
             deleted |= new File(database.getPath() + "-journal").delete();
+            deleted |= new File(database.getPath() + "-wal").delete();
+            deleted |= new File(database.getPath() + "-shm").delete();
         }
         if (!deleted) {
             Timber.i("LockableDatabase: deleteDatabase(): No files deleted.");
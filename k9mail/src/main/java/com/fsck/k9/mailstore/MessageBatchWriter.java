@@ -0,0 +1,306 @@
+package com.fsck.k9.mailstore;
+
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.mail.Flag;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.Message.RecipientType;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.message.extractors.MessageFulltextCreator;
+import com.fsck.k9.message.extractors.PreviewResult;
+
+
+/**
+ * Writes the rows of stored messages using precompiled statements.
+ *
+ * <p>
+ * {@link SQLiteDatabase#insert(String, String, ContentValues)} and friends build and compile a new SQL statement for
+ * every call. An instance of this class compiles each statement once and then only binds the values for every
+ * message. It's meant to be used for the duration of one transaction and has to be {@link #close() closed}
+ * afterwards.
+ * </p>
+ */
+class MessageBatchWriter {
+    private static final String MESSAGE_COLUMNS = "message_part_id, uid, subject, sender_list, date, flags, " +
+            "deleted, read, flagged, answered, forwarded, folder_id, to_list, cc_list, bcc_list, reply_to_list, " +
+            "attachment_count, internal_date, mime_type, empty, preview_type, preview, message_id, fulltext_version";
+    private static final int MESSAGE_COLUMN_COUNT = 24;
+
+    private static final String INSERT_MESSAGE = "INSERT INTO messages (" + MESSAGE_COLUMNS + ") " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Don't clear the Message-ID of an existing row if the new version of the message doesn't have one
+    private static final String UPDATE_MESSAGE = "UPDATE messages SET message_part_id = ?, uid = ?, subject = ?, " +
+            "sender_list = ?, date = ?, flags = ?, deleted = ?, read = ?, flagged = ?, answered = ?, forwarded = ?, " +
+            "folder_id = ?, to_list = ?, cc_list = ?, bcc_list = ?, reply_to_list = ?, attachment_count = ?, " +
+            "internal_date = ?, mime_type = ?, empty = ?, preview_type = ?, preview = ?, " +
+            "message_id = COALESCE(?, message_id), fulltext_version = ? WHERE id = ?";
+
+    private static final String INSERT_EMPTY_MESSAGE =
+            "INSERT INTO messages (message_id, folder_id, empty) VALUES (?, ?, 1)";
+
+    private static final String INSERT_THREAD = "INSERT INTO threads (message_id, root, parent) VALUES (?, ?, ?)";
+
+    private static final String UPDATE_THREAD_ROOT = "UPDATE threads SET root = ? WHERE root = ?";
+
+    private static final String UPDATE_THREAD_ROOT_AND_PARENT =
+            "UPDATE threads SET root = ?, parent = ? WHERE id = ?";
+
+    private static final String REPLACE_FULLTEXT =
+            "INSERT OR REPLACE INTO messages_fulltext (docid, fulltext) VALUES (?, ?)";
+
+    private static final String DELETE_FULLTEXT = "DELETE FROM messages_fulltext WHERE docid = ?";
+
+    // Only succeeds if the parts of the message haven't changed since the fulltext was created
+    private static final String UPDATE_FULLTEXT_VERSION =
+            "UPDATE messages SET fulltext_version = ? WHERE id = ? AND fulltext_version = ?";
+
+    private static final String INSERT_MESSAGE_PART = "INSERT INTO message_parts (type, root, parent, seq, " +
+            "mime_type, decoded_body_size, display_name, header, encoding, charset, data_location, data, preamble, " +
+            "epilogue, boundary, content_id, server_extra) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+
+    private final SQLiteDatabase db;
+
+    private SQLiteStatement insertMessage;
+    private SQLiteStatement updateMessage;
+    private SQLiteStatement insertEmptyMessage;
+    private SQLiteStatement insertThread;
+    private SQLiteStatement updateThreadRoot;
+    private SQLiteStatement updateThreadRootAndParent;
+    private SQLiteStatement replaceFulltext;
+    private SQLiteStatement deleteFulltext;
+    private SQLiteStatement updateFulltextVersion;
+    private SQLiteStatement insertMessagePart;
+
+
+    MessageBatchWriter(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    public long insertMessage(long folderId, String uid, long messagePartId, Message message,
+            ExtractedMessageData extractedData) throws MessagingException {
+        if (insertMessage == null) {
+            insertMessage = db.compileStatement(INSERT_MESSAGE);
+        }
+
+        bindMessage(insertMessage, folderId, uid, messagePartId, message, extractedData);
+        return insertMessage.executeInsert();
+    }
+
+    public void updateMessage(long id, long folderId, String uid, long messagePartId, Message message,
+            ExtractedMessageData extractedData) throws MessagingException {
+        if (updateMessage == null) {
+            updateMessage = db.compileStatement(UPDATE_MESSAGE);
+        }
+
+        bindMessage(updateMessage, folderId, uid, messagePartId, message, extractedData);
+        updateMessage.bindLong(MESSAGE_COLUMN_COUNT + 1, id);
+        updateMessage.executeUpdateDelete();
+    }
+
+    /**
+     * Inserts a placeholder row for a message that is referenced by another message but hasn't been stored.
+     */
+    public long insertEmptyMessage(long folderId, String messageId) {
+        if (insertEmptyMessage == null) {
+            insertEmptyMessage = db.compileStatement(INSERT_EMPTY_MESSAGE);
+        }
+
+        insertEmptyMessage.bindString(1, messageId);
+        insertEmptyMessage.bindLong(2, folderId);
+        return insertEmptyMessage.executeInsert();
+    }
+
+    /**
+     * @param rootId The ID of the thread's root entry or -1 if the new entry is the root.
+     * @param parentId The ID of the parent entry or -1 if the new entry doesn't have a parent.
+     */
+    public long insertThread(long messageId, long rootId, long parentId) {
+        if (insertThread == null) {
+            insertThread = db.compileStatement(INSERT_THREAD);
+        }
+
+        insertThread.bindLong(1, messageId);
+        bindIdOrNull(insertThread, 2, rootId);
+        bindIdOrNull(insertThread, 3, parentId);
+        return insertThread.executeInsert();
+    }
+
+    /**
+     * Attaches the thread with the root entry {@code oldRootThreadId} to the entry {@code parentId} of the thread
+     * with the root entry {@code newRootThreadId}.
+     */
+    public void reattachThreadRoot(long oldRootThreadId, long newRootThreadId, long parentId) {
+        if (updateThreadRoot == null) {
+            updateThreadRoot = db.compileStatement(UPDATE_THREAD_ROOT);
+            updateThreadRootAndParent = db.compileStatement(UPDATE_THREAD_ROOT_AND_PARENT);
+        }
+
+        // Let all children know who's the new root
+        updateThreadRoot.bindLong(1, newRootThreadId);
+        updateThreadRoot.bindLong(2, oldRootThreadId);
+        updateThreadRoot.executeUpdateDelete();
+
+        updateThreadRootAndParent.bindLong(1, newRootThreadId);
+        bindIdOrNull(updateThreadRootAndParent, 2, parentId);
+        updateThreadRootAndParent.bindLong(3, oldRootThreadId);
+        updateThreadRootAndParent.executeUpdateDelete();
+    }
+
+    public void replaceFulltext(long messageId, String fulltext) {
+        if (replaceFulltext == null) {
+            replaceFulltext = db.compileStatement(REPLACE_FULLTEXT);
+        }
+
+        replaceFulltext.bindLong(1, messageId);
+        replaceFulltext.bindString(2, fulltext);
+        replaceFulltext.executeInsert();
+    }
+
+    public void deleteFulltext(long messageId) {
+        if (deleteFulltext == null) {
+            deleteFulltext = db.compileStatement(DELETE_FULLTEXT);
+        }
+
+        deleteFulltext.bindLong(1, messageId);
+        deleteFulltext.executeUpdateDelete();
+    }
+
+    /**
+     * Records that the fulltext of a message was created with {@link MessageFulltextCreator#VERSION}.
+     *
+     * @param expectedVersion The value of the {@code fulltext_version} column when the message was loaded.
+     *
+     * @return {@code true} if the column still had the expected value and was updated. {@code false} if the message
+     *         was deleted or changed in the meantime.
+     */
+    public boolean updateFulltextVersion(long messageId, int expectedVersion) {
+        if (updateFulltextVersion == null) {
+            updateFulltextVersion = db.compileStatement(UPDATE_FULLTEXT_VERSION);
+        }
+
+        updateFulltextVersion.bindLong(1, MessageFulltextCreator.VERSION);
+        updateFulltextVersion.bindLong(2, messageId);
+        updateFulltextVersion.bindLong(3, expectedVersion);
+        return updateFulltextVersion.executeUpdateDelete() == 1;
+    }
+
+    public long insertMessagePart(MessagePartRow part) {
+        if (insertMessagePart == null) {
+            insertMessagePart = db.compileStatement(INSERT_MESSAGE_PART);
+        }
+
+        bindMessagePart(insertMessagePart, part);
+        return insertMessagePart.executeInsert();
+    }
+
+    public void close() {
+        closeStatement(insertMessage);
+        closeStatement(updateMessage);
+        closeStatement(insertEmptyMessage);
+        closeStatement(insertThread);
+        closeStatement(updateThreadRoot);
+        closeStatement(updateThreadRootAndParent);
+        closeStatement(replaceFulltext);
+        closeStatement(deleteFulltext);
+        closeStatement(updateFulltextVersion);
+        closeStatement(insertMessagePart);
+    }
+
+    private static void bindMessage(SQLiteStatement statement, long folderId, String uid, long messagePartId,
+            Message message, ExtractedMessageData extractedData) throws MessagingException {
+        PreviewResult previewResult = extractedData.previewResult;
+        DatabasePreviewType databasePreviewType =
+                DatabasePreviewType.fromPreviewType(previewResult.getPreviewType());
+        long now = System.currentTimeMillis();
+
+        statement.bindLong(1, messagePartId);
+        statement.bindString(2, uid);
+        bindStringOrNull(statement, 3, message.getSubject());
+        bindStringOrNull(statement, 4, Address.pack(message.getFrom()));
+        statement.bindLong(5, message.getSentDate() == null ? now : message.getSentDate().getTime());
+        statement.bindString(6, LocalStore.serializeFlags(message.getFlags()));
+        statement.bindLong(7, message.isSet(Flag.DELETED) ? 1 : 0);
+        statement.bindLong(8, message.isSet(Flag.SEEN) ? 1 : 0);
+        statement.bindLong(9, message.isSet(Flag.FLAGGED) ? 1 : 0);
+        statement.bindLong(10, message.isSet(Flag.ANSWERED) ? 1 : 0);
+        statement.bindLong(11, message.isSet(Flag.FORWARDED) ? 1 : 0);
+        statement.bindLong(12, folderId);
+        bindStringOrNull(statement, 13, Address.pack(message.getRecipients(RecipientType.TO)));
+        bindStringOrNull(statement, 14, Address.pack(message.getRecipients(RecipientType.CC)));
+        bindStringOrNull(statement, 15, Address.pack(message.getRecipients(RecipientType.BCC)));
+        bindStringOrNull(statement, 16, Address.pack(message.getReplyTo()));
+        statement.bindLong(17, extractedData.attachmentCount);
+        statement.bindLong(18, message.getInternalDate() == null ? now : message.getInternalDate().getTime());
+        bindStringOrNull(statement, 19, message.getMimeType());
+        statement.bindLong(20, 0);
+        statement.bindString(21, databasePreviewType.getDatabaseValue());
+        bindStringOrNull(statement, 22, previewResult.isPreviewTextAvailable() ? previewResult.getPreviewText() : null);
+        bindStringOrNull(statement, 23, message.getMessageId());
+        statement.bindLong(24, MessageFulltextCreator.VERSION);
+    }
+
+    private static void bindMessagePart(SQLiteStatement statement, MessagePartRow part) {
+        statement.bindLong(1, part.type);
+        bindIdOrNull(statement, 2, part.root);
+        statement.bindLong(3, part.parent);
+        statement.bindLong(4, part.seq);
+        bindStringOrNull(statement, 5, part.mimeType);
+        bindLongOrNull(statement, 6, part.decodedBodySize);
+        bindStringOrNull(statement, 7, part.displayName);
+        bindBlobOrNull(statement, 8, part.header);
+        bindStringOrNull(statement, 9, part.encoding);
+        bindStringOrNull(statement, 10, part.charset);
+        statement.bindLong(11, part.dataLocation);
+        bindBlobOrNull(statement, 12, part.data);
+        bindBlobOrNull(statement, 13, part.preamble);
+        bindBlobOrNull(statement, 14, part.epilogue);
+        bindStringOrNull(statement, 15, part.boundary);
+        bindStringOrNull(statement, 16, part.contentId);
+        bindStringOrNull(statement, 17, part.serverExtra);
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void bindLongOrNull(SQLiteStatement statement, int index, Long value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
+    private static void bindBlobOrNull(SQLiteStatement statement, int index, byte[] value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindBlob(index, value);
+        }
+    }
+
+    private static void bindIdOrNull(SQLiteStatement statement, int index, long id) {
+        if (id == -1) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, id);
+        }
+    }
+
+    private static void closeStatement(SQLiteStatement statement) {
+        if (statement != null) {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.message.extractors.AttachmentCounter;
+import com.fsck.k9.message.extractors.MessageFulltextCreator;
+import com.fsck.k9.message.extractors.MessagePreviewCreator;
+import com.fsck.k9.message.extractors.PreviewResult;
+
+
+/**
+ * Computes preview, fulltext and attachment count of messages before they are written to the database.
+ *
+ * <p>
+ * Extracting these values may require converting HTML to text, which is too expensive to do while holding a
+ * database transaction open. Batches of messages are processed in parallel using one thread per CPU core.
+ * </p>
+ */
+class MessageDataExtractor {
+    private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static ExecutorService executor;
+
+
+    private final MessagePreviewCreator messagePreviewCreator;
+    private final MessageFulltextCreator messageFulltextCreator;
+    private final AttachmentCounter attachmentCounter;
+
+
+    MessageDataExtractor(MessagePreviewCreator messagePreviewCreator, MessageFulltextCreator messageFulltextCreator,
+            AttachmentCounter attachmentCounter) {
+        this.messagePreviewCreator = messagePreviewCreator;
+        this.messageFulltextCreator = messageFulltextCreator;
+        this.attachmentCounter = attachmentCounter;
+    }
+
+    public ExtractedMessageData extract(Message message) throws MessagingException {
+        try {
+            PreviewResult previewResult = messagePreviewCreator.createPreview(message);
+            String fulltext = messageFulltextCreator.createFulltext(message);
+            int attachmentCount = attachmentCounter.getAttachmentCount(message);
+
+            return new ExtractedMessageData(previewResult, fulltext, attachmentCount);
+        } catch (MessagingException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MessagingException("Error extracting data from message: " + message.getSubject(), e);
+        }
+    }
+
+    /**
+     * Extracts the data of all messages.
+     *
+     * @return A list containing the extracted data of {@code messages[i]} at index {@code i}.
+     */
+    public List<ExtractedMessageData> extract(List<? extends Message> messages) throws MessagingException {
+        if (messages.size() == 1 || THREAD_COUNT == 1) {
+            return extractSequentially(messages);
+        }
+
+        List<Future<ExtractedMessageData>> futures = new ArrayList<>(messages.size());
+        ExecutorService executor = getExecutor();
+        for (final Message message : messages) {
+            futures.add(executor.submit(new Callable<ExtractedMessageData>() {
+                @Override
+                public ExtractedMessageData call() throws Exception {
+                    return extract(message);
+                }
+            }));
+        }
+
+        List<ExtractedMessageData> result = new ArrayList<>(messages.size());
+        try {
+            for (Future<ExtractedMessageData> future : futures) {
+                result.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while extracting message data", e);
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof MessagingException) {
+                throw (MessagingException) cause;
+            }
+            throw new MessagingException("Error extracting message data", cause);
+        }
+
+        return result;
+    }
+
+    private List<ExtractedMessageData> extractSequentially(List<? extends Message> messages)
+            throws MessagingException {
+        if (messages.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<ExtractedMessageData> result = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            result.add(extract(message));
+        }
+        return result;
+    }
+
+    private static void cancelAll(List<Future<ExtractedMessageData>> futures) {
+        for (Future<ExtractedMessageData> future : futures) {
+            future.cancel(false);
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREAD_COUNT, new ExtractorThreadFactory());
+        }
+        return executor;
+    }
+
+
+    private static class ExtractorThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "MessageDataExtractor-" + threadNumber.getAndIncrement());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.fsck.k9.mailstore;
+
+
+import android.content.ContentValues;
+
+import com.fsck.k9.mailstore.LocalFolder.MessagePartType;
+
+
+/**
+ * The values of a row in the {@code message_parts} table.
+ *
+ * <p>
+ * {@link MessageBatchWriter#insertMessagePart(MessagePartRow)} binds these fields directly to a precompiled
+ * statement. {@code null} values and the ID {@code -1} for {@link #root} are stored as {@code NULL}.
+ * </p>
+ */
+class MessagePartRow {
+    public int type = MessagePartType.UNKNOWN;
+    public long root = -1;
+    public long parent = -1;
+    public int seq;
+    public String mimeType;
+    public Long decodedBodySize;
+    public String displayName;
+    public byte[] header;
+    public String encoding;
+    public String charset;
+    public int dataLocation;
+    public byte[] data;
+    public byte[] preamble;
+    public byte[] epilogue;
+    public String boundary;
+    public String contentId;
+    public String serverExtra;
+
+
+    /**
+     * Returns the columns describing the content of the part.
+     *
+     * <p>
+     * The position of the part in the message ({@code root}, {@code parent}, {@code seq}) and {@code server_extra}
+     * are left out, so the result can be used to update the row of an existing part.
+     * </p>
+     */
+    public ContentValues toContentValues() {
+        ContentValues cv = new ContentValues();
+        cv.put("type", type);
+        cv.put("mime_type", mimeType);
+        cv.put("decoded_body_size", decodedBodySize);
+        cv.put("display_name", displayName);
+        cv.put("header", header);
+        cv.put("encoding", encoding);
+        cv.put("charset", charset);
+        cv.put("data_location", dataLocation);
+        cv.put("data", data);
+        cv.put("preamble", preamble);
+        cv.put("epilogue", epilogue);
+        cv.put("boundary", boundary);
+        cv.put("content_id", contentId);
+        return cv;
+    }
+}
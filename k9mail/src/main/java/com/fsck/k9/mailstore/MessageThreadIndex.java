@@ -0,0 +1,232 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.helper.Utility;
+import com.fsck.k9.mail.Message;
+
+
+/**
+ * Maps Message-IDs to the entries of the {@code threads} table of one folder while messages are threaded.
+ *
+ * <p>
+ * Threading a message looks up its own Message-ID and every Message-ID in its {@code References} and
+ * {@code In-Reply-To} headers. {@link #preload(Collection)} fetches the entries for all Message-IDs of a batch of
+ * messages with a few queries. Message-IDs that weren't preloaded are queried when they're first looked up. Changes
+ * made while threading are applied to the index, so it stays valid for the duration of one transaction.
+ * </p>
+ */
+class MessageThreadIndex {
+    /**
+     * Number of Message-IDs per query. Has to stay below SQLite's limit of 999 variables per statement.
+     */
+    private static final int PRELOAD_CHUNK_SIZE = 500;
+
+
+    private final SQLiteDatabase db;
+    private final long folderId;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+
+    MessageThreadIndex(SQLiteDatabase db, long folderId) {
+        this.db = db;
+        this.folderId = folderId;
+    }
+
+    /**
+     * Loads the entries for all Message-IDs threading the given messages will look up.
+     */
+    void preload(Collection<? extends Message> messages) {
+        Set<String> messageIds = new LinkedHashSet<>();
+        for (Message message : messages) {
+            String messageId = message.getMessageId();
+            if (messageId != null) {
+                messageIds.add(messageId);
+            }
+            messageIds.addAll(getReferencedMessageIds(message));
+        }
+        messageIds.removeAll(entries.keySet());
+
+        List<String> chunk = new ArrayList<>(PRELOAD_CHUNK_SIZE);
+        for (String messageId : messageIds) {
+            chunk.add(messageId);
+            if (chunk.size() == PRELOAD_CHUNK_SIZE) {
+                loadEntries(chunk);
+                chunk.clear();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            loadEntries(chunk);
+        }
+    }
+
+    /**
+     * @return The Message-IDs from the {@code References} header followed by the first Message-ID from the
+     *         {@code In-Reply-To} header if it's not already part of the former.
+     */
+    static List<String> getReferencedMessageIds(Message message) {
+        List<String> messageIds = null;
+
+        String[] referencesArray = message.getHeader("References");
+        if (referencesArray.length > 0) {
+            messageIds = Utility.extractMessageIds(referencesArray[0]);
+        }
+
+        String[] inReplyToArray = message.getHeader("In-Reply-To");
+        if (inReplyToArray.length > 0) {
+            String inReplyTo = Utility.extractMessageId(inReplyToArray[0]);
+            if (inReplyTo != null) {
+                if (messageIds == null) {
+                    messageIds = new ArrayList<>(1);
+                    messageIds.add(inReplyTo);
+                } else if (!messageIds.contains(inReplyTo)) {
+                    messageIds.add(inReplyTo);
+                }
+            }
+        }
+
+        return (messageIds != null) ? messageIds : Collections.<String>emptyList();
+    }
+
+    /**
+     * @param onlyEmpty {@code true} to only consider placeholders for messages that haven't been stored (yet).
+     *
+     * @return The entry of the message with the lowest database ID with the given Message-ID, or {@code null} if
+     *         there's no such message in the folder.
+     */
+    ThreadInfo getThreadInfo(String messageId, boolean onlyEmpty) {
+        if (messageId == null) {
+            return null;
+        }
+
+        Entry entry = entries.get(messageId);
+        if (entry == null) {
+            loadEntries(Collections.singletonList(messageId));
+            entry = entries.get(messageId);
+        }
+
+        return onlyEmpty ? entry.firstEmpty : entry.first;
+    }
+
+    /**
+     * Records a newly inserted message row and its {@code threads} entry.
+     *
+     * @param rootId The root passed to {@link MessageBatchWriter#insertThread(long, long, long)}. For {@code -1} the
+     *         {@code set_thread_root} trigger makes the new entry its own root, so that's what is recorded.
+     */
+    void addMessage(String messageId, long msgId, long threadId, long rootId, long parentId, boolean empty) {
+        if (messageId == null) {
+            return;
+        }
+
+        Entry entry = entries.get(messageId);
+        if (entry == null) {
+            // Not loaded yet. Loading it later will find the new row.
+            return;
+        }
+
+        long effectiveRootId = (rootId == -1) ? threadId : rootId;
+        ThreadInfo threadInfo = new ThreadInfo(threadId, msgId, messageId, effectiveRootId, parentId);
+        if (entry.first == null) {
+            entry.first = threadInfo;
+        }
+        if (empty && entry.firstEmpty == null) {
+            entry.firstEmpty = threadInfo;
+        }
+    }
+
+    /**
+     * Forgets the entries for a Message-ID, e.g. after an existing message row was updated. They are queried again
+     * when needed.
+     */
+    void invalidate(String messageId) {
+        if (messageId != null) {
+            entries.remove(messageId);
+        }
+    }
+
+    /**
+     * Applies the changes of {@link MessageBatchWriter#reattachThreadRoot(long, long, long)} to the index.
+     */
+    void reattachThreadRoot(long oldRootThreadId, long newRootThreadId, long parentId) {
+        for (Entry entry : entries.values()) {
+            entry.first = reattach(entry.first, oldRootThreadId, newRootThreadId, parentId);
+            entry.firstEmpty = reattach(entry.firstEmpty, oldRootThreadId, newRootThreadId, parentId);
+        }
+    }
+
+    private static ThreadInfo reattach(ThreadInfo threadInfo, long oldRootThreadId, long newRootThreadId,
+            long parentId) {
+        if (threadInfo == null) {
+            return null;
+        } else if (threadInfo.threadId == oldRootThreadId) {
+            return new ThreadInfo(threadInfo.threadId, threadInfo.msgId, threadInfo.messageId, newRootThreadId,
+                    parentId);
+        } else if (threadInfo.rootId == oldRootThreadId) {
+            return new ThreadInfo(threadInfo.threadId, threadInfo.msgId, threadInfo.messageId, newRootThreadId,
+                    threadInfo.parentId);
+        }
+
+        return threadInfo;
+    }
+
+    private void loadEntries(List<String> messageIds) {
+        StringBuilder sql = new StringBuilder("SELECT m.message_id, m.empty, t.id, m.id, t.root, t.parent " +
+                "FROM messages m " +
+                "LEFT JOIN threads t ON (t.message_id = m.id) " +
+                "WHERE m.folder_id = ? AND m.message_id IN (");
+        String[] selectionArgs = new String[messageIds.size() + 1];
+        selectionArgs[0] = Long.toString(folderId);
+        for (int i = 0, size = messageIds.size(); i < size; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+            selectionArgs[i + 1] = messageIds.get(i);
+            entries.put(messageIds.get(i), new Entry());
+        }
+        sql.append(") ORDER BY m.id");
+
+        Cursor cursor = db.rawQuery(sql.toString(), selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                String messageId = cursor.getString(0);
+                Entry entry = entries.get(messageId);
+                boolean empty = cursor.getInt(1) == 1;
+                if (entry.first != null && (!empty || entry.firstEmpty != null)) {
+                    continue;
+                }
+
+                long threadId = cursor.getLong(2);
+                long msgId = cursor.getLong(3);
+                long rootId = (cursor.isNull(4)) ? -1 : cursor.getLong(4);
+                long parentId = (cursor.isNull(5)) ? -1 : cursor.getLong(5);
+                ThreadInfo threadInfo = new ThreadInfo(threadId, msgId, messageId, rootId, parentId);
+
+                if (entry.first == null) {
+                    entry.first = threadInfo;
+                }
+                if (empty && entry.firstEmpty == null) {
+                    entry.firstEmpty = threadInfo;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    private static class Entry {
+        ThreadInfo first;
+        ThreadInfo firstEmpty;
+    }
+}
@@ -0,0 +1,287 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.fsck.k9.K9;
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.Multipart;
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.filter.Hex;
+import org.apache.commons.io.IOUtils;
+import timber.log.Timber;
+
+
+/**
+ * Stores the sanitized HTML that {@link MessageViewInfoExtractor} generates for a message, so that reopening a
+ * message doesn't require converting and sanitizing its text parts again.
+ *
+ * <p>
+ * Every entry is a file in the app's cache directory named after the account and the database ID of the message.
+ * The file starts with a fingerprint of the message's MIME structure. When parts of a message are downloaded later
+ * the fingerprint changes and the cached entry is ignored. Least recently used entries are deleted when the total
+ * size of the cache exceeds {@link #MAX_SIZE}.
+ * </p>
+ */
+public class MessageViewInfoCache {
+    private static final String CACHE_DIRECTORY = "message_view";
+    private static final int CACHE_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final long MAX_SIZE = 10 * 1024 * 1024;
+
+
+    private static MessageViewInfoCache instance;
+
+    public static synchronized MessageViewInfoCache getInstance(Context context) {
+        if (instance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), CACHE_DIRECTORY);
+            instance = new MessageViewInfoCache(directory, MAX_SIZE);
+        }
+
+        return instance;
+    }
+
+
+    private final File directory;
+    private final long maxSize;
+    private long totalSize = -1;
+
+
+    @VisibleForTesting
+    MessageViewInfoCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Computes the fingerprint of a message's MIME structure.
+     *
+     * @return The fingerprint, or {@code null} if the message is not stored in a {@link LocalStore}.
+     */
+    @Nullable
+    public static String getFingerprint(Part message) {
+        if (!(message instanceof LocalMessage)) {
+            return null;
+        }
+
+        LocalMessage localMessage = (LocalMessage) message;
+        StringBuilder structure = new StringBuilder();
+        structure.append(CACHE_VERSION).append(';')
+                .append(Locale.getDefault()).append(';')
+                .append(localMessage.getUid()).append(';')
+                .append(localMessage.getMessagePartId()).append(';');
+        appendStructure(structure, message);
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return Hex.encodeHex(digest.digest(structure.toString().getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void appendStructure(StringBuilder structure, Part part) {
+        if (part instanceof LocalPart) {
+            LocalPart localPart = (LocalPart) part;
+            structure.append(localPart.getId()).append(':').append(localPart.getSize()).append(':');
+        }
+
+        Body body = part.getBody();
+        structure.append(part.getMimeType()).append(':').append(body != null ? '+' : '-');
+
+        if (body instanceof Multipart) {
+            structure.append('[');
+            for (Part bodyPart : ((Multipart) body).getBodyParts()) {
+                appendStructure(structure, bodyPart);
+                structure.append(',');
+            }
+            structure.append(']');
+        } else if (body instanceof Part) {
+            structure.append('(');
+            appendStructure(structure, (Part) body);
+            structure.append(')');
+        }
+    }
+
+    /**
+     * @return The cached HTML, or {@code null} if there is no entry for the message or it was created for a different
+     *         fingerprint.
+     */
+    @WorkerThread
+    @Nullable
+    public synchronized String get(LocalMessage message, String fingerprint) {
+        File file = getFile(message);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != CACHE_VERSION || !fingerprint.equals(in.readUTF())) {
+                return null;
+            }
+
+            byte[] html = new byte[in.readInt()];
+            in.readFully(html);
+
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                Timber.w("Couldn't update modification time of %s", file);
+            }
+
+            return new String(html, UTF_8);
+        } catch (IOException e) {
+            Timber.w(e, "Error reading cached message view of message %d", message.getId());
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    @WorkerThread
+    public synchronized void put(LocalMessage message, String fingerprint, String html) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Timber.e("Error creating directory: %s", directory.getAbsolutePath());
+            return;
+        }
+
+        ensureTotalSize();
+
+        File file = getFile(message);
+        totalSize -= file.length();
+
+        DataOutputStream out = null;
+        try {
+            byte[] htmlBytes = html.getBytes(UTF_8);
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(CACHE_VERSION);
+            out.writeUTF(fingerprint);
+            out.writeInt(htmlBytes.length);
+            out.write(htmlBytes);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            Timber.w(e, "Error writing cached message view of message %d", message.getId());
+            IOUtils.closeQuietly(out);
+            deleteFile(file);
+            return;
+        }
+
+        totalSize += file.length();
+        trimToSize();
+    }
+
+    /**
+     * Removes the cached entry for a message, e.g. because parts of it were downloaded or because it was deleted.
+     */
+    public synchronized void remove(LocalMessage message) {
+        File file = getFile(message);
+        if (file.exists()) {
+            long size = file.length();
+            if (deleteFile(file) && totalSize != -1) {
+                totalSize -= size;
+            }
+        }
+    }
+
+    /**
+     * Removes all cached entries for an account, e.g. because its local store was cleared.
+     */
+    public synchronized void removeAccount(String accountUuid) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        String prefix = accountUuid + "_";
+        for (File file : files) {
+            if (file.getName().startsWith(prefix)) {
+                deleteFile(file);
+            }
+        }
+
+        totalSize = -1;
+    }
+
+    private File getFile(LocalMessage message) {
+        return new File(directory, message.getAccount().getUuid() + "_" + message.getId());
+    }
+
+    private void ensureTotalSize() {
+        if (totalSize != -1) {
+            return;
+        }
+
+        totalSize = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                totalSize += file.length();
+            }
+        }
+    }
+
+    private void trimToSize() {
+        if (totalSize <= maxSize) {
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsLastModified = lhs.lastModified();
+                long rhsLastModified = rhs.lastModified();
+                return lhsLastModified < rhsLastModified ? -1 : (lhsLastModified == rhsLastModified ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+
+            long size = file.length();
+            if (deleteFile(file)) {
+                totalSize -= size;
+            }
+        }
+
+        if (K9.isDebug()) {
+            Timber.d("Trimmed message view cache to %d bytes", totalSize);
+        }
+    }
+
+    private static boolean deleteFile(File file) {
+        boolean deleted = file.delete();
+        if (!deleted) {
+            Timber.w("Couldn't delete %s", file);
+        }
+
+        return deleted;
+    }
+}
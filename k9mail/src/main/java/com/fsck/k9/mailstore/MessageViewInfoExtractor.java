@@ -50,21 +50,31 @@ public class MessageViewInfoExtractor {
     private final Context context;
     private final AttachmentInfoExtractor attachmentInfoExtractor;
     private final HtmlProcessor htmlProcessor;
+    @Nullable
+    private final MessageViewInfoCache messageViewInfoCache;
 
 
     public static MessageViewInfoExtractor getInstance() {
         Context context = Globals.getContext();
         AttachmentInfoExtractor attachmentInfoExtractor = AttachmentInfoExtractor.getInstance();
         HtmlProcessor htmlProcessor = HtmlProcessor.newInstance();
-        return new MessageViewInfoExtractor(context, attachmentInfoExtractor, htmlProcessor);
+        MessageViewInfoCache messageViewInfoCache = MessageViewInfoCache.getInstance(context);
+        return new MessageViewInfoExtractor(context, attachmentInfoExtractor, htmlProcessor, messageViewInfoCache);
     }
 
     @VisibleForTesting
     MessageViewInfoExtractor(Context context, AttachmentInfoExtractor attachmentInfoExtractor,
             HtmlProcessor htmlProcessor) {
+        this(context, attachmentInfoExtractor, htmlProcessor, null);
+    }
+
+    @VisibleForTesting
+    MessageViewInfoExtractor(Context context, AttachmentInfoExtractor attachmentInfoExtractor,
+            HtmlProcessor htmlProcessor, @Nullable MessageViewInfoCache messageViewInfoCache) {
         this.context = context;
         this.attachmentInfoExtractor = attachmentInfoExtractor;
         this.htmlProcessor = htmlProcessor;
+        this.messageViewInfoCache = messageViewInfoCache;
     }
 
     @WorkerThread
@@ -88,9 +98,25 @@ public class MessageViewInfoExtractor {
             extraParts = null;
         }
 
+        // Decrypted content is never written to the cache
+        LocalMessage cacheableMessage = null;
+        String fingerprint = null;
+        if (messageViewInfoCache != null && cryptoMessageParts == null) {
+            fingerprint = MessageViewInfoCache.getFingerprint(message);
+            cacheableMessage = (fingerprint != null) ? (LocalMessage) message : null;
+        }
+
         List<AttachmentViewInfo> attachmentInfos = new ArrayList<>();
-        ViewableExtractedText viewable = extractViewableAndAttachments(
-                Collections.singletonList(rootPart), attachmentInfos);
+        ArrayList<Viewable> viewableParts = new ArrayList<>();
+        findViewablesAndAttachments(Collections.singletonList(rootPart), viewableParts, attachmentInfos);
+
+        String html = (cacheableMessage != null) ? messageViewInfoCache.get(cacheableMessage, fingerprint) : null;
+        if (html == null) {
+            html = extractTextFromViewables(viewableParts).html;
+            if (cacheableMessage != null) {
+                messageViewInfoCache.put(cacheableMessage, fingerprint, html);
+            }
+        }
 
         List<AttachmentViewInfo> extraAttachmentInfos = new ArrayList<>();
         String extraViewableText = null;
@@ -105,13 +131,19 @@ public class MessageViewInfoExtractor {
         boolean isMessageIncomplete = !message.isSet(Flag.X_DOWNLOADED_FULL) ||
                 MessageExtractor.hasMissingParts(message);
 
-        return MessageViewInfo.createWithExtractedContent(message, isMessageIncomplete, rootPart, viewable.html,
+        return MessageViewInfo.createWithExtractedContent(message, isMessageIncomplete, rootPart, html,
                 attachmentInfos, cryptoResultAnnotation, attachmentResolver, extraViewableText, extraAttachmentInfos);
     }
 
     private ViewableExtractedText extractViewableAndAttachments(List<Part> parts,
             List<AttachmentViewInfo> attachmentInfos) throws MessagingException {
         ArrayList<Viewable> viewableParts = new ArrayList<>();
+        findViewablesAndAttachments(parts, viewableParts, attachmentInfos);
+        return extractTextFromViewables(viewableParts);
+    }
+
+    private void findViewablesAndAttachments(List<Part> parts, List<Viewable> viewableParts,
+            List<AttachmentViewInfo> attachmentInfos) throws MessagingException {
         ArrayList<Part> attachments = new ArrayList<>();
 
         for (Part part : parts) {
@@ -119,7 +151,6 @@ public class MessageViewInfoExtractor {
         }
 
         attachmentInfos.addAll(attachmentInfoExtractor.extractAttachmentInfoForView(attachments));
-        return extractTextFromViewables(viewableParts);
     }
 
     /**
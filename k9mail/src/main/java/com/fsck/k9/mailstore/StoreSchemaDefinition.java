@@ -94,7 +94,9 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "push_class TEXT, " +
                 "display_class TEXT, " +
                 "notify_class TEXT default '"+ Folder.FolderClass.INHERITED.name() + "', " +
-                "more_messages TEXT default \"unknown\"" +
+                "more_messages TEXT default \"unknown\", " +
+                "uid_validity INTEGER, " +
+                "highest_mod_seq INTEGER" +
                 ")");
 
         db.execSQL("CREATE INDEX IF NOT EXISTS folder_name ON folders (name)");
@@ -124,7 +126,8 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "flagged INTEGER default 0, " +
                 "answered INTEGER default 0, " +
                 "forwarded INTEGER default 0, " +
-                "message_part_id INTEGER" +
+                "message_part_id INTEGER, " +
+                "fulltext_version INTEGER default 0" +
                 ")");
 
         db.execSQL("DROP TABLE IF EXISTS message_parts");
@@ -172,6 +175,9 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
         db.execSQL("DROP INDEX IF EXISTS msg_composite");
         db.execSQL("CREATE INDEX IF NOT EXISTS msg_composite ON messages (deleted, empty,folder_id,flagged,read)");
 
+        db.execSQL("DROP INDEX IF EXISTS msg_fulltext_version");
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_fulltext_version ON messages (deleted, empty, fulltext_version)");
+
 
         db.execSQL("DROP TABLE IF EXISTS threads");
         db.execSQL("CREATE TABLE threads (" +
@@ -214,6 +220,10 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
 
         db.execSQL("DROP TABLE IF EXISTS messages_fulltext");
         db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)");
+
+        ThreadSummarySchema.createTableAndTriggers(db);
+
+        FolderCountersSchema.createTableAndTriggers(db);
     }
 
 
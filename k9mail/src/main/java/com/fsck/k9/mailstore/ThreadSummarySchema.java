@@ -0,0 +1,98 @@
+package com.fsck.k9.mailstore;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+/**
+ * Definition of the {@code thread_summary} table and the triggers that keep it up to date.
+ *
+ * <p>
+ * Used when creating the database from scratch and by the migration that added the table.
+ * </p>
+ */
+public class ThreadSummarySchema {
+    private ThreadSummarySchema() {
+    }
+
+    public static void createTableAndTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS thread_summary");
+        db.execSQL("CREATE TABLE thread_summary (" +
+                "root INTEGER PRIMARY KEY, " +
+                "newest_message_id INTEGER, " +
+                "date INTEGER, " +
+                "internal_date INTEGER, " +
+                "thread_count INTEGER, " +
+                "unread_count INTEGER, " +
+                "flagged_count INTEGER, " +
+                "unanswered_count INTEGER, " +
+                "unforwarded_count INTEGER, " +
+                "attachment_count INTEGER" +
+                ")");
+
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_message_updated");
+        db.execSQL("CREATE TRIGGER thread_summary_message_updated " +
+                "AFTER UPDATE OF date, internal_date, empty, deleted, read, flagged, answered, forwarded, " +
+                "attachment_count ON messages " +
+                "WHEN OLD.date IS NOT NEW.date OR OLD.internal_date IS NOT NEW.internal_date OR " +
+                "OLD.empty IS NOT NEW.empty OR OLD.deleted IS NOT NEW.deleted OR OLD.read IS NOT NEW.read OR " +
+                "OLD.flagged IS NOT NEW.flagged OR OLD.answered IS NOT NEW.answered OR " +
+                "OLD.forwarded IS NOT NEW.forwarded OR OLD.attachment_count IS NOT NEW.attachment_count " +
+                recomputeSummariesTriggerBody("SELECT root FROM threads WHERE message_id = NEW.id"));
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_message_deleted");
+        db.execSQL("CREATE TRIGGER thread_summary_message_deleted " +
+                "AFTER DELETE ON messages " +
+                recomputeSummariesTriggerBody("SELECT root FROM threads WHERE message_id = OLD.id"));
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_thread_inserted");
+        db.execSQL("CREATE TRIGGER thread_summary_thread_inserted " +
+                "AFTER INSERT ON threads " +
+                "WHEN NEW.root IS NOT NULL " +
+                recomputeSummariesTriggerBody("NEW.root"));
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_thread_updated");
+        db.execSQL("CREATE TRIGGER thread_summary_thread_updated " +
+                "AFTER UPDATE OF root, message_id ON threads " +
+                "WHEN OLD.root IS NOT NEW.root OR OLD.message_id IS NOT NEW.message_id " +
+                recomputeSummariesTriggerBody("OLD.root, NEW.root"));
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_thread_deleted");
+        db.execSQL("CREATE TRIGGER thread_summary_thread_deleted " +
+                "AFTER DELETE ON threads " +
+                recomputeSummariesTriggerBody("OLD.root"));
+    }
+
+    /**
+     * Computes the summaries of all threads. The table is expected to be empty.
+     */
+    public static void populate(SQLiteDatabase db) {
+        db.execSQL(insertSummariesSql("m.empty = 0 AND m.deleted = 0"));
+    }
+
+    /**
+     * @param roots
+     *         A comma-separated list of root IDs or a sub-select returning root IDs.
+     */
+    private static String recomputeSummariesTriggerBody(String roots) {
+        return "BEGIN " +
+                "DELETE FROM thread_summary WHERE root IN (" + roots + "); " +
+                insertSummariesSql("t.root IN (" + roots + ") AND m.empty = 0 AND m.deleted = 0") + "; " +
+                "END";
+    }
+
+    private static String insertSummariesSql(String condition) {
+        return "INSERT INTO thread_summary (root, newest_message_id, date, internal_date, thread_count, " +
+                "unread_count, flagged_count, unanswered_count, unforwarded_count, attachment_count) " +
+                "SELECT t.root, " +
+                "(SELECT nt.message_id FROM threads nt JOIN messages nm ON (nm.id = nt.message_id) " +
+                "WHERE nt.root = t.root AND nm.empty = 0 AND nm.deleted = 0 " +
+                "ORDER BY nm.date DESC, nm.id DESC LIMIT 1), " +
+                "MAX(m.date), MAX(m.internal_date), COUNT(*), SUM(m.read = 0), SUM(m.flagged = 1), " +
+                "SUM(m.answered = 0), SUM(m.forwarded = 0), SUM(m.attachment_count) " +
+                "FROM threads t JOIN messages m ON (m.id = t.message_id) " +
+                "WHERE " + condition + " " +
+                "GROUP BY t.root";
+    }
+}
@@ -0,0 +1,14 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.mailstore.FolderCountersSchema;
+
+
+class MigrationTo62 {
+    public static void createFolderCountersTable(SQLiteDatabase db) {
+        FolderCountersSchema.createTableAndTriggers(db);
+        FolderCountersSchema.populate(db);
+    }
+}
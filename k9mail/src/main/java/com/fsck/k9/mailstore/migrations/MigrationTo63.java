@@ -0,0 +1,14 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.mailstore.ThreadSummarySchema;
+
+
+class MigrationTo63 {
+    public static void createThreadSummaryTable(SQLiteDatabase db) {
+        ThreadSummarySchema.createTableAndTriggers(db);
+        ThreadSummarySchema.populate(db);
+    }
+}
@@ -0,0 +1,18 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo64 {
+    public static void addFulltextVersionColumn(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE messages ADD fulltext_version INTEGER default 0");
+
+        // Messages without an entry might have been stored before their body was downloaded. Leave them for
+        // FulltextIndexer.
+        db.execSQL("UPDATE messages SET fulltext_version = 1 WHERE id IN (SELECT docid FROM messages_fulltext)");
+
+        db.execSQL("DROP INDEX IF EXISTS msg_fulltext_version");
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_fulltext_version ON messages (deleted, empty, fulltext_version)");
+    }
+}
@@ -75,6 +75,14 @@ public class Migrations {
                 MigrationTo59.addMissingIndexes(db);
             case 59:
                 MigrationTo60.migratePendingCommands(db);
+            case 60:
+                MigrationTo61.addModSeqColumnsToFoldersTable(db);
+            case 61:
+                MigrationTo62.createFolderCountersTable(db);
+            case 62:
+                MigrationTo63.createThreadSummaryTable(db);
+            case 63:
+                MigrationTo64.addFulltextVersionColumn(db);
         }
     }
 }
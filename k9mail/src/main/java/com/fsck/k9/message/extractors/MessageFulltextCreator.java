@@ -11,6 +11,12 @@ import com.fsck.k9.mail.internet.MimeUtility;
 
 
 public class MessageFulltextCreator {
+    /**
+     * Has to be increased whenever a change to this class changes the text created for existing messages. Stored
+     * messages indexed with an older version are then indexed again in the background.
+     */
+    public static final int VERSION = 1;
+
     private static final int MAX_CHARACTERS_CHECKED_FOR_FTS = 200*1024;
 
 
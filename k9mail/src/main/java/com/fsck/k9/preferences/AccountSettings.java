@@ -224,6 +224,9 @@ public class AccountSettings {
         s.put("notifyContactsMailOnly", Settings.versions(
                 new V(42, new BooleanSetting(false))
         ));
+        s.put("maxPipelinedFetchCommands", Settings.versions(
+                new V(49, new IntegerRangeSetting(1, 16, Account.DEFAULT_MAX_PIPELINED_FETCH_COMMANDS))
+        ));
 
         SETTINGS = Collections.unmodifiableMap(s);
 
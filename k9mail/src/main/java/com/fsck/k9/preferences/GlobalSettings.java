@@ -291,6 +291,9 @@ public class GlobalSettings {
         s.put("openPgpSupportSignOnly", Settings.versions(
                 new V(47, new BooleanSetting(false))
         ));
+        s.put("databaseWriteAheadLogging", Settings.versions(
+                new V(48, new BooleanSetting(false))
+        ));
 
         SETTINGS = Collections.unmodifiableMap(s);
 
@@ -14,6 +14,7 @@ import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.CursorWrapper;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.text.TextUtils;
 
@@ -50,6 +51,18 @@ public class EmailProvider extends ContentProvider {
 
     public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
 
+    /**
+     * Query parameter limiting the number of rows returned by a message list query.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter with an additional selection that is applied to the rows of a message list query after
+     * grouping. It can only reference the columns of the projection. Its arguments have to be appended to the
+     * selection arguments.
+     */
+    public static final String QUERY_PARAMETER_PAGE_SELECTION = "page_selection";
+
 
     /*
      * Constants that are used for the URI matching.
@@ -58,9 +71,11 @@ public class EmailProvider extends ContentProvider {
     private static final int MESSAGES = MESSAGE_BASE;
     private static final int MESSAGES_THREADED = MESSAGE_BASE + 1;
     private static final int MESSAGES_THREAD = MESSAGE_BASE + 2;
+    private static final int MESSAGES_THREADED_SUMMARY = MESSAGE_BASE + 3;
 
     private static final int STATS_BASE = 100;
     private static final int STATS = STATS_BASE;
+    private static final int FOLDER_STATS = STATS_BASE + 1;
 
 
     private static final String MESSAGES_TABLE = "messages";
@@ -76,6 +91,19 @@ public class EmailProvider extends ContentProvider {
         THREAD_AGGREGATION_FUNCS.put(MessageColumns.FORWARDED, "MIN");
     }
 
+    private static final Map<String, String> THREAD_SUMMARY_COLUMNS = new HashMap<String, String>();
+    static {
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.DATE, "s.date");
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.INTERNAL_DATE, "s.internal_date");
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.ATTACHMENT_COUNT, "s.attachment_count");
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.READ, "(s.unread_count = 0)");
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.FLAGGED, "(s.flagged_count > 0)");
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.ANSWERED, "(s.unanswered_count = 0)");
+        THREAD_SUMMARY_COLUMNS.put(MessageColumns.FORWARDED, "(s.unforwarded_count = 0)");
+        THREAD_SUMMARY_COLUMNS.put(ThreadColumns.ROOT, "s.root");
+        THREAD_SUMMARY_COLUMNS.put(SpecialColumns.THREAD_COUNT, "s.thread_count");
+    }
+
     private static final String[] FIXUP_MESSAGES_COLUMNS = {
             MessageColumns.ID
     };
@@ -111,14 +139,20 @@ public class EmailProvider extends ContentProvider {
 
     private static final String THREADS_TABLE = "threads";
 
+    private static final String FOLDER_COUNTERS_TABLE = "folder_counters";
+
+    private static final String THREAD_SUMMARY_TABLE = "thread_summary";
+
     static {
         UriMatcher matcher = URI_MATCHER;
 
         matcher.addURI(AUTHORITY, "account/*/messages", MESSAGES);
         matcher.addURI(AUTHORITY, "account/*/messages/threaded", MESSAGES_THREADED);
         matcher.addURI(AUTHORITY, "account/*/thread/#", MESSAGES_THREAD);
+        matcher.addURI(AUTHORITY, "account/*/messages/threaded/summary", MESSAGES_THREADED_SUMMARY);
 
         matcher.addURI(AUTHORITY, "account/*/stats", STATS);
+        matcher.addURI(AUTHORITY, "account/*/stats/folders", FOLDER_STATS);
     }
 
     public interface SpecialColumns {
@@ -219,6 +253,7 @@ public class EmailProvider extends ContentProvider {
         switch (match) {
             case MESSAGES:
             case MESSAGES_THREADED:
+            case MESSAGES_THREADED_SUMMARY:
             case MESSAGES_THREAD: {
                 List<String> segments = uri.getPathSegments();
                 String accountUuid = segments.get(1);
@@ -234,11 +269,16 @@ public class EmailProvider extends ContentProvider {
                 }
 
                 String[] dbProjection = dbColumnNames.toArray(new String[0]);
+                Page page = Page.fromUri(uri);
 
                 if (match == MESSAGES) {
-                    cursor = getMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder);
+                    cursor = getMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder, page);
                 } else if (match == MESSAGES_THREADED) {
-                    cursor = getThreadedMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder);
+                    cursor = getThreadedMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder,
+                            page);
+                } else if (match == MESSAGES_THREADED_SUMMARY) {
+                    cursor = getThreadedMessagesFromSummary(accountUuid, dbProjection, selection, selectionArgs,
+                            sortOrder, page);
                 } else if (match == MESSAGES_THREAD) {
                     String threadId = segments.get(3);
                     cursor = getThread(accountUuid, dbProjection, threadId, sortOrder);
@@ -253,11 +293,13 @@ public class EmailProvider extends ContentProvider {
                 cursor = new EmailProviderCacheCursor(accountUuid, cursor, getContext());
                 break;
             }
-            case STATS: {
+            case STATS:
+            case FOLDER_STATS: {
                 List<String> segments = uri.getPathSegments();
                 String accountUuid = segments.get(1);
+                boolean useFolderCounters = (match == FOLDER_STATS);
 
-                cursor = getAccountStats(accountUuid, projection, selection, selectionArgs);
+                cursor = getAccountStats(accountUuid, projection, selection, selectionArgs, useFolderCounters);
 
                 Uri notificationUri = Uri.withAppendedPath(CONTENT_URI, "account/" + accountUuid + "/messages");
 
@@ -285,7 +327,7 @@ public class EmailProvider extends ContentProvider {
     }
 
     protected Cursor getMessages(String accountUuid, final String[] projection, final String selection,
-            final String[] selectionArgs, final String sortOrder) {
+            final String[] selectionArgs, final String sortOrder, final Page page) {
 
         Account account = getAccount(accountUuid);
         LockableDatabase database = getDatabase(account);
@@ -304,42 +346,50 @@ public class EmailProvider extends ContentProvider {
                                 InternalMessageColumns.DELETED + " = 0 AND " + InternalMessageColumns.EMPTY + " = 0";
                     }
 
-                    final Cursor cursor;
+                    // The sort order is applied by the outer query when only a page is requested
+                    String innerSortOrder = (page == null) ? sortOrder : null;
+
+                    String query;
                     if (Utility.arrayContainsAny(projection, (Object[]) FOLDERS_COLUMNS)) {
-                        StringBuilder query = new StringBuilder();
-                        query.append("SELECT ");
+                        StringBuilder queryBuilder = new StringBuilder();
+                        queryBuilder.append("SELECT ");
                         boolean first = true;
                         for (String columnName : projection) {
                             if (!first) {
-                                query.append(",");
+                                queryBuilder.append(",");
                             } else {
                                 first = false;
                             }
 
                             if (MessageColumns.ID.equals(columnName)) {
-                                query.append("m.");
-                                query.append(MessageColumns.ID);
-                                query.append(" AS ");
-                                query.append(MessageColumns.ID);
+                                queryBuilder.append("m.");
+                                queryBuilder.append(MessageColumns.ID);
+                                queryBuilder.append(" AS ");
+                                queryBuilder.append(MessageColumns.ID);
                             } else {
-                                query.append(columnName);
+                                queryBuilder.append(columnName);
                             }
                         }
 
-                        query.append(" FROM messages m " +
+                        queryBuilder.append(" FROM messages m " +
                                 "JOIN threads t ON (t.message_id = m.id) " +
                                 "LEFT JOIN folders f ON (m.folder_id = f.id) " +
                                 "WHERE ");
-                        query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS, "m.", where));
-                        query.append(" ORDER BY ");
-                        query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS, "m.", sortOrder));
+                        queryBuilder.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS, "m.", where));
+
+                        if (!TextUtils.isEmpty(innerSortOrder)) {
+                            queryBuilder.append(" ORDER BY ");
+                            queryBuilder.append(SqlQueryBuilder.addPrefixToSelection(
+                                    FIXUP_MESSAGES_COLUMNS, "m.", innerSortOrder));
+                        }
 
-                        cursor = db.rawQuery(query.toString(), selectionArgs);
+                        query = queryBuilder.toString();
                     } else {
-                        cursor = db.query(MESSAGES_TABLE, projection, where, selectionArgs, null, null, sortOrder);
+                        query = SQLiteQueryBuilder.buildQueryString(false, MESSAGES_TABLE, projection, where, null,
+                                null, innerSortOrder, null);
                     }
 
-                    return cursor;
+                    return rawQuery(db, query, selectionArgs, sortOrder, page);
                 }
             });
         } catch (UnavailableStorageException e) {
@@ -350,7 +400,7 @@ public class EmailProvider extends ContentProvider {
     }
 
     protected Cursor getThreadedMessages(String accountUuid, final String[] projection, final String selection,
-            final String[] selectionArgs, final String sortOrder) {
+            final String[] selectionArgs, final String sortOrder, final Page page) {
 
         Account account = getAccount(accountUuid);
         LockableDatabase database = getDatabase(account);
@@ -408,12 +458,95 @@ public class EmailProvider extends ContentProvider {
 
                     query.append(" GROUP BY " + ThreadColumns.ROOT);
 
-                    if (!TextUtils.isEmpty(sortOrder)) {
+                    if (page == null && !TextUtils.isEmpty(sortOrder)) {
                         query.append(" ORDER BY ");
                         query.append(SqlQueryBuilder.addPrefixToSelection(
                                 FIXUP_AGGREGATED_MESSAGES_COLUMNS, "a.", sortOrder));
                     }
 
+                    return rawQuery(db, query.toString(), selectionArgs, sortOrder, page);
+                }
+            });
+        } catch (UnavailableStorageException e) {
+            throw new RuntimeException("Storage not available", e);
+        } catch (MessagingException e) {
+            throw new RuntimeException("messaging exception", e);
+        }
+    }
+
+    /**
+     * Returns the same result as {@link #getThreadedMessages(String, String[], String, String[], String, Page)} but
+     * reads
+     * the aggregated values from the {@code thread_summary} table instead of grouping all messages of a thread.
+     *
+     * <p>
+     * The table is kept up to date by triggers on the {@code messages} and {@code threads} tables. It always
+     * aggregates all messages of a thread, so the selection may only reference folder columns. Threads don't span
+     * folders, so such a selection matches either all or none of the messages in a thread.
+     * </p>
+     */
+    protected Cursor getThreadedMessagesFromSummary(String accountUuid, final String[] projection,
+            final String selection, final String[] selectionArgs, final String sortOrder, final Page page) {
+
+        Account account = getAccount(accountUuid);
+        LockableDatabase database = getDatabase(account);
+
+        try {
+            return database.execute(false, new DbCallback<Cursor>() {
+                @Override
+                public Cursor doDbWork(SQLiteDatabase db) throws WrappedException,
+                        UnavailableStorageException {
+
+                    StringBuilder query = new StringBuilder();
+
+                    // Wrap the query so the sort order can use the aggregated values by their column names
+                    query.append("SELECT * FROM (SELECT ");
+                    boolean first = true;
+                    for (String columnName : projection) {
+                        if (!first) {
+                            query.append(",");
+                        } else {
+                            first = false;
+                        }
+
+                        String summaryColumn = THREAD_SUMMARY_COLUMNS.get(columnName);
+
+                        if (MessageColumns.ID.equals(columnName)) {
+                            query.append("m." + MessageColumns.ID + " AS " + MessageColumns.ID);
+                        } else if (summaryColumn != null) {
+                            query.append(summaryColumn);
+                            query.append(" AS ");
+                            query.append(columnName);
+                        } else {
+                            query.append(columnName);
+                        }
+                    }
+
+                    query.append(" FROM " + THREAD_SUMMARY_TABLE + " s " +
+                            "JOIN " + MESSAGES_TABLE + " m " +
+                            "ON (m." + MessageColumns.ID + " = s.newest_message_id)");
+
+                    if (Utility.arrayContainsAny(projection, (Object[]) FOLDERS_COLUMNS)) {
+                        query.append(" JOIN " + FOLDERS_TABLE + " f " +
+                                "ON (m." + MessageColumns.FOLDER_ID + " = f." + FolderColumns.ID + ")");
+                    }
+
+                    if (!TextUtils.isEmpty(selection)) {
+                        query.append(" WHERE ");
+                        query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS, "m.", selection));
+                    }
+
+                    query.append(")");
+
+                    if (page != null) {
+                        return rawQuery(db, query.toString(), selectionArgs, sortOrder, page);
+                    }
+
+                    if (!TextUtils.isEmpty(sortOrder)) {
+                        query.append(" ORDER BY ");
+                        query.append(sortOrder);
+                    }
+
                     return db.rawQuery(query.toString(), selectionArgs);
                 }
             });
@@ -476,6 +609,36 @@ public class EmailProvider extends ContentProvider {
         query.append(" GROUP BY t." + ThreadColumns.ROOT);
     }
 
+    /**
+     * Runs the query or, if a page was requested, wraps it to apply the page selection, the sort order and the limit.
+     */
+    private static Cursor rawQuery(SQLiteDatabase db, String query, String[] selectionArgs, String sortOrder,
+            Page page) {
+        if (page == null) {
+            return db.rawQuery(query, selectionArgs);
+        }
+
+        StringBuilder pageQuery = new StringBuilder();
+        pageQuery.append("SELECT * FROM (");
+        pageQuery.append(query);
+        pageQuery.append(")");
+
+        if (!TextUtils.isEmpty(page.selection)) {
+            pageQuery.append(" WHERE ");
+            pageQuery.append(page.selection);
+        }
+
+        if (!TextUtils.isEmpty(sortOrder)) {
+            pageQuery.append(" ORDER BY ");
+            pageQuery.append(sortOrder);
+        }
+
+        pageQuery.append(" LIMIT ");
+        pageQuery.append(page.limit);
+
+        return db.rawQuery(pageQuery.toString(), selectionArgs);
+    }
+
     protected Cursor getThread(String accountUuid, final String[] projection, final String threadId,
             final String sortOrder) {
 
@@ -530,8 +693,17 @@ public class EmailProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Returns the number of unread and flagged messages matching the selection.
+     *
+     * <p>
+     * If {@code useFolderCounters} is {@code true} the selection may only reference folder columns. The counts are
+     * then read from the {@code folder_counters} table, which is kept up to date by triggers on the
+     * {@code messages} table, instead of scanning all messages.
+     * </p>
+     */
     private Cursor getAccountStats(String accountUuid, String[] columns, final String selection,
-            final String[] selectionArgs) {
+            final String[] selectionArgs, boolean useFolderCounters) {
 
         Account account = getAccount(accountUuid);
         LockableDatabase database = getDatabase(account);
@@ -554,27 +726,48 @@ public class EmailProvider extends ContentProvider {
             }
 
             if (StatsColumns.UNREAD_COUNT.equals(columnName)) {
-                sql.append("SUM(" + MessageColumns.READ + "=0) AS " + StatsColumns.UNREAD_COUNT);
+                if (useFolderCounters) {
+                    sql.append("SUM(" + FOLDER_COUNTERS_TABLE + ".unread_count) AS " + StatsColumns.UNREAD_COUNT);
+                } else {
+                    sql.append("SUM(" + MessageColumns.READ + "=0) AS " + StatsColumns.UNREAD_COUNT);
+                }
             } else if (StatsColumns.FLAGGED_COUNT.equals(columnName)) {
-                sql.append("SUM(" + MessageColumns.FLAGGED + ") AS " + StatsColumns.FLAGGED_COUNT);
+                if (useFolderCounters) {
+                    sql.append("SUM(" + FOLDER_COUNTERS_TABLE + ".flagged_count) AS " + StatsColumns.FLAGGED_COUNT);
+                } else {
+                    sql.append("SUM(" + MessageColumns.FLAGGED + ") AS " + StatsColumns.FLAGGED_COUNT);
+                }
             } else {
                 throw new IllegalArgumentException("Column name not allowed: " + columnName);
             }
         }
 
-        // Table selection
-        sql.append(" FROM messages");
+        if (useFolderCounters) {
+            // Table selection
+            sql.append(" FROM " + FOLDER_COUNTERS_TABLE);
+            sql.append(" JOIN folders ON (folders.id = " + FOLDER_COUNTERS_TABLE + ".folder_id)");
 
-        if (containsAny(selection, FOLDERS_COLUMNS)) {
-            sql.append(" JOIN folders ON (folders.id = messages.folder_id)");
-        }
+            // WHERE clause
+            if (!TextUtils.isEmpty(selection)) {
+                sql.append(" WHERE (");
+                sql.append(selection);
+                sql.append(")");
+            }
+        } else {
+            // Table selection
+            sql.append(" FROM messages");
 
-        // WHERE clause
-        sql.append(" WHERE (deleted = 0 AND empty = 0)");
-        if (!TextUtils.isEmpty(selection)) {
-            sql.append(" AND (");
-            sql.append(selection);
-            sql.append(")");
+            if (containsAny(selection, FOLDERS_COLUMNS)) {
+                sql.append(" JOIN folders ON (folders.id = messages.folder_id)");
+            }
+
+            // WHERE clause
+            sql.append(" WHERE (deleted = 0 AND empty = 0)");
+            if (!TextUtils.isEmpty(selection)) {
+                sql.append(" AND (");
+                sql.append(selection);
+                sql.append(")");
+            }
         }
 
         // Query the database and return the result cursor
@@ -619,6 +812,33 @@ public class EmailProvider extends ContentProvider {
         return localStore.getDatabase();
     }
 
+    /**
+     * A page of a message list query requested via {@link #QUERY_PARAMETER_LIMIT} and
+     * {@link #QUERY_PARAMETER_PAGE_SELECTION}.
+     */
+    static class Page {
+        final int limit;
+        final String selection;
+
+        Page(int limit, String selection) {
+            this.limit = limit;
+            this.selection = selection;
+        }
+
+        static Page fromUri(Uri uri) {
+            String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+            if (limit == null) {
+                return null;
+            }
+
+            try {
+                return new Page(Integer.parseInt(limit), uri.getQueryParameter(QUERY_PARAMETER_PAGE_SELECTION));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid limit: " + limit, e);
+            }
+        }
+    }
+
     /**
      * This class is needed to make {@link android.support.v4.widget.CursorAdapter} work with our database schema.
      *
@@ -21,6 +21,33 @@ public class SqlQueryBuilder {
         buildWhereClauseInternal(account, node, query, selectionArgs);
     }
 
+    /**
+     * Checks whether a search only restricts the set of folders, so the WHERE clause created by
+     * {@link #buildWhereClause(Account, ConditionsTreeNode, StringBuilder, List)} can be applied to a table with
+     * one row per folder instead of the {@code messages} table.
+     */
+    public static boolean isFolderLevelSearch(ConditionsTreeNode node) {
+        if (node == null) {
+            return true;
+        }
+
+        if (node.mLeft == null && node.mRight == null) {
+            switch (node.mCondition.field) {
+                case FOLDER:
+                case SEARCHABLE:
+                case INTEGRATE:
+                case DISPLAY_CLASS: {
+                    return true;
+                }
+                default: {
+                    return false;
+                }
+            }
+        }
+
+        return isFolderLevelSearch(node.mLeft) && isFolderLevelSearch(node.mRight);
+    }
+
     private static void buildWhereClauseInternal(Account account, ConditionsTreeNode node,
             StringBuilder query, List<String> selectionArgs) {
         if (node == null) {
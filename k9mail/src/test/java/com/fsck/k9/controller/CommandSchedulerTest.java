@@ -0,0 +1,271 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.controller.CommandScheduler.Command;
+import com.fsck.k9.controller.CommandScheduler.CommandRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class CommandSchedulerTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+
+    private CommandScheduler scheduler;
+    private final List<String> executedCommands = Collections.synchronizedList(new ArrayList<String>());
+
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new CommandScheduler(2, Executors.defaultThreadFactory(), new CommandRunner() {
+            @Override
+            public void runCommand(Command command) {
+                command.runnable.run();
+                executedCommands.add(command.description);
+            }
+        });
+        scheduler.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.stop(1000L);
+    }
+
+    @Test
+    public void schedule_withDifferentLanes_shouldRunCommandsConcurrently() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        Runnable waitForOtherCommand = new Runnable() {
+            @Override
+            public void run() {
+                bothStarted.countDown();
+                await(bothStarted);
+            }
+        };
+
+        scheduler.schedule(createCommand("one", "lane1", waitForOtherCommand));
+        scheduler.schedule(createCommand("two", "lane2", waitForOtherCommand));
+
+        assertTrue(bothStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void schedule_withSameLane_shouldRunCommandsInOrder() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.schedule(createCommand("blocking", "lane", awaiting(blocker)));
+        scheduler.schedule(createCommand("one", "lane", null));
+        scheduler.schedule(createCommand("two", "lane", null));
+        scheduler.schedule(createCommand("three", "lane", countingDown(done)));
+
+        blocker.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        waitUntilIdle();
+        assertEquals(asList("blocking", "one", "two", "three"), executedCommands);
+    }
+
+    @Test
+    public void schedule_withSameLane_shouldRunForegroundCommandsFirst() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.schedule(createCommand("blocking", "lane", countingDownAndAwaiting(started, blocker)));
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        scheduler.schedule(createCommand("background", "lane", null));
+        Command foregroundCommand = createCommand("foreground", "lane", null);
+        foregroundCommand.isForegroundPriority = true;
+        scheduler.schedule(foregroundCommand);
+
+        blocker.countDown();
+
+        waitUntilIdle();
+        assertEquals(asList("blocking", "foreground", "background"), executedCommands);
+    }
+
+    @Test
+    public void schedule_withBarrier_shouldWaitForEarlierCommandsInOtherLanes() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        scheduler.schedule(createCommand("blocking", "lane1", awaiting(blocker)));
+        Command barrier = createCommand("barrier", "lane2", null);
+        barrier.isBarrier = true;
+        scheduler.schedule(barrier);
+        scheduler.schedule(createCommand("later", "lane3", null));
+
+        waitForExecutedCommand("later");
+        assertFalse(executedCommands.contains("barrier"));
+
+        blocker.countDown();
+
+        waitUntilIdle();
+        assertEquals(asList("later", "blocking", "barrier"), executedCommands);
+    }
+
+    @Test
+    public void schedule_withGroupBarrier_shouldHoldBackLaterCommandsOfGroupOnly() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        scheduler.schedule(createCommand("blocking", "account1:Inbox", "account1", awaiting(blocker)));
+        Command barrier = createCommand("barrier", "account1", "account1", null);
+        barrier.isBarrier = true;
+        scheduler.schedule(barrier);
+        scheduler.schedule(createCommand("sync", "account1:Sent", "account1", null));
+        scheduler.schedule(createCommand("other account", "account2:Inbox", "account2", null));
+
+        waitForExecutedCommand("other account");
+        assertFalse(executedCommands.contains("sync"));
+        assertFalse(executedCommands.contains("barrier"));
+
+        blocker.countDown();
+
+        waitUntilIdle();
+        assertEquals(asList("other account", "blocking", "barrier", "sync"), executedCommands);
+    }
+
+    @Test
+    public void schedule_withRescheduledCommand_shouldNotOvertakeBarrierScheduledInTheMeantime() throws Exception {
+        Command retried = createCommand("retried", "account1:Sent", "account1", null);
+        scheduler.schedule(retried);
+        waitForExecutedCommand("retried");
+        CountDownLatch blocker = new CountDownLatch(1);
+        scheduler.schedule(createCommand("blocking", "account1:Inbox", "account1", awaiting(blocker)));
+        Command barrier = createCommand("barrier", "account1", "account1", null);
+        barrier.isBarrier = true;
+        scheduler.schedule(barrier);
+
+        scheduler.schedule(retried);
+
+        blocker.countDown();
+        waitUntilIdle();
+        assertEquals(asList("retried", "blocking", "barrier", "retried"), executedCommands);
+    }
+
+    @Test
+    public void schedule_withGroupBarrier_shouldNotWaitForCommandsOfOtherGroups() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        scheduler.schedule(createCommand("blocking", "account2:Inbox", "account2", awaiting(blocker)));
+        Command barrier = createCommand("barrier", "account1", "account1", null);
+        barrier.isBarrier = true;
+        scheduler.schedule(barrier);
+        scheduler.schedule(createCommand("sync", "account1:Inbox", "account1", null));
+
+        waitForExecutedCommand("sync");
+        blocker.countDown();
+
+        waitUntilIdle();
+        assertEquals(asList("barrier", "sync", "blocking"), executedCommands);
+    }
+
+    @Test
+    public void getQueuedCommandCount_shouldReturnNumberOfWaitingCommands() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.schedule(createCommand("blocking", "lane", countingDownAndAwaiting(started, blocker)));
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        scheduler.schedule(createCommand("one", "lane", null));
+        scheduler.schedule(createCommand("two", "lane", null));
+
+        assertEquals(2, scheduler.getQueuedCommandCount());
+        assertEquals(2, scheduler.getQueuedCommandCount("lane"));
+        assertEquals(1, scheduler.getRunningCommandCount());
+
+        blocker.countDown();
+        waitUntilIdle();
+
+        assertEquals(0, scheduler.getQueuedCommandCount());
+        assertEquals(0, scheduler.getQueuedCommandCount("lane"));
+    }
+
+    @Test
+    public void getMaxWaitTimeMillis_shouldIncludeTimeSpentWaitingInLane() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        scheduler.schedule(createCommand("blocking", "lane", awaiting(blocker)));
+        scheduler.schedule(createCommand("waiting", "lane", null));
+
+        Thread.sleep(50);
+        blocker.countDown();
+        waitUntilIdle();
+
+        assertTrue(scheduler.getMaxWaitTimeMillis() >= 50);
+    }
+
+
+    private Command createCommand(String description, String lane, Runnable runnable) {
+        return createCommand(description, lane, null, runnable);
+    }
+
+    private Command createCommand(String description, String lane, String group, Runnable runnable) {
+        Command command = new Command();
+        command.description = description;
+        command.lane = lane;
+        command.group = group;
+        command.runnable = runnable != null ? runnable : new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        return command;
+    }
+
+    private Runnable awaiting(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                await(latch);
+            }
+        };
+    }
+
+    private Runnable countingDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    private Runnable countingDownAndAwaiting(final CountDownLatch started, final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                await(latch);
+            }
+        };
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void waitForExecutedCommand(String description) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (!executedCommands.contains(description) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void waitUntilIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while ((scheduler.getQueuedCommandCount() > 0 || scheduler.getRunningCommandCount() > 0) &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -22,13 +22,16 @@ import com.fsck.k9.mail.CertificateValidationException;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.FolderChanges;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Store;
 import com.fsck.k9.mail.Transport;
 import com.fsck.k9.mail.TransportProvider;
+import com.fsck.k9.mail.UidRangeSet;
 import com.fsck.k9.mailstore.LocalFolder;
+import com.fsck.k9.mailstore.LocalFolder.MoreMessages;
 import com.fsck.k9.mailstore.LocalMessage;
 import com.fsck.k9.mailstore.LocalStore;
 import com.fsck.k9.mailstore.UnavailableStorageException;
@@ -49,10 +52,12 @@ import org.mockito.stubbing.Answer;
 import org.robolectric.shadows.ShadowApplication;
 import org.robolectric.shadows.ShadowLog;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anySet;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
@@ -76,6 +81,7 @@ public class MessagingControllerTest {
     private static final String SENT_FOLDER_NAME = "Sent";
     private static final int MAXIMUM_SMALL_MESSAGE_SIZE = 1000;
     private static final String MESSAGE_UID1 = "message-uid1";
+    private static final String IMAP_MESSAGE_UID = "17";
 
 
     private MessagingController controller;
@@ -557,6 +563,17 @@ public class MessagingControllerTest {
         verify(transport).sendMessage(localMessageToSend1);
     }
 
+    @Test
+    public void sendPendingMessagesSynchronous_shouldCloseTransportAfterSendingMessages() throws MessagingException {
+        setupAccountWithMessageToSend();
+
+        controller.sendPendingMessagesSynchronous(account);
+
+        InOrder ordering = inOrder(transport);
+        ordering.verify(transport).sendMessage(localMessageToSend1);
+        ordering.verify(transport).close();
+    }
+
     @Test
     public void sendPendingMessagesSynchronous_shouldSetAndRemoveSendInProgressFlag() throws MessagingException {
         setupAccountWithMessageToSend();
@@ -664,6 +681,7 @@ public class MessagingControllerTest {
         controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, remoteFolder);
 
         verify(remoteFolder, never()).open(Folder.OPEN_MODE_RW);
+        verify(remoteFolder, never()).openAndGetChangesSince(anyInt(), anyLong(), anyLong());
     }
 
     @Test
@@ -674,7 +692,95 @@ public class MessagingControllerTest {
 
         controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, null);
 
-        verify(remoteFolder).open(Folder.OPEN_MODE_RW);
+        verify(remoteFolder).openAndGetChangesSince(eq(Folder.OPEN_MODE_RW), anyLong(), anyLong());
+    }
+
+    @Test
+    public void synchronizeMailboxSynchronous_withKnownModSeqState_shouldPassItToRemoteFolder() throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        when(localFolder.getMoreMessages()).thenReturn(MoreMessages.FALSE);
+        when(localFolder.getSyncedUidValidity()).thenReturn(42L);
+        when(localFolder.getSyncedHighestModSeq()).thenReturn(100L);
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, null);
+
+        verify(remoteFolder).openAndGetChangesSince(Folder.OPEN_MODE_RW, 42L, 100L);
+    }
+
+    @Test
+    public void synchronizeMailboxSynchronous_withUnknownMoreMessages_shouldNotPassModSeqStateToRemoteFolder()
+            throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        when(localFolder.getMoreMessages()).thenReturn(MoreMessages.UNKNOWN);
+        when(localFolder.getSyncedUidValidity()).thenReturn(42L);
+        when(localFolder.getSyncedHighestModSeq()).thenReturn(100L);
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, null);
+
+        verify(remoteFolder).openAndGetChangesSince(Folder.OPEN_MODE_RW, -1L, -1L);
+    }
+
+    @Test
+    public void synchronizeMailboxSynchronous_withCompleteFolderChanges_shouldNotListRemoteMessages()
+            throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        when(remoteFolder.openAndGetChangesSince(anyInt(), anyLong(), anyLong()))
+                .thenReturn(createFolderChanges(Collections.<String>emptyList()));
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, null);
+
+        verify(remoteFolder, never()).getMessages(anyInt(), anyInt(), any(Date.class),
+                any(MessageRetrievalListener.class));
+    }
+
+    @Test
+    public void synchronizeMailboxSynchronous_withChangedMessageUnknownLocally_shouldListRemoteMessages()
+            throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        Message newMessage = mock(Message.class);
+        when(newMessage.getUid()).thenReturn(IMAP_MESSAGE_UID);
+        when(remoteFolder.openAndGetChangesSince(anyInt(), anyLong(), anyLong()))
+                .thenReturn(createFolderChanges(Collections.<String>emptyList(),
+                        Collections.singletonList(newMessage)));
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, null);
+
+        verify(remoteFolder).getMessages(anyInt(), anyInt(), any(Date.class), any(MessageRetrievalListener.class));
+    }
+
+    @Test
+    public void synchronizeMailboxSynchronous_withVanishedMessages_shouldDeleteLocalCopies() throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        LocalMessage localCopyOfRemoteDeletedMessage = mock(LocalMessage.class);
+        when(account.syncRemoteDeletions()).thenReturn(true);
+        when(localFolder.getAllMessagesAndEffectiveDates())
+                .thenReturn(Collections.singletonMap(IMAP_MESSAGE_UID, 0L));
+        when(localFolder.getMessagesByUids(Collections.singletonList(IMAP_MESSAGE_UID)))
+                .thenReturn(Collections.singletonList(localCopyOfRemoteDeletedMessage));
+        when(remoteFolder.openAndGetChangesSince(anyInt(), anyLong(), anyLong()))
+                .thenReturn(createFolderChanges(Collections.singletonList(IMAP_MESSAGE_UID)));
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, null);
+
+        verify(localFolder).destroyMessages(messageListCaptor.capture());
+        assertEquals(localCopyOfRemoteDeletedMessage, messageListCaptor.getValue().get(0));
+    }
+
+    @Test
+    public void synchronizeMailboxSynchronous_withNoRemoteFolderProvided_shouldStoreModSeqState() throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        when(remoteFolder.getUidValidity()).thenReturn(42L);
+        when(remoteFolder.getHighestModSeq()).thenReturn(120L);
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, null);
+
+        verify(localFolder).setSyncedModSeqState(42L, 120L);
     }
 
     @Test
@@ -851,6 +957,22 @@ public class MessagingControllerTest {
         assertEquals(FetchProfile.Item.BODY_SANE, fetchProfileCaptor.getAllValues().get(3).get(0));
     }
 
+    @Test
+    public void synchronizeMailboxSynchronous_withFetchFailingAfterSomeSmallMessages_shouldStoreFetchedMessages()
+            throws Exception {
+        Message smallMessage1 = buildSmallNewMessage();
+        Message smallMessage2 = buildSmallNewMessage();
+        messageCountInRemoteFolder(1);
+        hasUnsyncedRemoteMessage();
+        when(remoteFolder.supportsFetchingFlags()).thenReturn(false);
+        respondToFetchWithMessagesAndFailBodyFetch(asList(smallMessage1, smallMessage2));
+        List<Message> storedMessages = recordStoredSmallMessages();
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, remoteFolder);
+
+        assertEquals(asList(smallMessage1, smallMessage2), storedMessages);
+    }
+
     private void setupAccountWithMessageToSend() throws MessagingException {
         when(account.getOutboxFolderName()).thenReturn(FOLDER_NAME);
         when(account.hasSentFolder()).thenReturn(true);
@@ -883,6 +1005,45 @@ public class MessagingControllerTest {
         }).when(remoteFolder).fetch(any(List.class), any(FetchProfile.class), any(MessageRetrievalListener.class));
     }
 
+    private void respondToFetchWithMessagesAndFailBodyFetch(final List<Message> messages)
+            throws MessagingException {
+        doAnswer(new Answer() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                FetchProfile fetchProfile = (FetchProfile) invocation.getArguments()[1];
+                MessageRetrievalListener listener = (MessageRetrievalListener) invocation.getArguments()[2];
+                if (listener != null) {
+                    for (int i = 0; i < messages.size(); i++) {
+                        listener.messageFinished(messages.get(i), i, messages.size());
+                    }
+                }
+
+                if (fetchProfile.contains(FetchProfile.Item.BODY)) {
+                    throw new MessagingException("Connection lost");
+                }
+                return null;
+            }
+        }).when(remoteFolder).fetch(any(List.class), any(FetchProfile.class), any(MessageRetrievalListener.class));
+    }
+
+    private List<Message> recordStoredSmallMessages() throws MessagingException {
+        final List<Message> storedMessages = new ArrayList<>();
+        when(localFolder.storeSmallMessages(any(List.class))).thenAnswer(new Answer<List<LocalMessage>>() {
+            @Override
+            public List<LocalMessage> answer(InvocationOnMock invocation) throws Throwable {
+                List<Message> messages = (List<Message>) invocation.getArguments()[0];
+                storedMessages.addAll(messages);
+
+                List<LocalMessage> localMessages = new ArrayList<>();
+                for (int i = 0; i < messages.size(); i++) {
+                    localMessages.add(mock(LocalMessage.class));
+                }
+                return localMessages;
+            }
+        });
+        return storedMessages;
+    }
+
     private Message buildSmallNewMessage() {
         Message message = mock(Message.class);
         when(message.olderThan(any(Date.class))).thenReturn(false);
@@ -897,6 +1058,14 @@ public class MessagingControllerTest {
         return message;
     }
 
+    private FolderChanges<Message> createFolderChanges(List<String> vanishedUids) {
+        return createFolderChanges(vanishedUids, Collections.<Message>emptyList());
+    }
+
+    private FolderChanges<Message> createFolderChanges(List<String> vanishedUids, List<Message> changedMessages) {
+        return new FolderChanges<>(42L, 120L, true, UidRangeSet.fromUids(vanishedUids), changedMessages);
+    }
+
     private void messageCountInRemoteFolder(int value) throws MessagingException {
         when(remoteFolder.getMessageCount()).thenReturn(value);
     }
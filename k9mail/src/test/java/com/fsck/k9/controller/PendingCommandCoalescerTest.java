@@ -0,0 +1,187 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingEmptyTrash;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingExpunge;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingMoveOrCopy;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingSetFlag;
+import com.fsck.k9.controller.PendingCommandCoalescer.CoalescedCommand;
+import com.fsck.k9.mail.Flag;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class PendingCommandCoalescerTest {
+    private static final String FOLDER = "INBOX";
+    private static final String OTHER_FOLDER = "Archive";
+
+
+    @Test
+    public void coalesce_withAdjacentSetFlagCommands_shouldMergeUids() {
+        PendingCommand first = setFlag(FOLDER, true, Flag.SEEN, "1", "2");
+        PendingCommand second = setFlag(FOLDER, true, Flag.SEEN, "2", "3");
+
+        List<CoalescedCommand> result = PendingCommandCoalescer.coalesce(commands(first, second));
+
+        assertEquals(1, result.size());
+        assertSetFlag(result.get(0).command, FOLDER, true, Flag.SEEN, "1", "2", "3");
+        assertEquals(asList(first, second), result.get(0).originalCommands);
+    }
+
+    @Test
+    public void coalesce_withSetFlagCommandsForDifferentFolders_shouldNotMerge() {
+        PendingCommand first = setFlag(FOLDER, true, Flag.SEEN, "1");
+        PendingCommand second = setFlag(OTHER_FOLDER, true, Flag.SEEN, "2");
+
+        List<CoalescedCommand> result = PendingCommandCoalescer.coalesce(commands(first, second));
+
+        assertEquals(2, result.size());
+        assertSame(first, result.get(0).command);
+        assertSame(second, result.get(1).command);
+    }
+
+    @Test
+    public void coalesce_withSetAndUnsetOfSameFlag_shouldOnlyKeepLastChange() {
+        PendingCommand set = setFlag(FOLDER, true, Flag.FLAGGED, "1", "2");
+        PendingCommand unset = setFlag(FOLDER, false, Flag.FLAGGED, "1");
+
+        List<CoalescedCommand> result = PendingCommandCoalescer.coalesce(commands(set, unset));
+
+        assertEquals(2, result.size());
+        assertSetFlag(result.get(0).command, FOLDER, true, Flag.FLAGGED, "2");
+        assertSame(unset, result.get(1).command);
+    }
+
+    @Test
+    public void coalesce_withFlagChangeFullySuperseded_shouldRemoveItWithNextCommand() {
+        PendingCommand set = setFlag(FOLDER, true, Flag.FLAGGED, "1");
+        PendingCommand other = setFlag(FOLDER, true, Flag.SEEN, "5");
+        PendingCommand unset = setFlag(FOLDER, false, Flag.FLAGGED, "1");
+
+        List<CoalescedCommand> result = PendingCommandCoalescer.coalesce(commands(set, other, unset));
+
+        assertEquals(2, result.size());
+        assertSame(other, result.get(0).command);
+        assertEquals(asList(set, other), result.get(0).originalCommands);
+        assertSame(unset, result.get(1).command);
+    }
+
+    @Test
+    public void coalesce_withFlagChangeBeforeMove_shouldKeepFlagChange() {
+        PendingCommand set = setFlag(FOLDER, true, Flag.SEEN, "1");
+        PendingCommand move = PendingMoveOrCopy.create(FOLDER, OTHER_FOLDER, false, asList("1"));
+        PendingCommand unset = setFlag(FOLDER, false, Flag.SEEN, "1");
+
+        List<CoalescedCommand> result = PendingCommandCoalescer.coalesce(commands(set, move, unset));
+
+        assertEquals(3, result.size());
+        assertSame(set, result.get(0).command);
+    }
+
+    @Test
+    public void coalesce_withFlagChangeForMessageDeletedAndExpungedLater_shouldDropFlagChange() {
+        PendingCommand seen = setFlag(FOLDER, true, Flag.SEEN, "1", "2");
+        PendingCommand deleted = setFlag(FOLDER, true, Flag.DELETED, "1");
+        PendingCommand expunge = PendingExpunge.create(FOLDER);
+
+        List<CoalescedCommand> result = PendingCommandCoalescer.coalesce(commands(seen, deleted, expunge));
+
+        assertEquals(3, result.size());
+        assertSetFlag(result.get(0).command, FOLDER, true, Flag.SEEN, "2");
+        assertSame(deleted, result.get(1).command);
+        assertSame(expunge, result.get(2).command);
+    }
+
+    @Test
+    public void coalesce_withMessageUndeletedBeforeExpunge_shouldKeepFlagChange() {
+        PendingCommand seen = setFlag(FOLDER, true, Flag.SEEN, "1");
+        PendingCommand deleted = setFlag(FOLDER, true, Flag.DELETED, "1");
+        PendingCommand undeleted = setFlag(FOLDER, false, Flag.DELETED, "1");
+        PendingCommand expunge = PendingExpunge.create(FOLDER);
+
+        List<CoalescedCommand> result = PendingCommandCoalescer.coalesce(
+                commands(seen, deleted, undeleted, expunge));
+
+        assertSame(seen, result.get(0).command);
+    }
+
+    @Test
+    public void coalesce_withEmptyTrashInBetween_shouldKeepFlagChange() {
+        PendingCommand set = setFlag(FOLDER, true, Flag.FLAGGED, "1");
+        PendingCommand emptyTrash = PendingEmptyTrash.create();
+        PendingCommand unset = setFlag(FOLDER, false, Flag.FLAGGED, "1");
+
+        List<CoalescedCommand> result = PendingCommandCoalescer.coalesce(commands(set, emptyTrash, unset));
+
+        assertEquals(3, result.size());
+        assertSame(set, result.get(0).command);
+    }
+
+    @Test
+    public void coalesce_withAdjacentMovesBetweenSameFolders_shouldMergeUids() {
+        PendingCommand first = PendingMoveOrCopy.create(FOLDER, OTHER_FOLDER, false, asList("1"));
+        PendingCommand second = PendingMoveOrCopy.create(FOLDER, OTHER_FOLDER, false, asList("2"));
+
+        List<CoalescedCommand> result = PendingCommandCoalescer.coalesce(commands(first, second));
+
+        assertEquals(1, result.size());
+        PendingMoveOrCopy command = (PendingMoveOrCopy) result.get(0).command;
+        assertEquals(asList("1", "2"), command.uids);
+        assertFalse(command.isCopy);
+    }
+
+    @Test
+    public void coalesce_withMoveAndCopy_shouldNotMerge() {
+        PendingCommand move = PendingMoveOrCopy.create(FOLDER, OTHER_FOLDER, false, asList("1"));
+        PendingCommand copy = PendingMoveOrCopy.create(FOLDER, OTHER_FOLDER, true, asList("2"));
+
+        List<CoalescedCommand> result = PendingCommandCoalescer.coalesce(commands(move, copy));
+
+        assertEquals(2, result.size());
+    }
+
+    @Test
+    public void coalesce_withTooManyUids_shouldNotMerge() {
+        List<String> uids = new ArrayList<>();
+        for (int i = 0; i < PendingCommandCoalescer.MAX_MERGED_UIDS; i++) {
+            uids.add(Integer.toString(i));
+        }
+        PendingCommand first = PendingSetFlag.create(FOLDER, true, Flag.SEEN, uids);
+        PendingCommand second = setFlag(FOLDER, true, Flag.SEEN, "new");
+
+        List<CoalescedCommand> result = PendingCommandCoalescer.coalesce(commands(first, second));
+
+        assertEquals(2, result.size());
+    }
+
+    private static PendingSetFlag setFlag(String folder, boolean newState, Flag flag, String... uids) {
+        return PendingSetFlag.create(folder, newState, flag, asList(uids));
+    }
+
+    private static List<PendingCommand> commands(PendingCommand... commands) {
+        long databaseId = 1;
+        for (PendingCommand command : commands) {
+            command.databaseId = databaseId++;
+        }
+        return asList(commands);
+    }
+
+    private static void assertSetFlag(PendingCommand command, String folder, boolean newState, Flag flag,
+            String... uids) {
+        assertTrue(command instanceof PendingSetFlag);
+        PendingSetFlag setFlag = (PendingSetFlag) command;
+        assertEquals(folder, setFlag.folder);
+        assertEquals(newState, setFlag.newState);
+        assertEquals(flag, setFlag.flag);
+        assertEquals(asList(uids), setFlag.uids);
+    }
+}
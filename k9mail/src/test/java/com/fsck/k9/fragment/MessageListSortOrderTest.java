@@ -0,0 +1,120 @@
+package com.fsck.k9.fragment;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.database.MatrixCursor;
+
+import com.fsck.k9.Account.SortType;
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MessageListSortOrderTest {
+    private static final String[] COLUMNS = { "id", "date", "subject", "attachment_count" };
+
+
+    @Test
+    public void getSortOrder_withDate() {
+        MessageListSortOrder sortOrder = new MessageListSortOrder(SortType.SORT_DATE, false, true);
+
+        assertEquals("date DESC, id DESC", sortOrder.getSortOrder());
+    }
+
+    @Test
+    public void getSortOrder_withSubject_shouldSortByDateSecond() {
+        MessageListSortOrder sortOrder = new MessageListSortOrder(SortType.SORT_SUBJECT, true, false);
+
+        assertEquals("subject COLLATE NOCASE ASC, date DESC, id DESC", sortOrder.getSortOrder());
+    }
+
+    @Test
+    public void getSortOrder_withFlaggedAscending_shouldSortFlaggedMessagesFirst() {
+        MessageListSortOrder sortOrder = new MessageListSortOrder(SortType.SORT_FLAGGED, true, false);
+
+        assertEquals("flagged DESC, date DESC, id DESC", sortOrder.getSortOrder());
+    }
+
+    @Test
+    public void buildPageSelection_withDate() {
+        MessageListSortOrder sortOrder = new MessageListSortOrder(SortType.SORT_DATE, false, true);
+        List<String> selectionArgs = new ArrayList<>();
+
+        String selection = sortOrder.buildPageSelection(createCursor(42L, 1000L, "Subject", 0), selectionArgs);
+
+        assertEquals("date < 1000 OR date IS NULL OR (date = 1000 AND (id < 42))", selection);
+        assertEquals(Collections.<String>emptyList(), selectionArgs);
+    }
+
+    @Test
+    public void buildPageSelection_withSubject_shouldUseSelectionArgs() {
+        MessageListSortOrder sortOrder = new MessageListSortOrder(SortType.SORT_SUBJECT, true, true);
+        List<String> selectionArgs = new ArrayList<>(asList("existing"));
+
+        String selection = sortOrder.buildPageSelection(createCursor(42L, 1000L, "Subject", 0), selectionArgs);
+
+        assertEquals("subject COLLATE NOCASE > ? OR (subject COLLATE NOCASE = ? AND (" +
+                "date > 1000 OR (date = 1000 AND (id < 42))))", selection);
+        assertEquals(asList("existing", "Subject", "Subject"), selectionArgs);
+    }
+
+    @Test
+    public void buildPageSelection_withNullSubjectInAscendingOrder_shouldMatchNonNullSubjects() {
+        MessageListSortOrder sortOrder = new MessageListSortOrder(SortType.SORT_SUBJECT, true, true);
+        List<String> selectionArgs = new ArrayList<>();
+
+        String selection = sortOrder.buildPageSelection(createCursor(42L, 1000L, null, 0), selectionArgs);
+
+        assertEquals("subject COLLATE NOCASE IS NOT NULL OR (subject COLLATE NOCASE IS NULL AND (" +
+                "date > 1000 OR (date = 1000 AND (id < 42))))", selection);
+        assertEquals(Collections.<String>emptyList(), selectionArgs);
+    }
+
+    @Test
+    public void buildPageSelection_withNullSubjectInDescendingOrder_shouldOnlyMatchNullSubjects() {
+        MessageListSortOrder sortOrder = new MessageListSortOrder(SortType.SORT_SUBJECT, false, true);
+        List<String> selectionArgs = new ArrayList<>();
+
+        String selection = sortOrder.buildPageSelection(createCursor(42L, 1000L, null, 0), selectionArgs);
+
+        assertEquals("subject COLLATE NOCASE IS NULL AND (date > 1000 OR (date = 1000 AND (id < 42)))", selection);
+        assertEquals(Collections.<String>emptyList(), selectionArgs);
+    }
+
+    @Test
+    public void buildPageSelection_withNullDate_shouldMatchNullDates() {
+        MessageListSortOrder sortOrder = new MessageListSortOrder(SortType.SORT_DATE, false, true);
+
+        String selection = sortOrder.buildPageSelection(createCursor(42L, null, "Subject", 0),
+                new ArrayList<String>());
+
+        assertEquals("date IS NULL AND (id < 42)", selection);
+    }
+
+    @Test
+    public void buildPageSelection_withAttachments_shouldUseValueOfSortExpression() {
+        MessageListSortOrder sortOrder = new MessageListSortOrder(SortType.SORT_ATTACHMENT, false, false);
+
+        String selection = sortOrder.buildPageSelection(createCursor(42L, 1000L, "Subject", 3),
+                new ArrayList<String>());
+
+        assertEquals("(IFNULL(attachment_count, 0) < 1) < 0 OR ((IFNULL(attachment_count, 0) < 1) = 0 AND (" +
+                "date < 1000 OR date IS NULL OR (date = 1000 AND (id < 42))))", selection);
+    }
+
+    private MatrixCursor createCursor(long id, Long date, String subject, int attachmentCount) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[] { id, date, subject, attachmentCount });
+        cursor.moveToFirst();
+        return cursor;
+    }
+}
@@ -0,0 +1,166 @@
+package com.fsck.k9.helper;
+
+
+import android.content.ContentProvider;
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.helper.ContactCache.CachedContact;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ContactCacheTest {
+    private Context context;
+    private ContentProvider contactsProvider;
+    private ContactCache cache;
+
+
+    @Before
+    public void setUp() throws Exception {
+        context = RuntimeEnvironment.application;
+        contactsProvider = mock(ContentProvider.class);
+        ShadowContentResolver.registerProvider(ContactsContract.AUTHORITY, contactsProvider);
+        cache = new ContactCache(2);
+    }
+
+    @Test
+    public void get_withUnknownAddress_shouldReturnNullAndCountMiss() throws Exception {
+        CachedContact result = cache.get("alice@example.com");
+
+        assertNull(result);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void get_withCachedAddress_shouldReturnContactAndCountHit() throws Exception {
+        CachedContact contact = new CachedContact(23, "Alice");
+        cache.put("alice@example.com", contact);
+
+        CachedContact result = cache.get("alice@example.com");
+
+        assertSame(contact, result);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void get_withAddressCachedAsNoContact_shouldReturnNoContact() throws Exception {
+        cache.put("bob@example.com", ContactCache.NO_CONTACT);
+
+        CachedContact result = cache.get("bob@example.com");
+
+        assertFalse(result.isContact());
+    }
+
+    @Test
+    public void get_withAddressCachedInDifferentCase_shouldReturnContact() throws Exception {
+        CachedContact contact = new CachedContact(23, "Alice");
+        cache.put("Alice@Example.com", contact);
+
+        CachedContact result = cache.get("alice@EXAMPLE.com");
+
+        assertSame(contact, result);
+    }
+
+    @Test
+    public void put_withMoreAddressesThanMaxSize_shouldEvictLeastRecentlyUsed() throws Exception {
+        cache.put("alice@example.com", new CachedContact(1, "Alice"));
+        cache.put("bob@example.com", new CachedContact(2, "Bob"));
+        cache.get("alice@example.com");
+
+        cache.put("carol@example.com", new CachedContact(3, "Carol"));
+
+        assertNull(cache.get("bob@example.com"));
+        assertEquals("Alice", cache.get("alice@example.com").name);
+    }
+
+    @Test
+    public void invalidate_shouldRemoveAllAddresses() throws Exception {
+        cache.put("alice@example.com", new CachedContact(1, "Alice"));
+
+        cache.invalidate();
+
+        assertNull(cache.get("alice@example.com"));
+    }
+
+    @Test
+    public void contactsChanged_shouldRemoveAllAddresses() throws Exception {
+        cache.registerObserver(context);
+        cache.put("alice@example.com", new CachedContact(1, "Alice"));
+
+        context.getContentResolver().notifyChange(ContactsContract.AUTHORITY_URI, null);
+
+        assertNull(cache.get("alice@example.com"));
+    }
+
+    @Test
+    public void preloadContacts_shouldLookUpAllAddressesWithOneQuery() throws Exception {
+        MatrixCursor cursor = createEmailCursor();
+        cursor.addRow(new Object[] { "Alice@Example.com", "Alice", 23L });
+        when(contactsProvider.query(any(Uri.class), any(String[].class), anyString(), any(String[].class),
+                anyString())).thenReturn(cursor);
+        Contacts contacts = new Contacts(context, cache);
+
+        contacts.preloadContacts(asList("alice@example.com", "bob@example.com"));
+
+        verify(contactsProvider, times(1)).query(any(Uri.class), any(String[].class), anyString(),
+                any(String[].class), anyString());
+        CachedContact alice = cache.get("alice@example.com");
+        assertEquals(23, alice.contactId);
+        assertEquals("Alice", alice.name);
+        assertFalse(cache.get("bob@example.com").isContact());
+    }
+
+    @Test
+    public void preloadContacts_withAddressInDifferentCases_shouldLookUpAddressOnce() throws Exception {
+        when(contactsProvider.query(any(Uri.class), any(String[].class), anyString(), any(String[].class),
+                anyString())).thenReturn(createEmailCursor());
+        Contacts contacts = new Contacts(context, cache);
+
+        contacts.preloadContacts(asList("alice@example.com", "Alice@Example.com", "ALICE@EXAMPLE.COM"));
+
+        verify(contactsProvider).query(any(Uri.class), any(String[].class), anyString(),
+                eq(new String[] { "alice@example.com" }), anyString());
+    }
+
+    @Test
+    public void preloadContacts_withCachedAddresses_shouldNotQueryContacts() throws Exception {
+        cache.put("alice@example.com", new CachedContact(23, "Alice"));
+        cache.put("bob@example.com", ContactCache.NO_CONTACT);
+        Contacts contacts = new Contacts(context, cache);
+
+        contacts.preloadContacts(asList("alice@example.com", "bob@example.com"));
+
+        verify(contactsProvider, times(0)).query(any(Uri.class), any(String[].class), anyString(),
+                any(String[].class), anyString());
+    }
+
+    private MatrixCursor createEmailCursor() {
+        return new MatrixCursor(new String[] { Email.ADDRESS, ContactsContract.Contacts.DISPLAY_NAME,
+                Email.CONTACT_ID });
+    }
+}
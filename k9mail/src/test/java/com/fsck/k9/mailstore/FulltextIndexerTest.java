@@ -0,0 +1,172 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.Collections;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.internet.MimeHeader;
+import com.fsck.k9.mail.internet.MimeMessage;
+import com.fsck.k9.mail.internet.MimeMessageHelper;
+import com.fsck.k9.mail.internet.TextBody;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.message.extractors.MessageFulltextCreator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class FulltextIndexerTest {
+    private LocalStore localStore;
+    private LocalFolder folder;
+    private FulltextIndexer fulltextIndexer;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+        folder = localStore.getFolder("Inbox");
+        folder.create(FolderType.HOLDS_MESSAGES);
+        fulltextIndexer = localStore.getFulltextIndexer();
+    }
+
+    @Test
+    public void indexNextBatch_withNewlyStoredMessages_shouldReturnZero() throws Exception {
+        appendMessage("1", "stored with fulltext");
+
+        assertEquals(0, fulltextIndexer.indexNextBatch(10));
+    }
+
+    @Test
+    public void indexNextBatch_withOutdatedMessage_shouldCreateFulltext() throws Exception {
+        long messageId = appendMessage("1", "searchable banana");
+        executeSql("DELETE FROM messages_fulltext");
+        executeSql("UPDATE messages SET fulltext_version = 0");
+
+        int processedCount = fulltextIndexer.indexNextBatch(10);
+
+        assertEquals(1, processedCount);
+        assertTrue(isFoundByFulltextSearch(messageId, "banana"));
+        assertEquals(MessageFulltextCreator.VERSION, getFulltextVersion(messageId));
+        assertEquals(0, fulltextIndexer.indexNextBatch(10));
+    }
+
+    @Test
+    public void indexNextBatch_shouldReplaceOutdatedFulltext() throws Exception {
+        long messageId = appendMessage("1", "current text");
+        executeSql("UPDATE messages_fulltext SET fulltext = 'outdated text'");
+        executeSql("UPDATE messages SET fulltext_version = -1");
+
+        fulltextIndexer.indexNextBatch(10);
+
+        assertTrue(isFoundByFulltextSearch(messageId, "current"));
+        assertFalse(isFoundByFulltextSearch(messageId, "outdated"));
+    }
+
+    @Test
+    public void indexNextBatch_shouldProcessNewestMessagesFirst() throws Exception {
+        long olderMessageId = appendMessage("1", "older message");
+        long newerMessageId = appendMessage("2", "newer message");
+        executeSql("DELETE FROM messages_fulltext");
+        executeSql("UPDATE messages SET fulltext_version = 0");
+
+        fulltextIndexer.indexNextBatch(1);
+
+        assertEquals(0, getFulltextVersion(olderMessageId));
+        assertEquals(MessageFulltextCreator.VERSION, getFulltextVersion(newerMessageId));
+    }
+
+    @Test
+    public void indexNextBatch_withMessageThatCantBeIndexed_shouldNotStartOverWithoutProgress() throws Exception {
+        appendMessage("1", "stored with fulltext");
+        // A second row with the same UID is never returned by LocalFolder.getMessage()
+        executeSql("INSERT INTO messages (folder_id, uid, empty, deleted, fulltext_version) " +
+                "SELECT folder_id, uid, 0, 0, 0 FROM messages");
+
+        assertEquals(1, fulltextIndexer.indexNextBatch(10));
+        assertEquals(0, fulltextIndexer.indexNextBatch(10));
+    }
+
+    @Test
+    public void getProgress_shouldCountIndexedMessages() throws Exception {
+        appendMessage("1", "first message");
+        appendMessage("2", "second message");
+        appendMessage("3", "third message");
+        executeSql("UPDATE messages SET fulltext_version = 0 WHERE uid = '2'");
+
+        FulltextIndexer.Progress progress = fulltextIndexer.getProgress();
+
+        assertEquals(2, progress.indexedCount);
+        assertEquals(3, progress.totalCount);
+    }
+
+    private long appendMessage(String uid, String text) throws Exception {
+        MimeMessage message = new MimeMessage();
+        MimeMessageHelper.setBody(message, new TextBody(text));
+        message.setHeader(MimeHeader.HEADER_CONTENT_TYPE, "text/plain; charset=utf-8");
+        message.setUid(uid);
+
+        folder.appendMessages(Collections.singletonList(message));
+
+        return folder.getMessage(uid).getId();
+    }
+
+    private void executeSql(final String sql) throws Exception {
+        localStore.database.execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                db.execSQL(sql);
+                return null;
+            }
+        });
+    }
+
+    private boolean isFoundByFulltextSearch(final long messageId, final String query) throws Exception {
+        return localStore.database.execute(false, new DbCallback<Boolean>() {
+            @Override
+            public Boolean doDbWork(SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery("SELECT 1 FROM messages_fulltext WHERE docid = ? AND fulltext MATCH ?",
+                        new String[] { Long.toString(messageId), query });
+                try {
+                    return cursor.moveToFirst();
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private int getFulltextVersion(final long messageId) throws Exception {
+        return localStore.database.execute(false, new DbCallback<Integer>() {
+            @Override
+            public Integer doDbWork(SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery("SELECT fulltext_version FROM messages WHERE id = ?",
+                        new String[] { Long.toString(messageId) });
+                try {
+                    cursor.moveToFirst();
+                    return cursor.getInt(0);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+}
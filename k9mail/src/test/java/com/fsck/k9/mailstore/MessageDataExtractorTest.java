@@ -0,0 +1,101 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.message.extractors.AttachmentCounter;
+import com.fsck.k9.message.extractors.MessageFulltextCreator;
+import com.fsck.k9.message.extractors.MessagePreviewCreator;
+import com.fsck.k9.message.extractors.PreviewResult;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class MessageDataExtractorTest {
+    private MessagePreviewCreator previewCreator;
+    private MessageFulltextCreator fulltextCreator;
+    private AttachmentCounter attachmentCounter;
+    private MessageDataExtractor extractor;
+
+
+    @Before
+    public void setUp() throws Exception {
+        previewCreator = mock(MessagePreviewCreator.class);
+        fulltextCreator = mock(MessageFulltextCreator.class);
+        attachmentCounter = mock(AttachmentCounter.class);
+
+        extractor = new MessageDataExtractor(previewCreator, fulltextCreator, attachmentCounter);
+    }
+
+    @Test
+    public void extract_withSingleMessage() throws Exception {
+        Message message = mock(Message.class);
+        PreviewResult previewResult = PreviewResult.text("preview");
+        when(previewCreator.createPreview(message)).thenReturn(previewResult);
+        when(fulltextCreator.createFulltext(message)).thenReturn("fulltext");
+        when(attachmentCounter.getAttachmentCount(message)).thenReturn(2);
+
+        ExtractedMessageData data = extractor.extract(message);
+
+        assertSame(previewResult, data.previewResult);
+        assertEquals("fulltext", data.fulltext);
+        assertEquals(2, data.attachmentCount);
+    }
+
+    @Test
+    public void extract_withMultipleMessages_shouldReturnResultsInOrder() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Message message = mock(Message.class);
+            when(previewCreator.createPreview(message)).thenReturn(PreviewResult.text("preview" + i));
+            when(fulltextCreator.createFulltext(message)).thenReturn("fulltext" + i);
+            when(attachmentCounter.getAttachmentCount(message)).thenReturn(i);
+            messages.add(message);
+        }
+
+        List<ExtractedMessageData> result = extractor.extract(messages);
+
+        assertEquals(messages.size(), result.size());
+        for (int i = 0; i < messages.size(); i++) {
+            ExtractedMessageData data = result.get(i);
+            assertEquals("preview" + i, data.previewResult.getPreviewText());
+            assertEquals("fulltext" + i, data.fulltext);
+            assertEquals(i, data.attachmentCount);
+        }
+    }
+
+    @Test
+    public void extract_withEmptyList_shouldReturnEmptyList() throws Exception {
+        List<ExtractedMessageData> result = extractor.extract(new ArrayList<Message>());
+
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void extract_withFailingMessage_shouldThrowMessagingException() throws Exception {
+        Message goodMessage = mock(Message.class);
+        Message badMessage = mock(Message.class);
+        when(previewCreator.createPreview(goodMessage)).thenReturn(PreviewResult.none());
+        when(previewCreator.createPreview(badMessage)).thenThrow(new IllegalStateException("broken"));
+        List<Message> messages = new ArrayList<>();
+        messages.add(goodMessage);
+        messages.add(badMessage);
+
+        try {
+            extractor.extract(messages);
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.Collections;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.mail.internet.MimeMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MessageThreadIndexTest {
+    private static final long FOLDER_ID = 1;
+    private static final long OTHER_FOLDER_ID = 2;
+
+
+    private SQLiteDatabase db;
+    private MessageThreadIndex threadIndex;
+
+
+    @Before
+    public void setUp() throws Exception {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE messages (id INTEGER PRIMARY KEY, folder_id INTEGER, message_id TEXT, " +
+                "empty INTEGER DEFAULT 0)");
+        db.execSQL("CREATE TABLE threads (id INTEGER PRIMARY KEY, message_id INTEGER, root INTEGER, " +
+                "parent INTEGER)");
+        db.execSQL("CREATE TRIGGER set_thread_root AFTER INSERT ON threads " +
+                "BEGIN UPDATE threads SET root=id WHERE root IS NULL AND ROWID = NEW.ROWID; END");
+
+        threadIndex = new MessageThreadIndex(db, FOLDER_ID);
+    }
+
+    @Test
+    public void getThreadInfo_withPreloadedMessage_shouldReturnThreadEntry() throws Exception {
+        long msgId = insertMessage(FOLDER_ID, "<parent@example.com>", false);
+        long threadId = insertThread(msgId, -1, -1);
+        threadIndex.preload(Collections.singletonList(createReply("<reply@example.com>", "<parent@example.com>")));
+
+        ThreadInfo threadInfo = threadIndex.getThreadInfo("<parent@example.com>", false);
+
+        assertEquals(threadId, threadInfo.threadId);
+        assertEquals(msgId, threadInfo.msgId);
+        assertEquals(threadId, threadInfo.rootId);
+    }
+
+    @Test
+    public void getThreadInfo_withMessageInOtherFolder_shouldReturnNull() throws Exception {
+        insertThread(insertMessage(OTHER_FOLDER_ID, "<parent@example.com>", false), -1, -1);
+
+        assertNull(threadIndex.getThreadInfo("<parent@example.com>", false));
+    }
+
+    @Test
+    public void getThreadInfo_withOnlyEmpty_shouldSkipStoredMessages() throws Exception {
+        insertThread(insertMessage(FOLDER_ID, "<duplicate@example.com>", false), -1, -1);
+        long emptyMsgId = insertMessage(FOLDER_ID, "<duplicate@example.com>", true);
+        insertThread(emptyMsgId, -1, -1);
+
+        ThreadInfo threadInfo = threadIndex.getThreadInfo("<duplicate@example.com>", true);
+
+        assertEquals(emptyMsgId, threadInfo.msgId);
+    }
+
+    @Test
+    public void getThreadInfo_afterAddMessage_shouldReturnNewEntry() throws Exception {
+        assertNull(threadIndex.getThreadInfo("<new@example.com>", false));
+
+        threadIndex.addMessage("<new@example.com>", 10, 20, 5, 6, true);
+
+        ThreadInfo threadInfo = threadIndex.getThreadInfo("<new@example.com>", true);
+        assertEquals(20, threadInfo.threadId);
+        assertEquals(10, threadInfo.msgId);
+        assertEquals(5, threadInfo.rootId);
+        assertEquals(6, threadInfo.parentId);
+    }
+
+    @Test
+    public void getThreadInfo_afterAddMessageWithoutRoot_shouldReturnEntryAsItsOwnRoot() throws Exception {
+        assertNull(threadIndex.getThreadInfo("<new@example.com>", false));
+        long msgId = insertMessage(FOLDER_ID, "<new@example.com>", true);
+        long threadId = insertThread(msgId, -1, -1);
+
+        threadIndex.addMessage("<new@example.com>", msgId, threadId, -1, -1, true);
+
+        ThreadInfo recorded = threadIndex.getThreadInfo("<new@example.com>", true);
+        threadIndex.invalidate("<new@example.com>");
+        ThreadInfo stored = threadIndex.getThreadInfo("<new@example.com>", true);
+        assertEquals(threadId, recorded.rootId);
+        assertEquals(stored.rootId, recorded.rootId);
+    }
+
+    @Test
+    public void getThreadInfo_afterInvalidate_shouldQueryDatabase() throws Exception {
+        assertNull(threadIndex.getThreadInfo("<late@example.com>", false));
+        long msgId = insertMessage(FOLDER_ID, "<late@example.com>", false);
+        insertThread(msgId, -1, -1);
+
+        threadIndex.invalidate("<late@example.com>");
+
+        assertEquals(msgId, threadIndex.getThreadInfo("<late@example.com>", false).msgId);
+    }
+
+    @Test
+    public void reattachThreadRoot_shouldUpdateRootOfAllEntriesInThread() throws Exception {
+        long oldRootThreadId = insertThread(insertMessage(FOLDER_ID, "<old-root@example.com>", false), -1, -1);
+        insertThread(insertMessage(FOLDER_ID, "<child@example.com>", false), oldRootThreadId, oldRootThreadId);
+        threadIndex.getThreadInfo("<old-root@example.com>", false);
+        threadIndex.getThreadInfo("<child@example.com>", false);
+
+        threadIndex.reattachThreadRoot(oldRootThreadId, 100, 101);
+
+        ThreadInfo oldRoot = threadIndex.getThreadInfo("<old-root@example.com>", false);
+        assertEquals(100, oldRoot.rootId);
+        assertEquals(101, oldRoot.parentId);
+        ThreadInfo child = threadIndex.getThreadInfo("<child@example.com>", false);
+        assertEquals(100, child.rootId);
+        assertEquals(oldRootThreadId, child.parentId);
+    }
+
+    @Test
+    public void getReferencedMessageIds_shouldAppendInReplyToIfMissingFromReferences() throws Exception {
+        MimeMessage message = createReply("<reply@example.com>", "<a@example.com> <b@example.com>");
+        message.setHeader("In-Reply-To", "<c@example.com>");
+
+        assertEquals(asList("<a@example.com>", "<b@example.com>", "<c@example.com>"),
+                MessageThreadIndex.getReferencedMessageIds(message));
+    }
+
+    private MimeMessage createReply(String messageId, String references) throws Exception {
+        MimeMessage message = new MimeMessage();
+        message.setMessageId(messageId);
+        message.setHeader("References", references);
+        return message;
+    }
+
+    private long insertMessage(long folderId, String messageId, boolean empty) {
+        ContentValues cv = new ContentValues();
+        cv.put("folder_id", folderId);
+        cv.put("message_id", messageId);
+        cv.put("empty", empty ? 1 : 0);
+        return db.insert("messages", null, cv);
+    }
+
+    private long insertThread(long msgId, long rootId, long parentId) {
+        ContentValues cv = new ContentValues();
+        cv.put("message_id", msgId);
+        if (rootId != -1) {
+            cv.put("root", rootId);
+        }
+        if (parentId != -1) {
+            cv.put("parent", parentId);
+        }
+        return db.insert("threads", null, cv);
+    }
+}
@@ -0,0 +1,127 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.internet.MimeMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MessageViewInfoCacheTest {
+    private static final String ACCOUNT_UUID = "account";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String HTML = "<p>Hello world</p>";
+
+
+    private File directory;
+    private MessageViewInfoCache cache;
+
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(RuntimeEnvironment.application.getCacheDir(), "message_view_test");
+        cache = new MessageViewInfoCache(directory, 100);
+    }
+
+    @Test
+    public void get_withoutEntry_shouldReturnNull() throws Exception {
+        assertNull(cache.get(createMessage(1), FINGERPRINT));
+    }
+
+    @Test
+    public void get_afterPut_shouldReturnHtml() throws Exception {
+        LocalMessage message = createMessage(1);
+        cache.put(message, FINGERPRINT, HTML);
+
+        String result = cache.get(message, FINGERPRINT);
+
+        assertEquals(HTML, result);
+    }
+
+    @Test
+    public void get_withDifferentFingerprint_shouldReturnNull() throws Exception {
+        LocalMessage message = createMessage(1);
+        cache.put(message, FINGERPRINT, HTML);
+
+        String result = cache.get(message, "other");
+
+        assertNull(result);
+    }
+
+    @Test
+    public void get_afterRemove_shouldReturnNull() throws Exception {
+        LocalMessage message = createMessage(1);
+        cache.put(message, FINGERPRINT, HTML);
+
+        cache.remove(message);
+
+        assertNull(cache.get(message, FINGERPRINT));
+    }
+
+    @Test
+    public void get_afterRemoveAccount_shouldReturnNull() throws Exception {
+        LocalMessage message = createMessage(1);
+        cache.put(message, FINGERPRINT, HTML);
+
+        cache.removeAccount(ACCOUNT_UUID);
+
+        assertNull(cache.get(message, FINGERPRINT));
+    }
+
+    @Test
+    public void put_withTotalSizeExceeded_shouldRemoveLeastRecentlyUsedEntry() throws Exception {
+        LocalMessage first = createMessage(1);
+        LocalMessage second = createMessage(2);
+        cache.put(first, FINGERPRINT, HTML);
+        new File(directory, ACCOUNT_UUID + "_1").setLastModified(1000L);
+
+        cache.put(second, FINGERPRINT, HTML);
+        cache.put(createMessage(3), FINGERPRINT, HTML);
+
+        assertNull(cache.get(first, FINGERPRINT));
+        assertEquals(HTML, cache.get(second, FINGERPRINT));
+    }
+
+    @Test
+    public void getFingerprint_withMessageNotInLocalStore_shouldReturnNull() throws Exception {
+        assertNull(MessageViewInfoCache.getFingerprint(new MimeMessage()));
+    }
+
+    @Test
+    public void getFingerprint_afterBodyWasDownloaded_shouldChange() throws Exception {
+        LocalMessage message = createMessage(1);
+        String fingerprintWithoutBody = MessageViewInfoCache.getFingerprint(message);
+
+        when(message.getBody()).thenReturn(mock(Body.class));
+        String fingerprintWithBody = MessageViewInfoCache.getFingerprint(message);
+
+        assertNotEquals(fingerprintWithoutBody, fingerprintWithBody);
+    }
+
+    private LocalMessage createMessage(long id) {
+        Account account = mock(Account.class);
+        when(account.getUuid()).thenReturn(ACCOUNT_UUID);
+
+        LocalMessage message = mock(LocalMessage.class);
+        when(message.getAccount()).thenReturn(account);
+        when(message.getId()).thenReturn(id);
+        when(message.getUid()).thenReturn("uid" + id);
+        when(message.getMimeType()).thenReturn("text/plain");
+        return message;
+    }
+}
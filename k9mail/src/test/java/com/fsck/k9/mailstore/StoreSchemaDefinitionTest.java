@@ -135,6 +135,73 @@ public class StoreSchemaDefinitionTest {
         assertDatabaseIndexesEquals(newDatabase, upgradedDatabase);
     }
 
+    @Test
+    public void folderCounters_shouldCountUnreadAndFlaggedMessages() {
+        SQLiteDatabase database = createNewDatabase();
+        insertMessage(database, 1, false, false);
+        insertMessage(database, 1, false, true);
+        insertMessage(database, 1, true, true);
+        insertMessage(database, 2, false, false);
+
+        assertFolderCounters(database, 1, 2, 2);
+        assertFolderCounters(database, 2, 1, 0);
+    }
+
+    @Test
+    public void folderCounters_afterUpdatingMessages_shouldBeUpToDate() {
+        SQLiteDatabase database = createNewDatabase();
+        long unreadMessageId = insertMessage(database, 1, false, true);
+        long readMessageId = insertMessage(database, 1, true, false);
+        long movedMessageId = insertMessage(database, 1, false, false);
+
+        database.execSQL("UPDATE messages SET read = 1 WHERE id = " + unreadMessageId);
+        database.execSQL("UPDATE messages SET deleted = 1 WHERE id = " + readMessageId);
+        database.execSQL("UPDATE messages SET folder_id = 2, flagged = 1 WHERE id = " + movedMessageId);
+
+        assertFolderCounters(database, 1, 0, 1);
+        assertFolderCounters(database, 2, 1, 1);
+    }
+
+    @Test
+    public void folderCounters_afterDeletingMessages_shouldBeUpToDate() {
+        SQLiteDatabase database = createNewDatabase();
+        long messageId = insertMessage(database, 1, false, true);
+        insertMessage(database, 1, false, false);
+
+        database.execSQL("DELETE FROM messages WHERE id = " + messageId);
+
+        assertFolderCounters(database, 1, 1, 0);
+    }
+
+    @Test
+    public void threadSummary_shouldAggregateMessagesOfThread() {
+        SQLiteDatabase database = createNewDatabase();
+        long rootMessageId = insertMessage(database, 1, true, false);
+        long replyMessageId = insertMessage(database, 1, false, true);
+        database.execSQL("UPDATE messages SET date = 1000 WHERE id = " + rootMessageId);
+        database.execSQL("UPDATE messages SET date = 2000 WHERE id = " + replyMessageId);
+        long rootThreadId = insertThread(database, rootMessageId, null);
+        insertThread(database, replyMessageId, rootThreadId);
+
+        assertThreadSummary(database, rootThreadId, replyMessageId, 2000, 2, 1, 1);
+    }
+
+    @Test
+    public void threadSummary_afterChangingAndDeletingMessages_shouldBeUpToDate() {
+        SQLiteDatabase database = createNewDatabase();
+        long rootMessageId = insertMessage(database, 1, false, false);
+        long replyMessageId = insertMessage(database, 1, false, false);
+        database.execSQL("UPDATE messages SET date = 1000 WHERE id = " + rootMessageId);
+        database.execSQL("UPDATE messages SET date = 2000 WHERE id = " + replyMessageId);
+        long rootThreadId = insertThread(database, rootMessageId, null);
+        insertThread(database, replyMessageId, rootThreadId);
+
+        database.execSQL("UPDATE messages SET read = 1, flagged = 1 WHERE id = " + rootMessageId);
+        database.execSQL("UPDATE messages SET deleted = 1 WHERE id = " + replyMessageId);
+
+        assertThreadSummary(database, rootThreadId, rootMessageId, 1000, 1, 0, 1);
+    }
+
 
     private SQLiteDatabase createV29Database() {
         SQLiteDatabase database = SQLiteDatabase.create(null);
@@ -330,6 +397,55 @@ public class StoreSchemaDefinitionTest {
         assertNotEquals(-1, rowId);
     }
 
+    private long insertMessage(SQLiteDatabase database, long folderId, boolean read, boolean flagged) {
+        ContentValues data = new ContentValues();
+        data.put("folder_id", folderId);
+        data.put("read", read ? 1 : 0);
+        data.put("flagged", flagged ? 1 : 0);
+        long rowId = database.insert("messages", null, data);
+        assertNotEquals(-1, rowId);
+        return rowId;
+    }
+
+    private void assertFolderCounters(SQLiteDatabase database, long folderId, int expectedUnreadCount,
+            int expectedFlaggedCount) {
+        Cursor cursor = database.rawQuery("SELECT unread_count, flagged_count FROM folder_counters " +
+                "WHERE folder_id = ?", new String[] { Long.toString(folderId) });
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(expectedUnreadCount, cursor.getInt(0));
+            assertEquals(expectedFlaggedCount, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long insertThread(SQLiteDatabase database, long messageId, Long rootThreadId) {
+        ContentValues data = new ContentValues();
+        data.put("message_id", messageId);
+        data.put("root", rootThreadId);
+        data.put("parent", rootThreadId);
+        long rowId = database.insert("threads", null, data);
+        assertNotEquals(-1, rowId);
+        return rowId;
+    }
+
+    private void assertThreadSummary(SQLiteDatabase database, long root, long expectedNewestMessageId,
+            long expectedDate, int expectedThreadCount, int expectedUnreadCount, int expectedFlaggedCount) {
+        Cursor cursor = database.rawQuery("SELECT newest_message_id, date, thread_count, unread_count, " +
+                "flagged_count FROM thread_summary WHERE root = ?", new String[] { Long.toString(root) });
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(expectedNewestMessageId, cursor.getLong(0));
+            assertEquals(expectedDate, cursor.getLong(1));
+            assertEquals(expectedThreadCount, cursor.getInt(2));
+            assertEquals(expectedUnreadCount, cursor.getInt(3));
+            assertEquals(expectedFlaggedCount, cursor.getInt(4));
+        } finally {
+            cursor.close();
+        }
+    }
+
     private StoreSchemaDefinition createStoreSchemaDefinition() throws MessagingException {
         Context context = createContext();
         Account account = createAccount();